@@ -0,0 +1,61 @@
+package edu.purdue.jpgsql.benchmark;
+
+import edu.purdue.jpgsql.PgProtocolException;
+import edu.purdue.jpgsql.utils.Conversions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link Conversions#bind(java.lang.String, java.util.List) }, which
+ * inlines the parameters of every Bind message: an INSERT of
+ * {@link #parameters} values, half numbers and half strings with a quote to
+ * escape.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BindBenchmark {
+
+    /**
+     * The number of place-holders of the statement.
+     */
+    @Param({"1", "10", "100", "500"})
+    public int parameters;
+
+    private String _statement;
+    private List<String> _values;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        StringBuilder statement = new StringBuilder("insert into t values (");
+        _values = new ArrayList<>(parameters);
+        for (int n = 1; n <= parameters; n++) {
+            statement.append(n == 1 ? "" : ", ").append('$').append(n);
+            _values.add(n % 2 == 0 ? Integer.toString(n * 1000) : "it's value " + n);
+        }
+        _statement = statement.append(')').toString();
+    }
+
+    @Benchmark
+    public String bind() throws PgProtocolException {
+        return Conversions.bind(_statement, _values);
+    }
+}
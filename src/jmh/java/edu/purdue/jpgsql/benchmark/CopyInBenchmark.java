@@ -0,0 +1,93 @@
+package edu.purdue.jpgsql.benchmark;
+
+import edu.purdue.jpgsql.DataProvider;
+import edu.purdue.jpgsql.PgProtocolException;
+import edu.purdue.jpgsql.copy.CopyCommand;
+import edu.purdue.jpgsql.copy.CopyInLoader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a COPY FROM STDIN in CSV format of {@link #megabytes} MB, received
+ * in CopyData messages of 64 KB, parsed by {@link #parallelism} threads. A
+ * parallelism of 1 parses on the calling thread; the others use the pool
+ * shared by the copies. The rows are discarded by the sink.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CopyInBenchmark {
+
+    private static final int MESSAGE_SIZE = 64 * 1024;
+
+    /**
+     * The number of threads parsing the data.
+     */
+    @Param({"1", "2", "4"})
+    public int parallelism;
+
+    /**
+     * The size of the data.
+     */
+    @Param({"16"})
+    public int megabytes;
+
+    private CopyCommand _copy;
+    private List<byte[]> _messages;
+    private DataProvider.BulkLoadSink _sink;
+
+    @Setup(Level.Trial)
+    public void setUp() throws PgProtocolException {
+        _copy = CopyCommand.parse("COPY t (id, name, note) FROM STDIN CSV");
+        StringBuilder data = new StringBuilder();
+        for (int n = 0; data.length() < megabytes * 1024 * 1024; n++) {
+            data.append(n).append(",name ").append(n).append(",\"a \"\"quoted\"\", note\"\n");
+        }
+        byte[] bytes = data.toString().getBytes(StandardCharsets.UTF_8);
+        _messages = new ArrayList<>();
+        for (int n = 0; n < bytes.length; n += MESSAGE_SIZE) {
+            byte[] message = new byte[Math.min(MESSAGE_SIZE, bytes.length - n)];
+            System.arraycopy(bytes, n, message, 0, message.length);
+            _messages.add(message);
+        }
+        _sink = new DataProvider.BulkLoadSink() {
+            @Override
+            public int getParallelism() {
+                return parallelism;
+            }
+
+            @Override
+            public String addRows(List<List<String>> rows) {
+                return null;
+            }
+        };
+    }
+
+    @Benchmark
+    public long copyIn() throws PgProtocolException {
+        CopyInLoader loader = CopyInLoader.create(_copy.getOptions(), _copy.getColumns(), null, _sink);
+        for (byte[] message : _messages) {
+            loader.data(message);
+        }
+        return loader.done();
+    }
+}
@@ -0,0 +1,206 @@
+package edu.purdue.jpgsql.benchmark;
+
+import edu.purdue.jpgsql.DataProvider;
+import edu.purdue.jpgsql.PgProtocolException;
+import edu.purdue.jpgsql.SimpleConnection;
+import edu.purdue.jpgsql.io.PgWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the whole dispatch loop of {@link SimpleConnection#run() }: a
+ * session reads {@link #REPEATS} times the same group of messages from an
+ * in-memory stream and writes the responses to a {@link NullSocket}. The
+ * groups are:
+ * <ul>
+ * <li>sync: a Sync;</li>
+ * <li>query: a Query returning one row;</li>
+ * <li>parse: a Parse of the unnamed statement and a Sync;</li>
+ * <li>bindExecute: Bind, Describe portal, Execute and Sync of a prepared
+ * statement with one parameter, like a JDBC PreparedStatement.</li>
+ * </ul>
+ * The results are per group, so <code>-prof gc</code> gives the bytes
+ * allocated by each.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+
+    /**
+     * The number of groups of messages of every session.
+     */
+    public static final int REPEATS = 1000;
+
+    private static final String QUERY = "select a from t where b = $1";
+
+    /**
+     * The group of messages repeated.
+     */
+    @Param({"sync", "query", "parse", "bindExecute"})
+    public String message;
+
+    private byte[] _input;
+    private final DataProvider _provider = new OneRowProvider();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        ByteArrayOutputStream in = new ByteArrayOutputStream();
+        try (PgWriter w = new PgWriter(in, '\0')) {
+            w.addInt32(196608);
+            w.addString("user");
+            w.addString("fred");
+            w.addString("database");
+            w.addString("test");
+            w.addInt8((byte) 0);
+        }
+        if ("bindExecute".equals(message)) {
+            parse(in, "s1");
+            sync(in);
+        }
+        for (int n = 0; n < REPEATS; n++) {
+            switch (message) {
+                case "sync":
+                    sync(in);
+                    break;
+                case "query":
+                    try (PgWriter w = new PgWriter(in, 'Q')) {
+                        w.addString("select a from t where b = 1");
+                    }
+                    break;
+                case "parse":
+                    parse(in, "");
+                    sync(in);
+                    break;
+                case "bindExecute":
+                    bindExecute(in, "s1", Integer.toString(n));
+                    sync(in);
+                    break;
+                default:
+                    throw new IllegalArgumentException(message);
+            }
+        }
+        new PgWriter(in, 'X').close();
+        _input = in.toByteArray();
+    }
+
+    private static void sync(ByteArrayOutputStream in) throws IOException {
+        new PgWriter(in, 'S').close();
+    }
+
+    private static void parse(ByteArrayOutputStream in, String statement) throws IOException {
+        try (PgWriter w = new PgWriter(in, 'P')) {
+            w.addString(statement);
+            w.addString(QUERY);
+            w.addInt16((short) 1);
+            w.addInt32(23);
+        }
+    }
+
+    private static void bindExecute(ByteArrayOutputStream in, String statement, String parameter) throws IOException {
+        byte[] value = parameter.getBytes("UTF-8");
+        try (PgWriter w = new PgWriter(in, 'B')) {
+            w.addString("");
+            w.addString(statement);
+            w.addInt16((short) 1);
+            w.addInt16((short) 0);
+            w.addInt16((short) 1);
+            w.addInt32(value.length);
+            for (byte b : value) {
+                w.addInt8(b);
+            }
+            w.addInt16((short) 0);
+        }
+        try (PgWriter w = new PgWriter(in, 'D')) {
+            w.addByte('P');
+            w.addString("");
+        }
+        try (PgWriter w = new PgWriter(in, 'E')) {
+            w.addString("");
+            w.addInt32(0);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(REPEATS)
+    public boolean dispatch() throws PgProtocolException, IOException {
+        return new SimpleConnection(new NullSocket(_input), _provider).run();
+    }
+
+    /**
+     * Answers every query with the same row.
+     */
+    private static final class OneRowProvider implements DataProvider {
+
+        private static final List<String> HEADER = Collections.singletonList("a");
+        private static final List<String> ROW = Collections.singletonList("1");
+
+        @Override
+        public boolean setUser(String user) {
+            return true;
+        }
+
+        @Override
+        public boolean setDatabase(String database) {
+            return true;
+        }
+
+        @Override
+        public boolean setPassword(String password) {
+            return true;
+        }
+
+        @Override
+        public QueryResult getResult(String query) {
+            return new QueryResult() {
+                @Override
+                public Type getType() {
+                    return Type.SELECT;
+                }
+
+                @Override
+                public int getRowCount() {
+                    return 1;
+                }
+
+                @Override
+                public String getErrorMessage() {
+                    return null;
+                }
+
+                @Override
+                public Iterator<List<String>> getRows() {
+                    return Arrays.asList(ROW).iterator();
+                }
+
+                @Override
+                public List<String> getHeader() {
+                    return HEADER;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package edu.purdue.jpgsql.benchmark;
+
+import edu.purdue.jpgsql.PgProtocolException;
+import edu.purdue.jpgsql.io.PgWriter;
+import edu.purdue.jpgsql.type.ColumnDescriptionMsg;
+import edu.purdue.jpgsql.type.DataCellMsg;
+import edu.purdue.jpgsql.utils.Conversions;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the encoding of the results: the conversion of the values to
+ * bytes, the creation of the cells, the building of a message with
+ * {@link PgWriter} and the RowDescription and DataRow messages of
+ * {@link edu.purdue.jpgsql.BaseConnection}. Every operation encodes a row of
+ * {@link #columns} values of {@link #length} characters, ASCII or multibyte
+ * UTF-8. Run with <code>-prof gc</code> (the default of the jmh profile) to
+ * see the bytes allocated per row.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncodingBenchmark {
+
+    private static final String ASCII = "abcdefghijklmnopqrstuvwxyz0123456789";
+    private static final String MULTIBYTE = "àéîõüß語文字€";
+
+    /**
+     * The number of columns of the row.
+     */
+    @Param({"1", "16", "64"})
+    public int columns;
+
+    /**
+     * The number of characters of every value.
+     */
+    @Param({"8", "256"})
+    public int length;
+
+    /**
+     * The characters of the values: ascii or multibyte.
+     */
+    @Param({"ascii", "multibyte"})
+    public String text;
+
+    private final OutputStream _discard = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+    private List<String> _values;
+    private List<DataCellMsg> _cells;
+    private List<ColumnDescriptionMsg> _header;
+    private EncodingConnection _conn;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        String chars = "ascii".equals(text) ? ASCII : MULTIBYTE;
+        _values = new ArrayList<>(columns);
+        _cells = new ArrayList<>(columns);
+        _header = new ArrayList<>(columns);
+        for (int c = 0; c < columns; c++) {
+            StringBuilder value = new StringBuilder(length);
+            for (int n = 0; n < length; n++) {
+                value.append(chars.charAt((c + n) % chars.length()));
+            }
+            _values.add(value.toString());
+            _cells.add(new DataCellMsg(value.toString()));
+            _header.add(new ColumnDescriptionMsg(value.toString()));
+        }
+        _conn = new EncodingConnection();
+    }
+
+    @Benchmark
+    public void conversionsGetBytes(Blackhole bh) {
+        for (String value : _values) {
+            bh.consume(Conversions.getBytes(value));
+        }
+    }
+
+    @Benchmark
+    public void dataCellMsg(Blackhole bh) {
+        for (String value : _values) {
+            bh.consume(new DataCellMsg(value));
+        }
+    }
+
+    @Benchmark
+    public void pgWriterStrings() throws IOException {
+        try (PgWriter writer = new PgWriter(_discard, 'T')) {
+            writer.addInt16((short) columns);
+            for (String value : _values) {
+                writer.addString(value);
+                writer.addInt32(0);
+            }
+        }
+    }
+
+    @Benchmark
+    public void rowDescription() throws PgProtocolException, IOException {
+        _conn.rowDescription(_header);
+    }
+
+    @Benchmark
+    public void dataRow() throws PgProtocolException, IOException {
+        _conn.dataRow(_cells);
+    }
+
+    /**
+     * Encodes a row building the cells from the strings of the provider, as
+     * {@link edu.purdue.jpgsql.SimpleConnection} did before DataRowText.
+     */
+    @Benchmark
+    public void dataRowFromStrings() throws PgProtocolException, IOException {
+        List<DataCellMsg> row = new ArrayList<>(columns);
+        for (String value : _values) {
+            row.add(value == null ? new DataCellMsg() : new DataCellMsg(value));
+        }
+        _conn.dataRow(row);
+    }
+
+    /**
+     * Encodes a row as {@link edu.purdue.jpgsql.SimpleConnection} does: the
+     * strings of the provider are encoded straight into the message.
+     */
+    @Benchmark
+    public void dataRowText() throws PgProtocolException, IOException {
+        _conn.dataRowText(_values);
+    }
+}
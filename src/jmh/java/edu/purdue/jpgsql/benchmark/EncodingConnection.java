@@ -0,0 +1,34 @@
+package edu.purdue.jpgsql.benchmark;
+
+import edu.purdue.jpgsql.PgProtocolException;
+import edu.purdue.jpgsql.testUtil.DummyConnection;
+import edu.purdue.jpgsql.type.ColumnDescriptionMsg;
+import edu.purdue.jpgsql.type.DataCellMsg;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Exposes the encoding of the messages of {@link DummyConnection} to the
+ * benchmarks. The messages are written to a {@link NullSocket}.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+class EncodingConnection extends DummyConnection {
+
+    EncodingConnection() throws IOException {
+        super(new NullSocket());
+    }
+
+    void rowDescription(Collection<ColumnDescriptionMsg> header) throws PgProtocolException, IOException {
+        RowDescription(header);
+    }
+
+    void dataRow(Collection<DataCellMsg> row) throws PgProtocolException, IOException {
+        DataRow(row);
+    }
+
+    void dataRowText(List<String> values) throws PgProtocolException, IOException {
+        DataRowText(values);
+    }
+}
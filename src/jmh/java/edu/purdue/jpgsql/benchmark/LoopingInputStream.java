@@ -0,0 +1,52 @@
+package edu.purdue.jpgsql.benchmark;
+
+import java.io.InputStream;
+
+/**
+ * Is an endless stream repeating the same data, so a reader can be
+ * benchmarked without allocating a new stream at every operation.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+class LoopingInputStream extends InputStream {
+
+    private final byte[] _data;
+    private int _pos;
+
+    /**
+     * Creates a LoopingInputStream.
+     *
+     * @param data the data to repeat, not empty.
+     */
+    LoopingInputStream(byte[] data) {
+        if (data.length == 0) {
+            throw new IllegalArgumentException("empty data");
+        }
+        _data = data;
+    }
+
+    @Override
+    public int read() {
+        int b = _data[_pos++] & 0xFF;
+        if (_pos == _data.length) {
+            _pos = 0;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        int n = Math.min(len, _data.length - _pos);
+        System.arraycopy(_data, _pos, b, off, n);
+        _pos += n;
+        if (_pos == _data.length) {
+            _pos = 0;
+        }
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return _data.length - _pos;
+    }
+}
@@ -0,0 +1,69 @@
+package edu.purdue.jpgsql.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+
+/**
+ * Is a socket without client: the input is empty and the output is
+ * discarded, so the benchmarks measure only the encoding.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+class NullSocket extends Socket {
+
+    private final InputStream _in;
+    private final OutputStream _out = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    /**
+     * Creates a socket with an empty input.
+     */
+    NullSocket() {
+        this(new byte[0]);
+    }
+
+    /**
+     * Creates a socket whose input is the given data.
+     *
+     * @param input the data sent by the client.
+     */
+    NullSocket(byte[] input) {
+        _in = new ByteArrayInputStream(input);
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return _in;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return _out;
+    }
+
+    @Override
+    public SocketAddress getRemoteSocketAddress() {
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+    }
+
+    @Override
+    public boolean isConnected() {
+        return true;
+    }
+
+    @Override
+    public synchronized void close() {
+    }
+}
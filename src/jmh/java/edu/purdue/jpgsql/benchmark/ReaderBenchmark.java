@@ -0,0 +1,109 @@
+package edu.purdue.jpgsql.benchmark;
+
+import edu.purdue.jpgsql.PgProtocolException;
+import edu.purdue.jpgsql.io.PgReader;
+import edu.purdue.jpgsql.io.PgWriter;
+import edu.purdue.jpgsql.io.RawReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the decoding primitives of the read side: the integers, the
+ * strings and the list of the StartupMessage parameters of
+ * {@link RawReader}, and the framing of a message by {@link PgReader}. The
+ * readers consume an endless stream repeating the same data.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReaderBenchmark {
+
+    /**
+     * The number of characters of the strings read.
+     */
+    @Param({"8", "256"})
+    public int length;
+
+    private RawReader _ints;
+    private RawReader _strings;
+    private RawReader _parameters;
+    private int _parametersLength;
+    private PgReader _messages;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        StringBuilder value = new StringBuilder(length);
+        for (int n = 0; n < length; n++) {
+            value.append((char) ('a' + n % 26));
+        }
+
+        _ints = new RawReader(new LoopingInputStream(new byte[]{0, 1, 2, 3}));
+
+        ByteArrayOutputStream string = new ByteArrayOutputStream();
+        string.write(value.toString().getBytes("UTF-8"));
+        string.write(0);
+        _strings = new RawReader(new LoopingInputStream(string.toByteArray()));
+
+        ByteArrayOutputStream parameters = new ByteArrayOutputStream();
+        for (String str : new String[]{"user", "fred", "database", "test", "client_encoding", "UTF8",
+            "DateStyle", "ISO", "application_name", value.toString()}) {
+            parameters.write(str.getBytes("UTF-8"));
+            parameters.write(0);
+        }
+        parameters.write(0);
+        _parametersLength = parameters.size();
+        _parameters = new RawReader(new LoopingInputStream(parameters.toByteArray()));
+
+        ByteArrayOutputStream query = new ByteArrayOutputStream();
+        try (PgWriter writer = new PgWriter(query, 'Q')) {
+            writer.addString(value.toString());
+        }
+        _messages = new PgReader(new RawReader(new LoopingInputStream(query.toByteArray())));
+    }
+
+    @Benchmark
+    public int rawReadInt32() throws IOException {
+        return _ints.readInt32();
+    }
+
+    @Benchmark
+    public RawReader.CString rawReadString() throws IOException {
+        return _strings.readString();
+    }
+
+    @Benchmark
+    public List<String> rawReadStringList() throws IOException {
+        return _parameters.readStringList(_parametersLength);
+    }
+
+    /**
+     * Reads a Query message as the dispatch loop does: the header, the
+     * content and the check of the length.
+     */
+    @Benchmark
+    public String pgReaderFraming() throws PgProtocolException, IOException {
+        _messages.readCommand();
+        String query = _messages.readString();
+        _messages.check();
+        return query;
+    }
+}
@@ -0,0 +1,9 @@
+/**
+ * Contains the JMH benchmarks of the hot paths of the protocol: the encoding
+ * of the results, the decoding of the messages, the dispatch loop, the
+ * binding of the parameters and the parsing of COPY FROM STDIN. They are built
+ * only with the jmh Maven profile and run with
+ * <code>mvn -P jmh test-compile exec:exec</code>; by default the gc profiler is
+ * enabled, so the results include the allocation rate.
+ */
+package edu.purdue.jpgsql.benchmark;
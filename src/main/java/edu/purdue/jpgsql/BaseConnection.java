@@ -4,18 +4,36 @@ import edu.purdue.jpgsql.type.DataCellMsg;
 import edu.purdue.jpgsql.type.ColumnDescriptionMsg;
 import edu.purdue.jpgsql.type.NoticeResponseMsg;
 import edu.purdue.jpgsql.type.ErrorResponseMsg;
+import edu.purdue.jpgsql.io.BufferPool;
 import edu.purdue.jpgsql.io.PgReader;
 import edu.purdue.jpgsql.io.PgWriter;
+import edu.purdue.jpgsql.io.PooledInputStream;
+import edu.purdue.jpgsql.io.PooledOutputStream;
 import edu.purdue.jpgsql.io.RawReader;
+import edu.purdue.jpgsql.io.RecordingOutputStream;
+import edu.purdue.jpgsql.jfr.FlushEvent;
+import edu.purdue.jpgsql.jfr.MessageEvent;
+import edu.purdue.jpgsql.jfr.ProtocolEvents;
+import edu.purdue.jpgsql.jfr.SessionEndEvent;
+import edu.purdue.jpgsql.jfr.SessionStartEvent;
+import edu.purdue.jpgsql.metrics.Metrics;
+import edu.purdue.jpgsql.replay.CaptureInputStream;
+import edu.purdue.jpgsql.replay.CaptureWriter;
+import edu.purdue.jpgsql.utils.TimerWheel;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.io.InputStream;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -34,28 +52,290 @@ import java.util.logging.Logger;
 public abstract class BaseConnection {
 
     private static final Logger LOGGER = Logger.getLogger(BaseConnection.class.getName());
+    /**
+     * The time given to an idle session to send the FATAL error before its
+     * socket is closed.
+     */
+    private static final long IDLE_CLOSE_GRACE = 5000;
     boolean authenticated = false;
     private final Socket _socket;
-    private final RawReader _rawReader;
+    private BufferPool _pool;
+    private PooledInputStream _in;
+    private PooledOutputStream _socketOut;
+    private RawReader _rawReader;
+    private RecordingOutputStream _out;
+    private final Object _idleLock = new Object();
+    private TimerWheel _idleTimer;
+    private long _idleSessionTimeout;
+    private long _idleInTransactionTimeout;
+    private TimerWheel.Timeout _idleTimeout;
+    private long _idleEpoch;
+    private List<ErrorResponseMsg> _terminated;
+    private int _idleReleaseDelay;
+    private Metrics _metrics = Metrics.NONE;
+    private boolean _timed;
+    private boolean _timingRequired;
+    private long _providerNanos;
+    private long _bytesTransferred;
+    private long _flushedBytes;
+    private long _messagesReceived;
+    private final SessionActivity _activity;
+    private CaptureWriter _capture;
 
     public BaseConnection(Socket socket) throws IOException {
         if (socket == null) {
             throw new NullPointerException("socket");
         }
         _socket = socket;
-        _rawReader = new RawReader(_socket.getInputStream());
+        _activity = new SessionActivity(socket.getRemoteSocketAddress());
+        initStreams(BufferPool.getDefault());
+    }
+
+    /**
+     * Sets the pool of the buffers used to read and write the messages. The
+     * buffers are borrowed only while a message is read or written, and the
+     * messages sent are packed in a single network write until the connection
+     * waits for the client. By default the shared
+     * {@link BufferPool#getDefault() } is used. This method must be called
+     * before {@link #run() }.
+     *
+     * @param pool the buffer pool.
+     * @throws IOException if an I/O error occurs.
+     */
+    public void setBufferPool(BufferPool pool) throws IOException {
+        if (pool == null) {
+            throw new NullPointerException("pool");
+        }
+        initStreams(pool);
+    }
+
+    /**
+     * Records the data sent by the client in a capture, which can be replayed
+     * with {@link edu.purdue.jpgsql.replay.Replayer}. The capture is closed
+     * when the connection ends. This method must be called before
+     * {@link #run() }.
+     *
+     * @param capture the capture.
+     * @throws IOException if an I/O error occurs.
+     */
+    public void setCapture(CaptureWriter capture) throws IOException {
+        if (capture == null) {
+            throw new NullPointerException("capture");
+        }
+        _capture = capture;
+        initStreams(_pool);
+    }
+
+    private void initStreams(BufferPool pool) throws IOException {
+        _pool = pool;
+        InputStream in = _socket.getInputStream();
+        if (_capture != null) {
+            in = new CaptureInputStream(in, _capture);
+        }
+        _in = new PooledInputStream(in, pool);
+        _socketOut = new PooledOutputStream(_socket.getOutputStream(), pool);
+        _rawReader = new RawReader(_in);
+        _out = new RecordingOutputStream(_socketOut);
+    }
+
+    /**
+     * Sets the metrics receiving the events of this connection: the messages
+     * received and sent and the latency of the operations. Unless the metrics
+     * are {@link Metrics#NONE} (the default), the connection reads the clock
+     * around every message and every call of the provider. This method must
+     * be called before {@link #run() }.
+     *
+     * @param metrics the metrics.
+     */
+    public void setMetrics(Metrics metrics) {
+        if (metrics == null) {
+            throw new NullPointerException("metrics");
+        }
+        _metrics = metrics;
+        _timed = metrics != Metrics.NONE || _timingRequired;
+    }
+
+    /**
+     * Makes the connection read the clock around every message and every call
+     * of the provider even without metrics, for a subclass which needs
+     * {@link #getProviderNanos() } or
+     * {@link #messageCompleted(char, long, long) }. This method must be
+     * called before {@link #run() }.
+     */
+    protected final void requireTiming() {
+        _timingRequired = true;
+        _timed = true;
+    }
+
+    /**
+     * Returns the metrics of this connection.
+     *
+     * @return the metrics, {@link Metrics#NONE} if not measured.
+     */
+    protected Metrics getMetrics() {
+        return _metrics;
+    }
+
+    /**
+     * Returns the activity of this connection: the user, the state of the
+     * session and the query being executed. The state is tracked by this
+     * class, subclasses report the queries of the extended protocol with
+     * {@link SessionActivity#queryStarted(java.lang.String) }; the queries of
+     * the Query messages are reported automatically.
+     *
+     * @return the activity, which can be read by any thread.
+     */
+    public SessionActivity getActivity() {
+        return _activity;
+    }
+
+    /**
+     * Marks the beginning of a call of the provider, to split the latency of
+     * an operation between the provider and the connection. Use as
+     * <code>long start = providerCallStarted(); ...;
+     * providerCallEnded(start);</code>.
+     *
+     * @return the current time or 0 if the connection is not measured.
+     */
+    protected final long providerCallStarted() {
+        return _timed ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Marks the end of a call of the provider.
+     *
+     * @param start the value returned by {@link #providerCallStarted() }.
+     */
+    protected final void providerCallEnded(long start) {
+        if (start != 0) {
+            _providerNanos += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Returns the time spent in the provider while handling the current
+     * message, as measured by {@link #providerCallStarted() } and
+     * {@link #providerCallEnded(long) }.
+     *
+     * @return the time in nanoseconds, 0 if the connection is not timed.
+     */
+    protected final long getProviderNanos() {
+        return _providerNanos;
+    }
+
+    /**
+     * Returns the number of bytes sent to the client since the connection
+     * started, including the ones not flushed yet.
+     *
+     * @return the number of bytes.
+     */
+    protected final long getBytesSent() {
+        return _socketOut.getBytesWritten() + _bytesTransferred;
+    }
+
+    /**
+     * Sends the messages buffered so far, ignoring the errors. Used before
+     * closing the connection.
+     */
+    private void flushQuietly() {
+        try {
+            _out.flush();
+        } catch (IOException ex) {
+            LOGGER.log(Level.FINE, "Cannot flush the output", ex);
+        }
     }
 
     private void simpleCommand(char command) throws PgProtocolException, IOException {
         try {
-            new PgWriter(_socket.getOutputStream(), command).flush();
+            new PgWriter(_out, command, _pool, _metrics).flush();
         } catch (IOException ex) {
             throw new PgProtocolException(ex);
         }
     }
 
     private PgWriter getWriter(char command) throws IOException {
-        return new PgWriter(_socket.getOutputStream(), command);
+        return new PgWriter(_out, command, _pool, _metrics);
+    }
+
+    /**
+     * Starts recording the messages sent to the client. The messages are still
+     * sent as usual, but a copy of their wire format is kept until
+     * {@link #stopRecording() } is called.
+     *
+     * @param limit the maximum number of bytes to record. If the messages sent
+     * exceed this limit the recording is dropped.
+     */
+    protected void startRecording(int limit) {
+        _out.startRecording(limit);
+    }
+
+    /**
+     * Stops recording the messages sent to the client.
+     *
+     * @return the wire format of all the messages sent since
+     * {@link #startRecording(int) } or null if the limit was exceeded.
+     */
+    protected byte[] stopRecording() {
+        return _out.stopRecording();
+    }
+
+    /**
+     * Sends already encoded messages to the client. The data is written as it
+     * is, therefore it must contain complete messages in the wire format, like
+     * the ones returned by {@link #stopRecording() }.
+     *
+     * @param messages the encoded messages.
+     * @throws IOException if an I/O error occurs.
+     */
+    protected void sendRaw(byte[] messages) throws IOException {
+        _out.write(messages, 0, messages.length);
+        _metrics.rawDataSent(messages.length);
+    }
+
+    /**
+     * Sends already encoded messages stored in a file. The data is transferred
+     * using {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)
+     * }, which avoids copying it in the heap when the socket has an associated
+     * channel (see {@link #isZeroCopy() }).
+     *
+     * @param messages the channel containing the encoded messages.
+     * @param position the position of the first byte to send.
+     * @param count the number of bytes to send.
+     * @throws IOException if an I/O error occurs.
+     */
+    protected void sendRaw(FileChannel messages, long position, long count) throws IOException {
+        transfer(messages, position, count);
+        _metrics.rawDataSent(count);
+    }
+
+    /**
+     * Returns true if the files are sent without copying them in the heap,
+     * i.e. the socket has an associated channel. Only the sockets accepted by
+     * a {@link java.nio.channels.ServerSocketChannel} have one; the data sent
+     * to the other sockets is copied through a buffer.
+     *
+     * @return true if the socket has a channel.
+     */
+    public boolean isZeroCopy() {
+        return _socket.getChannel() != null;
+    }
+
+    private void transfer(FileChannel messages, long position, long count) throws IOException {
+        WritableByteChannel target = _socket.getChannel();
+        if (target == null) {
+            target = Channels.newChannel(_out);
+        } else {
+            _out.flush();
+            _bytesTransferred += count; // does not go through the streams
+        }
+        while (count > 0) {
+            long sent = messages.transferTo(position, count, target);
+            if (sent <= 0) {
+                throw new IOException("unexpected end of file");
+            }
+            position += sent;
+            count -= sent;
+        }
     }
 
     /**
@@ -89,9 +369,8 @@ public abstract class BaseConnection {
             int version = _rawReader.readInt32();
             if (req == 8 && version == 80877103) {
                 LOGGER.log(Level.WARNING, "refusing ssl request");
-                OutputStream os = _socket.getOutputStream();
-                os.write('N');
-                os.flush();
+                _out.write('N');
+                _out.flush();
                 //To continue after N, send the usual StartupMessage and proceed without encryption.
                 protocolStartUp();
                 return;
@@ -110,11 +389,13 @@ public abstract class BaseConnection {
             List<String> parList = _rawReader.readStringList(req - 8);
             Map<String, String> parameters = new TreeMap<>();
 
-            for (int n = 0; n < parList.size() / 2; n += 2) {
+            for (int n = 0; n + 1 < parList.size(); n += 2) {
                 parameters.put(parList.get(n), parList.get(n + 1));
             }
+            _activity.started(parameters.get("user"), parameters.get("database"), parameters.get("application_name"));
 
             if (StartupMessage(version, parameters) && !authenticated) {
+                _out.flush();
                 char passwordRequest = _rawReader.readByte();
                 if (passwordRequest != 'p') {
                     throw new PgProtocolException("expected password");
@@ -208,6 +489,146 @@ public abstract class BaseConnection {
         try (PgWriter writer = getWriter('Z')) {
             writer.addByte(status);
         }
+        _activity.idle(status);
+        startIdleTimeout(status != 'I');
+    }
+
+    /**
+     * Sets the timeouts of the idle sessions. A session is idle after a
+     * ReadyForQuery message, until the client sends the next message. When a
+     * timeout expires the client receives a FATAL error and the connection is
+     * closed. This method must be called before {@link #run() }.
+     *
+     * @param timer the timer wheel which tracks the timeouts.
+     * @param idleSession the maximum time, in milliseconds, a session can be
+     * idle outside a transaction block, or 0 for no limit.
+     * @param idleInTransaction the maximum time, in milliseconds, a session can
+     * be idle inside a transaction block, or 0 for no limit.
+     */
+    public void setIdleTimeouts(TimerWheel timer, long idleSession, long idleInTransaction) {
+        _idleTimer = timer;
+        _idleSessionTimeout = idleSession;
+        _idleInTransactionTimeout = idleInTransaction;
+    }
+
+    /**
+     * Sets after how long an idle session releases its transient state, see
+     * {@link #releaseIdleResources() }. The state is released by the thread of
+     * the connection, which waits for the next message with a timeout, so no
+     * synchronization is needed and a busy connection pays only for setting
+     * the timeout of the socket. This method must be called before
+     * {@link #run() }.
+     *
+     * @param delay the time, in milliseconds, a session must be idle before
+     * its state is released, or 0 to never release it.
+     */
+    public void setIdleReleaseDelay(long delay) {
+        _idleReleaseDelay = (int) Math.min(delay, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Releases the transient state of the connection, called when the session
+     * has been idle for the delay set by {@link #setIdleReleaseDelay(long) }.
+     * The state must be either recreated lazily by the next message or be
+     * cheap to keep. The fixed cost of a connection, i.e. its thread, socket
+     * and streams, is not released. The default implementation does nothing.
+     */
+    protected void releaseIdleResources() {
+    }
+
+    /**
+     * Waits for the next message and reads its header, releasing the transient
+     * state if the client stays idle long enough.
+     */
+    private char readCommand(PgReader reader) throws IOException {
+        if (_idleReleaseDelay <= 0) {
+            return reader.readCommand();
+        }
+        char command;
+        // wait only for the first byte, a timeout in the middle of a message
+        // would leave the stream out of sync
+        _socket.setSoTimeout(_idleReleaseDelay);
+        try {
+            command = _rawReader.readByte();
+        } catch (SocketTimeoutException ex) {
+            LOGGER.log(Level.FINE, "Releasing the state of idle session {0}", this);
+            releaseIdleResources();
+            _socket.setSoTimeout(0);
+            command = _rawReader.readByte();
+        } finally {
+            _socket.setSoTimeout(0);
+        }
+        return reader.readCommand(command);
+    }
+
+    private void startIdleTimeout(boolean inTransaction) {
+        long timeout = inTransaction ? _idleInTransactionTimeout : _idleSessionTimeout;
+        if (_idleTimer == null || timeout <= 0) {
+            return;
+        }
+        synchronized (_idleLock) {
+            if (_idleTimeout != null) {
+                _idleTimeout.cancel();
+            }
+            long epoch = ++_idleEpoch;
+            _idleTimeout = _idleTimer.schedule(() -> idleTimeoutExpired(epoch, inTransaction), timeout, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops the idle timeout, once a message is received.
+     *
+     * @return false if the session has been terminated in the meanwhile.
+     */
+    private boolean stopIdleTimeout() {
+        synchronized (_idleLock) {
+            if (_idleTimeout != null) {
+                _idleTimeout.cancel();
+                _idleTimeout = null;
+            }
+            return _terminated == null;
+        }
+    }
+
+    /**
+     * Terminates an idle session, called by the thread of the timer wheel. The
+     * error is not sent by this thread, since the client may not be reading:
+     * the input of the socket is shut down, which wakes up the thread of the
+     * connection waiting for a message, and that thread sends the error. The
+     * socket is closed anyway after {@link #IDLE_CLOSE_GRACE} milliseconds.
+     */
+    private void idleTimeoutExpired(long epoch, boolean inTransaction) {
+        synchronized (_idleLock) {
+            if (_idleEpoch != epoch || _idleTimeout == null || _terminated != null) {
+                return; // a message arrived in the meanwhile
+            }
+            _idleTimeout = null;
+            _terminated = inTransaction
+                    ? ErrorResponseMsg.makeFatal("25P03", "terminating connection due to idle-in-transaction timeout")
+                    : ErrorResponseMsg.makeFatal("57P05", "terminating connection due to idle-session timeout");
+        }
+        LOGGER.log(Level.INFO, "Idle timeout expired, closing {0}", this);
+        try {
+            _socket.shutdownInput();
+        } catch (IOException ex) {
+            kill();
+            return;
+        }
+        _idleTimer.schedule(this::kill, IDLE_CLOSE_GRACE, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sends the FATAL error of an idle session and closes it.
+     */
+    private void terminateIdleSession() {
+        try {
+            ErrorResponse(_terminated);
+            _out.flush();
+        } catch (IOException | PgProtocolException ex) {
+            LOGGER.log(Level.FINE, "Cannot send the idle timeout error", ex);
+        } finally {
+            kill();
+        }
     }
 
     /**
@@ -222,6 +643,7 @@ public abstract class BaseConnection {
         try (PgWriter writer = getWriter('C')) {
             writer.addString(message);
         }
+        _activity.commandCompleted();
     }
 
     /**
@@ -244,6 +666,7 @@ public abstract class BaseConnection {
                 writer.addInt16(f);
             }
         }
+        _activity.copyStarted();
     }
 
     /**
@@ -266,6 +689,7 @@ public abstract class BaseConnection {
                 writer.addInt16(f);
             }
         }
+        _activity.copyStarted();
     }
 
     /**
@@ -317,6 +741,30 @@ public abstract class BaseConnection {
         }
     }
 
+    /**
+     * Sends a data row message with values in text format. It is equivalent
+     * to {@link #DataRow(java.util.Collection) } with a cell per value, but
+     * the values are encoded straight into the message, without building the
+     * cells.
+     *
+     * @param values the values, one per each column of the table returned;
+     * null values are sent as null cells.
+     * @throws PgProtocolException in case of errors in the protocol.
+     * @throws IOException if an I/O error occurs.
+     */
+    protected void DataRowText(List<String> values) throws PgProtocolException, IOException {
+        try (PgWriter writer = getWriter('D')) {
+            writer.addInt16((short) values.size());
+            for (String value : values) {
+                if (value == null) {
+                    writer.addInt32(-1);
+                } else {
+                    writer.addText(value);
+                }
+            }
+        }
+    }
+
     /**
      * Must be sent when an empty query String is recognized.
      *
@@ -460,7 +908,7 @@ public abstract class BaseConnection {
      */
     protected void ParameterDescription(Collection<Integer> parametersId) throws PgProtocolException, IOException {
         try (PgWriter writer = getWriter('t')) {
-            writer.addInt32(parametersId.size());
+            writer.addInt16((short) parametersId.size());
             for (int id : parametersId) {
                 writer.addInt32(id);
             }
@@ -501,6 +949,7 @@ public abstract class BaseConnection {
                 writer.addInt16(f);
             }
         }
+        _activity.copyStarted();
     }
 
     /**
@@ -534,13 +983,52 @@ public abstract class BaseConnection {
      */
     protected void CopyDataServerMsg(Collection<Byte> data) throws PgProtocolException, IOException {
         try (PgWriter writer = getWriter('d')) {
-            writer.addInt32(data.size());
             for (Byte b : data) {
                 writer.addInt8(b);
             }
         }
     }
 
+    /**
+     * Sends a CopyData message. The data is written directly to the socket,
+     * without copying it in a message buffer, therefore this method is
+     * suitable for big chunks of data.
+     *
+     * @param data the buffer containing part of a COPY data stream.
+     * @param offset the position of the first byte to send.
+     * @param length the number of bytes to send.
+     * @throws PgProtocolException in case of errors in the protocol.
+     * @throws IOException if an I/O error occurs.
+     */
+    protected void CopyDataServerMsg(byte[] data, int offset, int length) throws PgProtocolException, IOException {
+        int size = length + 4;
+        byte[] header = {(byte) 'd', (byte) (size >>> 24), (byte) (size >>> 16), (byte) (size >>> 8), (byte) size};
+        _out.write(header);
+        _out.write(data, offset, length);
+        _metrics.messageSent('d', length + 5);
+    }
+
+    /**
+     * Sends a CopyData message whose content is a region of a file. The data
+     * is transferred with {@link #sendRaw(java.nio.channels.FileChannel, long, long)
+     * }, therefore it is not copied in the heap when the socket has an
+     * associated channel.
+     *
+     * @param data the channel of the file containing part of a COPY data
+     * stream.
+     * @param position the position of the first byte to send.
+     * @param length the number of bytes to send.
+     * @throws PgProtocolException in case of errors in the protocol.
+     * @throws IOException if an I/O error occurs.
+     */
+    protected void CopyDataServerMsg(FileChannel data, long position, int length) throws PgProtocolException, IOException {
+        int size = length + 4;
+        byte[] header = {(byte) 'd', (byte) (size >>> 24), (byte) (size >>> 16), (byte) (size >>> 8), (byte) size};
+        _out.write(header);
+        transfer(data, position, length);
+        _metrics.messageSent('d', length + 5);
+    }
+
     /**
      * Sends a CopyDone message.
      *
@@ -612,7 +1100,8 @@ public abstract class BaseConnection {
     /**
      * Invoked when a CancelRequest message is received. When the frontend opens
      * a new connection, instead of the StartupMessage can send a CancelRequest
-     * to kill another running backend instance.
+     * to cancel the query of another running backend instance (see
+     * {@link #cancel() }).
      *
      * @param backendProcessId the process id to cancel.
      * @param secretKey the process secret key to match.
@@ -702,7 +1191,7 @@ public abstract class BaseConnection {
      * @throws PgProtocolException in case of errors in the protocol.
      * @throws IOException if an I/O error occurs.
      */
-    protected abstract void CopyDataClientMsg(List<Byte> data) throws PgProtocolException, IOException;
+    protected abstract void CopyDataClientMsg(byte[] data) throws PgProtocolException, IOException;
 
     /**
      * Invoked when a CopyDone message is received.
@@ -751,24 +1240,45 @@ public abstract class BaseConnection {
      * @throws PgProtocolException in case of errors in the protocol.
      */
     public boolean run() throws PgProtocolException {
+        SessionEndEvent sessionEvent = ProtocolEvents.ENABLED ? SessionEndEvent.start() : null;
+        boolean graceful = false;
         try {
             protocolStartUp();
             if (!authenticated) {
                 LOGGER.log(Level.WARNING, "user not authenticated, closing connection");
                 return false;
             }
+            if (ProtocolEvents.ENABLED) {
+                SessionActivity.Snapshot session = _activity.snapshot();
+                SessionStartEvent.emit(session.getPid(), session.getUser(), session.getDatabase(), toString());
+            }
             ReadyForQuery('I');
-            for (PgReader reader = new PgReader(_rawReader);; reader.check()) {
-                char command = reader.readCommand();
+            flushResponses();
+            for (PgReader reader = new PgReader(_rawReader);;) {
+                char command = readCommand(reader);
+                if (!stopIdleTimeout()) {
+                    terminateIdleSession();
+                    return false;
+                }
+                int length = reader.getRemaining() + 5;
+                _messagesReceived++;
+                _metrics.messageReceived(command, length);
+                _activity.messageReceived();
+                MessageEvent messageEvent = ProtocolEvents.ENABLED ? MessageEvent.start() : null;
+                long start = _timed ? System.nanoTime() : 0;
+                _providerNanos = 0;
 
                 switch (command) {
                     case 'Q': {
-                        Query(reader.readString());
+                        String query = reader.readString();
+                        _activity.queryStarted(query);
+                        Query(query);
                         break;
                     }
                     case 'X': {
                         LOGGER.log(Level.INFO, "graceful termination");
                         Terminate();
+                        graceful = true;
                         return true;
                     }
                     case 'B': {
@@ -799,7 +1309,7 @@ public abstract class BaseConnection {
                         break;
                     }
                     case 'd': {
-                        CopyDataClientMsg(reader.readByteList());
+                        CopyDataClientMsg(reader.readBytes());
                         break;
                     }
                     case 'c': {
@@ -861,21 +1371,98 @@ public abstract class BaseConnection {
                         LOGGER.log(Level.SEVERE, "unknown command {0}", command);
                         throw new PgProtocolException("unknown command " + command);
                 }
+                reader.check();
+                if (messageEvent != null) {
+                    messageEvent.finish(_activity.getPid(), command, length);
+                }
+                long flushStart = 0;
+                if (_in.available() == 0) {
+                    flushStart = start == 0 ? 0 : System.nanoTime();
+                    flushResponses(); // the client may be waiting for the responses
+                }
+                if (start != 0) {
+                    long end = System.nanoTime();
+                    operationCompleted(command, end - start);
+                    messageCompleted(command, end - start, flushStart == 0 ? 0 : end - flushStart);
+                }
 
             }
         } catch (PgProtocolException ex) {
             try {
                 LOGGER.log(Level.SEVERE, "Error in the protocol, closing the connection", ex);
+                flushQuietly();
                 _socket.close();
             } catch (IOException ignoreme) {
             }
             throw ex;
         } catch (IOException ex) {
+            if (!stopIdleTimeout()) {
+                terminateIdleSession();
+                return false;
+            }
             LOGGER.log(Level.WARNING, "Connection closed", ex);
             return false;
+        } finally {
+            if (!_socket.isClosed()) {
+                flushQuietly();
+            }
+            _in.release();
+            _socketOut.release();
+            closeCapture();
+            if (sessionEvent != null) {
+                sessionEvent.finish(_activity.getPid(), _messagesReceived, getBytesSent(), graceful);
+            }
+        }
+    }
+
+    private void closeCapture() {
+        if (_capture != null) {
+            try {
+                _capture.close();
+            } catch (IOException ex) {
+                LOGGER.log(Level.WARNING, "Cannot close the capture", ex);
+            }
+        }
+    }
+
+    /**
+     * Sends the responses buffered so far, emitting a {@link FlushEvent}.
+     */
+    private void flushResponses() throws IOException {
+        FlushEvent event = ProtocolEvents.ENABLED ? FlushEvent.start() : null;
+        _out.flush();
+        long sent = getBytesSent();
+        if (event != null) {
+            event.finish(_activity.getPid(), sent - _flushedBytes);
+        }
+        _flushedBytes = sent;
+    }
+
+    /**
+     * Reports the latency of a message to the metrics.
+     */
+    private void operationCompleted(char command, long nanos) {
+        Metrics.Operation operation = Metrics.Operation.of(command);
+        if (operation != null) {
+            _metrics.operationCompleted(operation, _providerNanos, nanos - _providerNanos);
         }
     }
 
+    /**
+     * Invoked when a message has been handled and its responses have been
+     * written to the socket. Called only if the connection is timed, that is
+     * it has metrics or {@link #requireTiming() } has been called. The
+     * default implementation does nothing.
+     *
+     * @param command the type of the message.
+     * @param nanos the time spent handling the message, including the write.
+     * @param writeNanos the time spent writing the responses to the socket
+     * once the message has been handled, 0 if they have not been flushed yet
+     * because the client already sent other messages.
+     */
+    protected void messageCompleted(char command, long nanos, long writeNanos) {
+    }
+
     /**
      * Invoked when a flush message is received. This message is handled by this
      * class, but subclasses may reimplmenent this method to get notified when a
@@ -896,10 +1483,20 @@ public abstract class BaseConnection {
          */
     }
 
+    /**
+     * Cancels the query being executed, in response to a CancelRequest received
+     * by another connection. This method is called by a thread different from
+     * the one running the connection. The default implementation calls
+     * {@link #kill() }, subclasses can stop just the query keeping the
+     * connection open.
+     */
+    public void cancel() {
+        kill();
+    }
+
     /**
      * Closes the network stream. This has the desired side effects to kill the
-     * connection which will thrown an exception. Useful to implement the cancel
-     * request.
+     * connection which will thrown an exception.
      */
     public void kill() {
         try {
@@ -0,0 +1,110 @@
+package edu.purdue.jpgsql;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Signals that the client asked to cancel the query being executed. A new
+ * token is created for every query and passed to
+ * {@link DataProvider#getResult(java.lang.String, edu.purdue.jpgsql.CancellationToken)
+ * }: the provider can poll {@link #isCancelled() } while computing the result
+ * or register a listener to stop the computation. Once the token is cancelled
+ * the connection stops reading the rows and reports the error to the client,
+ * keeping the session open.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public class CancellationToken {
+
+    /**
+     * The SQL state reported when a query is canceled.
+     */
+    public static final String QUERY_CANCELED = "57014";
+
+    /**
+     * The message reported when the client cancels the query.
+     */
+    public static final String USER_REQUEST = "canceling statement due to user request";
+
+    /**
+     * The message reported when the query exceeds the statement timeout.
+     */
+    public static final String STATEMENT_TIMEOUT = "canceling statement due to statement timeout";
+
+    private static final Logger LOGGER = Logger.getLogger(CancellationToken.class.getName());
+
+    private volatile boolean _cancelled;
+    private volatile String _message;
+    private final List<Runnable> _listeners = new ArrayList<>();
+
+    /**
+     * Returns true if the query has been canceled.
+     *
+     * @return true after {@link #cancel() }.
+     */
+    public boolean isCancelled() {
+        return _cancelled;
+    }
+
+    /**
+     * Returns the reason of the cancellation, reported to the client.
+     *
+     * @return the error message or null if not cancelled.
+     */
+    public String getMessage() {
+        return _message;
+    }
+
+    /**
+     * Registers a function to call when the query is canceled. The function is
+     * called by the thread which cancels the token (i.e. the one handling the
+     * CancelRequest or the timer of the statement timeout), or immediately if
+     * the token is already cancelled.
+     *
+     * @param listener the function to call.
+     */
+    public void onCancel(Runnable listener) {
+        synchronized (_listeners) {
+            if (!_cancelled) {
+                _listeners.add(listener);
+                return;
+            }
+        }
+        listener.run();
+    }
+
+    /**
+     * Cancels the query on request of the client.
+     */
+    public void cancel() {
+        cancel(USER_REQUEST);
+    }
+
+    /**
+     * Cancels the query and calls the registered listeners. Cancelling a token
+     * twice has no effect, the first message is kept.
+     *
+     * @param message the reason of the cancellation.
+     */
+    public void cancel(String message) {
+        List<Runnable> listeners;
+        synchronized (_listeners) {
+            if (_cancelled) {
+                return;
+            }
+            _message = message;
+            _cancelled = true;
+            listeners = new ArrayList<>(_listeners);
+            _listeners.clear();
+        }
+        for (Runnable listener : listeners) {
+            try {
+                listener.run();
+            } catch (RuntimeException ex) {
+                LOGGER.log(Level.WARNING, "Cancellation listener failed", ex);
+            }
+        }
+    }
+}
@@ -1,9 +1,19 @@
 package edu.purdue.jpgsql;
 
+import edu.purdue.jpgsql.io.BufferPool;
+import edu.purdue.jpgsql.metrics.Metrics;
+import edu.purdue.jpgsql.replay.CaptureWriter;
+import edu.purdue.jpgsql.utils.TimerWheel;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.TreeMap;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -12,8 +22,10 @@ import java.util.logging.Logger;
  * The implementation of a multithreaded server. For every new incoming
  * connection, this class spawn a new thread and instances a new
  * {@link BaseConnection}. This class is partially aware of the postgres
- * protocol, therefore implements methods in support to kill a running process
- * when required by another one.
+ * protocol, therefore implements methods in support to cancel the query of a
+ * running process when required by another one, closes the sessions idle
+ * for too long (see {@link #setIdleSessionTimeout(long, java.util.concurrent.TimeUnit)
+ * }) and lists what the sessions are doing (see {@link #getActivity() }).
  *
  * @author Lorenzo Bossi [lbossi@purdue.edu]
  */
@@ -45,11 +57,23 @@ public class ConnectionPool {
 
     private final ServerSocket _listener;
     private int _nextPid;
-    private final TreeMap<Integer, PgProcess> _runningProcess;
+    private final ConcurrentSkipListMap<Integer, PgProcess> _runningProcess;
     private final Instancer _instancer;
+    private final TimerWheel _idleTimer = new TimerWheel(100, TimeUnit.MILLISECONDS, 1024);
+    private volatile long _idleSessionTimeout;
+    private volatile long _idleInTransactionTimeout;
+    private volatile long _idleReleaseDelay;
+    private volatile BufferPool _bufferPool = BufferPool.getDefault();
+    private volatile Metrics _metrics = Metrics.NONE;
+    private volatile File _captureDirectory;
 
     /**
-     * Creates a new connection pool.
+     * Creates a new connection pool. The sockets accepted by a plain
+     * ServerSocket have no channel, so the COPY files of
+     * {@link DataProvider#copyFile(java.lang.String, java.util.List, edu.purdue.jpgsql.copy.CopyOptions)
+     * } are copied through a buffer instead of being transferred with zero
+     * copy: use {@link #ConnectionPool(java.nio.channels.ServerSocketChannel, edu.purdue.jpgsql.ConnectionPool.Instancer)
+     * } for that.
      *
      * @param socket the server socket to listen.
      * @param instancer the lambda to create a new {@link BaseConnection}
@@ -61,10 +85,25 @@ public class ConnectionPool {
         }
         _listener = socket;
         _nextPid = 1;
-        _runningProcess = new TreeMap<>();
+        _runningProcess = new ConcurrentSkipListMap<>();
         _instancer = instancer;
     }
 
+    /**
+     * Creates a new connection pool listening on a channel. The accepted
+     * sockets have a channel, so the COPY files are transferred from the file
+     * to the socket without copying them in the heap (see
+     * {@link BaseConnection#isZeroCopy() }). The channel must be bound and in
+     * blocking mode.
+     *
+     * @param channel the server socket channel to listen.
+     * @param instancer the lambda to create a new {@link BaseConnection}
+     * instance when a new connection is incoming.
+     */
+    public ConnectionPool(ServerSocketChannel channel, Instancer instancer) {
+        this(channel.socket(), instancer);
+    }
+
     /**
      * Waits for a new connection and accepts it. This method actually spans a
      * new thread. It should be used inside an infinite loop.
@@ -80,6 +119,121 @@ public class ConnectionPool {
 
     }
 
+    /**
+     * Sets the maximum time a session can be idle outside a transaction block,
+     * like idle_session_timeout in Postgres. An expired session receives a
+     * FATAL error and is closed. The timeouts of all the sessions are tracked
+     * by a single timer wheel with a precision of 100ms. Only the connections
+     * accepted afterwards are affected.
+     *
+     * @param timeout the timeout, 0 to disable it (the default).
+     * @param unit the unit of timeout.
+     */
+    public void setIdleSessionTimeout(long timeout, TimeUnit unit) {
+        _idleSessionTimeout = unit.toMillis(timeout);
+    }
+
+    /**
+     * Sets the maximum time a session can be idle inside a transaction block,
+     * like idle_in_transaction_session_timeout in Postgres. An expired session
+     * receives a FATAL error and is closed, therefore the provider should
+     * roll back its transaction when the connection ends. Only the connections
+     * accepted afterwards are affected.
+     *
+     * @param timeout the timeout, 0 to disable it (the default).
+     * @param unit the unit of timeout.
+     */
+    public void setIdleInTransactionSessionTimeout(long timeout, TimeUnit unit) {
+        _idleInTransactionTimeout = unit.toMillis(timeout);
+    }
+
+    /**
+     * Sets after how long an idle session releases its transient state, such
+     * as the results of the portals run to completion. The state is recreated
+     * when the next message arrives. The thread and the socket of the
+     * connection are kept, so most of the memory of an idle connection is not
+     * affected. Only the connections accepted afterwards are affected.
+     *
+     * @param delay the delay, 0 to never release the state (the default).
+     * @param unit the unit of delay.
+     * @see BaseConnection#setIdleReleaseDelay(long)
+     */
+    public void setIdleReleaseDelay(long delay, TimeUnit unit) {
+        _idleReleaseDelay = unit.toMillis(delay);
+    }
+
+    /**
+     * Sets the pool of the buffers used by the connections to read and write
+     * the messages. By default all the connections share
+     * {@link BufferPool#getDefault() }, so the memory used for the buffers
+     * depends on the messages in flight rather than on the number of
+     * connections. Only the connections accepted afterwards are affected.
+     *
+     * @param pool the buffer pool.
+     */
+    public void setBufferPool(BufferPool pool) {
+        if (pool == null) {
+            throw new NullPointerException();
+        }
+        _bufferPool = pool;
+    }
+
+    /**
+     * Sets the metrics receiving the events of all the connections, i.e. a
+     * {@link edu.purdue.jpgsql.metrics.ProtocolMetrics} exposed through
+     * {@link edu.purdue.jpgsql.metrics.JmxMetrics}. Only the connections
+     * accepted afterwards are affected.
+     *
+     * @param metrics the metrics, {@link Metrics#NONE} to measure nothing (the
+     * default).
+     */
+    public void setMetrics(Metrics metrics) {
+        if (metrics == null) {
+            throw new NullPointerException();
+        }
+        _metrics = metrics;
+    }
+
+    /**
+     * Captures the data sent by the clients, to replay it later with
+     * {@link edu.purdue.jpgsql.replay.Replayer}. Every session is written in
+     * its own file, named session-&lt;time&gt;-&lt;pid&gt;.jpgcap; if the
+     * file cannot be created the session is not captured. Only the
+     * connections accepted afterwards are affected.
+     * <p>
+     * <b>The capture files contain all the data sent by the clients, i.e.
+     * the user names, the queries and the values of their parameters, in
+     * clear text.</b> Only the password messages are redacted (see
+     * {@link edu.purdue.jpgsql.replay.CaptureInputStream}). Store the files
+     * in a directory readable only by the server and delete them after use.
+     *
+     * @param directory the directory of the capture files, null to stop
+     * capturing (the default).
+     */
+    public void setCaptureDirectory(File directory) {
+        _captureDirectory = directory;
+    }
+
+    /**
+     * Returns what the running sessions are doing, like the pg_stat_activity
+     * view of Postgres. The sessions are not locked: every snapshot is
+     * consistent, and the list contains the sessions running when it is
+     * built, so it is cheap enough to be polled by a monitor. Use
+     * {@link StatActivityProvider} to make the list queryable by the clients.
+     *
+     * @return the activity of the sessions, sorted by pid.
+     */
+    public List<SessionActivity.Snapshot> getActivity() {
+        List<SessionActivity.Snapshot> ret = new ArrayList<>();
+        for (PgProcess proc : _runningProcess.values()) {
+            SessionActivity activity = proc.getActivity();
+            if (activity != null) {
+                ret.add(activity.snapshot());
+            }
+        }
+        return ret;
+    }
+
     /**
      * Removes the process from the list of active processes. Note that this
      * method does not actually kill the process, just loses the reference to
@@ -113,26 +267,27 @@ public class ConnectionPool {
     }
 
     /**
-     * Kills a process. If there is no process or the secretKey does not match
-     * the selected process, this method fails silently.
+     * Cancels the query running in a process. If there is no process or the
+     * secretKey does not match the selected process, this method fails
+     * silently.
      *
      * @param pid the process id.
      * @param secretKey the secret key to compare with the one returned by {@link BaseConnection#getSecretKey()
      * }
      */
-    private void kill(int pid, int secretKey) {
-        LOGGER.log(Level.INFO, "Killing request for pid:{0} , secretKey:{1}", new Object[]{pid, secretKey});
+    private void cancel(int pid, int secretKey) {
+        LOGGER.log(Level.INFO, "Cancel request for pid:{0} , secretKey:{1}", new Object[]{pid, secretKey});
         synchronized (_runningProcess) {
             PgProcess proc = _runningProcess.get(pid);
             if (proc != null) {
                 if (proc.getSecretKey() == secretKey) {
-                    LOGGER.log(Level.WARNING, "Killing connection {0}", proc);
-                    proc.kill();
+                    LOGGER.log(Level.WARNING, "Canceling query of connection {0}", proc);
+                    proc.cancel();
                 } else {
-                    LOGGER.log(Level.WARNING, "Not killing connection {0}, secret key does not match", proc);
+                    LOGGER.log(Level.WARNING, "Not canceling connection {0}, secret key does not match", proc);
                 }
             } else {
-                LOGGER.log(Level.WARNING, "Not killing process id {0}, the process does not exist", pid);
+                LOGGER.log(Level.WARNING, "Not canceling process id {0}, the process does not exist", pid);
             }
         }
     }
@@ -147,7 +302,22 @@ public class ConnectionPool {
      * @throws IOException in case of problem with the socket.
      */
     BaseConnection getInstance(Socket socket, int pid) throws IOException {
-        return _instancer.getInstance(socket, pid, this::kill);
+        BaseConnection conn = _instancer.getInstance(socket, pid, this::cancel);
+        conn.setIdleTimeouts(_idleTimer, _idleSessionTimeout, _idleInTransactionTimeout);
+        conn.setIdleReleaseDelay(_idleReleaseDelay);
+        conn.setBufferPool(_bufferPool);
+        conn.setMetrics(_metrics);
+        conn.getActivity().setPid(pid);
+        File directory = _captureDirectory;
+        if (directory != null) {
+            File file = new File(directory, "session-" + System.currentTimeMillis() + "-" + pid + ".jpgcap");
+            try {
+                conn.setCapture(new CaptureWriter(new FileOutputStream(file)));
+            } catch (IOException ex) {
+                LOGGER.log(Level.WARNING, "Cannot capture the session in " + file, ex);
+            }
+        }
+        return conn;
     }
 }
 
@@ -163,7 +333,7 @@ class PgProcess extends Thread {
     private final Socket _socket;
     private final int _pid;
     private final ConnectionPool _pool;
-    private BaseConnection _conn;
+    private volatile BaseConnection _conn;
 
     /**
      * Creates a new instance of PgProcess. Uses the connection pool to instance
@@ -188,6 +358,27 @@ class PgProcess extends Thread {
         return _conn == null ? -1 : _conn.getSecretKey();
     }
 
+    /**
+     * Cancels the query of the current thread calling
+     * {@link BaseConnection#cancel() }.
+     */
+    public void cancel() {
+        if (_conn != null) {
+            _conn.cancel();
+            LOGGER.log(Level.INFO, "Canceling query of server {0}", _conn);
+        }
+    }
+
+    /**
+     * Returns the activity of the connection.
+     *
+     * @return the activity, null if the connection has not been created yet.
+     */
+    SessionActivity getActivity() {
+        BaseConnection conn = _conn;
+        return conn == null ? null : conn.getActivity();
+    }
+
     /**
      * Kills the current thread calling {@link BaseConnection#kill() }.
      */
@@ -1,7 +1,13 @@
 package edu.purdue.jpgsql;
 
+import edu.purdue.jpgsql.copy.CopyOptions;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 /**
  * Represents a data provider used by {@link SimpleConnection} to get the data
@@ -10,7 +16,11 @@ import java.util.List;
  * } and {@link #setPassword(java.lang.String)} are called only once and in this
  * order. The function {@link #setPassword(java.lang.String) } is called only if
  * setUser returned false. Once the setup phase is completed and the user is
- * authenticated, only {@link #getResult(java.lang.String) } can be called.
+ * authenticated, only {@link #getResult(java.lang.String) } and the optional
+ * hooks (i.e. {@link #describe(java.lang.String) },
+ * {@link #bulkLoad(java.lang.String, java.util.List) } and
+ * {@link #copyFile(java.lang.String, java.util.List, edu.purdue.jpgsql.copy.CopyOptions)
+ * }) can be called.
  *
  * @author Lorenzo Bossi [lbossi@purdue.edu]
  */
@@ -52,10 +62,339 @@ public interface DataProvider {
     public QueryResult getResult(String query);
 
     /**
-     * Represents the result of a query.
+     * Called to get the result of a query which may be canceled by the client.
+     * The token is cancelled when the client sends a CancelRequest: the
+     * provider should stop computing the result as soon as possible, then the
+     * rows are not read anymore and the result is closed. Note, this function
+     * should not throw. The default implementation ignores the token and calls
+     * {@link #getResult(java.lang.String) }.
+     *
+     * @param query the query provided by the user.
+     * @param token the cancellation token of the query.
+     * @return the result.
+     */
+    public default QueryResult getResult(String query, CancellationToken token) {
+        return getResult(query);
+    }
+
+    /**
+     * Called to know whether the result of a query can be cached. A cacheable
+     * query always returns the same result, therefore its response can be
+     * served from the {@link edu.purdue.jpgsql.utils.ResponseCache} without
+     * calling {@link #getResult(java.lang.String) }. This method is called only
+     * if a cache is set through
+     * {@link SimpleConnection#setResponseCache(edu.purdue.jpgsql.utils.ResponseCache)
+     * }. The default implementation returns false.
+     *
+     * @param query the query provided by the user.
+     * @return true if the result of the query can be cached.
+     */
+    public default boolean isCacheable(String query) {
+        return false;
+    }
+
+    /**
+     * Called to describe a query without executing it. This is used to reply
+     * to the Describe messages of the extended query protocol. The query may
+     * contain place-holders in the form of $n. Implementing this method avoids
+     * executing a query just to describe a portal: the query is executed only
+     * when the client actually fetches the rows. Note, this function should
+     * not throw. The default implementation returns null, which means that the
+     * provider is not able to describe queries and the portals are described
+     * executing them.
+     *
+     * @param query the query provided by the user.
+     * @return the description of the query or null if not supported.
+     */
+    public default QueryDescription describe(String query) {
+        return null;
+    }
+
+    /**
+     * Called when the client starts a COPY FROM STDIN. The rows sent by the
+     * client are decoded and delivered in batches to the returned sink. Note,
+     * this function should not throw. The default implementation returns null,
+     * which means that the provider does not support COPY FROM.
+     *
+     * @param table the table name, as written in the COPY command.
+     * @param columns the column names, as written in the COPY command, or an
+     * empty list for all the columns.
+     * @return the sink receiving the rows or null if not supported.
+     */
+    public default BulkLoadSink bulkLoad(String table, List<String> columns) {
+        return null;
+    }
+
+    /**
+     * Returns a file already containing the data of a COPY TO STDOUT, encoded
+     * in the format of the options. The content of the file is sent as it is,
+     * transferred from the file to the socket without copying it in the heap
+     * when the socket has an associated channel, i.e. it has been accepted by
+     * a {@link java.nio.channels.ServerSocketChannel} (see
+     * {@link ConnectionPool#ConnectionPool(java.nio.channels.ServerSocketChannel, edu.purdue.jpgsql.ConnectionPool.Instancer)
+     * }); a plain {@link java.net.ServerSocket} accepts sockets without
+     * channel, whose data is copied through a buffer. If null is returned, the rows
+     * are read with {@link #getResult(java.lang.String) } and encoded. Note,
+     * this function should not throw. The default implementation returns null.
+     *
+     * @param table the name of the table.
+     * @param columns the names of the columns listed in the COPY command, or an
+     * empty list for all the columns.
+     * @param options the options of the COPY, i.e. the format.
+     * @return the file region or null if no file is available.
+     */
+    public default FileRegion copyFile(String table, List<String> columns, CopyOptions options) {
+        return null;
+    }
+
+    /**
+     * Receives the rows of a COPY FROM STDIN. The rows are delivered in
+     * batches of at most {@link #getBatchSize() } rows, therefore a copy of any
+     * size runs in bounded memory. Once the client completes the copy
+     * {@link #finish() } is called, otherwise (i.e. the client sends CopyFail
+     * or the data is malformed) {@link #abort() } is called. {@link #close() }
+     * is always called at the end.
+     */
+    public interface BulkLoadSink extends AutoCloseable {
+
+        /**
+         * Returns the maximum number of rows delivered with a single call of
+         * {@link #addRows(java.util.List) }. The default implementation returns
+         * 1000.
+         *
+         * @return the batch size.
+         */
+        default int getBatchSize() {
+            return 1000;
+        }
+
+        /**
+         * Returns the number of threads which may parse the data of a copy in
+         * CSV format. If greater than one the data is split in chunks ending at
+         * a row boundary, which are parsed in parallel; the batches are still
+         * delivered by the thread of the connection, one at a time. The
+         * default implementation returns 1, i.e. the data is parsed by the
+         * thread of the connection.
+         *
+         * @return the parallelism of the parsing.
+         */
+        default int getParallelism() {
+            return 1;
+        }
+
+        /**
+         * Returns the executor which parses the chunks of a copy in CSV format
+         * when {@link #getParallelism() } is greater than one. The executor is
+         * not shut down by the connection. If a task is rejected the chunk is
+         * parsed by the thread of the connection. The default implementation
+         * returns null, i.e. the chunks are parsed by a pool of daemon threads,
+         * one per processor, shared by all the connections.
+         *
+         * @return the executor or null for the shared one.
+         */
+        default Executor getExecutor() {
+            return null;
+        }
+
+        /**
+         * Returns true if the batches must be delivered in the order of the
+         * data. If false and the data is parsed in parallel, each batch is
+         * delivered as soon as it is parsed. The default implementation returns
+         * true.
+         *
+         * @return true if the order of the rows matters.
+         */
+        default boolean isOrdered() {
+            return true;
+        }
+
+        /**
+         * Stores a batch of rows. The list is reused after this method
+         * returns, therefore it must be copied if needed.
+         *
+         * @param rows the rows; null values are allowed.
+         * @return null on success, otherwise the error message. In case of
+         * error the copy is aborted.
+         */
+        String addRows(List<List<String>> rows);
+
+        /**
+         * Called when all the rows have been delivered. The default
+         * implementation does nothing.
+         *
+         * @return null on success, otherwise the error message.
+         */
+        default String finish() {
+            return null;
+        }
+
+        /**
+         * Called when the copy fails. The rows already delivered should be
+         * discarded. The default implementation does nothing.
+         */
+        default void abort() {
+        }
+
+        /**
+         * Releases the resources of the sink. The default implementation does
+         * nothing.
+         */
+        @Override
+        default void close() {
+        }
+    }
+
+    /**
+     * Represents a portion of a file containing the data of a COPY TO STDOUT.
+     * {@link #close() } is always called after the data has been sent. The
+     * data is sent with zero copy only over sockets with a channel, see
+     * {@link BaseConnection#isZeroCopy() }.
+     */
+    public interface FileRegion extends AutoCloseable {
+
+        /**
+         * Returns the channel of the file. The channel is not closed by the
+         * connection.
+         *
+         * @return the channel.
+         * @throws IOException if the file cannot be opened.
+         */
+        FileChannel getChannel() throws IOException;
+
+        /**
+         * Returns the position of the first byte of the data. The default
+         * implementation returns 0.
+         *
+         * @return the position in the file.
+         */
+        default long getPosition() {
+            return 0;
+        }
+
+        /**
+         * Returns the number of bytes of the data. The default implementation
+         * returns -1, i.e. the data continues until the end of the file.
+         *
+         * @return the number of bytes or -1.
+         */
+        default long getSize() {
+            return -1;
+        }
+
+        /**
+         * Returns the number of rows contained in the data, reported to the
+         * client in the command tag.
+         *
+         * @return the number of rows.
+         */
+        long getRowCount();
+
+        /**
+         * Releases the resources of the region. The default implementation
+         * does nothing.
+         *
+         * @throws IOException if an I/O error occurs.
+         */
+        @Override
+        default void close() throws IOException {
+        }
+
+        /**
+         * Creates a region of a file, which is opened when the data is sent and
+         * closed afterwards.
+         *
+         * @param file the path of the file.
+         * @param position the position of the first byte of the data.
+         * @param size the number of bytes, or -1 until the end of the file.
+         * @param rows the number of rows contained in the data.
+         * @return the region.
+         */
+        static FileRegion of(Path file, long position, long size, long rows) {
+            return new FileRegion() {
+                private FileChannel _channel;
+
+                @Override
+                public FileChannel getChannel() throws IOException {
+                    if (_channel == null) {
+                        _channel = FileChannel.open(file, StandardOpenOption.READ);
+                    }
+                    return _channel;
+                }
+
+                @Override
+                public long getPosition() {
+                    return position;
+                }
+
+                @Override
+                public long getSize() {
+                    return size;
+                }
+
+                @Override
+                public long getRowCount() {
+                    return rows;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    if (_channel != null) {
+                        _channel.close();
+                    }
+                }
+            };
+        }
+    }
+
+    /**
+     * Represents the description of a query, i.e. the shape of its result and
+     * of its parameters.
+     */
+    public interface QueryDescription {
+
+        /**
+         * Returns the header of the result.
+         *
+         * @return the header of the table returned by the query, or null if the
+         * query does not return rows.
+         */
+        List<String> getHeader();
+
+        /**
+         * Returns the types of the columns of the result. The default
+         * implementation returns null.
+         *
+         * @return a list, of the same size of {@link #getHeader() }, containing
+         * the object ID of the column types; or null if all the columns are
+         * varchar.
+         */
+        default List<Integer> getColumnTypes() {
+            return null;
+        }
+
+        /**
+         * Returns the types of the parameters of the query. The default
+         * implementation returns null.
+         *
+         * @return a list containing the object ID of the parameter types; or
+         * null if they are unknown. Missing or zero types are reported as
+         * varchar.
+         */
+        default List<Integer> getParameterTypes() {
+            return null;
+        }
+    }
+
+    /**
+     * Represents the result of a query. A result of type SELECT works as a
+     * cursor: with the extended query protocol the client may fetch the rows
+     * in many batches, therefore the result can be kept open across several
+     * messages. {@link #close() } is always called once the result is not
+     * needed anymore, i.e. when all the rows have been sent by a simple query,
+     * when the portal is closed or when the transaction ends.
      *
      */
-    public interface QueryResult {
+    public interface QueryResult extends AutoCloseable {
 
         /**
          * Represents the different allowed types of QueryResult.
@@ -109,6 +448,27 @@ public interface DataProvider {
          * selected table.
          */
         List<String> getHeader();
+
+        /**
+         * Provides a hint about how many rows the client is going to fetch
+         * with the next batch. Called only if type is SELECT, before every
+         * batch of rows is read from the iterator returned by {@link #getRows()
+         * }. Exactly that many rows are read from the iterator (or less if the
+         * result ends before), therefore a provider can size its internal
+         * buffers accordingly. The default implementation does nothing.
+         *
+         * @param rows the number of rows, zero means all the remaining rows.
+         */
+        default void setFetchSize(int rows) {
+        }
+
+        /**
+         * Releases the resources held by this result. No other method is
+         * called after this one. The default implementation does nothing.
+         */
+        @Override
+        default void close() {
+        }
     }
 
 }
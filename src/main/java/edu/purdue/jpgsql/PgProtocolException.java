@@ -24,4 +24,8 @@ public class PgProtocolException extends SQLException {
     public PgProtocolException(String what, Throwable cause) {
         super(what, cause);
     }
+
+    public PgProtocolException(String what, String sqlState) {
+        super(what, sqlState);
+    }
 }
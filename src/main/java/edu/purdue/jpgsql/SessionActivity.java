@@ -0,0 +1,376 @@
+package edu.purdue.jpgsql;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+
+/**
+ * Tracks what a session is doing, like a row of pg_stat_activity in Postgres:
+ * who is connected, the state of the session and the query being executed.
+ * The activity is updated only by the thread of the connection and can be
+ * read at any time by other threads with {@link #snapshot() }.
+ * <p>
+ * Reading does not take any lock and updating does not allocate memory: like
+ * the changecount of Postgres, a version number is incremented before and
+ * after every update, so a reader copies the fields and retries if the
+ * version was odd or changed in the meanwhile. Since the updates are a
+ * handful of assignments, a reader retries very rarely.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public class SessionActivity {
+
+    /**
+     * The state of a session.
+     */
+    public enum State {
+
+        /**
+         * The client is authenticating.
+         */
+        STARTING("starting"),
+        /**
+         * The session is waiting for a command.
+         */
+        IDLE("idle"),
+        /**
+         * The session is waiting for a command inside a transaction block.
+         */
+        IDLE_IN_TRANSACTION("idle in transaction"),
+        /**
+         * The session is waiting for a command inside a failed transaction
+         * block.
+         */
+        IDLE_IN_TRANSACTION_ABORTED("idle in transaction (aborted)"),
+        /**
+         * The session is executing a command.
+         */
+        ACTIVE("active"),
+        /**
+         * The session is transferring data with COPY.
+         */
+        COPY("copy");
+
+        private final String _label;
+
+        private State(String label) {
+            _label = label;
+        }
+
+        /**
+         * Returns the name of the state used by Postgres.
+         *
+         * @return the name, i.e. "idle in transaction".
+         */
+        @Override
+        public String toString() {
+            return _label;
+        }
+    }
+
+    private final SocketAddress _clientAddress;
+    private final long _backendStart;
+    private volatile int _version;
+    private volatile int _pid;
+    private volatile String _user;
+    private volatile String _database;
+    private volatile String _applicationName;
+    private volatile State _state = State.STARTING;
+    private volatile String _query;
+    private volatile long _queryStart;
+    private volatile long _stateChange;
+
+    /**
+     * Creates the activity of a new session.
+     *
+     * @param clientAddress the address of the client.
+     */
+    public SessionActivity(SocketAddress clientAddress) {
+        _clientAddress = clientAddress;
+        _backendStart = System.currentTimeMillis();
+        _stateChange = _backendStart;
+    }
+
+    /**
+     * Sets the process id of the session.
+     *
+     * @param pid the process id.
+     */
+    void setPid(int pid) {
+        begin();
+        _pid = pid;
+        end();
+    }
+
+    /**
+     * Returns the process id of the session.
+     *
+     * @return the process id, 0 if not set.
+     */
+    int getPid() {
+        return _pid;
+    }
+
+    /**
+     * Records the parameters of the StartupMessage.
+     *
+     * @param user the user name.
+     * @param database the database, null if not given.
+     * @param applicationName the name of the application, null if not given.
+     */
+    void started(String user, String database, String applicationName) {
+        begin();
+        _user = user;
+        _database = database == null ? user : database;
+        _applicationName = applicationName;
+        end();
+    }
+
+    /**
+     * Records that a message has been received: an idle session becomes
+     * active. A session in {@link State#COPY} stays there until it becomes
+     * idle.
+     */
+    void messageReceived() {
+        State state = _state;
+        if (state != State.ACTIVE && state != State.COPY && state != State.STARTING) {
+            setState(State.ACTIVE);
+        }
+    }
+
+    /**
+     * Records the beginning of a query. The query stays visible until the
+     * next one begins, like in Postgres, so that the last query of an idle
+     * session is known.
+     *
+     * @param query the text of the query.
+     */
+    public void queryStarted(String query) {
+        long now = System.currentTimeMillis();
+        begin();
+        _query = query;
+        _queryStart = now;
+        if (_state != State.ACTIVE) {
+            _state = State.ACTIVE;
+            _stateChange = now;
+        }
+        end();
+    }
+
+    /**
+     * Records that the session is transferring data with COPY.
+     */
+    void copyStarted() {
+        setState(State.COPY);
+    }
+
+    /**
+     * Records the end of a command: a COPY is over and the session goes back
+     * to {@link State#ACTIVE} until the next ReadyForQuery.
+     */
+    void commandCompleted() {
+        if (_state == State.COPY) {
+            setState(State.ACTIVE);
+        }
+    }
+
+    /**
+     * Records that the session waits for the next command, after a
+     * ReadyForQuery message.
+     *
+     * @param status the transaction status sent to the client: 'I', 'T' or
+     * 'E'.
+     */
+    void idle(char status) {
+        setState(status == 'T' ? State.IDLE_IN_TRANSACTION
+                : status == 'E' ? State.IDLE_IN_TRANSACTION_ABORTED
+                        : State.IDLE);
+    }
+
+    private void setState(State state) {
+        long now = System.currentTimeMillis();
+        begin();
+        _state = state;
+        _stateChange = now;
+        end();
+    }
+
+    private void begin() {
+        _version++; // only the thread of the connection writes
+    }
+
+    private void end() {
+        _version++;
+    }
+
+    /**
+     * Returns a consistent copy of the activity. This method can be called by
+     * any thread and never blocks.
+     *
+     * @return the snapshot.
+     */
+    public Snapshot snapshot() {
+        for (;;) {
+            int version = _version;
+            if ((version & 1) == 0) {
+                Snapshot snapshot = new Snapshot(_pid, _user, _database, _applicationName, _clientAddress,
+                        _backendStart, _state, _query, _queryStart, _stateChange);
+                if (_version == version) {
+                    return snapshot;
+                }
+            }
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Is an immutable copy of a {@link SessionActivity}. The times are in
+     * milliseconds since the epoch.
+     */
+    public static final class Snapshot {
+
+        private final int _pid;
+        private final String _user;
+        private final String _database;
+        private final String _applicationName;
+        private final SocketAddress _clientAddress;
+        private final long _backendStart;
+        private final State _state;
+        private final String _query;
+        private final long _queryStart;
+        private final long _stateChange;
+
+        Snapshot(int pid, String user, String database, String applicationName, SocketAddress clientAddress,
+                long backendStart, State state, String query, long queryStart, long stateChange) {
+            _pid = pid;
+            _user = user;
+            _database = database;
+            _applicationName = applicationName;
+            _clientAddress = clientAddress;
+            _backendStart = backendStart;
+            _state = state;
+            _query = query;
+            _queryStart = queryStart;
+            _stateChange = stateChange;
+        }
+
+        /**
+         * Returns the process id of the session.
+         *
+         * @return the process id, 0 if the session is not in a
+         * {@link ConnectionPool}.
+         */
+        public int getPid() {
+            return _pid;
+        }
+
+        /**
+         * Returns the user name.
+         *
+         * @return the user, null while starting.
+         */
+        public String getUser() {
+            return _user;
+        }
+
+        /**
+         * Returns the database.
+         *
+         * @return the database, null while starting.
+         */
+        public String getDatabase() {
+            return _database;
+        }
+
+        /**
+         * Returns the application_name given by the client.
+         *
+         * @return the name, null if not given.
+         */
+        public String getApplicationName() {
+            return _applicationName;
+        }
+
+        /**
+         * Returns the address of the client.
+         *
+         * @return the address.
+         */
+        public SocketAddress getClientAddress() {
+            return _clientAddress;
+        }
+
+        /**
+         * Returns the IP address of the client.
+         *
+         * @return the address, null if the client is not connected through
+         * TCP/IP.
+         */
+        public String getClientHost() {
+            if (_clientAddress instanceof InetSocketAddress) {
+                InetSocketAddress address = (InetSocketAddress) _clientAddress;
+                return address.getAddress() == null ? address.getHostString() : address.getAddress().getHostAddress();
+            }
+            return null;
+        }
+
+        /**
+         * Returns the TCP port of the client.
+         *
+         * @return the port, -1 if the client is not connected through TCP/IP.
+         */
+        public int getClientPort() {
+            return _clientAddress instanceof InetSocketAddress ? ((InetSocketAddress) _clientAddress).getPort() : -1;
+        }
+
+        /**
+         * Returns when the client connected.
+         *
+         * @return the time in milliseconds.
+         */
+        public long getBackendStart() {
+            return _backendStart;
+        }
+
+        /**
+         * Returns the current state.
+         *
+         * @return the state.
+         */
+        public State getState() {
+            return _state;
+        }
+
+        /**
+         * Returns the text of the query being executed or, if the session is
+         * not active, the last query executed.
+         *
+         * @return the query, null if no query has been executed.
+         */
+        public String getQuery() {
+            return _query;
+        }
+
+        /**
+         * Returns when the query of {@link #getQuery() } started.
+         *
+         * @return the time in milliseconds, 0 if no query has been executed.
+         */
+        public long getQueryStart() {
+            return _queryStart;
+        }
+
+        /**
+         * Returns when the state last changed.
+         *
+         * @return the time in milliseconds.
+         */
+        public long getStateChange() {
+            return _stateChange;
+        }
+
+        @Override
+        public String toString() {
+            return _pid + " " + _user + "@" + _database + " " + _state + ": " + _query;
+        }
+    }
+}
@@ -1,20 +1,40 @@
 package edu.purdue.jpgsql;
 
+import edu.purdue.jpgsql.copy.CopyCommand;
+import edu.purdue.jpgsql.copy.CopyDecoder;
+import edu.purdue.jpgsql.copy.CopyEncoder;
+import edu.purdue.jpgsql.copy.CopyInLoader;
+import edu.purdue.jpgsql.copy.CopyOptions;
+import edu.purdue.jpgsql.jfr.ProtocolEvents;
+import edu.purdue.jpgsql.jfr.ProviderCallEvent;
+import edu.purdue.jpgsql.jfr.ResultStreamEvent;
+import edu.purdue.jpgsql.metrics.QueryStatistics;
+import edu.purdue.jpgsql.metrics.SlowQueryLog;
 import edu.purdue.jpgsql.type.ColumnDescriptionMsg;
 import edu.purdue.jpgsql.utils.Conversions;
 import edu.purdue.jpgsql.type.DataCellMsg;
 import static edu.purdue.jpgsql.type.ErrorResponseMsg.makeError;
 import edu.purdue.jpgsql.utils.Portal;
+import edu.purdue.jpgsql.utils.ResponseCache;
 import edu.purdue.jpgsql.utils.StatementAndPortal;
+import edu.purdue.jpgsql.utils.StatementSplitter;
+import edu.purdue.jpgsql.utils.StatementTimeout;
+import edu.purdue.jpgsql.utils.TimerWheel;
 import java.io.IOException;
 import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
 import java.util.logging.Level;
-import java.util.stream.Collectors;
+import java.util.regex.Pattern;
 
 /**
  * Abstracts most of the complicated messages defined by the Postgres protocol
@@ -25,9 +45,25 @@ import java.util.stream.Collectors;
  * only authentication with clear text password.
  * <br>
  * Note: <ul>
- * <li>Describe a prepared statement is not supported;</li>
- * <li>Multiple queries in the same simple statement are not supported;</li>
+ * <li>Describe a prepared statement is supported only if the
+ * {@link DataProvider} implements
+ * {@link DataProvider#describe(java.lang.String)};</li>
  * <li>Binary result format is not supported;</li>
+ * <li>COPY is supported only in the simple query protocol, to STDOUT or from
+ * STDIN. COPY FROM requires the {@link DataProvider} to implement
+ * {@link DataProvider#bulkLoad(java.lang.String, java.util.List)}, binary COPY
+ * uses the column types returned by
+ * {@link DataProvider#describe(java.lang.String)}. COPY TO sends the file
+ * returned by
+ * {@link DataProvider#copyFile(java.lang.String, java.util.List, edu.purdue.jpgsql.copy.CopyOptions)}
+ * if any;</li>
+ * <li>A CancelRequest cancels only the running query (see
+ * {@link DataProvider#getResult(java.lang.String, edu.purdue.jpgsql.CancellationToken)}),
+ * the connection stays open.</li>
+ * <li>The statement_timeout setting is handled by the connection: it is read
+ * from the startup parameters and changed by SET and RESET, which are not
+ * passed to the provider. A statement running longer is canceled like by a
+ * CancelRequest.</li>
  * </ul>
  *
  * @author Lorenzo Bossi [lbossi@purdue.edu]
@@ -35,12 +71,43 @@ import java.util.stream.Collectors;
 public class SimpleConnection extends BaseConnection {
 
     private static final java.util.logging.Logger LOGGER = java.util.logging.Logger.getLogger(SimpleConnection.class.getName());
+    private static final int VARCHAR_OID = 1043;
+    /**
+     * The maximum size of a CopyData message sent from a file.
+     */
+    private static final int COPY_FILE_FRAME_SIZE = 1024 * 1024;
+    /**
+     * Matches ROLLBACK TO SAVEPOINT and COMMIT/ROLLBACK PREPARED, which do not
+     * end the current transaction.
+     */
+    private static final Pattern NOT_ENDING_TRANSACTION = Pattern.compile("(?is)\\s*\\w+\\s+((WORK|TRANSACTION)\\s+)?(TO|PREPARED)\\b.*");
 
     protected String _database;
+    private String _user;
     private final int _processId, _secretKey;
     private final DataProvider _provider;
     private final BiConsumer<Integer, Integer> _cancelCallback;
     private final StatementAndPortal _stm;
+    private ResponseCache _responseCache;
+    private boolean _inTransaction;
+    private Iterator<String> _pendingStatements;
+    private CopyInLoader _copyIn;
+    private volatile CancellationToken _cancel = new CancellationToken();
+    private volatile boolean _idle = true;
+    private boolean _portalSuspended;
+    private long _defaultStatementTimeout;
+    private long _statementTimeout;
+    private long _localStatementTimeout = -1;
+    private TimerWheel _statementTimerWheel = TimerWheel.getDefault();
+    private TimerWheel.Timeout _statementTimer;
+    private SlowQueryLog _slowQueryLog;
+    private QueryStatistics _queryStatistics;
+    private String _tracedQuery;
+    private long _traceStart;
+    private long _traceProviderNanos;
+    private long _traceFirstRow;
+    private long _traceRows;
+    private long _traceBytes;
 
     /**
      * Creates a SimpleConnection.
@@ -48,7 +115,7 @@ public class SimpleConnection extends BaseConnection {
      * @param socket the socket the client is connected to.
      * @param provider the data provider.
      * @param pid the current process id. Sent to the client to make it able to
-     * cancel the request killing the current request.
+     * cancel the current query.
      * @param cancelCallback the function to be called when a cancel callback is
      * received. The parameters are the processId and the secretKey received.
      * @throws IOException if an I/O error occurs.
@@ -84,21 +151,117 @@ public class SimpleConnection extends BaseConnection {
         });
     }
 
+    /**
+     * Sets the cache used to store the encoded responses of the queries
+     * declared cacheable by {@link DataProvider#isCacheable(java.lang.String)
+     * }. The same cache can be shared by many connections.
+     *
+     * @param cache the cache or null to disable caching.
+     */
+    public void setResponseCache(ResponseCache cache) {
+        _responseCache = cache;
+    }
+
+    /**
+     * Sets the log of the slow queries. Every Query and Execute message is
+     * timed, and the ones slower than the threshold of the log are reported
+     * with the time split between the provider and the connection, the rows
+     * and the bytes sent. The same log can be shared by many connections.
+     * This method must be called before {@link #run() }.
+     *
+     * @param log the log or null to disable it.
+     */
+    public void setSlowQueryLog(SlowQueryLog log) {
+        _slowQueryLog = log;
+        if (log != null) {
+            requireTiming();
+        }
+    }
+
+    /**
+     * Sets the table aggregating the executions of the queries by
+     * fingerprint. Every Query and Execute message is timed and recorded with
+     * the rows and the bytes sent. The same table can be shared by many
+     * connections. This method must be called before {@link #run() }.
+     *
+     * @param statistics the table or null to disable it.
+     */
+    public void setQueryStatistics(QueryStatistics statistics) {
+        _queryStatistics = statistics;
+        if (statistics != null) {
+            requireTiming();
+        }
+    }
+
+    /**
+     * Sets the timer wheel which tracks the statement timeouts. By default the
+     * shared {@link TimerWheel#getDefault() } is used, whose tick of 10ms is
+     * the precision of the timeouts. This method must be called before
+     * {@link #run() }.
+     *
+     * @param timer the timer wheel.
+     */
+    public void setStatementTimer(TimerWheel timer) {
+        if (timer == null) {
+            throw new NullPointerException("timer");
+        }
+        _statementTimerWheel = timer;
+    }
+
     @Override
     protected void CancelRequest(int backendProcessId, int secretKey) throws PgProtocolException, IOException {
         _cancelCallback.accept(backendProcessId, secretKey);
     }
 
+    /**
+     * Cancels the query being executed, if any, cancelling its
+     * {@link CancellationToken}. The connection stays open: the client receives
+     * an error and can send other queries. Like Postgres, the request is
+     * ignored if the connection is idle.
+     */
+    @Override
+    public void cancel() {
+        CancellationToken token = _cancel; // read before _idle, see ReadyForQuery
+        if (_idle) {
+            LOGGER.log(Level.FINE, "Ignoring cancel request, {0} is idle", this);
+            return;
+        }
+        LOGGER.log(Level.INFO, "Canceling the current query of {0}", this);
+        token.cancel();
+    }
+
+    /**
+     * Sends a ReadyForQuery message and prepares the cancellation token of the
+     * next command, which is used until the following ReadyForQuery.
+     */
+    @Override
+    protected void ReadyForQuery(char status) throws PgProtocolException, IOException {
+        stopStatementTimer();
+        super.ReadyForQuery(status);
+        // mark idle before replacing the token: a concurrent cancel() can
+        // then only hit the old token, or the new one once busy again
+        _idle = true;
+        _cancel = new CancellationToken();
+    }
+
     @Override
     protected boolean StartupMessage(int protocolVersion, Map<String, String> parameters) throws PgProtocolException, IOException, IOException {
         String user = parameters.get("user");
         if (user == null) {
             throw new PgProtocolException("Missing username");
         }
+        _user = user;
         _database = parameters.get("database");
         if (_database == null) {
             _database = user;
         }
+        try {
+            _defaultStatementTimeout = StatementTimeout.fromStartupParameters(parameters);
+            _statementTimeout = _defaultStatementTimeout;
+        } catch (IllegalArgumentException ex) {
+            ErrorResponse(makeError("22023", ex.getMessage()));
+            return false;
+        }
         if (_provider.setUser(user)) {
             if (!_provider.setDatabase(_database)) {
                 ErrorResponse(makeError("3D000", String.format("database \"%s\" does not exist", _database)));
@@ -125,22 +288,311 @@ public class SimpleConnection extends BaseConnection {
 
     @Override
     protected void Query(String query) throws PgProtocolException, IOException {
-        /**
-         * @todo the query string may contain multiple sql statements
-         */
+        if (_copyIn != null) {
+            failCopyIn(new PgProtocolException("unexpected message type 0x51 during COPY from stdin", "08P01"));
+            return;
+        }
+        _idle = false;
+        startTrace(query);
         _stm.removeStatementCascade(""); //erase the unnamed statement and portal
         _stm.removePortal("");
-        query = query.trim();
-        if (isEmptyQuery(query)) {
+        List<String> statements = StatementSplitter.split(query);
+        if (statements.isEmpty()) {
             EmptyQueryResponse();
-        } else {
-            DataProvider.QueryResult table = _provider.getResult(query);
-            if (table.getType() == DataProvider.QueryResult.Type.SELECT) {
+        }
+        _pendingStatements = statements.iterator();
+        executePendingStatements();
+    }
+
+    /**
+     * Executes the remaining statements of a simple query. The execution stops
+     * at a COPY FROM STDIN, and resumes when the client completes the copy.
+     *
+     * @throws PgProtocolException in case of errors in the protocol.
+     * @throws IOException if an I/O error occurs.
+     */
+    private void executePendingStatements() throws PgProtocolException, IOException {
+        while (_pendingStatements.hasNext()) {
+            String statement = _pendingStatements.next();
+            boolean succeeded;
+            startStatementTimer();
+            try {
+                succeeded = executeStatement(statement);
+            } finally {
+                if (_copyIn == null) {
+                    stopStatementTimer();
+                }
+            }
+            if (!succeeded) {
+                break; // like Postgres, an error aborts the remaining statements
+            }
+            if (_copyIn != null) {
+                return; // wait for the copy data
+            }
+        }
+        _pendingStatements = null;
+        ReadyForQuery(getTransactionStatus());
+    }
+
+    /**
+     * Executes one statement of a simple query and streams its result.
+     *
+     * @param query the statement.
+     * @return false if the statement failed.
+     * @throws PgProtocolException in case of errors in the protocol.
+     * @throws IOException if an I/O error occurs.
+     */
+    private boolean executeStatement(String query) throws PgProtocolException, IOException {
+        if (_cancel.isCancelled()) {
+            QueryCanceled();
+            return false;
+        }
+        if (StatementTimeout.isCommand(query)) {
+            return setStatementTimeout(query);
+        }
+        if (Conversions.getCommand(query).equals("COPY")) {
+            return executeCopy(query);
+        }
+        String key = getCacheKey("Q", query, Collections.<Short>emptyList());
+        if (key != null && sendCachedResponse(key)) {
+            return true;
+        }
+        if (key != null) {
+            startRecording(_responseCache.getMaxEntrySize());
+        }
+        DataProvider.QueryResult table = getResult(query);
+        try {
+            if (table.getType() == DataProvider.QueryResult.Type.SELECT && !_cancel.isCancelled()) {
                 RowDescription(getTableHeader(table.getHeader()));
             }
-            sendQueryResult(table, 0);
+            boolean completed = sendQueryResult(query, table, 0);
+            if (key != null) {
+                storeResponse(key, table, completed);
+            }
+            if (!completed) {
+                return false;
+            }
+            updateTransactionStatus(query, table);
+            return table.getType() != DataProvider.QueryResult.Type.ERROR;
+        } finally {
+            table.close();
         }
-        ReadyForQuery('I');
+    }
+
+    /**
+     * Executes a COPY command. Only COPY TO STDOUT and COPY FROM STDIN are
+     * supported. In COPY TO, the result of the query is read
+     * from the provider and encoded in chunks of
+     * {@link CopyEncoder#CHUNK_SIZE} bytes, each one sent in a single CopyData
+     * message, unless the provider returns a file already containing the
+     * data. COPY FROM only starts the copy, the data is received later with
+     * the CopyData messages.
+     *
+     * @param sql the COPY command.
+     * @return false if the command failed.
+     * @throws PgProtocolException in case of errors in the protocol.
+     * @throws IOException if an I/O error occurs.
+     */
+    private boolean executeCopy(String sql) throws PgProtocolException, IOException {
+        CopyCommand copy;
+        try {
+            copy = CopyCommand.parse(sql);
+        } catch (PgProtocolException ex) {
+            ErrorResponse(makeError("42601", ex.getMessage()));
+            return false;
+        }
+        if (!copy.isStdio()) {
+            ErrorResponse(makeError("0A000", "COPY to or from a file is not supported"));
+            return false;
+        }
+        if (copy.isFrom()) {
+            return startCopyIn(copy);
+        }
+        if (copy.getTable() != null) {
+            DataProvider.FileRegion region = _provider.copyFile(copy.getTable(), copy.getColumns(), copy.getOptions());
+            if (region != null) {
+                return sendCopyFile(copy, region);
+            }
+        }
+        DataProvider.QueryResult table = getResult(copy.getQuery());
+        try {
+            if (table.getType() == DataProvider.QueryResult.Type.ERROR) {
+                ErrorResponse(makeError("42601", table.getErrorMessage()));
+                return false;
+            }
+            if (table.getType() != DataProvider.QueryResult.Type.SELECT) {
+                ErrorResponse(makeError("0A000", "COPY query must return rows"));
+                return false;
+            }
+            List<String> header = table.getHeader();
+            byte format = getCopyFormat(copy);
+            List<Integer> types = format == 1 ? getColumnTypes(copy) : null;
+            CopyEncoder encoder = CopyEncoder.create(copy.getOptions(), header, types);
+            CopyOutResponse(format, Collections.nCopies(header.size(), (short) format));
+            encoder.start();
+            int rows = 0;
+            Iterator<List<String>> it = getRows(table);
+            while (hasNext(it)) {
+                if (_cancel.isCancelled()) {
+                    QueryCanceled(); // like Postgres, an ErrorResponse ends the copy
+                    return false;
+                }
+                try {
+                    encoder.writeRow(next(it));
+                } catch (IllegalArgumentException ex) {
+                    ErrorResponse(makeError("22P02", ex.getMessage()));
+                    return false;
+                }
+                rows++;
+                if (encoder.isFull()) {
+                    CopyDataServerMsg(encoder.getBuffer(), 0, encoder.size());
+                    encoder.reset();
+                }
+            }
+            encoder.finish();
+            if (encoder.size() > 0) {
+                CopyDataServerMsg(encoder.getBuffer(), 0, encoder.size());
+            }
+            CopyDoneServerMsg();
+            rowsSent(rows);
+            CommandComplete("COPY " + rows);
+            return true;
+        } finally {
+            table.close();
+        }
+    }
+
+    /**
+     * Starts a COPY FROM STDIN, asking the provider for the sink of the rows.
+     *
+     * @param copy the COPY command.
+     * @return false if the command failed.
+     * @throws PgProtocolException in case of errors in the protocol.
+     * @throws IOException if an I/O error occurs.
+     */
+    private boolean startCopyIn(CopyCommand copy) throws PgProtocolException, IOException {
+        DataProvider.BulkLoadSink sink = _provider.bulkLoad(copy.getTable(), copy.getColumns());
+        if (sink == null) {
+            ErrorResponse(makeError("0A000", "COPY FROM is not supported"));
+            return false;
+        }
+        byte format = getCopyFormat(copy);
+        List<String> columns = copy.getColumns();
+        DataProvider.QueryDescription desc = null;
+        if (columns.isEmpty() || format == 1) {
+            desc = _provider.describe(copy.getQuery());
+        }
+        if (columns.isEmpty()) {
+            columns = desc == null ? null : desc.getHeader();
+        }
+        List<Integer> types = desc == null ? null : desc.getColumnTypes();
+        try {
+            _copyIn = CopyInLoader.create(copy.getOptions(), columns, types, sink);
+        } catch (PgProtocolException ex) {
+            sink.close();
+            ErrorResponse(makeError("42601", ex.getMessage()));
+            return false;
+        }
+        CopyInResponse(format, Collections.nCopies(columns == null ? 0 : columns.size(), (short) format));
+        return true;
+    }
+
+    /**
+     * Sends the data of a COPY TO stored in a file. The file is sent in
+     * CopyData messages of at most {@link #COPY_FILE_FRAME_SIZE} bytes, each
+     * one transferred directly from the file to the socket. If the file is
+     * shorter than expected the connection is closed, since the message
+     * being sent cannot be completed.
+     *
+     * @param copy the COPY command.
+     * @param region the region of the file containing the data.
+     * @return false if the file cannot be read.
+     * @throws PgProtocolException in case of errors in the protocol.
+     * @throws IOException if an I/O error occurs.
+     */
+    private boolean sendCopyFile(CopyCommand copy, DataProvider.FileRegion region) throws PgProtocolException, IOException {
+        try {
+            FileChannel channel;
+            long position = region.getPosition();
+            long size = region.getSize();
+            try {
+                channel = region.getChannel();
+                if (size < 0) {
+                    size = channel.size() - position;
+                }
+            } catch (IOException ex) {
+                ErrorResponse(makeError("58030", "could not read COPY file: " + ex.getMessage()));
+                return false;
+            }
+            byte format = getCopyFormat(copy);
+            int columns = copy.getColumns().size();
+            if (columns == 0) {
+                DataProvider.QueryDescription desc = _provider.describe(copy.getQuery());
+                columns = desc == null || desc.getHeader() == null ? 0 : desc.getHeader().size();
+            }
+            CopyOutResponse(format, Collections.nCopies(columns, (short) format));
+            while (size > 0) {
+                if (_cancel.isCancelled()) {
+                    QueryCanceled(); // like Postgres, an ErrorResponse ends the copy
+                    return false;
+                }
+                int length = (int) Math.min(size, COPY_FILE_FRAME_SIZE);
+                CopyDataServerMsg(channel, position, length);
+                position += length;
+                size -= length;
+            }
+            CopyDoneServerMsg();
+            rowsSent(region.getRowCount());
+            CommandComplete("COPY " + region.getRowCount());
+            return true;
+        } finally {
+            try {
+                region.close();
+            } catch (IOException ex) {
+                LOGGER.log(Level.WARNING, "Cannot close the COPY file", ex);
+            }
+        }
+    }
+
+    /**
+     * Returns the format code of a COPY: 1 for binary, 0 for text and CSV.
+     */
+    private byte getCopyFormat(CopyCommand copy) {
+        return (byte) (copy.getOptions().getFormat() == CopyOptions.Format.BINARY ? 1 : 0);
+    }
+
+    /**
+     * Returns the column types of a COPY, used by the binary format.
+     *
+     * @param copy the COPY command.
+     * @return the object ID of the types or null if the provider cannot
+     * describe the copied columns.
+     */
+    private List<Integer> getColumnTypes(CopyCommand copy) {
+        DataProvider.QueryDescription desc = _provider.describe(copy.getQuery());
+        return desc == null ? null : desc.getColumnTypes();
+    }
+
+    /**
+     * Aborts the current COPY FROM STDIN. The error is reported to the client
+     * and the remaining statements of the query are discarded.
+     *
+     * @param error the cause, its SQL state is sent to the client.
+     * @throws PgProtocolException in case of errors in the protocol.
+     * @throws IOException if an I/O error occurs.
+     */
+    private void failCopyIn(PgProtocolException error) throws PgProtocolException, IOException {
+        stopStatementTimer();
+        try {
+            _copyIn.abort();
+        } finally {
+            _copyIn.close();
+            _copyIn = null;
+        }
+        String state = error.getSQLState() == null ? CopyDecoder.BAD_COPY_FORMAT : error.getSQLState();
+        ErrorResponse(makeError(state, error.getMessage()));
+        _pendingStatements = null;
+        ReadyForQuery(getTransactionStatus());
     }
 
     @Override
@@ -190,7 +642,7 @@ public class SimpleConnection extends BaseConnection {
             if (portalName.equals("")) {
                 _stm.removePortal(""); //destroy the unnamed portal.
             }
-            if (_stm.putPortal(preparedStatment, portalName, realQuery)) {
+            if (_stm.putPortal(preparedStatment, portalName, realQuery, resultFormatCodes)) {
                 BindComplete();
             } else {
                 ErrorResponse(makeError("42602", "portal name already used"));
@@ -227,15 +679,46 @@ public class SimpleConnection extends BaseConnection {
 
     @Override
     protected void Execute(String portalName, int maxRows) throws PgProtocolException, IOException {
+        _idle = false;
         Portal portal = _stm.getPortal(portalName);
         if (portal == null) {
             ErrorResponse(makeError("42602", "unknown portal name"));
         } else {
+            getActivity().queryStarted(portal.sql);
+            startTrace(portal.sql);
             if (isEmptyQuery(portal.sql)) {
                 EmptyQueryResponse();
+            } else if (StatementTimeout.isCommand(portal.sql)) {
+                setStatementTimeout(portal.sql);
             } else {
-                DataProvider.QueryResult res = portal.getAndStoreResult(_provider);
-                sendQueryResult(res, maxRows);
+                String key = null;
+                if (maxRows == 0 && !portal.isExecuted()) {
+                    key = getCacheKey("E", portal.sql, portal.resultFormats);
+                }
+                portal.markExecuted();
+                if (key == null || !sendCachedResponse(key)) {
+                    if (key != null) {
+                        startRecording(_responseCache.getMaxEntrySize());
+                    }
+                    boolean completed;
+                    DataProvider.QueryResult res;
+                    startStatementTimer();
+                    try {
+                        res = getResult(portal);
+                        completed = sendQueryResult(portal.sql, res, maxRows);
+                    } finally {
+                        stopStatementTimer();
+                    }
+                    if (key != null) {
+                        storeResponse(key, res, completed);
+                    }
+                    if (completed) {
+                        updateTransactionStatus(portal.sql, res);
+                        if (!_portalSuspended) {
+                            portal.markCompleted();
+                        }
+                    }
+                }
             }
         }
     }
@@ -252,7 +735,13 @@ public class SimpleConnection extends BaseConnection {
         if (preparedStatment.isEmpty()) {
             _stm.removeStatementCascade(preparedStatment);
         }
-        if (_stm.putStatement(preparedStatment, query)) {
+        try {
+            Conversions.countPlaceholders(query);
+        } catch (PgProtocolException ex) {
+            ErrorResponse(makeError(ex.getSQLState(), ex.getMessage()));
+            return;
+        }
+        if (_stm.putStatement(preparedStatment, query, parametersType)) {
             ParseComplete();
         } else {
             ErrorResponse(makeError("26000", "the statement already exists"));
@@ -261,7 +750,155 @@ public class SimpleConnection extends BaseConnection {
 
     @Override
     protected void Sync() throws PgProtocolException, IOException {
-        ReadyForQuery('I'); //we don't implement transactions
+        if (_copyIn != null) {
+            return; // ignored during copy-in mode
+        }
+        if (!_inTransaction) {
+            // the implicit transaction ends here, and so do the portals
+            _stm.removeAllPortals();
+        }
+        ReadyForQuery(getTransactionStatus());
+    }
+
+    /**
+     * Runs the protocol. See {@link BaseConnection#run() }. When the
+     * connection ends, all the pending query results are released.
+     *
+     * @return true if the client gracefully terminated the connection.
+     * @throws PgProtocolException in case of errors in the protocol.
+     */
+    @Override
+    public boolean run() throws PgProtocolException {
+        try {
+            return super.run();
+        } finally {
+            _stm.clear();
+            if (_copyIn != null) {
+                _copyIn.abort();
+                _copyIn.close();
+                _copyIn = null;
+            }
+        }
+    }
+
+    /**
+     * Releases the results of the portals run to completion and shrinks the
+     * tables of the statements and portals which have grown oversized. The
+     * statements, the open portals and the cursors of the suspended ones are
+     * part of the session, they are kept; so is the state of a copy in
+     * progress.
+     */
+    @Override
+    protected void releaseIdleResources() {
+        if (_copyIn == null) {
+            int released = _stm.releaseCompletedResults();
+            int trimmed = _stm.trimToSize();
+            LOGGER.log(Level.FINE, "Idle session {0} released {1} results and {2} tables", new Object[]{this, released, trimmed});
+        }
+    }
+
+    /**
+     * Tracks the transaction blocks. Transactions are implemented by the
+     * provider, this only follows the BEGIN and COMMIT/ROLLBACK commands
+     * successfully executed to report the right status to the client and to
+     * release the portals when the transaction ends.
+     *
+     * @param sql the executed statement.
+     * @param result the result of the statement.
+     */
+    private void updateTransactionStatus(String sql, DataProvider.QueryResult result) {
+        if (result.getType() == DataProvider.QueryResult.Type.ERROR) {
+            return;
+        }
+        String tag = getTransactionTag(sql);
+        if (tag == null) {
+            return;
+        }
+        if (tag.equals("BEGIN") || tag.equals("START TRANSACTION")) {
+            _inTransaction = true;
+        } else {
+            _inTransaction = false;
+            _localStatementTimeout = -1;
+            _stm.removeAllPortals();
+        }
+    }
+
+    /**
+     * Returns the command tag of the statements which start or end a
+     * transaction block.
+     *
+     * @param sql the statement.
+     * @return the tag to send in the CommandComplete message or null if the
+     * statement does not start or end a transaction.
+     */
+    private String getTransactionTag(String sql) {
+        switch (Conversions.getCommand(sql)) {
+            case "BEGIN":
+                return "BEGIN";
+            case "START":
+                return "START TRANSACTION";
+            case "COMMIT":
+            case "END":
+                return NOT_ENDING_TRANSACTION.matcher(sql).matches() ? null : "COMMIT";
+            case "ROLLBACK":
+            case "ABORT":
+                return NOT_ENDING_TRANSACTION.matcher(sql).matches() ? null : "ROLLBACK";
+            default:
+                return null;
+        }
+    }
+
+    private char getTransactionStatus() {
+        return _inTransaction ? 'T' : 'I';
+    }
+
+    /**
+     * Returns the key of the response cache or null if the query is not
+     * cacheable.
+     *
+     * @param kind distinguishes the responses which contain a RowDescription
+     * from the ones which do not.
+     * @param query the query.
+     * @param resultFormats the format codes of the result columns.
+     * @return the cache key or null.
+     */
+    private String getCacheKey(String kind, String query, Collection<Short> resultFormats) {
+        if (_responseCache == null || !_provider.isCacheable(query)) {
+            return null;
+        }
+        return ResponseCache.key(kind + ":" + _database, query, resultFormats);
+    }
+
+    /**
+     * Sends the cached response, if any.
+     *
+     * @param key the cache key.
+     * @return true if the response has been sent, false if it is not cached.
+     * @throws IOException if an I/O error occurs.
+     */
+    private boolean sendCachedResponse(String key) throws IOException {
+        ResponseCache.Entry entry = _responseCache.get(key);
+        if (entry == null) {
+            return false;
+        }
+        if (!entry.isSpilled()) {
+            sendRaw(entry.getData());
+            return true;
+        }
+        try (FileChannel file = FileChannel.open(entry.getFile(), StandardOpenOption.READ)) {
+            sendRaw(file, 0, entry.size());
+            return true;
+        } catch (NoSuchFileException ex) {
+            // evicted in the meanwhile
+            return false;
+        }
+    }
+
+    private void storeResponse(String key, DataProvider.QueryResult result, boolean completed) {
+        byte[] response = stopRecording();
+        if (completed && response != null && result.getType() == DataProvider.QueryResult.Type.SELECT) {
+            _responseCache.put(key, response);
+        }
     }
 
     private boolean isEmptyQuery(String query) {
@@ -276,7 +913,65 @@ public class SimpleConnection extends BaseConnection {
         return header;
     }
 
-    private void sendQueryResult(DataProvider.QueryResult table, int maxRows) throws PgProtocolException, IOException {
+    private List<ColumnDescriptionMsg> getTableHeader(List<String> headerNames, List<Integer> types) {
+        if (types == null) {
+            return getTableHeader(headerNames);
+        }
+        List<ColumnDescriptionMsg> header = new ArrayList<>(headerNames.size());
+        for (int i = 0; i < headerNames.size(); i++) {
+            header.add(new ColumnDescriptionMsg(headerNames.get(i), types.get(i)));
+        }
+        return header;
+    }
+
+    private void sendDescription(DataProvider.QueryDescription desc) throws PgProtocolException, IOException {
+        if (desc.getHeader() == null) {
+            NoData();
+        } else {
+            RowDescription(getTableHeader(desc.getHeader(), desc.getColumnTypes()));
+        }
+    }
+
+    /**
+     * Computes the parameter types of a statement. The types specified by the
+     * client take precedence over the ones described by the provider; the
+     * unknown ones are reported as varchar.
+     *
+     * @param sql the statement.
+     * @param declared the types specified in the Parse message.
+     * @param described the types returned by the provider, may be null.
+     * @return the object ID of the parameter types.
+     */
+    private List<Integer> getParameterTypes(String sql, List<Integer> declared, List<Integer> described) throws PgProtocolException {
+        int count = Math.max(Conversions.countPlaceholders(sql), declared.size());
+        List<Integer> types = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Integer type = i < declared.size() ? declared.get(i) : null;
+            if ((type == null || type == 0) && described != null && i < described.size()) {
+                type = described.get(i);
+            }
+            types.add(type == null || type == 0 ? VARCHAR_OID : type);
+        }
+        return types;
+    }
+
+    /**
+     * Sends the result of a query. The rows are not read anymore if the query
+     * is canceled in the meanwhile.
+     *
+     * @return false if the query has been canceled.
+     */
+    private boolean sendQueryResult(String sql, DataProvider.QueryResult table, int maxRows) throws PgProtocolException, IOException {
+        _portalSuspended = false;
+        if (_cancel.isCancelled()) {
+            QueryCanceled();
+            return false;
+        }
+        String transactionTag = getTransactionTag(sql);
+        if (transactionTag != null && table.getType() != DataProvider.QueryResult.Type.ERROR) {
+            CommandComplete(transactionTag);
+            return true;
+        }
         switch (table.getType()) {
             case ERROR:
                 ErrorResponse(makeError("42601", table.getErrorMessage()));
@@ -294,17 +989,29 @@ public class SimpleConnection extends BaseConnection {
                 CommandComplete("UPDATE " + table.getRowCount());
                 break;
             case SELECT:
-                if (maxRows == 0) { //maxRows == 0 means fetch them all
-                    maxRows = Integer.MAX_VALUE;
-                }
-                Iterator<List<String>> it = table.getRows();
-                for (int rowNum = 0; rowNum < maxRows && it.hasNext(); rowNum++) {
-                    List<DataCellMsg> rawRow = it.next().stream().map(str -> {
-                        return (str == null) ? new DataCellMsg() : new DataCellMsg(str);
-                    }).collect(Collectors.toList());
-                    DataRow(rawRow);
+                //maxRows == 0 means fetch them all
+                table.setFetchSize(maxRows);
+                ResultStreamEvent streamEvent = ProtocolEvents.ENABLED ? ResultStreamEvent.start() : null;
+                long bytes = getBytesSent();
+                Iterator<List<String>> it = getRows(table);
+                int rowNum = 0;
+                try {
+                    for (; (maxRows == 0 || rowNum < maxRows) && hasNext(it); rowNum++) {
+                        if (_cancel.isCancelled()) {
+                            QueryCanceled();
+                            return false;
+                        }
+                        DataRowText(next(it));
+                    }
+                } finally {
+                    rowsSent(rowNum);
+                    if (streamEvent != null) {
+                        streamEvent.finish(_processId, sql, rowNum, getBytesSent() - bytes);
+                    }
                 }
-                if (it.hasNext()) {
+                // like Postgres, do not read ahead: the next Execute may return no rows
+                _portalSuspended = maxRows != 0 && rowNum == maxRows;
+                if (_portalSuspended) {
                     PortalSuspended();
                 } else {
                     CommandComplete("SELECT " + table.getRowCount());
@@ -314,13 +1021,191 @@ public class SimpleConnection extends BaseConnection {
                 LOGGER.log(Level.SEVERE, "unknown query result {0}", table.getType());
                 throw new PgProtocolException("unknown query result " + table.getType());
         }
+        return true;
+    }
+
+    /**
+     * Calls {@link DataProvider#getResult(java.lang.String, edu.purdue.jpgsql.CancellationToken)
+     * } measuring the time spent in the provider.
+     */
+    private DataProvider.QueryResult getResult(String sql) {
+        ProviderCallEvent event = ProtocolEvents.ENABLED ? ProviderCallEvent.start() : null;
+        long start = providerCallStarted();
+        try {
+            return _provider.getResult(sql, _cancel);
+        } finally {
+            providerCallEnded(start);
+            if (event != null) {
+                event.finish(_processId, sql);
+            }
+        }
+    }
+
+    /**
+     * Gets the result of a portal, calling the provider only the first time.
+     */
+    private DataProvider.QueryResult getResult(Portal portal) {
+        ProviderCallEvent event = ProtocolEvents.ENABLED && !portal.hasResult() ? ProviderCallEvent.start() : null;
+        long start = providerCallStarted();
+        try {
+            return portal.getAndStoreResult(_provider, _cancel);
+        } finally {
+            providerCallEnded(start);
+            if (event != null) {
+                event.finish(_processId, portal.sql);
+            }
+        }
+    }
+
+    private Iterator<List<String>> getRows(DataProvider.QueryResult table) {
+        long start = providerCallStarted();
+        try {
+            return table.getRows();
+        } finally {
+            providerCallEnded(start);
+        }
+    }
+
+    private boolean hasNext(Iterator<List<String>> it) {
+        long start = providerCallStarted();
+        try {
+            return it.hasNext();
+        } finally {
+            providerCallEnded(start);
+        }
+    }
+
+    private List<String> next(Iterator<List<String>> it) {
+        long start = providerCallStarted();
+        try {
+            return it.next();
+        } finally {
+            providerCallEnded(start);
+            if (_tracedQuery != null && _traceFirstRow == 0) {
+                _traceFirstRow = System.nanoTime() - _traceStart;
+            }
+        }
+    }
+
+    private void rowsSent(long rows) {
+        getMetrics().rowsSent(rows);
+        _traceRows += rows;
+    }
+
+    /**
+     * Starts timing a query for the slow query log and the statistics, unless
+     * the same query is already timed, i.e. the portal executed by a Describe
+     * message.
+     */
+    private void startTrace(String sql) {
+        if ((_slowQueryLog == null && _queryStatistics == null) || sql.equals(_tracedQuery)) {
+            return;
+        }
+        _tracedQuery = sql;
+        _traceStart = System.nanoTime();
+        _traceProviderNanos = -getProviderNanos(); // the message may have already called the provider
+        _traceFirstRow = 0;
+        _traceRows = 0;
+        _traceBytes = getBytesSent();
+    }
+
+    /**
+     * Reports the traced query to the slow query log and the statistics once
+     * the Query or Execute message is completed.
+     */
+    @Override
+    protected void messageCompleted(char command, long nanos, long writeNanos) {
+        if (_tracedQuery == null) {
+            return;
+        }
+        _traceProviderNanos += getProviderNanos();
+        if (command == 'Q' || command == 'E') {
+            long duration = System.nanoTime() - _traceStart;
+            long bytes = getBytesSent() - _traceBytes;
+            if (_slowQueryLog != null) {
+                _slowQueryLog.log(_processId, _user, _database, _tracedQuery, duration,
+                        _traceProviderNanos, _traceFirstRow, writeNanos, _traceRows, bytes);
+            }
+            if (_queryStatistics != null) {
+                _queryStatistics.record(_tracedQuery, duration, _traceRows, bytes);
+            }
+            _tracedQuery = null;
+        } else if (command == 'S') {
+            _tracedQuery = null; // a portal described but never executed
+        }
+    }
+
+    /**
+     * Sends the error reported when the query is canceled by the client.
+     *
+     * @throws PgProtocolException in case of errors in the protocol.
+     * @throws IOException if an I/O error occurs.
+     */
+    private void QueryCanceled() throws PgProtocolException, IOException {
+        ErrorResponse(makeError(CancellationToken.QUERY_CANCELED, _cancel.getMessage()));
+    }
+
+    /**
+     * Executes a SET or RESET of statement_timeout.
+     *
+     * @param sql the command.
+     * @return false if the value is not valid.
+     * @throws PgProtocolException in case of errors in the protocol.
+     * @throws IOException if an I/O error occurs.
+     */
+    private boolean setStatementTimeout(String sql) throws PgProtocolException, IOException {
+        StatementTimeout command;
+        try {
+            command = StatementTimeout.parseCommand(sql);
+        } catch (IllegalArgumentException ex) {
+            ErrorResponse(makeError("22023", ex.getMessage()));
+            return false;
+        }
+        long value = command.isReset() ? _defaultStatementTimeout : command.getMillis();
+        if (!command.isLocal()) {
+            _statementTimeout = value;
+            _localStatementTimeout = -1;
+        } else if (_inTransaction) {
+            _localStatementTimeout = value;
+        } // like Postgres, SET LOCAL outside a transaction block has no effect
+        CommandComplete(Conversions.getCommand(sql));
+        return true;
+    }
+
+    /**
+     * Starts the timer which cancels the current statement when the statement
+     * timeout expires, if a timeout is set.
+     */
+    private void startStatementTimer() {
+        long timeout = _localStatementTimeout >= 0 ? _localStatementTimeout : _statementTimeout;
+        if (timeout > 0 && _statementTimer == null) {
+            CancellationToken token = _cancel;
+            _statementTimer = _statementTimerWheel.schedule(() -> token.cancel(CancellationToken.STATEMENT_TIMEOUT),
+                    timeout, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops the timer of the statement timeout. If the timeout has already
+     * expired, its task may cancel the token after the statement has
+     * completed: the token is replaced, so that the following statements of
+     * the query (or the following Execute messages) are not cancelled.
+     */
+    private void stopStatementTimer() {
+        if (_statementTimer != null) {
+            if (!_statementTimer.cancel()) {
+                _cancel = new CancellationToken();
+            }
+            _statementTimer = null;
+        }
     }
 
     @Override
     protected void Describe(char what, String name) throws PgProtocolException, IOException {
+        _idle = false;
         switch (what) {
             case 'S':
-                /* TODO implement this.
+                /*
                  * The Describe message (statement variant) specifies the name
                  * of an existing prepared statement (or an empty string for the
                  * unnamed prepared statement). The response is a
@@ -334,8 +1219,22 @@ public class SimpleConnection extends BaseConnection {
                  * not yet known to the backend; the format code fields in the
                  * RowDescription message will be zeroes in this case.
                  */
-                LOGGER.log(Level.SEVERE, "The client requested the unsupported 'describe prepared statement' function");
-                ErrorResponse(makeError("0A000", "unsupported feature: describe prepared statement"));
+                String sql = _stm.getStatementSql(name);
+                if (sql == null) {
+                    ErrorResponse(makeError("26000", "unknown statement name"));
+                } else if (isEmptyQuery(sql.trim()) || StatementTimeout.isCommand(sql)) {
+                    ParameterDescription(Collections.<Integer>emptyList());
+                    NoData();
+                } else {
+                    DataProvider.QueryDescription desc = _provider.describe(sql);
+                    if (desc == null) {
+                        LOGGER.log(Level.SEVERE, "The client requested a 'describe prepared statement' but the provider cannot describe queries");
+                        ErrorResponse(makeError("0A000", "unsupported feature: describe prepared statement"));
+                    } else {
+                        ParameterDescription(getParameterTypes(sql, _stm.getStatementParameterTypes(name), desc.getParameterTypes()));
+                        sendDescription(desc);
+                    }
+                }
                 break;
             case 'P': // portal
                 /*
@@ -351,14 +1250,22 @@ public class SimpleConnection extends BaseConnection {
                 if (portal == null) {
                     ErrorResponse(makeError("42602", "unknown portal name"));
                 } else {
-                    if (isEmptyQuery(portal.sql)) {
+                    if (isEmptyQuery(portal.sql) || StatementTimeout.isCommand(portal.sql)) {
                         NoData();
                     } else {
-                        DataProvider.QueryResult res = portal.getAndStoreResult(_provider);
-                        if (res.getType() == DataProvider.QueryResult.Type.SELECT) {
-                            RowDescription(getTableHeader(res.getHeader()));
+                        // prefer the description, the query is executed only by Execute
+                        DataProvider.QueryDescription desc = _provider.describe(portal.sql);
+                        if (desc != null) {
+                            sendDescription(desc);
                         } else {
-                            NoData();
+                            getActivity().queryStarted(portal.sql);
+                            startTrace(portal.sql); // the Execute of the portal completes the trace
+                            DataProvider.QueryResult res = getResult(portal);
+                            if (res.getType() == DataProvider.QueryResult.Type.SELECT) {
+                                RowDescription(getTableHeader(res.getHeader()));
+                            } else {
+                                NoData();
+                            }
                         }
                     }
                 }
@@ -371,20 +1278,45 @@ public class SimpleConnection extends BaseConnection {
 
     @Override
     protected void CopyFail(String errorMessage) throws PgProtocolException, IOException {
-        LOGGER.log(Level.SEVERE, "Copy operations are not implemented");
-        throw new PgProtocolException("Not supported");
+        if (_copyIn == null) {
+            return; // like Postgres, ignore the messages of a copy already failed
+        }
+        failCopyIn(new PgProtocolException("COPY from stdin failed: " + errorMessage, "57014"));
     }
 
     @Override
-    protected void CopyDataClientMsg(List<Byte> data) throws PgProtocolException, IOException {
-        LOGGER.log(Level.SEVERE, "Copy operations are not implemented");
-        throw new PgProtocolException("Not supported");
+    protected void CopyDataClientMsg(byte[] data) throws PgProtocolException, IOException {
+        if (_copyIn == null) {
+            return;
+        }
+        if (_cancel.isCancelled()) {
+            failCopyIn(new PgProtocolException(_cancel.getMessage(), CancellationToken.QUERY_CANCELED));
+            return;
+        }
+        try {
+            _copyIn.data(data);
+        } catch (PgProtocolException ex) {
+            failCopyIn(ex);
+        }
     }
 
     @Override
     protected void CopyDoneClientMsg() throws PgProtocolException, IOException {
-        LOGGER.log(Level.SEVERE, "Copy operations are not implemented");
-        throw new PgProtocolException("Not supported");
+        if (_copyIn == null) {
+            return;
+        }
+        long rows;
+        try {
+            rows = _copyIn.done();
+        } catch (PgProtocolException ex) {
+            failCopyIn(ex);
+            return;
+        }
+        _copyIn.close();
+        _copyIn = null;
+        stopStatementTimer();
+        CommandComplete("COPY " + rows);
+        executePendingStatements();
     }
 
     @Override
@@ -0,0 +1,230 @@
+package edu.purdue.jpgsql;
+
+import edu.purdue.jpgsql.copy.CopyOptions;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Decorates a {@link DataProvider} adding the virtual relation
+ * pg_stat_activity, which lists what the sessions are doing. The query
+ * <code>SELECT * FROM pg_stat_activity</code> (optionally qualified with
+ * pg_catalog) is answered from the activity of the sessions, usually
+ * {@link ConnectionPool#getActivity() }; any other query is forwarded to the
+ * decorated provider. The columns are a subset of the ones of Postgres: pid,
+ * usename, datname, application_name, client_addr, client_port,
+ * backend_start, query_start, state_change, state and query. Use as
+ * <code>new SimpleConnection(socket, new StatActivityProvider(provider,
+ * pool::getActivity), pid, cancelCallback)</code>.
+ * <p>
+ * The query text contains the values bound to the parameters, therefore, like
+ * in Postgres, a user sees the details of its own sessions only: for the
+ * sessions of the other users client_addr, client_port, backend_start,
+ * query_start, state_change and state are null and query is
+ * <code>&lt;insufficient privilege&gt;</code>. The users allowed to see every
+ * session, like the members of pg_read_all_stats, are chosen with
+ * {@link #StatActivityProvider(edu.purdue.jpgsql.DataProvider, java.util.function.Supplier, java.util.function.Predicate)
+ * }.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public class StatActivityProvider implements DataProvider {
+
+    private static final Pattern QUERY = Pattern.compile("(?is)\\s*select\\s+\\*\\s+from\\s+(pg_catalog\\s*\\.\\s*)?pg_stat_activity\\s*;?\\s*");
+    private static final List<String> HEADER = Collections.unmodifiableList(Arrays.asList(
+            "pid", "usename", "datname", "application_name", "client_addr", "client_port",
+            "backend_start", "query_start", "state_change", "state", "query"));
+    private static final int INT4 = 23;
+    private static final int VARCHAR = 1043;
+    private static final int TIMESTAMPTZ = 1184;
+    private static final List<Integer> TYPES = Collections.unmodifiableList(Arrays.asList(
+            INT4, VARCHAR, VARCHAR, VARCHAR, VARCHAR, INT4,
+            TIMESTAMPTZ, TIMESTAMPTZ, TIMESTAMPTZ, VARCHAR, VARCHAR));
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSSx")
+            .withZone(ZoneId.systemDefault());
+
+    private static final String INSUFFICIENT_PRIVILEGE = "<insufficient privilege>";
+
+    private final DataProvider _provider;
+    private final Supplier<List<SessionActivity.Snapshot>> _activity;
+    private final Predicate<String> _readAllStats;
+    private String _user;
+
+    /**
+     * Creates a StatActivityProvider which shows the details of the sessions
+     * of the connected user only.
+     *
+     * @param provider the provider answering the other queries.
+     * @param activity the function listing the activity of the sessions.
+     */
+    public StatActivityProvider(DataProvider provider, Supplier<List<SessionActivity.Snapshot>> activity) {
+        this(provider, activity, user -> false);
+    }
+
+    /**
+     * Creates a StatActivityProvider.
+     *
+     * @param provider the provider answering the other queries.
+     * @param activity the function listing the activity of the sessions.
+     * @param readAllStats the function telling whether a user can see the
+     * details, including the query text, of the sessions of the other users.
+     */
+    public StatActivityProvider(DataProvider provider, Supplier<List<SessionActivity.Snapshot>> activity,
+            Predicate<String> readAllStats) {
+        if (provider == null || activity == null || readAllStats == null) {
+            throw new NullPointerException();
+        }
+        _provider = provider;
+        _activity = activity;
+        _readAllStats = readAllStats;
+    }
+
+    /**
+     * Checks whether a query reads pg_stat_activity.
+     *
+     * @param query the query.
+     * @return true if the query is answered by this class.
+     */
+    public static boolean isStatActivityQuery(String query) {
+        return QUERY.matcher(query).matches();
+    }
+
+    @Override
+    public boolean setUser(String user) {
+        if (_provider.setUser(user)) {
+            _user = user;
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean setDatabase(String database) {
+        return _provider.setDatabase(database);
+    }
+
+    @Override
+    public boolean setPassword(String password) {
+        return _provider.setPassword(password);
+    }
+
+    @Override
+    public QueryResult getResult(String query) {
+        return isStatActivityQuery(query) ? getActivity() : _provider.getResult(query);
+    }
+
+    @Override
+    public QueryResult getResult(String query, CancellationToken token) {
+        return isStatActivityQuery(query) ? getActivity() : _provider.getResult(query, token);
+    }
+
+    @Override
+    public boolean isCacheable(String query) {
+        return !isStatActivityQuery(query) && _provider.isCacheable(query);
+    }
+
+    @Override
+    public QueryDescription describe(String query) {
+        if (isStatActivityQuery(query)) {
+            return new QueryDescription() {
+                @Override
+                public List<String> getHeader() {
+                    return HEADER;
+                }
+
+                @Override
+                public List<Integer> getColumnTypes() {
+                    return TYPES;
+                }
+            };
+        }
+        return _provider.describe(query);
+    }
+
+    @Override
+    public BulkLoadSink bulkLoad(String table, List<String> columns) {
+        return _provider.bulkLoad(table, columns);
+    }
+
+    @Override
+    public FileRegion copyFile(String table, List<String> columns, CopyOptions options) {
+        return _provider.copyFile(table, columns, options);
+    }
+
+    private QueryResult getActivity() {
+        List<List<String>> rows = new ArrayList<>();
+        boolean readAll = _user != null && _readAllStats.test(_user);
+        for (SessionActivity.Snapshot session : _activity.get()) {
+            boolean visible = readAll || (_user != null && _user.equals(session.getUser()));
+            rows.add(visible ? toRow(session) : toHiddenRow(session));
+        }
+        return new QueryResult() {
+            @Override
+            public Type getType() {
+                return Type.SELECT;
+            }
+
+            @Override
+            public int getRowCount() {
+                return rows.size();
+            }
+
+            @Override
+            public String getErrorMessage() {
+                return null;
+            }
+
+            @Override
+            public Iterator<List<String>> getRows() {
+                return rows.iterator();
+            }
+
+            @Override
+            public List<String> getHeader() {
+                return HEADER;
+            }
+        };
+    }
+
+    private static List<String> toRow(SessionActivity.Snapshot session) {
+        int port = session.getClientPort();
+        return Arrays.asList(
+                Integer.toString(session.getPid()),
+                session.getUser(),
+                session.getDatabase(),
+                session.getApplicationName(),
+                session.getClientHost(),
+                port < 0 ? null : Integer.toString(port),
+                formatTime(session.getBackendStart()),
+                formatTime(session.getQueryStart()),
+                formatTime(session.getStateChange()),
+                session.getState().toString(),
+                session.getQuery());
+    }
+
+    /**
+     * Returns the row of a session of another user, which shows only who is
+     * connected.
+     */
+    private static List<String> toHiddenRow(SessionActivity.Snapshot session) {
+        return Arrays.asList(
+                Integer.toString(session.getPid()),
+                session.getUser(),
+                session.getDatabase(),
+                session.getApplicationName(),
+                null, null, null, null, null, null,
+                INSUFFICIENT_PRIVILEGE);
+    }
+
+        private static String formatTime(long millis) {
+        return millis == 0 ? null : TIMESTAMP.format(Instant.ofEpochMilli(millis));
+    }
+}
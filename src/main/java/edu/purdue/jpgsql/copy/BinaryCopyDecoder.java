@@ -0,0 +1,132 @@
+package edu.purdue.jpgsql.copy;
+
+import edu.purdue.jpgsql.PgProtocolException;
+import edu.purdue.jpgsql.type.BinaryCodec;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decodes rows in the binary format. The values are converted to text by the
+ * {@link BinaryCodec} of their column type. A row is decoded only when all its
+ * fields have been received.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+class BinaryCopyDecoder extends CopyDecoder {
+
+    /**
+     * The SQL state of the errors caused by invalid binary values.
+     */
+    static final String INVALID_BINARY_REPRESENTATION = "22P03";
+
+    private final BinaryCodec[] _codecs;
+    private boolean _headerRead;
+
+    BinaryCopyDecoder(CopyOptions options, List<String> columns, List<Integer> types) {
+        super(options, columns);
+        int size = types == null ? 0 : types.size();
+        _codecs = new BinaryCodec[size];
+        for (int n = 0; n < size; n++) {
+            _codecs[n] = BinaryCodec.forType(types.get(n) == null ? 0 : types.get(n));
+        }
+    }
+
+    @Override
+    protected List<String> readRow() throws PgProtocolException {
+        byte[] buf = buffer();
+        int pos = position();
+        int limit = limit();
+        if (!_headerRead) {
+            int headerSize = BinaryCopyEncoder.HEADER.length;
+            if (!available(pos, limit, headerSize)) {
+                return null;
+            }
+            for (int n = 0; n < 11; n++) {
+                if (buf[pos + n] != BinaryCopyEncoder.HEADER[n]) {
+                    throw new PgProtocolException("COPY file signature not recognized", CopyDecoder.BAD_COPY_FORMAT);
+                }
+            }
+            if ((int32(buf, pos + 11) & 0xFFFF0000) != 0) {
+                throw new PgProtocolException("unrecognized critical flags in COPY file header", CopyDecoder.BAD_COPY_FORMAT);
+            }
+            int extension = int32(buf, pos + 15);
+            if (extension < 0) {
+                throw new PgProtocolException("invalid COPY file header (wrong length)", CopyDecoder.BAD_COPY_FORMAT);
+            }
+            if (!available(pos, limit, headerSize + extension)) {
+                return null;
+            }
+            pos += headerSize + extension;
+            consume(pos);
+            _headerRead = true;
+        }
+        if (pos == limit && isEnded()) {
+            finish(); // like Postgres, accept a stream without trailer
+            return null;
+        }
+        if (!available(pos, limit, 2)) {
+            return null;
+        }
+        int fields = (short) ((buf[pos] & 0xFF) << 8 | (buf[pos + 1] & 0xFF));
+        if (fields == -1) {
+            finish();
+            return null;
+        }
+        if (fields < 0) {
+            throw new PgProtocolException("row field count is " + fields, CopyDecoder.BAD_COPY_FORMAT);
+        }
+        // check that the whole row has been received before decoding it
+        int end = pos + 2;
+        for (int n = 0; n < fields; n++) {
+            if (!available(end, limit, 4)) {
+                return null;
+            }
+            int len = int32(buf, end);
+            end += 4;
+            if (len > 0) {
+                if (!available(end, limit, len)) {
+                    return null;
+                }
+                end += len;
+            }
+        }
+        List<String> row = new ArrayList<>(fields);
+        int field = pos + 2;
+        for (int n = 0; n < fields; n++) {
+            int len = int32(buf, field);
+            field += 4;
+            if (len < 0) {
+                row.add(null);
+                continue;
+            }
+            BinaryCodec codec = n < _codecs.length ? _codecs[n] : BinaryCodec.forType(0);
+            try {
+                row.add(codec.decode(buf, field, len));
+            } catch (IllegalArgumentException ex) {
+                throw new PgProtocolException(ex.getMessage(), INVALID_BINARY_REPRESENTATION);
+            }
+            field += len;
+        }
+        consume(end);
+        return row;
+    }
+
+    /**
+     * Returns true if the data contains the specified number of bytes.
+     *
+     * @throws PgProtocolException if the data ended before.
+     */
+    private boolean available(int pos, int limit, int size) throws PgProtocolException {
+        if (limit - pos >= size) {
+            return true;
+        }
+        if (isEnded()) {
+            throw new PgProtocolException("unexpected EOF in COPY data", CopyDecoder.BAD_COPY_FORMAT);
+        }
+        return false;
+    }
+
+    private static int int32(byte[] buf, int pos) {
+        return (buf[pos] & 0xFF) << 24 | (buf[pos + 1] & 0xFF) << 16 | (buf[pos + 2] & 0xFF) << 8 | (buf[pos + 3] & 0xFF);
+    }
+}
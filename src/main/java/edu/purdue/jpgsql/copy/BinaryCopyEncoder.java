@@ -0,0 +1,70 @@
+package edu.purdue.jpgsql.copy;
+
+import edu.purdue.jpgsql.type.BinaryCodec;
+import java.util.List;
+
+/**
+ * Encodes rows in the binary format: a signature header, then every row as
+ * the number of fields followed by the fields as int32 length and value, then
+ * a -1 trailer. The values are converted by the {@link BinaryCodec} of their
+ * column type.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+class BinaryCopyEncoder extends CopyEncoder {
+
+    /**
+     * The signature, the flags and the length of the header extension.
+     */
+    static final byte[] HEADER = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0,
+        0, 0, 0, 0,
+        0, 0, 0, 0};
+
+    private final BinaryCodec[] _codecs;
+
+    BinaryCopyEncoder(CopyOptions options, List<String> columns, List<Integer> types) {
+        super(options, columns);
+        _codecs = new BinaryCodec[columns.size()];
+        for (int n = 0; n < _codecs.length; n++) {
+            _codecs[n] = BinaryCodec.forType(types == null || types.get(n) == null ? 0 : types.get(n));
+        }
+    }
+
+    @Override
+    public void start() {
+        append(HEADER);
+    }
+
+    @Override
+    public void writeRow(List<String> row) {
+        appendInt16(row.size());
+        int n = 0;
+        for (String val : row) {
+            if (val == null) {
+                appendInt32(-1);
+            } else {
+                byte[] data = (n < _codecs.length ? _codecs[n] : BinaryCodec.forType(0)).encode(val);
+                appendInt32(data.length);
+                append(data);
+            }
+            n++;
+        }
+    }
+
+    @Override
+    public void finish() {
+        appendInt16(-1);
+    }
+
+    private void appendInt16(int i) {
+        append((byte) (i >>> 8));
+        append((byte) i);
+    }
+
+    private void appendInt32(int i) {
+        append((byte) (i >>> 24));
+        append((byte) (i >>> 16));
+        append((byte) (i >>> 8));
+        append((byte) i);
+    }
+}
@@ -0,0 +1,554 @@
+package edu.purdue.jpgsql.copy;
+
+import edu.purdue.jpgsql.PgProtocolException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Represents a parsed COPY command. Both the current syntax (with the options
+ * in parentheses) and the syntax used before Postgres 9.0 are accepted:
+ * <pre>
+ * COPY { table [ ( column [, ...] ) ] | ( query ) }
+ *     { TO | FROM } { STDOUT | STDIN | 'filename' | PROGRAM 'command' }
+ *     [ [ WITH ] ( option [, ...] ) ]
+ * </pre>
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public class CopyCommand {
+
+    private final String _table;
+    private final List<String> _columns;
+    private final String _query;
+    private final boolean _from;
+    private final boolean _stdio;
+    private final CopyOptions _options;
+
+    private CopyCommand(String table, List<String> columns, String query, boolean from, boolean stdio,
+            CopyOptions options) {
+        _table = table;
+        _columns = columns;
+        _query = query;
+        _from = from;
+        _stdio = stdio;
+        _options = options;
+    }
+
+    /**
+     * Returns the target table.
+     *
+     * @return the table name, as written in the command, or null if the
+     * command copies the result of a query.
+     */
+    public String getTable() {
+        return _table;
+    }
+
+    /**
+     * Returns the columns to copy.
+     *
+     * @return the column names, as written in the command, or an empty list
+     * for all the columns.
+     */
+    public List<String> getColumns() {
+        return _columns;
+    }
+
+    /**
+     * Returns the query whose result has to be copied to the client. If the
+     * command specifies a table, the query selects its columns.
+     *
+     * @return the SELECT query.
+     */
+    public String getQuery() {
+        if (_query != null) {
+            return _query;
+        }
+        String columns = _columns.isEmpty() ? "*" : String.join(", ", _columns);
+        return "SELECT " + columns + " FROM " + _table;
+    }
+
+    /**
+     * Returns true if the data is copied into the table (COPY FROM), false if
+     * it is copied out (COPY TO).
+     *
+     * @return true for COPY FROM.
+     */
+    public boolean isFrom() {
+        return _from;
+    }
+
+    /**
+     * Returns true if the data is exchanged with the client (STDIN or STDOUT),
+     * false if the command refers to a file or a program on the server.
+     *
+     * @return true for STDIN and STDOUT.
+     */
+    public boolean isStdio() {
+        return _stdio;
+    }
+
+    /**
+     * Returns the options of the command.
+     *
+     * @return the options.
+     */
+    public CopyOptions getOptions() {
+        return _options;
+    }
+
+    /**
+     * Parses a COPY command.
+     *
+     * @param sql the command.
+     * @return the parsed command.
+     * @throws PgProtocolException if the command is not a valid COPY.
+     */
+    public static CopyCommand parse(String sql) throws PgProtocolException {
+        Lexer lex = new Lexer(sql);
+        lex.expect("COPY");
+        CopyOptions options = new CopyOptions();
+        if (lex.accept("BINARY")) {
+            options.setFormat(CopyOptions.Format.BINARY);
+        }
+        String table = null;
+        String query = null;
+        List<String> columns = Collections.emptyList();
+        if ("(".equals(lex.peek())) {
+            query = lex.parenthesized().trim();
+        } else {
+            table = lex.name();
+            if ("(".equals(lex.peek())) {
+                columns = lex.nameList();
+            }
+        }
+        boolean from;
+        if (lex.accept("FROM")) {
+            from = true;
+        } else {
+            lex.expect("TO");
+            from = false;
+        }
+        if (from && query != null) {
+            throw new PgProtocolException("COPY FROM does not support a query");
+        }
+        boolean stdio;
+        if (lex.accept(from ? "STDIN" : "STDOUT")) {
+            stdio = true;
+        } else {
+            lex.accept("PROGRAM");
+            lex.string();
+            stdio = false;
+        }
+        lex.accept("WITH");
+        if ("(".equals(lex.peek())) {
+            parseOptions(lex, options);
+        } else {
+            parseLegacyOptions(lex, options);
+        }
+        lex.accept(";");
+        if (lex.peek() != null) {
+            throw new PgProtocolException("syntax error at or near \"" + lex.peek() + "\"");
+        }
+        validate(options, from);
+        return new CopyCommand(table, columns, query, from, stdio, options);
+    }
+
+    private static void parseOptions(Lexer lex, CopyOptions options) throws PgProtocolException {
+        lex.expect("(");
+        do {
+            String name = lex.word().toUpperCase();
+            switch (name) {
+                case "FORMAT":
+                    options.setFormat(format(lex.value()));
+                    break;
+                case "DELIMITER":
+                    options.setDelimiter(character(name, lex.string()));
+                    break;
+                case "NULL":
+                    options.setNull(lex.string());
+                    break;
+                case "HEADER":
+                    options.setHeader(lex.bool());
+                    break;
+                case "QUOTE":
+                    options.setQuote(character(name, lex.string()));
+                    break;
+                case "ESCAPE":
+                    options.setEscape(character(name, lex.string()));
+                    break;
+                case "FORCE_QUOTE":
+                    if (lex.accept("*")) {
+                        options.setForceQuoteAll();
+                    } else {
+                        options.setForceQuote(lex.nameList());
+                    }
+                    break;
+                case "FORCE_NOT_NULL":
+                    options.setForceNotNull(lex.nameList());
+                    break;
+                case "FORCE_NULL":
+                    options.setForceNull(lex.nameList());
+                    break;
+                case "ENCODING":
+                    checkEncoding(lex.string());
+                    break;
+                case "OIDS":
+                    if (lex.bool()) {
+                        throw new PgProtocolException("COPY with OIDS is not supported");
+                    }
+                    break;
+                case "FREEZE":
+                    lex.bool();
+                    break;
+                default:
+                    throw new PgProtocolException("option \"" + name.toLowerCase() + "\" not recognized");
+            }
+        } while (lex.accept(","));
+        lex.expect(")");
+    }
+
+    private static void parseLegacyOptions(Lexer lex, CopyOptions options) throws PgProtocolException {
+        String word;
+        while ((word = lex.peek()) != null && !word.equals(";")) {
+            lex.next();
+            switch (word.toUpperCase()) {
+                case "BINARY":
+                    options.setFormat(CopyOptions.Format.BINARY);
+                    break;
+                case "CSV":
+                    options.setFormat(CopyOptions.Format.CSV);
+                    break;
+                case "HEADER":
+                    options.setHeader(true);
+                    break;
+                case "DELIMITER":
+                    lex.accept("AS");
+                    options.setDelimiter(character("DELIMITER", lex.string()));
+                    break;
+                case "NULL":
+                    lex.accept("AS");
+                    options.setNull(lex.string());
+                    break;
+                case "QUOTE":
+                    lex.accept("AS");
+                    options.setQuote(character("QUOTE", lex.string()));
+                    break;
+                case "ESCAPE":
+                    lex.accept("AS");
+                    options.setEscape(character("ESCAPE", lex.string()));
+                    break;
+                case "FORCE":
+                    if (lex.accept("QUOTE")) {
+                        if (lex.accept("*")) {
+                            options.setForceQuoteAll();
+                        } else {
+                            options.setForceQuote(lex.bareNameList());
+                        }
+                    } else {
+                        lex.expect("NOT");
+                        lex.expect("NULL");
+                        options.setForceNotNull(lex.bareNameList());
+                    }
+                    break;
+                case "OIDS":
+                    throw new PgProtocolException("COPY with OIDS is not supported");
+                default:
+                    throw new PgProtocolException("syntax error at or near \"" + word + "\"");
+            }
+        }
+    }
+
+    private static void validate(CopyOptions options, boolean from) throws PgProtocolException {
+        boolean csv = options.getFormat() == CopyOptions.Format.CSV;
+        char delimiter = options.getDelimiter();
+        if (!csv && (delimiter == '\\' || delimiter == '\r' || delimiter == '\n')) {
+            throw new PgProtocolException("COPY delimiter cannot be newline, carriage return or backslash");
+        }
+        if (options.getNull().indexOf('\r') >= 0 || options.getNull().indexOf('\n') >= 0) {
+            throw new PgProtocolException("COPY null representation cannot use newline or carriage return");
+        }
+        if (options.hasHeader() && !csv) {
+            throw new PgProtocolException("COPY HEADER available only in CSV mode");
+        }
+        if (csv && options.getQuote() == delimiter) {
+            throw new PgProtocolException("COPY delimiter and quote must be different");
+        }
+        if (!from && (!options.getForceNotNull().isEmpty() || !options.getForceNull().isEmpty())) {
+            throw new PgProtocolException("COPY force not null and force null only available using COPY FROM");
+        }
+        if (!csv && (!options.getForceNotNull().isEmpty() || !options.getForceNull().isEmpty())) {
+            throw new PgProtocolException("COPY force not null and force null available only in CSV mode");
+        }
+    }
+
+    private static CopyOptions.Format format(String name) throws PgProtocolException {
+        try {
+            return CopyOptions.Format.valueOf(name.toUpperCase());
+        } catch (IllegalArgumentException ex) {
+            throw new PgProtocolException("COPY format \"" + name + "\" not recognized");
+        }
+    }
+
+    private static char character(String option, String value) throws PgProtocolException {
+        if (value.length() != 1 || value.charAt(0) >= 0x80) {
+            throw new PgProtocolException("COPY " + option.toLowerCase() + " must be a single one-byte character");
+        }
+        return value.charAt(0);
+    }
+
+    private static void checkEncoding(String encoding) throws PgProtocolException {
+        String e = encoding.replace("-", "").replace("_", "").toUpperCase();
+        if (!e.equals("UTF8") && !e.equals("UNICODE")) {
+            throw new PgProtocolException("COPY encoding \"" + encoding + "\" is not supported");
+        }
+    }
+
+    /**
+     * Splits the command in tokens: words, quoted strings (returned with the
+     * quotes), quoted identifiers and punctuation.
+     */
+    private static final class Lexer {
+
+        private final String _sql;
+        private int _pos;
+        private String _peeked;
+
+        Lexer(String sql) {
+            _sql = sql;
+        }
+
+        String peek() throws PgProtocolException {
+            if (_peeked == null) {
+                _peeked = read();
+            }
+            return _peeked;
+        }
+
+        String next() throws PgProtocolException {
+            String tok = peek();
+            _peeked = null;
+            return tok;
+        }
+
+        boolean accept(String keyword) throws PgProtocolException {
+            String tok = peek();
+            if (tok != null && tok.equalsIgnoreCase(keyword)) {
+                _peeked = null;
+                return true;
+            }
+            return false;
+        }
+
+        void expect(String keyword) throws PgProtocolException {
+            if (!accept(keyword)) {
+                throw unexpected();
+            }
+        }
+
+        String word() throws PgProtocolException {
+            String tok = next();
+            if (tok == null || !isWordStart(tok.charAt(0))) {
+                throw unexpected(tok);
+            }
+            return tok;
+        }
+
+        String string() throws PgProtocolException {
+            String tok = next();
+            if (tok == null || !(tok.startsWith("'") || tok.startsWith("E'") || tok.startsWith("e'"))) {
+                throw unexpected(tok);
+            }
+            return unquote(tok);
+        }
+
+        String value() throws PgProtocolException {
+            String tok = peek();
+            return tok != null && tok.startsWith("'") ? string() : word();
+        }
+
+        boolean bool() throws PgProtocolException {
+            String tok = peek();
+            if (tok == null || tok.equals(",") || tok.equals(")")) {
+                return true;
+            }
+            String v = value().toLowerCase();
+            switch (v) {
+                case "true":
+                case "on":
+                case "1":
+                    return true;
+                case "false":
+                case "off":
+                case "0":
+                    return false;
+                default:
+                    throw new PgProtocolException("invalid boolean value \"" + v + "\"");
+            }
+        }
+
+        String name() throws PgProtocolException {
+            String tok = next();
+            if (tok == null || !(isWordStart(tok.charAt(0)) || tok.charAt(0) == '"')) {
+                throw unexpected(tok);
+            }
+            StringBuilder sb = new StringBuilder(tok);
+            while (accept(".")) {
+                sb.append('.').append(name());
+            }
+            return sb.toString();
+        }
+
+        List<String> nameList() throws PgProtocolException {
+            expect("(");
+            List<String> names = bareNameList();
+            expect(")");
+            return names;
+        }
+
+        List<String> bareNameList() throws PgProtocolException {
+            List<String> names = new ArrayList<>();
+            do {
+                names.add(name());
+            } while (accept(","));
+            return names;
+        }
+
+        /**
+         * Returns the text between a parenthesis and the matching one.
+         */
+        String parenthesized() throws PgProtocolException {
+            if (_peeked == null || !_peeked.equals("(")) {
+                throw unexpected();
+            }
+            _peeked = null;
+            int start = _pos;
+            int depth = 1;
+            while (_pos < _sql.length()) {
+                char c = _sql.charAt(_pos);
+                if (c == '\'' || c == '"') {
+                    skipQuoted(c);
+                    continue;
+                }
+                _pos++;
+                if (c == '(') {
+                    depth++;
+                } else if (c == ')' && --depth == 0) {
+                    return _sql.substring(start, _pos - 1);
+                }
+            }
+            throw new PgProtocolException("syntax error: unbalanced parentheses");
+        }
+
+        private String read() throws PgProtocolException {
+            skipSpaces();
+            if (_pos >= _sql.length()) {
+                return null;
+            }
+            int start = _pos;
+            char c = _sql.charAt(_pos);
+            if ((c == 'E' || c == 'e') && _pos + 1 < _sql.length() && _sql.charAt(_pos + 1) == '\'') {
+                _pos++;
+                skipQuoted('\'');
+            } else if (c == '\'' || c == '"') {
+                skipQuoted(c);
+            } else if (isWordStart(c)) {
+                while (_pos < _sql.length() && (isWordStart(_sql.charAt(_pos)) || _sql.charAt(_pos) == '$')) {
+                    _pos++;
+                }
+            } else {
+                _pos++;
+            }
+            return _sql.substring(start, _pos);
+        }
+
+        private void skipQuoted(char quote) throws PgProtocolException {
+            boolean escapes = quote == '\'' && _pos > 0
+                    && (_sql.charAt(_pos - 1) == 'E' || _sql.charAt(_pos - 1) == 'e');
+            for (_pos++; _pos < _sql.length(); _pos++) {
+                char c = _sql.charAt(_pos);
+                if (escapes && c == '\\') {
+                    _pos++;
+                } else if (c == quote) {
+                    if (_pos + 1 < _sql.length() && _sql.charAt(_pos + 1) == quote) {
+                        _pos++;
+                    } else {
+                        _pos++;
+                        return;
+                    }
+                }
+            }
+            throw new PgProtocolException("unterminated quoted string");
+        }
+
+        private void skipSpaces() {
+            while (_pos < _sql.length()) {
+                if (Character.isWhitespace(_sql.charAt(_pos))) {
+                    _pos++;
+                } else if (_sql.startsWith("--", _pos)) {
+                    int end = _sql.indexOf('\n', _pos);
+                    _pos = end < 0 ? _sql.length() : end + 1;
+                } else if (_sql.startsWith("/*", _pos)) {
+                    int end = _sql.indexOf("*/", _pos);
+                    _pos = end < 0 ? _sql.length() : end + 2;
+                } else {
+                    return;
+                }
+            }
+        }
+
+        private PgProtocolException unexpected() throws PgProtocolException {
+            return unexpected(peek());
+        }
+
+        private static PgProtocolException unexpected(String tok) {
+            if (tok == null) {
+                return new PgProtocolException("syntax error at end of input");
+            }
+            return new PgProtocolException("syntax error at or near \"" + tok + "\"");
+        }
+
+        private static boolean isWordStart(char c) {
+            return Character.isLetterOrDigit(c) || c == '_';
+        }
+
+        private static String unquote(String tok) {
+            boolean escapes = tok.charAt(0) != '\'';
+            String body = tok.substring(escapes ? 2 : 1, tok.length() - 1);
+            if (!escapes) {
+                return body.replace("''", "'");
+            }
+            StringBuilder sb = new StringBuilder(body.length());
+            for (int i = 0; i < body.length(); i++) {
+                char c = body.charAt(i);
+                if (c == '\'') {
+                    i++;
+                } else if (c == '\\' && i + 1 < body.length()) {
+                    c = body.charAt(++i);
+                    switch (c) {
+                        case 'b':
+                            c = '\b';
+                            break;
+                        case 'f':
+                            c = '\f';
+                            break;
+                        case 'n':
+                            c = '\n';
+                            break;
+                        case 'r':
+                            c = '\r';
+                            break;
+                        case 't':
+                            c = '\t';
+                            break;
+                        default:
+                            break;
+                    }
+                }
+                sb.append(c);
+            }
+            return sb.toString();
+        }
+    }
+}
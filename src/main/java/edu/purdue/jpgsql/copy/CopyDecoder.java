@@ -0,0 +1,190 @@
+package edu.purdue.jpgsql.copy;
+
+import edu.purdue.jpgsql.PgProtocolException;
+import java.util.List;
+
+/**
+ * Decodes rows in the data format of COPY FROM. The data is fed in chunks,
+ * i.e. the content of the CopyData messages, which are not aligned with the
+ * rows: a row may be split across many messages. Only the bytes of the row
+ * currently being decoded are kept, therefore the memory used does not depend
+ * on the size of the whole stream.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public abstract class CopyDecoder {
+
+    /**
+     * The SQL state of the errors caused by malformed data.
+     */
+    public static final String BAD_COPY_FORMAT = "22P04";
+
+    protected final CopyOptions _options;
+    protected final List<String> _columns;
+    private byte[] _buffer = new byte[CopyEncoder.CHUNK_SIZE];
+    private int _start;
+    private int _end;
+    private boolean _ended;
+    private boolean _finished;
+
+    protected CopyDecoder(CopyOptions options, List<String> columns) {
+        _options = options;
+        _columns = columns;
+    }
+
+    /**
+     * Creates the decoder for the format of the options.
+     *
+     * @param options the COPY options.
+     * @param columns the names of the copied columns, or null if unknown. If
+     * known, the number of values of every row is checked.
+     * @return the decoder.
+     * @throws PgProtocolException if the options refer to a column which is
+     * not copied.
+     */
+    public static CopyDecoder create(CopyOptions options, List<String> columns) throws PgProtocolException {
+        return create(options, columns, null);
+    }
+
+    /**
+     * Creates the decoder for the format of the options.
+     *
+     * @param options the COPY options.
+     * @param columns the names of the copied columns, or null if unknown. If
+     * known, the number of values of every row is checked.
+     * @param types the object ID of the column types, used by the binary
+     * format, or null if unknown. Unknown types are decoded as text.
+     * @return the decoder.
+     * @throws PgProtocolException if the options refer to a column which is
+     * not copied.
+     */
+    public static CopyDecoder create(CopyOptions options, List<String> columns, List<Integer> types) throws PgProtocolException {
+        switch (options.getFormat()) {
+            case TEXT:
+                return new TextCopyDecoder(options, columns);
+            case CSV:
+                return new CsvCopyDecoder(options, columns);
+            default:
+                return new BinaryCopyDecoder(options, columns, types);
+        }
+    }
+
+    /**
+     * Appends a chunk of data. The complete rows it contains can be read with
+     * {@link #next() }.
+     *
+     * @param data the buffer containing the data.
+     * @param offset the position of the first byte.
+     * @param length the number of bytes.
+     */
+    public void feed(byte[] data, int offset, int length) {
+        if (_finished) {
+            return;
+        }
+        if (_start > 0) {
+            System.arraycopy(_buffer, _start, _buffer, 0, _end - _start);
+            _end -= _start;
+            _start = 0;
+        }
+        if (_end + length > _buffer.length) {
+            byte[] b = new byte[Math.max(_buffer.length * 2, _end + length)];
+            System.arraycopy(_buffer, 0, b, 0, _end);
+            _buffer = b;
+        }
+        System.arraycopy(data, offset, _buffer, _end, length);
+        _end += length;
+    }
+
+    /**
+     * Signals that no more data will be fed. The last row may not be
+     * terminated by a new line.
+     */
+    public void end() {
+        _ended = true;
+    }
+
+    /**
+     * Decodes the next row.
+     *
+     * @return the values of the row, or null if there is no complete row in
+     * the data fed so far.
+     * @throws PgProtocolException if the data is malformed.
+     */
+    public List<String> next() throws PgProtocolException {
+        if (_finished) {
+            return null;
+        }
+        List<String> row = readRow();
+        if (row != null && _columns != null && row.size() != _columns.size()) {
+            if (row.size() > _columns.size()) {
+                throw new PgProtocolException("extra data after last expected column", BAD_COPY_FORMAT);
+            }
+            throw new PgProtocolException("missing data for column \"" + _columns.get(row.size()) + "\"",
+                    BAD_COPY_FORMAT);
+        }
+        return row;
+    }
+
+    /**
+     * Decodes the next row from the unconsumed data, i.e. the bytes from
+     * {@link #position() } to {@link #limit() }.
+     *
+     * @return the row or null if there is no complete row.
+     * @throws PgProtocolException if the data is malformed.
+     */
+    protected abstract List<String> readRow() throws PgProtocolException;
+
+    /**
+     * Returns the buffer containing the data. The buffer changes when data is
+     * fed.
+     *
+     * @return the buffer.
+     */
+    protected byte[] buffer() {
+        return _buffer;
+    }
+
+    /**
+     * Returns the position of the first unconsumed byte. The position changes
+     * when data is fed.
+     *
+     * @return the position in the buffer.
+     */
+    protected int position() {
+        return _start;
+    }
+
+    /**
+     * Returns the end of the valid data.
+     *
+     * @return the position in the buffer.
+     */
+    protected int limit() {
+        return _end;
+    }
+
+    /**
+     * Marks the data up to the specified position as decoded.
+     *
+     * @param position the position of the first byte not consumed yet.
+     */
+    protected void consume(int position) {
+        _start = position;
+    }
+
+    /**
+     * Returns true if no more data will be fed.
+     *
+     * @return true after {@link #end() }.
+     */
+    protected boolean isEnded() {
+        return _ended;
+    }
+
+    /**
+     * Marks the end of the data: the remaining bytes are ignored.
+     */
+    protected void finish() {
+        _finished = true;
+    }
+}
@@ -0,0 +1,191 @@
+package edu.purdue.jpgsql.copy;
+
+import java.util.List;
+
+/**
+ * Encodes rows in the data format of COPY TO. The rows are appended to an
+ * internal buffer, which is meant to be sent in a single CopyData message when
+ * it reaches {@link #CHUNK_SIZE} bytes: the protocol does not require the
+ * messages to be aligned with the rows, therefore many rows share the same
+ * message. In text and CSV format the strings are encoded in UTF-8.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public abstract class CopyEncoder {
+
+    /**
+     * The size of the data sent in a single CopyData message.
+     */
+    public static final int CHUNK_SIZE = 64 * 1024;
+
+    protected final CopyOptions _options;
+    protected final List<String> _columns;
+    private byte[] _buffer = new byte[CHUNK_SIZE + 1024];
+    private int _size;
+
+    protected CopyEncoder(CopyOptions options, List<String> columns) {
+        _options = options;
+        _columns = columns;
+    }
+
+    /**
+     * Creates the encoder for the format of the options.
+     *
+     * @param options the COPY options.
+     * @param columns the names of the copied columns.
+     * @return the encoder.
+     */
+    public static CopyEncoder create(CopyOptions options, List<String> columns) {
+        return create(options, columns, null);
+    }
+
+    /**
+     * Creates the encoder for the format of the options.
+     *
+     * @param options the COPY options.
+     * @param columns the names of the copied columns.
+     * @param types the object ID of the column types, used by the binary
+     * format, or null if unknown. Unknown types are encoded as text.
+     * @return the encoder.
+     */
+    public static CopyEncoder create(CopyOptions options, List<String> columns, List<Integer> types) {
+        switch (options.getFormat()) {
+            case TEXT:
+                return new TextCopyEncoder(options, columns);
+            case CSV:
+                return new CsvCopyEncoder(options, columns);
+            default:
+                return new BinaryCopyEncoder(options, columns, types);
+        }
+    }
+
+    /**
+     * Writes what precedes the rows (i.e. the CSV header line).
+     */
+    public void start() {
+    }
+
+    /**
+     * Writes a row.
+     *
+     * @param row the values of the row, null values are allowed.
+     * @throws IllegalArgumentException if a value cannot be converted to the
+     * binary representation of its column type.
+     */
+    public abstract void writeRow(List<String> row) throws IllegalArgumentException;
+
+    /**
+     * Writes what follows the rows.
+     */
+    public void finish() {
+    }
+
+    /**
+     * Returns true if the buffer should be sent to the client.
+     *
+     * @return true if the buffer contains at least {@link #CHUNK_SIZE} bytes.
+     */
+    public boolean isFull() {
+        return _size >= CHUNK_SIZE;
+    }
+
+    /**
+     * Returns the internal buffer. Only the first {@link #size() } bytes are
+     * valid.
+     *
+     * @return the buffer.
+     */
+    public byte[] getBuffer() {
+        return _buffer;
+    }
+
+    /**
+     * Returns the number of encoded bytes.
+     *
+     * @return the number of valid bytes in the buffer.
+     */
+    public int size() {
+        return _size;
+    }
+
+    /**
+     * Empties the buffer, after it has been sent.
+     */
+    public void reset() {
+        _size = 0;
+    }
+
+    protected void append(byte b) {
+        ensureCapacity(1);
+        _buffer[_size++] = b;
+    }
+
+    protected void append(byte[] b) {
+        ensureCapacity(b.length);
+        System.arraycopy(b, 0, _buffer, _size, b.length);
+        _size += b.length;
+    }
+
+    /**
+     * Appends a character encoded in UTF-8. Surrogate pairs have to be
+     * appended with {@link #append(java.lang.String, int, int) }.
+     */
+    protected void append(char c) {
+        if (c < 0x80) {
+            append((byte) c);
+        } else {
+            appendUtf8(c);
+        }
+    }
+
+    /**
+     * Appends a portion of a string encoded in UTF-8.
+     */
+    protected void append(String s, int start, int end) {
+        ensureCapacity(end - start);
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                if (_size == _buffer.length) {
+                    ensureCapacity(end - i);
+                }
+                _buffer[_size++] = (byte) c;
+            } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                ensureCapacity(4);
+                _buffer[_size++] = (byte) (0xF0 | (cp >> 18));
+                _buffer[_size++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                _buffer[_size++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                _buffer[_size++] = (byte) (0x80 | (cp & 0x3F));
+            } else {
+                appendUtf8(c);
+            }
+        }
+    }
+
+    protected void append(String s) {
+        append(s, 0, s.length());
+    }
+
+    private void appendUtf8(char c) {
+        ensureCapacity(3);
+        if (c < 0x800) {
+            _buffer[_size++] = (byte) (0xC0 | (c >> 6));
+        } else if (Character.isSurrogate(c)) {
+            _buffer[_size++] = '?';
+            return;
+        } else {
+            _buffer[_size++] = (byte) (0xE0 | (c >> 12));
+            _buffer[_size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+        }
+        _buffer[_size++] = (byte) (0x80 | (c & 0x3F));
+    }
+
+    private void ensureCapacity(int more) {
+        if (_size + more > _buffer.length) {
+            byte[] b = new byte[Math.max(_buffer.length * 2, _size + more)];
+            System.arraycopy(_buffer, 0, b, 0, _size);
+            _buffer = b;
+        }
+    }
+}
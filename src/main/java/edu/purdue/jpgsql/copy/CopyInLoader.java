@@ -0,0 +1,147 @@
+package edu.purdue.jpgsql.copy;
+
+import edu.purdue.jpgsql.DataProvider;
+import edu.purdue.jpgsql.PgProtocolException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Handles a COPY FROM STDIN: decodes the data received from the client and
+ * delivers the rows in batches to a {@link DataProvider.BulkLoadSink}. At most
+ * one batch of rows is kept in memory. If the sink allows it, the data in CSV
+ * format is parsed in parallel (see {@link #create(edu.purdue.jpgsql.copy.CopyOptions,
+ * java.util.List, java.util.List, edu.purdue.jpgsql.DataProvider.BulkLoadSink) }).
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public class CopyInLoader implements AutoCloseable {
+
+    /**
+     * The SQL state of the errors reported by the sink.
+     */
+    public static final String SINK_ERROR = "22000";
+
+    private final CopyDecoder _decoder;
+    private final DataProvider.BulkLoadSink _sink;
+    private final int _batchSize;
+    private final List<List<String>> _batch;
+    private long _rows;
+
+    /**
+     * Creates the loader.
+     *
+     * @param decoder the decoder of the data format.
+     * @param sink the sink receiving the rows.
+     */
+    public CopyInLoader(CopyDecoder decoder, DataProvider.BulkLoadSink sink) {
+        _decoder = decoder;
+        _sink = sink;
+        _batchSize = Math.max(1, sink.getBatchSize());
+        _batch = new ArrayList<>(Math.min(_batchSize, 10000));
+    }
+
+    /**
+     * Creates the loader for the format of the options. The data in CSV format
+     * is parsed in parallel if {@link DataProvider.BulkLoadSink#getParallelism() }
+     * is greater than one.
+     *
+     * @param options the COPY options.
+     * @param columns the names of the copied columns, or null if unknown.
+     * @param types the object ID of the column types, or null if unknown.
+     * @param sink the sink receiving the rows.
+     * @return the loader.
+     * @throws PgProtocolException if the options refer to a column which is
+     * not copied.
+     */
+    public static CopyInLoader create(CopyOptions options, List<String> columns, List<Integer> types,
+            DataProvider.BulkLoadSink sink) throws PgProtocolException {
+        CopyDecoder decoder = CopyDecoder.create(options, columns, types);
+        if (options.getFormat() == CopyOptions.Format.CSV && sink.getParallelism() > 1) {
+            return new ParallelCsvCopyInLoader(options, columns, sink);
+        }
+        return new CopyInLoader(decoder, sink);
+    }
+
+    /**
+     * Decodes the content of a CopyData message.
+     *
+     * @param data the data.
+     * @throws PgProtocolException if the data is malformed or the sink fails.
+     */
+    public void data(byte[] data) throws PgProtocolException {
+        _decoder.feed(data, 0, data.length);
+        deliverRows();
+    }
+
+    /**
+     * Completes the copy, after the CopyDone message.
+     *
+     * @return the number of rows copied.
+     * @throws PgProtocolException if the data is malformed or the sink fails.
+     */
+    public long done() throws PgProtocolException {
+        _decoder.end();
+        deliverRows();
+        return complete();
+    }
+
+    /**
+     * Aborts the copy. The rows already delivered are discarded by the sink.
+     */
+    public void abort() {
+        _batch.clear();
+        _sink.abort();
+    }
+
+    @Override
+    public void close() {
+        _sink.close();
+    }
+
+    private void deliverRows() throws PgProtocolException {
+        List<String> row;
+        while ((row = _decoder.next()) != null) {
+            deliver(row);
+        }
+    }
+
+    /**
+     * Adds a row to the current batch, which is delivered when full.
+     *
+     * @param row the values of the row.
+     * @throws PgProtocolException if the sink fails.
+     */
+    protected void deliver(List<String> row) throws PgProtocolException {
+        _batch.add(row);
+        if (_batch.size() >= _batchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Delivers the last batch and completes the copy.
+     *
+     * @return the number of rows copied.
+     * @throws PgProtocolException if the sink fails.
+     */
+    protected long complete() throws PgProtocolException {
+        flush();
+        check(_sink.finish());
+        return _rows;
+    }
+
+    private void flush() throws PgProtocolException {
+        if (_batch.isEmpty()) {
+            return;
+        }
+        check(_sink.addRows(_batch));
+        _rows += _batch.size();
+        _batch.clear();
+    }
+
+    protected static void check(String error) throws PgProtocolException {
+        if (error != null) {
+            throw new PgProtocolException(error, SINK_ERROR);
+        }
+    }
+}
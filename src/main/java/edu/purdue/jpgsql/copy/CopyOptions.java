@@ -0,0 +1,169 @@
+package edu.purdue.jpgsql.copy;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Represents the options of a COPY command. The defaults depend on the format,
+ * as described in the
+ * <a href="http://www.postgresql.org/docs/9.4/static/sql-copy.html">COPY
+ * documentation</a>.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public class CopyOptions {
+
+    /**
+     * Represents the formats of the data.
+     */
+    public enum Format {
+
+        TEXT, CSV, BINARY
+    };
+
+    private Format _format = Format.TEXT;
+    private Character _delimiter;
+    private String _null;
+    private boolean _header;
+    private char _quote = '"';
+    private Character _escape;
+    private boolean _forceQuoteAll;
+    private List<String> _forceQuote = Collections.emptyList();
+    private List<String> _forceNotNull = Collections.emptyList();
+    private List<String> _forceNull = Collections.emptyList();
+
+    /**
+     * Returns the format of the data.
+     *
+     * @return the format.
+     */
+    public Format getFormat() {
+        return _format;
+    }
+
+    /**
+     * Returns the character that separates the columns.
+     *
+     * @return the delimiter, by default tab in text format and comma in CSV
+     * format.
+     */
+    public char getDelimiter() {
+        if (_delimiter != null) {
+            return _delimiter;
+        }
+        return _format == Format.CSV ? ',' : '\t';
+    }
+
+    /**
+     * Returns the string that represents a null value.
+     *
+     * @return the null string, by default \N in text format and an unquoted
+     * empty string in CSV format.
+     */
+    public String getNull() {
+        if (_null != null) {
+            return _null;
+        }
+        return _format == Format.CSV ? "" : "\\N";
+    }
+
+    /**
+     * Returns true if the first line contains the names of the columns. Valid
+     * only in CSV format.
+     *
+     * @return true if the file has a header line.
+     */
+    public boolean hasHeader() {
+        return _header;
+    }
+
+    /**
+     * Returns the quoting character. Valid only in CSV format.
+     *
+     * @return the quote, by default double-quote.
+     */
+    public char getQuote() {
+        return _quote;
+    }
+
+    /**
+     * Returns the character that escapes the quote character in a quoted
+     * value. Valid only in CSV format.
+     *
+     * @return the escape, by default the same of the quote.
+     */
+    public char getEscape() {
+        return _escape != null ? _escape : _quote;
+    }
+
+    /**
+     * Returns true if a non null value of the specified column must always be
+     * quoted. Valid only in CSV format.
+     *
+     * @param column the column name.
+     * @return true if the column values must be quoted.
+     */
+    public boolean isForceQuote(String column) {
+        return _forceQuoteAll || _forceQuote.contains(column);
+    }
+
+    /**
+     * Returns the columns whose values are never considered null. Valid only
+     * in CSV format.
+     *
+     * @return the column names.
+     */
+    public List<String> getForceNotNull() {
+        return _forceNotNull;
+    }
+
+    /**
+     * Returns the columns whose quoted values matching the null string are
+     * considered null. Valid only in CSV format.
+     *
+     * @return the column names.
+     */
+    public List<String> getForceNull() {
+        return _forceNull;
+    }
+
+    void setFormat(Format format) {
+        _format = format;
+    }
+
+    void setDelimiter(char delimiter) {
+        _delimiter = delimiter;
+    }
+
+    void setNull(String nullString) {
+        _null = nullString;
+    }
+
+    void setHeader(boolean header) {
+        _header = header;
+    }
+
+    void setQuote(char quote) {
+        _quote = quote;
+    }
+
+    void setEscape(char escape) {
+        _escape = escape;
+    }
+
+    void setForceQuoteAll() {
+        _forceQuoteAll = true;
+    }
+
+    void setForceQuote(List<String> columns) {
+        _forceQuote = columns;
+    }
+
+    void setForceNotNull(List<String> columns) {
+        _forceNotNull = columns;
+    }
+
+    void setForceNull(List<String> columns) {
+        _forceNull = columns;
+    }
+}
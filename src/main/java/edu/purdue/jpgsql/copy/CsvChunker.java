@@ -0,0 +1,100 @@
+package edu.purdue.jpgsql.copy;
+
+import edu.purdue.jpgsql.PgProtocolException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Splits the data of a copy in CSV format in chunks containing only complete
+ * rows, which can be parsed independently. The data has to be scanned
+ * sequentially to know whether a new line is inside a quoted value, but the
+ * scan is much cheaper than the parsing since it does not build the values.
+ * The line containing only \. ends the data.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+class CsvChunker {
+
+    private final CsvCopyDecoder _scanner;
+    private final int _chunkSize;
+    private byte[] _buffer;
+    private int _size;
+    private int _scanned;
+    private int _rowStart;
+    private boolean _ended;
+
+    /**
+     * Creates the chunker.
+     *
+     * @param options the COPY options.
+     * @param columns the names of the copied columns, or null if unknown.
+     * @param chunkSize the minimum size of a chunk, except the last one.
+     */
+    CsvChunker(CopyOptions options, List<String> columns, int chunkSize) throws PgProtocolException {
+        _scanner = new CsvCopyDecoder(options, columns);
+        _chunkSize = chunkSize;
+        _buffer = new byte[chunkSize + CopyEncoder.CHUNK_SIZE];
+    }
+
+    /**
+     * Appends a chunk of data received from the client.
+     */
+    void feed(byte[] data, int offset, int length) {
+        if (_ended) {
+            return;
+        }
+        if (_size + length > _buffer.length) {
+            _buffer = Arrays.copyOf(_buffer, Math.max(_buffer.length * 2, _size + length));
+        }
+        System.arraycopy(data, offset, _buffer, _size, length);
+        _size += length;
+        int eol;
+        while ((eol = _scanner.findEndOfRow(_buffer, _scanned, _size)) >= 0) {
+            int end = eol > _rowStart && _buffer[eol - 1] == '\r' ? eol - 1 : eol;
+            if (end - _rowStart == 2 && _buffer[_rowStart] == '\\' && _buffer[_rowStart + 1] == '.') {
+                _size = _rowStart;
+                _scanned = _rowStart;
+                _ended = true;
+                return;
+            }
+            _rowStart = eol + 1;
+            _scanned = _rowStart;
+        }
+        _scanned = _size;
+    }
+
+    /**
+     * Returns the next chunk, if the complete rows received so far are at
+     * least as big as the chunk size.
+     *
+     * @return the chunk or null.
+     */
+    byte[] next() {
+        if (_rowStart < _chunkSize) {
+            return null;
+        }
+        byte[] chunk = Arrays.copyOf(_buffer, _rowStart);
+        System.arraycopy(_buffer, _rowStart, _buffer, 0, _size - _rowStart);
+        _size -= _rowStart;
+        _scanned -= _rowStart;
+        _rowStart = 0;
+        return chunk;
+    }
+
+    /**
+     * Returns all the remaining data, once the client has sent all the data.
+     * The last row may not be terminated by a new line.
+     *
+     * @return the last chunk or null if there is no data left.
+     */
+    byte[] rest() {
+        if (_size == 0) {
+            return null;
+        }
+        byte[] chunk = Arrays.copyOf(_buffer, _size);
+        _size = 0;
+        _scanned = 0;
+        _rowStart = 0;
+        return chunk;
+    }
+}
@@ -0,0 +1,125 @@
+package edu.purdue.jpgsql.copy;
+
+import edu.purdue.jpgsql.PgProtocolException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decodes rows in the CSV format. Quoted values may contain new lines,
+ * therefore a row can span many lines.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+class CsvCopyDecoder extends LineCopyDecoder {
+
+    private final byte _delimiter;
+    private final byte _quote;
+    private final byte _escape;
+    private final byte[] _null;
+    private final boolean[] _forceNotNull;
+    private final boolean[] _forceNull;
+    private boolean _inQuote;
+    private boolean _escaped;
+
+    CsvCopyDecoder(CopyOptions options, List<String> columns) throws PgProtocolException {
+        super(options, columns);
+        _delimiter = (byte) options.getDelimiter();
+        _quote = (byte) options.getQuote();
+        _escape = (byte) options.getEscape();
+        _null = utf8(options.getNull());
+        _forceNotNull = columnFlags(options.getForceNotNull(), "FORCE_NOT_NULL");
+        _forceNull = columnFlags(options.getForceNull(), "FORCE_NULL");
+    }
+
+    private boolean[] columnFlags(List<String> names, String option) throws PgProtocolException {
+        if (names.isEmpty()) {
+            return new boolean[0];
+        }
+        if (_columns == null) {
+            throw new PgProtocolException(option + " requires the list of the copied columns");
+        }
+        boolean[] flags = new boolean[_columns.size()];
+        for (String name : names) {
+            int n = _columns.indexOf(name);
+            if (n < 0) {
+                throw new PgProtocolException(option + " column \"" + name + "\" not referenced by COPY");
+            }
+            flags[n] = true;
+        }
+        return flags;
+    }
+
+    @Override
+    protected int findEndOfRow(byte[] buf, int from, int to) {
+        for (int i = from; i < to; i++) {
+            byte c = buf[i];
+            if (_escaped) {
+                _escaped = false;
+            } else if (_inQuote && c == _escape && _escape != _quote) {
+                _escaped = true;
+            } else if (c == _quote) {
+                _inQuote = !_inQuote;
+            } else if (c == '\n' && !_inQuote) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    protected void checkEndOfData() throws PgProtocolException {
+        if (_inQuote) {
+            throw new PgProtocolException("unterminated CSV quoted field", BAD_COPY_FORMAT);
+        }
+    }
+
+    @Override
+    protected List<String> parseRow(byte[] buf, int start, int end) throws PgProtocolException {
+        List<String> row = new ArrayList<>(_columns == null ? 8 : _columns.size());
+        int fieldStart = start;
+        boolean quoted = false;
+        boolean inQuote = false;
+        clearField();
+        for (int i = start; i <= end; i++) {
+            if (i == end) {
+                if (inQuote) {
+                    throw new PgProtocolException("unterminated CSV quoted field", BAD_COPY_FORMAT);
+                }
+                row.add(value(row.size(), buf, fieldStart, i, quoted));
+                break;
+            }
+            byte c = buf[i];
+            if (inQuote) {
+                if (c == _escape && i + 1 < end && (buf[i + 1] == _quote || buf[i + 1] == _escape)) {
+                    appendField(buf[++i]);
+                } else if (c == _quote) {
+                    inQuote = false;
+                } else {
+                    appendField(c);
+                }
+            } else if (c == _quote) {
+                inQuote = true;
+                quoted = true;
+            } else if (c == _delimiter) {
+                row.add(value(row.size(), buf, fieldStart, i, quoted));
+                fieldStart = i + 1;
+                quoted = false;
+                clearField();
+            } else {
+                appendField(c);
+            }
+        }
+        return row;
+    }
+
+    private String value(int column, byte[] buf, int start, int end, boolean quoted) {
+        String val = fieldString();
+        if (quoted) {
+            return column < _forceNull.length && _forceNull[column] && val.equals(_options.getNull()) ? null : val;
+        }
+        if (column < _forceNotNull.length && _forceNotNull[column]) {
+            return val;
+        }
+        return matches(buf, start, end, _null) ? null : val;
+    }
+}
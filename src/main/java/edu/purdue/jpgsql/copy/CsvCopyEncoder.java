@@ -0,0 +1,86 @@
+package edu.purdue.jpgsql.copy;
+
+import java.util.List;
+
+/**
+ * Encodes rows in the CSV format. A value is quoted if it contains the
+ * delimiter, the quote or a new line, if it is equal to the null string or if
+ * its column is listed in FORCE_QUOTE.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+class CsvCopyEncoder extends CopyEncoder {
+
+    private final char _delimiter;
+    private final char _quote;
+    private final char _escape;
+    private final String _null;
+    private final boolean[] _forceQuote;
+
+    CsvCopyEncoder(CopyOptions options, List<String> columns) {
+        super(options, columns);
+        _delimiter = options.getDelimiter();
+        _quote = options.getQuote();
+        _escape = options.getEscape();
+        _null = options.getNull();
+        _forceQuote = new boolean[columns.size()];
+        for (int n = 0; n < _forceQuote.length; n++) {
+            _forceQuote[n] = options.isForceQuote(columns.get(n));
+        }
+    }
+
+    @Override
+    public void start() {
+        if (_options.hasHeader()) {
+            writeValues(_columns, false);
+        }
+    }
+
+    @Override
+    public void writeRow(List<String> row) {
+        writeValues(row, true);
+    }
+
+    private void writeValues(List<String> row, boolean forceQuote) {
+        int n = 0;
+        for (String val : row) {
+            if (n > 0) {
+                append(_delimiter);
+            }
+            if (val == null) {
+                append(_null);
+            } else {
+                writeValue(val, forceQuote && n < _forceQuote.length && _forceQuote[n]);
+            }
+            n++;
+        }
+        append((byte) '\n');
+    }
+
+    private void writeValue(String val, boolean quote) {
+        int len = val.length();
+        if (!quote) {
+            quote = val.equals(_null) || val.equals("\\.");
+            for (int i = 0; i < len && !quote; i++) {
+                char c = val.charAt(i);
+                quote = c == _delimiter || c == _quote || c == '\n' || c == '\r';
+            }
+        }
+        if (!quote) {
+            append(val, 0, len);
+            return;
+        }
+        append(_quote);
+        int start = 0;
+        for (int i = 0; i < len; i++) {
+            char c = val.charAt(i);
+            if (c == _quote || c == _escape) {
+                append(val, start, i);
+                append(_escape);
+                start = i;
+            }
+        }
+        append(val, start, len);
+        append(_quote);
+    }
+}
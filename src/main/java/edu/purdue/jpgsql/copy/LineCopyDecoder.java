@@ -0,0 +1,141 @@
+package edu.purdue.jpgsql.copy;
+
+import edu.purdue.jpgsql.PgProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Decodes the formats where each row ends with a new line, i.e. text and CSV.
+ * The data ends at the end of the stream or at a line containing only \. and
+ * the strings are decoded from UTF-8.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+abstract class LineCopyDecoder extends CopyDecoder {
+
+    private int _scanned;
+    private boolean _skipHeader;
+    private byte[] _field = new byte[256];
+    private int _fieldSize;
+
+    LineCopyDecoder(CopyOptions options, List<String> columns) {
+        super(options, columns);
+        _skipHeader = options.hasHeader();
+    }
+
+    /**
+     * Sets whether the first row is the header, which is skipped. By default
+     * it depends on the HEADER option.
+     *
+     * @param skip true to skip the first row.
+     */
+    void skipHeader(boolean skip) {
+        _skipHeader = skip;
+    }
+
+    @Override
+    protected List<String> readRow() throws PgProtocolException {
+        while (true) {
+            byte[] buf = buffer();
+            int start = position();
+            int eol = findEndOfRow(buf, start + _scanned, limit());
+            int rowEnd;
+            if (eol >= 0) {
+                rowEnd = eol;
+                consume(eol + 1);
+                _scanned = 0;
+            } else {
+                _scanned = limit() - start;
+                if (!isEnded()) {
+                    return null;
+                }
+                finish();
+                if (start == limit()) {
+                    return null;
+                }
+                checkEndOfData();
+                rowEnd = limit();
+            }
+            if (rowEnd > start && buf[rowEnd - 1] == '\r') {
+                rowEnd--;
+            }
+            if (rowEnd - start == 2 && buf[start] == '\\' && buf[start + 1] == '.') {
+                finish();
+                return null;
+            }
+            if (_skipHeader) {
+                _skipHeader = false;
+                continue;
+            }
+            return parseRow(buf, start, rowEnd);
+        }
+    }
+
+    /**
+     * Returns the position of the new line which ends the row. The search
+     * resumes from where the previous call stopped, therefore the subclasses
+     * can keep the state of the scan (i.e. whether it is inside a quoted
+     * value) between calls.
+     *
+     * @param buf the buffer.
+     * @param from the first position to scan.
+     * @param to the end of the valid data.
+     * @return the position of the new line or -1 if the row is not complete.
+     */
+    protected abstract int findEndOfRow(byte[] buf, int from, int to);
+
+    /**
+     * Called when the data ends without a new line.
+     *
+     * @throws PgProtocolException if the last row is not complete.
+     */
+    protected void checkEndOfData() throws PgProtocolException {
+    }
+
+    /**
+     * Splits a row in its values.
+     *
+     * @param buf the buffer.
+     * @param start the first byte of the row.
+     * @param end the end of the row, without the new line.
+     * @return the values of the row.
+     * @throws PgProtocolException if the row is malformed.
+     */
+    protected abstract List<String> parseRow(byte[] buf, int start, int end) throws PgProtocolException;
+
+    /**
+     * Returns true if the bytes are the UTF-8 encoding of the string.
+     */
+    protected static boolean matches(byte[] buf, int start, int end, byte[] str) {
+        if (end - start != str.length) {
+            return false;
+        }
+        for (int n = 0; n < str.length; n++) {
+            if (buf[start + n] != str[n]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    protected static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    protected void clearField() {
+        _fieldSize = 0;
+    }
+
+    protected void appendField(byte b) {
+        if (_fieldSize == _field.length) {
+            byte[] f = new byte[_field.length * 2];
+            System.arraycopy(_field, 0, f, 0, _fieldSize);
+            _field = f;
+        }
+        _field[_fieldSize++] = b;
+    }
+
+    protected String fieldString() {
+        return new String(_field, 0, _fieldSize, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,183 @@
+package edu.purdue.jpgsql.copy;
+
+import edu.purdue.jpgsql.DataProvider;
+import edu.purdue.jpgsql.PgProtocolException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads the data of a copy in CSV format, parsing it in parallel. The thread
+ * of the connection splits the data in chunks of complete rows, which are
+ * parsed by the executor of the sink (see
+ * {@link DataProvider.BulkLoadSink#getExecutor() }) or by a pool shared by all
+ * the copies, so that the parsing never competes for the common
+ * ForkJoinPool with the provider; then it delivers the parsed rows
+ * to the sink, therefore the sink is never called concurrently. At most
+ * {@link DataProvider.BulkLoadSink#getParallelism() } + 1 chunks are pending,
+ * so the memory used is still bounded.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+class ParallelCsvCopyInLoader extends CopyInLoader {
+
+    /**
+     * The minimum size of the chunks parsed by a single task.
+     */
+    static final int CHUNK_SIZE = 1024 * 1024;
+
+    private final CopyOptions _options;
+    private final List<String> _columns;
+    private final CsvChunker _chunker;
+    private final int _maxPending;
+    private final boolean _ordered;
+    private final Executor _executor;
+    private final ArrayDeque<FutureTask<List<List<String>>>> _pending = new ArrayDeque<>();
+    private boolean _first = true;
+
+    ParallelCsvCopyInLoader(CopyOptions options, List<String> columns, DataProvider.BulkLoadSink sink)
+            throws PgProtocolException {
+        this(options, columns, sink, CHUNK_SIZE);
+    }
+
+    ParallelCsvCopyInLoader(CopyOptions options, List<String> columns, DataProvider.BulkLoadSink sink, int chunkSize)
+            throws PgProtocolException {
+        super(null, sink);
+        _options = options;
+        _columns = columns;
+        _chunker = new CsvChunker(options, columns, chunkSize);
+        _maxPending = sink.getParallelism() + 1;
+        _ordered = sink.isOrdered();
+        Executor executor = sink.getExecutor();
+        _executor = executor == null ? SharedPool.INSTANCE : executor;
+    }
+
+    @Override
+    public void data(byte[] data) throws PgProtocolException {
+        _chunker.feed(data, 0, data.length);
+        byte[] chunk;
+        while ((chunk = _chunker.next()) != null) {
+            submit(chunk);
+        }
+        deliverParsed(false);
+    }
+
+    @Override
+    public long done() throws PgProtocolException {
+        byte[] chunk = _chunker.rest();
+        if (chunk != null) {
+            submit(chunk);
+        }
+        while (!_pending.isEmpty()) {
+            deliverParsed(true);
+        }
+        return complete();
+    }
+
+    @Override
+    public void abort() {
+        for (FutureTask<?> task : _pending) {
+            task.cancel(false);
+        }
+        _pending.clear();
+        super.abort();
+    }
+
+    private void submit(byte[] chunk) throws PgProtocolException {
+        while (_pending.size() >= _maxPending) {
+            deliverParsed(true);
+        }
+        boolean header = _first;
+        _first = false;
+        FutureTask<List<List<String>>> task = new FutureTask<>(() -> parse(chunk, header));
+        _pending.add(task);
+        try {
+            _executor.execute(task);
+        } catch (RejectedExecutionException ex) {
+            task.run();
+        }
+    }
+
+    private List<List<String>> parse(byte[] chunk, boolean header) throws PgProtocolException {
+        CsvCopyDecoder decoder = new CsvCopyDecoder(_options, _columns);
+        decoder.skipHeader(header && _options.hasHeader());
+        decoder.feed(chunk, 0, chunk.length);
+        decoder.end();
+        List<List<String>> rows = new ArrayList<>();
+        List<String> row;
+        while ((row = decoder.next()) != null) {
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    /**
+     * Delivers the parsed chunks: in order only the chunks at the head of the
+     * queue, otherwise all the parsed ones.
+     *
+     * @param wait true to wait for the first pending chunk, if no chunk is
+     * parsed yet.
+     */
+    private void deliverParsed(boolean wait) throws PgProtocolException {
+        boolean delivered = false;
+        Iterator<FutureTask<List<List<String>>>> it = _pending.iterator();
+        while (it.hasNext()) {
+            FutureTask<List<List<String>>> task = it.next();
+            if (task.isDone()) {
+                it.remove();
+                deliverChunk(task);
+                delivered = true;
+            } else if (_ordered) {
+                break;
+            }
+        }
+        if (wait && !delivered && !_pending.isEmpty()) {
+            deliverChunk(_pending.poll());
+        }
+    }
+
+    private void deliverChunk(FutureTask<List<List<String>>> task) throws PgProtocolException {
+        List<List<String>> rows;
+        try {
+            rows = task.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new PgProtocolException("COPY interrupted", CopyDecoder.BAD_COPY_FORMAT);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof PgProtocolException) {
+                throw (PgProtocolException) ex.getCause();
+            }
+            throw new PgProtocolException(String.valueOf(ex.getCause()), CopyDecoder.BAD_COPY_FORMAT);
+        }
+        for (List<String> row : rows) {
+            deliver(row);
+        }
+    }
+
+    /**
+     * The pool parsing the chunks of the sinks without an executor, created
+     * when the first parallel copy starts. Its threads are daemons, so that
+     * they do not keep the JVM alive.
+     */
+    private static final class SharedPool {
+
+        static final ExecutorService INSTANCE;
+
+        static {
+            AtomicInteger threads = new AtomicInteger();
+            INSTANCE = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), task -> {
+                Thread thread = new Thread(task, "jpgsql-copy-parser-" + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
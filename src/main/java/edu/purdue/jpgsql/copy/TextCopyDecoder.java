@@ -0,0 +1,108 @@
+package edu.purdue.jpgsql.copy;
+
+import edu.purdue.jpgsql.PgProtocolException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decodes rows in the text format. The values are separated by the delimiter
+ * and the special characters are escaped with a backslash.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+class TextCopyDecoder extends LineCopyDecoder {
+
+    private final byte _delimiter;
+    private final byte[] _null;
+    private boolean _escaped;
+
+    TextCopyDecoder(CopyOptions options, List<String> columns) {
+        super(options, columns);
+        _delimiter = (byte) options.getDelimiter();
+        _null = utf8(options.getNull());
+    }
+
+    @Override
+    protected int findEndOfRow(byte[] buf, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (_escaped) {
+                _escaped = false;
+            } else if (buf[i] == '\\') {
+                _escaped = true;
+            } else if (buf[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    protected List<String> parseRow(byte[] buf, int start, int end) throws PgProtocolException {
+        List<String> row = new ArrayList<>(_columns == null ? 8 : _columns.size());
+        int fieldStart = start;
+        clearField();
+        for (int i = start; i <= end; i++) {
+            if (i == end || buf[i] == _delimiter) {
+                row.add(matches(buf, fieldStart, i, _null) ? null : fieldString());
+                fieldStart = i + 1;
+                clearField();
+            } else if (buf[i] == '\\' && i + 1 < end) {
+                i = unescape(buf, i + 1, end);
+            } else {
+                appendField(buf[i]);
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Decodes the escape sequence starting after a backslash.
+     *
+     * @return the position of the last byte of the sequence.
+     */
+    private int unescape(byte[] buf, int i, int end) {
+        byte c = buf[i];
+        switch (c) {
+            case 'b':
+                appendField((byte) '\b');
+                return i;
+            case 'f':
+                appendField((byte) '\f');
+                return i;
+            case 'n':
+                appendField((byte) '\n');
+                return i;
+            case 'r':
+                appendField((byte) '\r');
+                return i;
+            case 't':
+                appendField((byte) '\t');
+                return i;
+            case 'v':
+                appendField((byte) 0x0B);
+                return i;
+            case 'x':
+                if (i + 1 < end && Character.digit(buf[i + 1], 16) >= 0) {
+                    int val = Character.digit(buf[++i], 16);
+                    if (i + 1 < end && Character.digit(buf[i + 1], 16) >= 0) {
+                        val = val * 16 + Character.digit(buf[++i], 16);
+                    }
+                    appendField((byte) val);
+                    return i;
+                }
+                appendField(c);
+                return i;
+            default:
+                if (c >= '0' && c <= '7') {
+                    int val = c - '0';
+                    for (int n = 0; n < 2 && i + 1 < end && buf[i + 1] >= '0' && buf[i + 1] <= '7'; n++) {
+                        val = val * 8 + buf[++i] - '0';
+                    }
+                    appendField((byte) val);
+                    return i;
+                }
+                appendField(c);
+                return i;
+        }
+    }
+}
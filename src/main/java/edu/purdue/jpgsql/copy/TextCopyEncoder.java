@@ -0,0 +1,83 @@
+package edu.purdue.jpgsql.copy;
+
+import java.util.List;
+
+/**
+ * Encodes rows in the text format. The values are separated by the delimiter
+ * and the special characters are escaped with a backslash.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+class TextCopyEncoder extends CopyEncoder {
+
+    private final char _delimiter;
+    private final String _null;
+
+    TextCopyEncoder(CopyOptions options, List<String> columns) {
+        super(options, columns);
+        _delimiter = options.getDelimiter();
+        _null = options.getNull();
+    }
+
+    @Override
+    public void writeRow(List<String> row) {
+        boolean first = true;
+        for (String val : row) {
+            if (!first) {
+                append(_delimiter);
+            }
+            first = false;
+            if (val == null) {
+                append(_null);
+            } else {
+                writeValue(val);
+            }
+        }
+        append((byte) '\n');
+    }
+
+    private void writeValue(String val) {
+        int start = 0;
+        int len = val.length();
+        for (int i = 0; i < len; i++) {
+            char c = val.charAt(i);
+            char escaped;
+            if (c < 0x20) {
+                switch (c) {
+                    case '\b':
+                        escaped = 'b';
+                        break;
+                    case '\f':
+                        escaped = 'f';
+                        break;
+                    case '\n':
+                        escaped = 'n';
+                        break;
+                    case '\r':
+                        escaped = 'r';
+                        break;
+                    case '\t':
+                        escaped = 't';
+                        break;
+                    case 0x0B:
+                        escaped = 'v';
+                        break;
+                    default:
+                        escaped = c == _delimiter ? c : 0;
+                        break;
+                }
+            } else if (c == '\\' || c == _delimiter) {
+                escaped = c;
+            } else {
+                escaped = 0;
+            }
+            if (escaped != 0) {
+                append(val, start, i);
+                append((byte) '\\');
+                append(escaped);
+                start = i + 1;
+            }
+        }
+        append(val, start, len);
+    }
+}
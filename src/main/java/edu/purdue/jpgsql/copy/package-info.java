@@ -0,0 +1,7 @@
+/**
+ * Contains the classes to handle the COPY command. The Postgres protocol
+ * streams the data of a COPY in its own text, CSV or binary formats; this
+ * package contains the classes to parse the command and to encode and decode
+ * these formats.
+ */
+package edu.purdue.jpgsql.copy;
@@ -0,0 +1,199 @@
+package edu.purdue.jpgsql.io;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Keeps the byte arrays used to read and write the messages, so that they are
+ * reused across messages and connections instead of being allocated every
+ * time. The arrays are grouped in size classes, the powers of two from
+ * {@link #MIN_SIZE} to {@link #MAX_SIZE}: a request is served with an array of
+ * the smallest class that fits it, therefore the array may be bigger than
+ * requested. Larger arrays are allocated on demand and never kept. Every
+ * class keeps a bounded number of free arrays; the ones released when the
+ * class is full are left to the garbage collector.
+ * <p>
+ * The free arrays of a class are kept in slots taken and filled with atomic
+ * operations, without locks and without allocating. Every thread starts
+ * looking from its own slot, so the connections running concurrently
+ * usually touch different slots and a connection gets back the arrays it
+ * released.
+ * <p>
+ * In debug mode the pool remembers where every borrowed array has been
+ * acquired: {@link #getLeaks() } returns the arrays never released, and
+ * releasing an array twice throws. The shared pool is in debug mode when the
+ * system property <code>jpgsql.bufferPool.debug</code> is true. This class is
+ * thread safe.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public class BufferPool {
+
+    /**
+     * The size of the smallest class.
+     */
+    public static final int MIN_SIZE = 512;
+
+    /**
+     * The size of the largest class.
+     */
+    public static final int MAX_SIZE = 128 * 1024;
+
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_SIZE);
+    private static final int CLASSES = classOf(MAX_SIZE) + 1;
+    private static final BufferPool DEFAULT = new BufferPool(256, Boolean.getBoolean("jpgsql.bufferPool.debug"));
+
+    private final int _maxFree;
+    private final AtomicReferenceArray<byte[]> _free;
+    private final Map<byte[], Throwable> _borrowed;
+
+    /**
+     * Returns the pool shared by all the connections. It keeps up to 256 free
+     * arrays per class.
+     *
+     * @return the shared pool.
+     */
+    public static BufferPool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Creates a pool.
+     *
+     * @param maxFree the maximum number of free arrays kept for each class.
+     * @param debug true to track the borrowed arrays.
+     */
+    public BufferPool(int maxFree, boolean debug) {
+        if (maxFree <= 0) {
+            throw new IllegalArgumentException("maxFree must be positive");
+        }
+        _maxFree = maxFree;
+        _free = new AtomicReferenceArray<>(CLASSES * maxFree);
+        _borrowed = debug ? new IdentityHashMap<>() : null;
+    }
+
+    /**
+     * Borrows an array. The array must be given back with
+     * {@link #release(byte[]) } once not needed anymore; its content is
+     * undefined.
+     *
+     * @param size the minimum size of the array.
+     * @return an array of at least size bytes.
+     */
+    public byte[] acquire(int size) {
+        byte[] buffer;
+        if (size > MAX_SIZE) {
+            buffer = new byte[size];
+        } else {
+            int c = classOf(size);
+            buffer = poll(c);
+            if (buffer == null) {
+                buffer = new byte[MIN_SIZE << c];
+            }
+        }
+        if (_borrowed != null) {
+            synchronized (_borrowed) {
+                _borrowed.put(buffer, new Throwable("buffer of " + buffer.length + " bytes acquired here"));
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * Gives back an array borrowed with {@link #acquire(int) }. The array must
+     * not be used afterwards.
+     *
+     * @param buffer the array.
+     * @throws IllegalStateException in debug mode, if the array has not been
+     * borrowed from this pool or has already been released.
+     */
+    public void release(byte[] buffer) throws IllegalStateException {
+        if (_borrowed != null) {
+            synchronized (_borrowed) {
+                if (_borrowed.remove(buffer) == null) {
+                    throw new IllegalStateException("buffer released twice or not acquired from this pool");
+                }
+            }
+        }
+        int size = buffer.length;
+        if (size <= MAX_SIZE && size >= MIN_SIZE && Integer.bitCount(size) == 1) {
+            offer(classOf(size), buffer);
+        }
+    }
+
+    /**
+     * Takes a free array of the class, scanning the slots from the one of the
+     * current thread.
+     *
+     * @return the array, null if the class is empty.
+     */
+    private byte[] poll(int c) {
+        int base = c * _maxFree;
+        int home = home();
+        for (int n = 0; n < _maxFree; n++) {
+            int slot = base + (home + n) % _maxFree;
+            if (_free.get(slot) != null) {
+                byte[] buffer = _free.getAndSet(slot, null);
+                if (buffer != null) {
+                    return buffer;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Stores a free array in the first empty slot of the class, scanning from
+     * the one of the current thread. If the class is full the array is
+     * dropped.
+     */
+    private void offer(int c, byte[] buffer) {
+        int base = c * _maxFree;
+        int home = home();
+        for (int n = 0; n < _maxFree; n++) {
+            int slot = base + (home + n) % _maxFree;
+            if (_free.get(slot) == null && _free.compareAndSet(slot, null, buffer)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the first slot scanned by the current thread. The id is mixed so
+     * that threads created one after the other do not share a cache line.
+     */
+    private int home() {
+        long id = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+        return (int) ((id >>> 32) % _maxFree);
+    }
+
+    /**
+     * Returns the arrays borrowed and not released yet. Available only in
+     * debug mode.
+     *
+     * @return the stack traces of the calls which acquired the arrays, or an
+     * empty list if the pool is not in debug mode.
+     */
+    public List<Throwable> getLeaks() {
+        if (_borrowed == null) {
+            return Collections.emptyList();
+        }
+        synchronized (_borrowed) {
+            return new ArrayList<>(_borrowed.values());
+        }
+    }
+
+    /**
+     * Returns the index of the smallest class which fits the size.
+     */
+    private static int classOf(int size) {
+        if (size <= MIN_SIZE) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+    }
+}
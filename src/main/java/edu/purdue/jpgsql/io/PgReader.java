@@ -37,11 +37,31 @@ public class PgReader {
      * @throws IOException if an I/O error occurs.
      */
     public char readCommand() throws IOException {
-        char command = _in.readByte();
+        return readCommand(_in.readByte());
+    }
+
+    /**
+     * Initializes the message size of a command whose code has already been
+     * read from the underlying {@link RawReader}.
+     *
+     * @param command the command code.
+     * @return the command code.
+     * @throws IOException if an I/O error occurs.
+     */
+    public char readCommand(char command) throws IOException {
         _size = _in.readInt32() - 4;
         return command;
     }
 
+    /**
+     * Returns the number of bytes of the current message not read yet.
+     *
+     * @return the remaining size.
+     */
+    public int getRemaining() {
+        return _size;
+    }
+
     /**
      * Reads an int32.
      *
@@ -149,6 +169,21 @@ public class PgReader {
         }
     }
 
+    /**
+     * Reads all the remaining bytes of the command in a single array. Unlike
+     * {@link #readByteList() } the bytes are not boxed, which makes this
+     * method suitable for big messages.
+     *
+     * @return the bytes.
+     * @throws IOException if an I/O error occurs.
+     */
+    public byte[] readBytes() throws IOException {
+        byte[] ret = new byte[_size];
+        _in.readBytes(ret, 0, _size);
+        _size = 0;
+        return ret;
+    }
+
     /**
      * Reads a list of bytes.
      *
@@ -1,15 +1,10 @@
 package edu.purdue.jpgsql.io;
 
+import edu.purdue.jpgsql.metrics.Metrics;
 import edu.purdue.jpgsql.utils.Conversions;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.ArrayList;
 
-/*
- TODO: right now we use one instance of this class for each command sent to the client.
- But commands can actually been packed to save network usage.
- It may be good to change BaseConnection to implement this.
- */
 /**
  * Implements a writer specialized in writing the Postgres messages. Postgres
  * messages are triplets [command, size of the message, additional parameters].
@@ -17,7 +12,10 @@ import java.util.ArrayList;
  * counts the size of the message before flushing it to the network. This class
  * should be used once for every command and either created in a
  * try-with-resources or manually call {@link #flush() } to send the data to the
- * network.
+ * network. The message is built in an array borrowed from a
+ * {@link BufferPool}, which is given back once the message is written; the
+ * output stream should be buffered to pack several messages in a single
+ * network write.
  *
  * @author Lorenzo Bossi [lbossi@purdue.edu]
  */
@@ -25,45 +23,133 @@ public class PgWriter implements AutoCloseable {
 
     private final char _command;
     private final OutputStream _os;
-    private ByteBuffer _buffer;
+    private final BufferPool _pool;
+    private final Metrics _metrics;
+    private final int _start;
+    private byte[] _buffer;
+    private int _pos;
 
     /**
      * Initializes a PgWriter. Messages are not actually sent over the network
-     * until {@link #close() } or {@link #flush()} is called.
+     * until {@link #close() } or {@link #flush()} is called. The buffer is
+     * borrowed from the shared {@link BufferPool}.
      *
      * @param os the output stream to write.
      * @param command the Postgres command.
      */
     public PgWriter(OutputStream os, char command) {
+        this(os, command, BufferPool.getDefault());
+    }
+
+    /**
+     * Initializes a PgWriter. Messages are not actually sent over the network
+     * until {@link #close() } or {@link #flush()} is called.
+     *
+     * @param os the output stream to write.
+     * @param command the Postgres command.
+     * @param pool the pool providing the buffer.
+     */
+    public PgWriter(OutputStream os, char command, BufferPool pool) {
+        this(os, command, pool, Metrics.NONE);
+    }
+
+    /**
+     * Initializes a PgWriter. Messages are not actually sent over the network
+     * until {@link #close() } or {@link #flush()} is called, which also reports
+     * the message to the metrics.
+     *
+     * @param os the output stream to write.
+     * @param command the Postgres command.
+     * @param pool the pool providing the buffer.
+     * @param metrics the metrics receiving the messages sent.
+     */
+    public PgWriter(OutputStream os, char command, BufferPool pool, Metrics metrics) {
         _os = os;
         _command = command;
-        _buffer = new ByteBuffer();
+        _pool = pool;
+        _metrics = metrics;
+        _buffer = pool.acquire(BufferPool.MIN_SIZE);
+        // room for the command and the size, written by flush
+        _start = command == '\0' ? 1 : 0;
+        _pos = 5;
     }
 
     public void addString(String str) {
         byte[] bytes = Conversions.getBytes(str);
-        _buffer.append(bytes);
-        _buffer.append((byte) 0);
+        ensureCapacity(bytes.length + 1);
+        System.arraycopy(bytes, 0, _buffer, _pos, bytes.length);
+        _pos += bytes.length;
+        _buffer[_pos++] = 0;
+    }
+
+    /**
+     * Adds a value in text format: its length as int32 followed by the value
+     * encoded in UTF-8, without terminator. The value is encoded straight
+     * into the message, without intermediate arrays.
+     *
+     * @param value the value.
+     */
+    public void addText(String value) {
+        int len = value.length();
+        ensureCapacity(4 + len);
+        int start = _pos;
+        _pos += 4;
+        for (int i = 0; i < len; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                ensureCapacity(1);
+                _buffer[_pos++] = (byte) c;
+            } else if (c < 0x800) {
+                ensureCapacity(2);
+                _buffer[_pos++] = (byte) (0xC0 | c >> 6);
+                _buffer[_pos++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, value.charAt(++i));
+                ensureCapacity(4);
+                _buffer[_pos++] = (byte) (0xF0 | cp >> 18);
+                _buffer[_pos++] = (byte) (0x80 | cp >> 12 & 0x3F);
+                _buffer[_pos++] = (byte) (0x80 | cp >> 6 & 0x3F);
+                _buffer[_pos++] = (byte) (0x80 | cp & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                // unpaired surrogates are replaced, like String.getBytes
+                ensureCapacity(1);
+                _buffer[_pos++] = '?';
+            } else {
+                ensureCapacity(3);
+                _buffer[_pos++] = (byte) (0xE0 | c >> 12);
+                _buffer[_pos++] = (byte) (0x80 | c >> 6 & 0x3F);
+                _buffer[_pos++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+        int size = _pos - start - 4;
+        _buffer[start] = (byte) (size >>> 24);
+        _buffer[start + 1] = (byte) (size >>> 16);
+        _buffer[start + 2] = (byte) (size >>> 8);
+        _buffer[start + 3] = (byte) size;
     }
 
     public void addInt32(int i) {
-        _buffer.append((byte) ((i >>> 24) & 0xFF));
-        _buffer.append((byte) ((i >>> 16) & 0xFF));
-        _buffer.append((byte) ((i >>> 8) & 0xFF));
-        _buffer.append((byte) (i & 0xFF));
+        ensureCapacity(4);
+        _buffer[_pos++] = (byte) (i >>> 24);
+        _buffer[_pos++] = (byte) (i >>> 16);
+        _buffer[_pos++] = (byte) (i >>> 8);
+        _buffer[_pos++] = (byte) i;
     }
 
     public void addInt16(short i) {
-        _buffer.append((byte) (i >>> 8));
-        _buffer.append((byte) (i & 0xFF));
+        ensureCapacity(2);
+        _buffer[_pos++] = (byte) (i >>> 8);
+        _buffer[_pos++] = (byte) i;
     }
 
     public void addInt8(byte b) {
-        _buffer.append(b);
+        ensureCapacity(1);
+        _buffer[_pos++] = b;
     }
 
     public void addByte(char b) {
-        _buffer.append((byte) b);
+        ensureCapacity(1);
+        _buffer[_pos++] = (byte) b;
     }
 
     /**
@@ -78,17 +164,20 @@ public class PgWriter implements AutoCloseable {
         if (_buffer == null) {
             return;
         }
-        int size = _buffer.len() + 4;
-        _buffer.prepend((byte) (size & 0xFF));
-        _buffer.prepend((byte) ((size >>> 8) & 0xFF));
-        _buffer.prepend((byte) ((size >>> 16) & 0xFF));
-        _buffer.prepend((byte) ((size >>> 24) & 0xFF));
-
-        if (_command != '\0') {
-            _buffer.prepend((byte) _command);
-        }
-        _os.write(_buffer.toArray());
+        int size = _pos - 1;
+        _buffer[0] = (byte) _command;
+        _buffer[1] = (byte) (size >>> 24);
+        _buffer[2] = (byte) (size >>> 16);
+        _buffer[3] = (byte) (size >>> 8);
+        _buffer[4] = (byte) size;
+        byte[] buffer = _buffer;
         _buffer = null;
+        try {
+            _os.write(buffer, _start, _pos - _start);
+        } finally {
+            _pool.release(buffer);
+        }
+        _metrics.messageSent(_command, _pos - _start);
     }
 
     /**
@@ -101,41 +190,13 @@ public class PgWriter implements AutoCloseable {
     public void close() throws IOException {
         flush();
     }
-}
-
-/**
- * Implements a simple byte buffer.
- *
- * @author Lorenzo Bossi [lbossi@purdue.edu]
- */
-class ByteBuffer {
-
-    private final ArrayList<Byte> _buffer = new ArrayList<Byte>();
-
-    void append(byte[] bytes) {
-        for (byte b : bytes) {
-            _buffer.add(b);
-        }
-    }
-
-    void append(byte b) {
-        _buffer.add(b);
-    }
 
-    byte[] toArray() {
-        byte[] ret = new byte[_buffer.size()];
-        for (int i = 0; i < _buffer.size(); i++) {
-            ret[i] = _buffer.get(i);
+    private void ensureCapacity(int length) {
+        if (_pos + length > _buffer.length) {
+            byte[] bigger = _pool.acquire(Math.max(_buffer.length * 2, _pos + length));
+            System.arraycopy(_buffer, 0, bigger, 0, _pos);
+            _pool.release(_buffer);
+            _buffer = bigger;
         }
-        return ret;
     }
-
-    int len() {
-        return _buffer.size();
-    }
-
-    void prepend(byte b) {
-        _buffer.add(0, b);
-    }
-
 }
@@ -0,0 +1,150 @@
+package edu.purdue.jpgsql.io;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Implements a buffered input stream whose buffer is borrowed from a
+ * {@link BufferPool} only while it contains data. When the buffer is empty
+ * the stream waits for the next byte without any buffer, then borrows one
+ * sized for the data already received and reads it without blocking; the
+ * buffer goes back to the pool as soon as it has been consumed, so a
+ * connection waiting for the client does not hold any. A read timeout of the
+ * socket expires while waiting for the first byte, without consuming data.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public class PooledInputStream extends FilterInputStream {
+
+    /**
+     * The maximum size of the buffer.
+     */
+    public static final int BUFFER_SIZE = 8192;
+
+    private final BufferPool _pool;
+    private byte[] _buffer;
+    private int _pos;
+    private int _limit;
+
+    /**
+     * Creates a PooledInputStream.
+     *
+     * @param in the stream to read.
+     * @param pool the pool providing the buffer.
+     */
+    public PooledInputStream(InputStream in, BufferPool pool) {
+        super(in);
+        _pool = pool;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (_pos == _limit && !fill()) {
+            return -1;
+        }
+        int b = _buffer[_pos++] & 0xFF;
+        consumed();
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (_pos == _limit) {
+            if (len >= BUFFER_SIZE) {
+                return in.read(b, off, len); // read large chunks directly
+            }
+            if (!fill()) {
+                return -1;
+            }
+        }
+        int n = Math.min(len, _limit - _pos);
+        System.arraycopy(_buffer, _pos, b, off, n);
+        _pos += n;
+        consumed();
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (_pos == _limit) {
+            return in.skip(n);
+        }
+        int skipped = (int) Math.min(n, _limit - _pos);
+        _pos += skipped;
+        consumed();
+        return skipped;
+    }
+
+    /**
+     * Returns the number of bytes which can be read without blocking. If the
+     * buffer contains data the underlying stream is not queried.
+     *
+     * @return the number of bytes available.
+     * @throws IOException if an I/O error occurs.
+     */
+    @Override
+    public int available() throws IOException {
+        return _pos < _limit ? _limit - _pos : in.available();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void mark(int readlimit) {
+    }
+
+    @Override
+    public void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    /**
+     * Gives the buffer back to the pool, discarding the data not read yet.
+     * Called when the connection ends.
+     */
+    public void release() {
+        if (_buffer != null) {
+            _pool.release(_buffer);
+            _buffer = null;
+            _pos = _limit = 0;
+        }
+    }
+
+    /**
+     * Waits for the next byte, then reads all the available data.
+     *
+     * @return false at the end of the stream.
+     */
+    private boolean fill() throws IOException {
+        int first = in.read();
+        if (first == -1) {
+            return false;
+        }
+        int available = Math.min(in.available(), BUFFER_SIZE - 1);
+        _buffer = _pool.acquire(available + 1);
+        _buffer[0] = (byte) first;
+        _pos = 0;
+        _limit = 1;
+        if (available > 0) {
+            // does not block, some data is available
+            int read = in.read(_buffer, 1, Math.min(_buffer.length, BUFFER_SIZE) - 1);
+            if (read > 0) {
+                _limit += read;
+            }
+        }
+        return true;
+    }
+
+    private void consumed() {
+        if (_pos == _limit) {
+            release();
+        }
+    }
+}
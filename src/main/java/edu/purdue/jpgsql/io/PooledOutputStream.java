@@ -0,0 +1,114 @@
+package edu.purdue.jpgsql.io;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Implements a buffered output stream whose buffer is borrowed from a
+ * {@link BufferPool} only while there is data to send. The messages written
+ * are packed in the buffer and sent with a single write when the buffer is
+ * full or {@link #flush() } is called; then the buffer goes back to the pool,
+ * so a connection waiting for the client does not hold any.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public class PooledOutputStream extends FilterOutputStream {
+
+    /**
+     * The size of the buffer.
+     */
+    public static final int BUFFER_SIZE = 8192;
+
+    private final BufferPool _pool;
+    private byte[] _buffer;
+    private int _count;
+    private long _written;
+
+    /**
+     * Creates a PooledOutputStream.
+     *
+     * @param out the stream to write.
+     * @param pool the pool providing the buffer.
+     */
+    public PooledOutputStream(OutputStream out, BufferPool pool) {
+        super(out);
+        _pool = pool;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (_buffer == null) {
+            _buffer = _pool.acquire(BUFFER_SIZE);
+        } else if (_count == _buffer.length) {
+            writeBuffer();
+        }
+        _buffer[_count++] = (byte) b;
+        _written++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        _written += len;
+        if (len >= BUFFER_SIZE) {
+            // no point in copying large chunks, i.e. CopyData messages
+            if (_count > 0) {
+                writeBuffer();
+            }
+            out.write(b, off, len);
+            return;
+        }
+        if (_buffer == null) {
+            _buffer = _pool.acquire(BUFFER_SIZE);
+        } else if (_count + len > _buffer.length) {
+            writeBuffer();
+        }
+        System.arraycopy(b, off, _buffer, _count, len);
+        _count += len;
+    }
+
+    /**
+     * Sends the buffered data and gives the buffer back to the pool.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    @Override
+    public void flush() throws IOException {
+        try {
+            if (_count > 0) {
+                writeBuffer();
+            }
+        } finally {
+            release();
+        }
+        out.flush();
+    }
+
+    /**
+     * Returns the number of bytes written so far, including the ones still in
+     * the buffer.
+     *
+     * @return the number of bytes.
+     */
+    public long getBytesWritten() {
+        return _written;
+    }
+
+    /**
+     * Gives the buffer back to the pool, discarding the data not sent yet.
+     * Called when the connection ends.
+     */
+    public void release() {
+        if (_buffer != null) {
+            _pool.release(_buffer);
+            _buffer = null;
+            _count = 0;
+        }
+    }
+
+    private void writeBuffer() throws IOException {
+        int count = _count;
+        _count = 0; // the data is dropped if the write fails
+        out.write(_buffer, 0, count);
+    }
+}
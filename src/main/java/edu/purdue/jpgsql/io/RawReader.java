@@ -119,9 +119,7 @@ public class RawReader {
      */
     public List<String> readStringList(int len) throws IOException {
         byte[] buf = new byte[len];
-        if (_in.read(buf) != len) {
-            throw new IOException("missing bytes from the stream");
-        }
+        readBytes(buf, 0, len);
         if (buf[len - 1] != '\0') {
             throw new IOException("attempting to read a non null terminated string");
         }
@@ -138,6 +136,26 @@ public class RawReader {
         return stringList;
     }
 
+    /**
+     * Reads exactly the specified number of bytes.
+     *
+     * @param buf the buffer where to store the bytes.
+     * @param offset the position of the first byte in the buffer.
+     * @param length the number of bytes to read.
+     * @throws IOException if an I/O error occurs or the end of stream is
+     * reached.
+     */
+    public void readBytes(byte[] buf, int offset, int length) throws IOException {
+        while (length > 0) {
+            int read = _in.read(buf, offset, length);
+            if (read == -1) {
+                throw new IOException("attempting to read from an empty stream");
+            }
+            offset += read;
+            length -= read;
+        }
+    }
+
     /**
      * Returns the next byte from the stream or throws if the stream is empty.
      *
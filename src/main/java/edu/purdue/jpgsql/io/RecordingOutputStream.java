@@ -0,0 +1,78 @@
+package edu.purdue.jpgsql.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Implements an output stream which can keep a copy of the data written. All
+ * the data is always forwarded to the wrapped stream; between
+ * {@link #startRecording(int) } and {@link #stopRecording() } a copy of the
+ * bytes written is kept in memory, as soon as it does not exceed the
+ * configured limit. This is used to capture the exact wire format of a
+ * response to replay it later.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public class RecordingOutputStream extends FilterOutputStream {
+
+    private ByteArrayOutputStream _record;
+    private int _limit;
+
+    /**
+     * Creates a RecordingOutputStream.
+     *
+     * @param out the stream to write.
+     */
+    public RecordingOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    /**
+     * Starts recording the data written. Any previous recording is discarded.
+     *
+     * @param limit the maximum number of bytes to record. If more data is
+     * written, the recording is silently dropped.
+     */
+    public void startRecording(int limit) {
+        _record = new ByteArrayOutputStream(Math.min(limit, 8192));
+        _limit = limit;
+    }
+
+    /**
+     * Stops recording.
+     *
+     * @return the bytes written since {@link #startRecording(int) } or null if
+     * the limit was exceeded or no recording was in progress.
+     */
+    public byte[] stopRecording() {
+        byte[] ret = _record == null ? null : _record.toByteArray();
+        _record = null;
+        return ret;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        if (_record != null) {
+            record(new byte[]{(byte) b}, 0, 1);
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        if (_record != null) {
+            record(b, off, len);
+        }
+    }
+
+    private void record(byte[] b, int off, int len) {
+        if (_record.size() + len > _limit) {
+            _record = null;
+        } else {
+            _record.write(b, off, len);
+        }
+    }
+}
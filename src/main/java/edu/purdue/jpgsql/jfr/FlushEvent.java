@@ -0,0 +1,59 @@
+package edu.purdue.jpgsql.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Is emitted when the responses have been flushed to the socket, once the
+ * connection has handled all the messages received.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+@Name("edu.purdue.jpgsql.Flush")
+@Label("Flush")
+@Category({"jpgsql", "Protocol"})
+@Description("The responses have been written to the socket")
+@StackTrace(false)
+public final class FlushEvent extends Event {
+
+    @Label("Process Id")
+    int pid;
+    @Label("Bytes")
+    @Description("The bytes sent since the previous flush")
+    @DataAmount
+    long bytes;
+
+    /**
+     * Starts timing a flush.
+     *
+     * @return the event, null if the event is not enabled.
+     */
+    public static FlushEvent start() {
+        FlushEvent event = new FlushEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Ends the flush and emits the event.
+     *
+     * @param pid the process id of the session.
+     * @param bytes the bytes sent since the previous flush.
+     */
+    public void finish(int pid, long bytes) {
+        end();
+        if (shouldCommit()) {
+            this.pid = pid;
+            this.bytes = bytes;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package edu.purdue.jpgsql.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Is emitted when a message of the client has been handled; its duration is
+ * the time spent handling it, without the final flush.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+@Name("edu.purdue.jpgsql.Message")
+@Label("Message")
+@Category({"jpgsql", "Protocol"})
+@Description("A message of the client has been handled")
+@StackTrace(false)
+public final class MessageEvent extends Event {
+
+    @Label("Process Id")
+    int pid;
+    @Label("Type")
+    @Description("The type of the message, i.e. Q for Query")
+    char type;
+    @Label("Length")
+    @DataAmount
+    int length;
+
+    /**
+     * Starts timing a message.
+     *
+     * @return the event, null if the event is not enabled.
+     */
+    public static MessageEvent start() {
+        MessageEvent event = new MessageEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Ends the message and emits the event.
+     *
+     * @param pid the process id of the session.
+     * @param type the type of the message.
+     * @param length the length of the message, including the type.
+     */
+    public void finish(int pid, char type, int length) {
+        end();
+        if (shouldCommit()) {
+            this.pid = pid;
+            this.type = type;
+            this.length = length;
+            commit();
+        }
+    }
+}
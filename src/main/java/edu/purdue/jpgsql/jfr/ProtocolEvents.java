@@ -0,0 +1,39 @@
+package edu.purdue.jpgsql.jfr;
+
+/**
+ * Tells whether the connections emit the Flight Recorder events. The events
+ * are emitted when the JVM provides the jdk.jfr API (Java 8u262 or later)
+ * unless the system property <code>jpgsql.jfr</code> is false. The classes of
+ * the events are loaded only if this is true, so the connections run on
+ * older JVMs too.
+ * <p>
+ * A connection creates an event only if its type is enabled in a running
+ * recording (see the <code>start()</code> methods of the events), otherwise it
+ * just reads this constant and gets null. Even when recording, the details
+ * of an event (i.e. the query fingerprint) are computed only if the event is
+ * going to be committed, after its threshold has been checked.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public final class ProtocolEvents {
+
+    /**
+     * True if the events are emitted.
+     */
+    public static final boolean ENABLED = isAvailable();
+
+    private ProtocolEvents() {
+    }
+
+    private static boolean isAvailable() {
+        if (!Boolean.parseBoolean(System.getProperty("jpgsql.jfr", "true"))) {
+            return false;
+        }
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (ClassNotFoundException | LinkageError ex) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package edu.purdue.jpgsql.jfr;
+
+import edu.purdue.jpgsql.utils.QueryFingerprint;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Is emitted when the provider returned the result of a query; its duration
+ * is the time spent in the provider. The rows are read later, see
+ * {@link ResultStreamEvent}.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+@Name("edu.purdue.jpgsql.ProviderCall")
+@Label("Provider Call")
+@Category({"jpgsql", "Protocol"})
+@Description("The provider computed the result of a query")
+public final class ProviderCallEvent extends Event {
+
+    @Label("Process Id")
+    int pid;
+    @Label("Query Fingerprint")
+    long fingerprint;
+
+    /**
+     * Starts timing a call of the provider.
+     *
+     * @return the event, null if the event is not enabled.
+     */
+    public static ProviderCallEvent start() {
+        ProviderCallEvent event = new ProviderCallEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Ends the call and emits the event.
+     *
+     * @param pid the process id of the session.
+     * @param query the query, fingerprinted only if the event is committed.
+     */
+    public void finish(int pid, String query) {
+        end();
+        if (shouldCommit()) {
+            this.pid = pid;
+            this.fingerprint = QueryFingerprint.of(query);
+            commit();
+        }
+    }
+}
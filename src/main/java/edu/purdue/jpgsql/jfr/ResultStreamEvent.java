@@ -0,0 +1,66 @@
+package edu.purdue.jpgsql.jfr;
+
+import edu.purdue.jpgsql.utils.QueryFingerprint;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Is emitted when the rows of a result have been read from the provider and
+ * encoded; its duration includes the writes to the socket when the buffer
+ * fills up, not the final flush.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+@Name("edu.purdue.jpgsql.ResultStream")
+@Label("Result Stream")
+@Category({"jpgsql", "Protocol"})
+@Description("The rows of a result have been sent")
+public final class ResultStreamEvent extends Event {
+
+    @Label("Process Id")
+    int pid;
+    @Label("Query Fingerprint")
+    long fingerprint;
+    @Label("Rows")
+    long rows;
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    /**
+     * Starts timing the stream of a result.
+     *
+     * @return the event, null if the event is not enabled.
+     */
+    public static ResultStreamEvent start() {
+        ResultStreamEvent event = new ResultStreamEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Ends the stream and emits the event.
+     *
+     * @param pid the process id of the session.
+     * @param query the query, fingerprinted only if the event is committed.
+     * @param rows the number of rows sent.
+     * @param bytes the number of bytes encoded.
+     */
+    public void finish(int pid, String query, long rows, long bytes) {
+        end();
+        if (shouldCommit()) {
+            this.pid = pid;
+            this.fingerprint = QueryFingerprint.of(query);
+            this.rows = rows;
+            this.bytes = bytes;
+            commit();
+        }
+    }
+}
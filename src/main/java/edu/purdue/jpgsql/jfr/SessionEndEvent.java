@@ -0,0 +1,66 @@
+package edu.purdue.jpgsql.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Is emitted when a session ends; its duration is the one of the session.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+@Name("edu.purdue.jpgsql.SessionEnd")
+@Label("Session End")
+@Category({"jpgsql", "Session"})
+@Description("A session ended, the duration is the one of the session")
+@StackTrace(false)
+public final class SessionEndEvent extends Event {
+
+    @Label("Process Id")
+    int pid;
+    @Label("Messages Received")
+    long messages;
+    @Label("Bytes Sent")
+    @DataAmount
+    long bytesSent;
+    @Label("Graceful")
+    @Description("The client sent a Terminate message")
+    boolean graceful;
+
+    /**
+     * Starts timing a session.
+     *
+     * @return the event, null if the event is not enabled.
+     */
+    public static SessionEndEvent start() {
+        SessionEndEvent event = new SessionEndEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Ends the session and emits the event.
+     *
+     * @param pid the process id of the session.
+     * @param messages the number of messages received.
+     * @param bytesSent the number of bytes sent.
+     * @param graceful true if the client terminated the session.
+     */
+    public void finish(int pid, long messages, long bytesSent, boolean graceful) {
+        end();
+        if (shouldCommit()) {
+            this.pid = pid;
+            this.messages = messages;
+            this.bytesSent = bytesSent;
+            this.graceful = graceful;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package edu.purdue.jpgsql.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Is emitted when a client has been authenticated.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+@Name("edu.purdue.jpgsql.SessionStart")
+@Label("Session Start")
+@Category({"jpgsql", "Session"})
+@Description("A client has been authenticated")
+@StackTrace(false)
+public final class SessionStartEvent extends Event {
+
+    @Label("Process Id")
+    int pid;
+    @Label("User")
+    String user;
+    @Label("Database")
+    String database;
+    @Label("Client")
+    String client;
+
+    /**
+     * Emits the event, if enabled.
+     *
+     * @param pid the process id of the session.
+     * @param user the user.
+     * @param database the database.
+     * @param client the address of the client.
+     */
+    public static void emit(int pid, String user, String database, String client) {
+        SessionStartEvent event = new SessionStartEvent();
+        if (event.shouldCommit()) {
+            event.pid = pid;
+            event.user = user;
+            event.database = database;
+            event.client = client;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,8 @@
+/**
+ * Contains the JDK Flight Recorder events of the protocol: the sessions, the
+ * messages, the calls of the provider, the streaming of the results and the
+ * flushes of the socket. The events are in the category "jpgsql" and can be
+ * correlated with the GC and allocation events in JDK Mission Control. They
+ * are emitted only if {@link edu.purdue.jpgsql.jfr.ProtocolEvents#ENABLED}.
+ */
+package edu.purdue.jpgsql.jfr;
@@ -0,0 +1,140 @@
+package edu.purdue.jpgsql.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Exposes a {@link ProtocolMetrics} through JMX, as an MXBean. The values are
+ * read from the metrics when the JMX client asks for them, therefore the
+ * connections do not pay anything for the adapter.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public class JmxMetrics implements ProtocolMetricsMXBean {
+
+    /**
+     * The name used by {@link #register(edu.purdue.jpgsql.metrics.ProtocolMetrics)
+     * }.
+     */
+    public static final String DEFAULT_NAME = "edu.purdue.jpgsql:type=ProtocolMetrics";
+
+    private final ProtocolMetrics _metrics;
+
+    /**
+     * Creates the adapter.
+     *
+     * @param metrics the metrics to expose.
+     */
+    public JmxMetrics(ProtocolMetrics metrics) {
+        if (metrics == null) {
+            throw new NullPointerException();
+        }
+        _metrics = metrics;
+    }
+
+    /**
+     * Registers the metrics in the platform MBean server, with the name
+     * {@link #DEFAULT_NAME}.
+     *
+     * @param metrics the metrics to expose.
+     * @return the name of the MXBean.
+     * @throws JMException if the MXBean cannot be registered, i.e. the name is
+     * already used.
+     */
+    public static ObjectName register(ProtocolMetrics metrics) throws JMException {
+        return register(metrics, DEFAULT_NAME);
+    }
+
+    /**
+     * Registers the metrics in the platform MBean server.
+     *
+     * @param metrics the metrics to expose.
+     * @param name the name of the MXBean.
+     * @return the name of the MXBean.
+     * @throws JMException if the MXBean cannot be registered, i.e. the name is
+     * already used.
+     */
+    public static ObjectName register(ProtocolMetrics metrics, String name) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        return server.registerMBean(new JmxMetrics(metrics), new ObjectName(name)).getObjectName();
+    }
+
+    /**
+     * Removes the metrics from the platform MBean server.
+     *
+     * @param name the name returned by {@link #register(edu.purdue.jpgsql.metrics.ProtocolMetrics, java.lang.String)
+     * }.
+     * @throws JMException if the MXBean is not registered.
+     */
+    public static void unregister(ObjectName name) throws JMException {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+    }
+
+    @Override
+    public Map<String, Long> getMessagesReceived() {
+        return toStringKeys(_metrics.getMessagesReceived());
+    }
+
+    @Override
+    public Map<String, Long> getMessagesSent() {
+        return toStringKeys(_metrics.getMessagesSent());
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return _metrics.getBytesReceived();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return _metrics.getBytesSent();
+    }
+
+    @Override
+    public long getRowsSent() {
+        return _metrics.getRowsSent();
+    }
+
+    @Override
+    public OperationLatency getParseLatency() {
+        return getLatency(Metrics.Operation.PARSE);
+    }
+
+    @Override
+    public OperationLatency getBindLatency() {
+        return getLatency(Metrics.Operation.BIND);
+    }
+
+    @Override
+    public OperationLatency getExecuteLatency() {
+        return getLatency(Metrics.Operation.EXECUTE);
+    }
+
+    @Override
+    public OperationLatency getQueryLatency() {
+        return getLatency(Metrics.Operation.QUERY);
+    }
+
+    @Override
+    public void reset() {
+        _metrics.reset();
+    }
+
+    private OperationLatency getLatency(Metrics.Operation operation) {
+        return new OperationLatency(
+                new LatencySummary(_metrics.getProviderLatency(operation)),
+                new LatencySummary(_metrics.getWriteLatency(operation)));
+    }
+
+    private static Map<String, Long> toStringKeys(Map<Character, Long> counts) {
+        Map<String, Long> ret = new LinkedHashMap<>();
+        for (Map.Entry<Character, Long> e : counts.entrySet()) {
+            ret.put(String.valueOf(e.getKey()), e.getValue());
+        }
+        return ret;
+    }
+}
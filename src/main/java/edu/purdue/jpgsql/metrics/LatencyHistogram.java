@@ -0,0 +1,138 @@
+package edu.purdue.jpgsql.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records a distribution of durations with a bounded relative error, like an
+ * HDR histogram. The values are counted in buckets: every power of two is
+ * split in {@link #SUB_BUCKETS} linear buckets, therefore a value is known
+ * with an error below 1/{@link #SUB_BUCKETS} (about 3%), from one nanosecond
+ * up to {@link #MAX_VALUE} nanoseconds; larger values are counted in the last
+ * bucket. Recording a value is lock free and does not allocate memory, so many
+ * threads can record in the same histogram; reading it while values are
+ * recorded gives an approximate but consistent enough view.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 5;
+
+    /**
+     * The number of buckets of each power of two.
+     */
+    public static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    private static final int MAX_EXPONENT = 40;
+
+    /**
+     * The largest value recorded exactly, about 36 minutes in nanoseconds.
+     */
+    public static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+
+    private final AtomicLongArray _counts = new AtomicLongArray((MAX_EXPONENT - SUB_BITS + 2) * SUB_BUCKETS);
+    private final LongAdder _count = new LongAdder();
+    private final LongAdder _sum = new LongAdder();
+    private final LongAccumulator _max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Records a value.
+     *
+     * @param nanos the duration in nanoseconds; negative values are recorded
+     * as zero.
+     */
+    public void record(long nanos) {
+        long value = Math.max(nanos, 0);
+        _counts.incrementAndGet(indexOf(Math.min(value, MAX_VALUE)));
+        _count.increment();
+        _sum.add(value);
+        _max.accumulate(value);
+    }
+
+    /**
+     * Returns the number of values recorded.
+     *
+     * @return the count.
+     */
+    public long getCount() {
+        return _count.sum();
+    }
+
+    /**
+     * Returns the mean of the values recorded.
+     *
+     * @return the mean in nanoseconds, 0 if no value was recorded.
+     */
+    public double getMean() {
+        long count = _count.sum();
+        return count == 0 ? 0 : (double) _sum.sum() / count;
+    }
+
+    /**
+     * Returns the largest value recorded.
+     *
+     * @return the maximum in nanoseconds, 0 if no value was recorded.
+     */
+    public long getMax() {
+        return _max.get();
+    }
+
+    /**
+     * Returns the value below which the given percentage of the values fall.
+     * The result is the highest value of its bucket, never above the
+     * maximum.
+     *
+     * @param percentile the percentile, between 0 and 100.
+     * @return the value in nanoseconds, 0 if no value was recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = 0;
+        for (int n = 0; n < _counts.length(); n++) {
+            total += _counts.get(n);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * Math.min(percentile, 100) / 100));
+        long seen = 0;
+        for (int n = 0; n < _counts.length(); n++) {
+            seen += _counts.get(n);
+            if (seen >= rank) {
+                return Math.min(lowestValueOf(n + 1) - 1, getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Discards all the values recorded.
+     */
+    public void reset() {
+        for (int n = 0; n < _counts.length(); n++) {
+            _counts.set(n, 0);
+        }
+        _count.reset();
+        _sum.reset();
+        _max.reset();
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) - SUB_BUCKETS;
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    static long lowestValueOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS - 1 + SUB_BITS;
+        long sub = index % SUB_BUCKETS;
+        return (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+    }
+}
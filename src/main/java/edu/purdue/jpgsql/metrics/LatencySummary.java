@@ -0,0 +1,88 @@
+package edu.purdue.jpgsql.metrics;
+
+/**
+ * A summary of a {@link LatencyHistogram}, in microseconds. Exposed through
+ * JMX as a composite value.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public class LatencySummary {
+
+    private final long _count;
+    private final double _mean;
+    private final double _p50, _p90, _p99, _p999;
+    private final double _max;
+
+    LatencySummary(LatencyHistogram histogram) {
+        _count = histogram.getCount();
+        _mean = histogram.getMean() / 1000;
+        _p50 = histogram.getValueAtPercentile(50) / 1000.0;
+        _p90 = histogram.getValueAtPercentile(90) / 1000.0;
+        _p99 = histogram.getValueAtPercentile(99) / 1000.0;
+        _p999 = histogram.getValueAtPercentile(99.9) / 1000.0;
+        _max = histogram.getMax() / 1000.0;
+    }
+
+    /**
+     * Returns the number of values recorded.
+     *
+     * @return the count.
+     */
+    public long getCount() {
+        return _count;
+    }
+
+    /**
+     * Returns the mean.
+     *
+     * @return the mean in microseconds.
+     */
+    public double getMean() {
+        return _mean;
+    }
+
+    /**
+     * Returns the median.
+     *
+     * @return the 50th percentile in microseconds.
+     */
+    public double getP50() {
+        return _p50;
+    }
+
+    /**
+     * Returns the 90th percentile.
+     *
+     * @return the percentile in microseconds.
+     */
+    public double getP90() {
+        return _p90;
+    }
+
+    /**
+     * Returns the 99th percentile.
+     *
+     * @return the percentile in microseconds.
+     */
+    public double getP99() {
+        return _p99;
+    }
+
+    /**
+     * Returns the 99.9th percentile.
+     *
+     * @return the percentile in microseconds.
+     */
+    public double getP999() {
+        return _p999;
+    }
+
+    /**
+     * Returns the largest value recorded.
+     *
+     * @return the maximum in microseconds.
+     */
+    public double getMax() {
+        return _max;
+    }
+}
@@ -0,0 +1,104 @@
+package edu.purdue.jpgsql.metrics;
+
+/**
+ * Receives the events of the protocol, to measure the traffic and the latency
+ * of the connections. The methods are called by the threads of the
+ * connections while they handle the messages, therefore an implementation
+ * must be thread safe and quick: it should not lock nor allocate memory. All
+ * the methods have an empty default implementation, so an implementation can
+ * override only the events it is interested in. The same instance can be
+ * shared by many connections.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public interface Metrics {
+
+    /**
+     * Does not measure anything. The connections using it do not even read
+     * the clock.
+     */
+    public static final Metrics NONE = new Metrics() {
+    };
+
+    /**
+     * Represents the operations whose latency is measured, named after the
+     * frontend messages.
+     */
+    public enum Operation {
+
+        PARSE, BIND, EXECUTE, QUERY;
+
+        /**
+         * Returns the operation started by a frontend message.
+         *
+         * @param type the type of the message.
+         * @return the operation or null if the latency of the message is not
+         * measured.
+         */
+        public static Operation of(char type) {
+            switch (type) {
+                case 'P':
+                    return PARSE;
+                case 'B':
+                    return BIND;
+                case 'E':
+                    return EXECUTE;
+                case 'Q':
+                    return QUERY;
+                default:
+                    return null;
+            }
+        }
+    }
+
+    /**
+     * Called when a message is received from the client. The startup packets
+     * are not reported.
+     *
+     * @param type the type of the message.
+     * @param length the length of the message in bytes, including the type.
+     */
+    default void messageReceived(char type, int length) {
+    }
+
+    /**
+     * Called when a message is sent to the client.
+     *
+     * @param type the type of the message.
+     * @param length the length of the message in bytes, including the type.
+     */
+    default void messageSent(char type, int length) {
+    }
+
+    /**
+     * Called when already encoded data is sent to the client, i.e. a response
+     * served from the cache or the content of a file, whose messages are not
+     * reported one by one.
+     *
+     * @param length the number of bytes.
+     */
+    default void rawDataSent(long length) {
+    }
+
+    /**
+     * Called when rows of a result are sent to the client, either in DataRow
+     * messages or by a COPY TO STDOUT.
+     *
+     * @param rows the number of rows.
+     */
+    default void rowsSent(long rows) {
+    }
+
+    /**
+     * Called when the connection completes an operation. The total latency is
+     * split in the time spent in the {@link edu.purdue.jpgsql.DataProvider}
+     * (computing the result and reading the rows) and the time spent by the
+     * connection encoding and writing the response.
+     *
+     * @param operation the operation.
+     * @param providerNanos the time spent in the provider, in nanoseconds.
+     * @param writeNanos the remaining time, in nanoseconds.
+     */
+    default void operationCompleted(Operation operation, long providerNanos, long writeNanos) {
+    }
+}
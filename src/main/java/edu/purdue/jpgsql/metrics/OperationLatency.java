@@ -0,0 +1,37 @@
+package edu.purdue.jpgsql.metrics;
+
+/**
+ * The latency of an operation, split in the time spent in the provider and
+ * the time spent encoding and writing the response. Exposed through JMX as a
+ * composite value.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public class OperationLatency {
+
+    private final LatencySummary _provider;
+    private final LatencySummary _write;
+
+    OperationLatency(LatencySummary provider, LatencySummary write) {
+        _provider = provider;
+        _write = write;
+    }
+
+    /**
+     * Returns the time spent in the provider.
+     *
+     * @return the summary of the distribution.
+     */
+    public LatencySummary getProvider() {
+        return _provider;
+    }
+
+    /**
+     * Returns the time spent encoding and writing the response.
+     *
+     * @return the summary of the distribution.
+     */
+    public LatencySummary getWrite() {
+        return _write;
+    }
+}
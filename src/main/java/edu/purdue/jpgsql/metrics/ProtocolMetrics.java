@@ -0,0 +1,190 @@
+package edu.purdue.jpgsql.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the metrics of the protocol in memory: the number of messages of each
+ * type received and sent, the bytes received and sent, the rows sent and, for
+ * each {@link Metrics.Operation}, a histogram of the time spent in the provider
+ * and one of the time spent encoding and writing the response. The counters
+ * are {@link LongAdder}s and the histograms are {@link LatencyHistogram}s,
+ * therefore recording is lock free and does not allocate memory even when
+ * many connections share the same instance. Use {@link JmxMetrics} to expose
+ * the values through JMX.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public class ProtocolMetrics implements Metrics {
+
+    private static final int TYPES = 128;
+
+    private final LongAdder[] _received = newCounters(TYPES);
+    private final LongAdder[] _sent = newCounters(TYPES);
+    private final LongAdder _bytesReceived = new LongAdder();
+    private final LongAdder _bytesSent = new LongAdder();
+    private final LongAdder _rowsSent = new LongAdder();
+    private final LatencyHistogram[] _providerLatency = newHistograms();
+    private final LatencyHistogram[] _writeLatency = newHistograms();
+
+    private static LongAdder[] newCounters(int size) {
+        LongAdder[] counters = new LongAdder[size];
+        for (int n = 0; n < size; n++) {
+            counters[n] = new LongAdder();
+        }
+        return counters;
+    }
+
+    private static LatencyHistogram[] newHistograms() {
+        LatencyHistogram[] histograms = new LatencyHistogram[Operation.values().length];
+        for (int n = 0; n < histograms.length; n++) {
+            histograms[n] = new LatencyHistogram();
+        }
+        return histograms;
+    }
+
+    @Override
+    public void messageReceived(char type, int length) {
+        _received[type % TYPES].increment();
+        _bytesReceived.add(length);
+    }
+
+    @Override
+    public void messageSent(char type, int length) {
+        _sent[type % TYPES].increment();
+        _bytesSent.add(length);
+    }
+
+    @Override
+    public void rawDataSent(long length) {
+        _bytesSent.add(length);
+    }
+
+    @Override
+    public void rowsSent(long rows) {
+        _rowsSent.add(rows);
+    }
+
+    @Override
+    public void operationCompleted(Operation operation, long providerNanos, long writeNanos) {
+        _providerLatency[operation.ordinal()].record(providerNanos);
+        _writeLatency[operation.ordinal()].record(writeNanos);
+    }
+
+    /**
+     * Returns the number of messages received of a type.
+     *
+     * @param type the type of the message.
+     * @return the number of messages.
+     */
+    public long getMessagesReceived(char type) {
+        return _received[type % TYPES].sum();
+    }
+
+    /**
+     * Returns the number of messages sent of a type.
+     *
+     * @param type the type of the message.
+     * @return the number of messages.
+     */
+    public long getMessagesSent(char type) {
+        return _sent[type % TYPES].sum();
+    }
+
+    /**
+     * Returns the number of messages received of every type.
+     *
+     * @return the counts keyed by message type, only the types received at
+     * least once.
+     */
+    public Map<Character, Long> getMessagesReceived() {
+        return toMap(_received);
+    }
+
+    /**
+     * Returns the number of messages sent of every type.
+     *
+     * @return the counts keyed by message type, only the types sent at least
+     * once.
+     */
+    public Map<Character, Long> getMessagesSent() {
+        return toMap(_sent);
+    }
+
+    /**
+     * Returns the bytes received, i.e. the sum of the length of the messages.
+     *
+     * @return the number of bytes.
+     */
+    public long getBytesReceived() {
+        return _bytesReceived.sum();
+    }
+
+    /**
+     * Returns the bytes sent.
+     *
+     * @return the number of bytes.
+     */
+    public long getBytesSent() {
+        return _bytesSent.sum();
+    }
+
+    /**
+     * Returns the rows sent.
+     *
+     * @return the number of rows.
+     */
+    public long getRowsSent() {
+        return _rowsSent.sum();
+    }
+
+    /**
+     * Returns the histogram of the time spent in the provider.
+     *
+     * @param operation the operation.
+     * @return the histogram, in nanoseconds.
+     */
+    public LatencyHistogram getProviderLatency(Operation operation) {
+        return _providerLatency[operation.ordinal()];
+    }
+
+    /**
+     * Returns the histogram of the time spent encoding and writing the
+     * response.
+     *
+     * @param operation the operation.
+     * @return the histogram, in nanoseconds.
+     */
+    public LatencyHistogram getWriteLatency(Operation operation) {
+        return _writeLatency[operation.ordinal()];
+    }
+
+    /**
+     * Resets all the counters and histograms.
+     */
+    public void reset() {
+        for (int n = 0; n < TYPES; n++) {
+            _received[n].reset();
+            _sent[n].reset();
+        }
+        _bytesReceived.reset();
+        _bytesSent.reset();
+        _rowsSent.reset();
+        for (int n = 0; n < _providerLatency.length; n++) {
+            _providerLatency[n].reset();
+            _writeLatency[n].reset();
+        }
+    }
+
+    private static Map<Character, Long> toMap(LongAdder[] counters) {
+        Map<Character, Long> ret = new TreeMap<>();
+        for (int n = 0; n < counters.length; n++) {
+            long count = counters[n].sum();
+            if (count > 0) {
+                ret.put((char) n, count);
+            }
+        }
+        return ret;
+    }
+}
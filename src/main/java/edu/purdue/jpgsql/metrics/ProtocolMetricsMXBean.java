@@ -0,0 +1,80 @@
+package edu.purdue.jpgsql.metrics;
+
+import java.util.Map;
+
+/**
+ * The JMX view of {@link ProtocolMetrics}, registered by {@link JmxMetrics}.
+ * The latencies are in microseconds.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public interface ProtocolMetricsMXBean {
+
+    /**
+     * Returns the number of messages received of every type.
+     *
+     * @return the counts keyed by message type.
+     */
+    Map<String, Long> getMessagesReceived();
+
+    /**
+     * Returns the number of messages sent of every type.
+     *
+     * @return the counts keyed by message type.
+     */
+    Map<String, Long> getMessagesSent();
+
+    /**
+     * Returns the bytes received.
+     *
+     * @return the number of bytes.
+     */
+    long getBytesReceived();
+
+    /**
+     * Returns the bytes sent.
+     *
+     * @return the number of bytes.
+     */
+    long getBytesSent();
+
+    /**
+     * Returns the rows sent.
+     *
+     * @return the number of rows.
+     */
+    long getRowsSent();
+
+    /**
+     * Returns the latency of the Parse messages.
+     *
+     * @return the time spent in the provider and writing the response.
+     */
+    OperationLatency getParseLatency();
+
+    /**
+     * Returns the latency of the Bind messages.
+     *
+     * @return the time spent in the provider and writing the response.
+     */
+    OperationLatency getBindLatency();
+
+    /**
+     * Returns the latency of the Execute messages.
+     *
+     * @return the time spent in the provider and writing the response.
+     */
+    OperationLatency getExecuteLatency();
+
+    /**
+     * Returns the latency of the Query messages.
+     *
+     * @return the time spent in the provider and writing the response.
+     */
+    OperationLatency getQueryLatency();
+
+    /**
+     * Resets all the counters and histograms.
+     */
+    void reset();
+}
@@ -0,0 +1,287 @@
+package edu.purdue.jpgsql.metrics;
+
+import edu.purdue.jpgsql.utils.QueryFingerprint;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Aggregates the executions of the queries by fingerprint, like
+ * pg_stat_statements: for every normalized query (see
+ * {@link QueryFingerprint}) it counts the calls, the total, minimum and
+ * maximum time, the rows and the bytes sent. The queries with the highest
+ * total time are the ones which consume most of the resources, see
+ * {@link #getTop(int) }.
+ * <p>
+ * The table is bounded: when it exceeds the maximum number of entries, the 5%
+ * of the entries with the fewest calls is discarded, like the deallocation of
+ * pg_stat_statements; the new entry which filled the table is kept, with its
+ * first execution. Recording the execution of a known query does not lock
+ * and does not allocate memory besides the lookup key; only the first
+ * execution of a query normalizes it. The same instance can be shared by
+ * many connections, see
+ * {@link edu.purdue.jpgsql.SimpleConnection#setQueryStatistics(edu.purdue.jpgsql.metrics.QueryStatistics) }.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public class QueryStatistics {
+
+    private final int _maxEntries;
+    private final ConcurrentHashMap<Long, Counters> _entries = new ConcurrentHashMap<>();
+    private final LongAdder _deallocations = new LongAdder();
+
+    /**
+     * Creates an empty table.
+     *
+     * @param maxEntries the maximum number of distinct queries tracked.
+     */
+    public QueryStatistics(int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+        _maxEntries = maxEntries;
+    }
+
+    /**
+     * Records an execution of a query.
+     *
+     * @param query the text of the query, with or without constants.
+     * @param nanos the duration of the execution.
+     * @param rows the number of rows sent.
+     * @param bytes the number of bytes sent.
+     */
+    public void record(String query, long nanos, long rows, long bytes) {
+        long id = QueryFingerprint.of(query);
+        Counters counters = _entries.get(id);
+        if (counters == null) {
+            // recorded before it is visible, so that no entry has zero calls
+            counters = new Counters(id, QueryFingerprint.normalize(query));
+            counters.record(nanos, rows, bytes);
+            Counters existing = _entries.putIfAbsent(id, counters);
+            if (existing == null) {
+                if (_entries.size() > _maxEntries) {
+                    deallocate(counters);
+                }
+                return;
+            }
+            counters = existing;
+        }
+        counters.record(nanos, rows, bytes);
+    }
+
+    /**
+     * Returns the statistics of all the queries.
+     *
+     * @return the entries, in no particular order.
+     */
+    public List<Entry> getEntries() {
+        List<Entry> ret = new ArrayList<>(_entries.size());
+        for (Counters counters : _entries.values()) {
+            ret.add(counters.snapshot());
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the queries with the highest total time.
+     *
+     * @param limit the maximum number of queries returned.
+     * @return the entries, sorted by decreasing total time.
+     */
+    public List<Entry> getTop(int limit) {
+        List<Entry> entries = getEntries();
+        entries.sort(Comparator.comparingLong(Entry::getTotalTime).reversed());
+        return entries.size() > limit ? new ArrayList<>(entries.subList(0, limit)) : entries;
+    }
+
+    /**
+     * Returns how many times the entries with the fewest calls have been
+     * discarded because the table was full. If this number grows, the
+     * maximum number of entries is too low.
+     *
+     * @return the number of deallocations.
+     */
+    public long getDeallocations() {
+        return _deallocations.sum();
+    }
+
+    /**
+     * Discards all the statistics.
+     */
+    public void reset() {
+        _entries.clear();
+    }
+
+    /**
+     * Discards the 5% of the entries with the fewest calls, except the entry
+     * just inserted: it has a single call, so it would always be the first
+     * discarded and a new query could never enter a full table. Only one
+     * thread at a time deallocates, the others keep recording.
+     *
+     * @param inserted the entry whose insertion filled the table.
+     */
+    private synchronized void deallocate(Counters inserted) {
+        if (_entries.size() <= _maxEntries) {
+            return; // another thread already did it
+        }
+        List<Counters> entries = new ArrayList<>(_entries.values());
+        entries.remove(inserted);
+        entries.sort(Comparator.comparingLong(c -> c._calls.sum()));
+        int remove = Math.min(entries.size(), Math.max(1, _entries.size() / 20));
+        for (int n = 0; n < remove; n++) {
+            _entries.remove(entries.get(n)._id);
+        }
+        _deallocations.increment();
+    }
+
+    /**
+     * Keeps the counters of a query.
+     */
+    private static final class Counters {
+
+        private final long _id;
+        private final String _query;
+        private final LongAdder _calls = new LongAdder();
+        private final LongAdder _totalTime = new LongAdder();
+        private final LongAccumulator _minTime = new LongAccumulator(Math::min, Long.MAX_VALUE);
+        private final LongAccumulator _maxTime = new LongAccumulator(Math::max, 0);
+        private final LongAdder _rows = new LongAdder();
+        private final LongAdder _bytes = new LongAdder();
+
+        Counters(long id, String query) {
+            _id = id;
+            _query = query;
+        }
+
+        void record(long nanos, long rows, long bytes) {
+            _calls.increment();
+            _totalTime.add(nanos);
+            _minTime.accumulate(nanos);
+            _maxTime.accumulate(nanos);
+            _rows.add(rows);
+            _bytes.add(bytes);
+        }
+
+        Entry snapshot() {
+            long calls = _calls.sum();
+            return new Entry(_id, _query, calls, _totalTime.sum(), calls == 0 ? 0 : _minTime.get(),
+                    _maxTime.get(), _rows.sum(), _bytes.sum());
+        }
+    }
+
+    /**
+     * Is a copy of the statistics of a query. The times are in nanoseconds.
+     */
+    public static final class Entry {
+
+        private final long _queryId;
+        private final String _query;
+        private final long _calls;
+        private final long _totalTime;
+        private final long _minTime;
+        private final long _maxTime;
+        private final long _rows;
+        private final long _bytes;
+
+        Entry(long queryId, String query, long calls, long totalTime, long minTime, long maxTime, long rows, long bytes) {
+            _queryId = queryId;
+            _query = query;
+            _calls = calls;
+            _totalTime = totalTime;
+            _minTime = minTime;
+            _maxTime = maxTime;
+            _rows = rows;
+            _bytes = bytes;
+        }
+
+        /**
+         * Returns the fingerprint of the query.
+         *
+         * @return the fingerprint, see {@link QueryFingerprint#of(java.lang.String)
+         * }.
+         */
+        public long getQueryId() {
+            return _queryId;
+        }
+
+        /**
+         * Returns the normalized text of the query.
+         *
+         * @return the query, with place-holders instead of the constants.
+         */
+        public String getQuery() {
+            return _query;
+        }
+
+        /**
+         * Returns the number of executions.
+         *
+         * @return the number of calls.
+         */
+        public long getCalls() {
+            return _calls;
+        }
+
+        /**
+         * Returns the total time of the executions.
+         *
+         * @return the time in nanoseconds.
+         */
+        public long getTotalTime() {
+            return _totalTime;
+        }
+
+        /**
+         * Returns the time of the fastest execution.
+         *
+         * @return the time in nanoseconds.
+         */
+        public long getMinTime() {
+            return _minTime;
+        }
+
+        /**
+         * Returns the time of the slowest execution.
+         *
+         * @return the time in nanoseconds.
+         */
+        public long getMaxTime() {
+            return _maxTime;
+        }
+
+        /**
+         * Returns the mean time of the executions.
+         *
+         * @return the time in nanoseconds.
+         */
+        public double getMeanTime() {
+            return _calls == 0 ? 0 : (double) _totalTime / _calls;
+        }
+
+        /**
+         * Returns the total number of rows sent.
+         *
+         * @return the number of rows.
+         */
+        public long getRows() {
+            return _rows;
+        }
+
+        /**
+         * Returns the total number of bytes sent.
+         *
+         * @return the number of bytes.
+         */
+        public long getBytes() {
+            return _bytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%016x calls=%d total=%dus: %s", _queryId, _calls, _totalTime / 1000, _query);
+        }
+    }
+}
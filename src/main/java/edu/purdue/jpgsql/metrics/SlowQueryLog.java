@@ -0,0 +1,249 @@
+package edu.purdue.jpgsql.metrics;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Logs the queries slower than a threshold, like log_min_duration_statement
+ * in Postgres, and optionally a random sample of the faster ones. Every entry
+ * is a line of JSON with the query, who ran it, the number of rows and bytes
+ * sent and the time split in:
+ * <ul>
+ * <li><code>provider_us</code>: spent in the
+ * {@link edu.purdue.jpgsql.DataProvider}, computing the result and reading
+ * the rows;</li>
+ * <li><code>first_row_us</code>: from the beginning of the query to the first
+ * row read, absent if no row has been read;</li>
+ * <li><code>stream_us</code>: from the beginning of the query to the last
+ * message encoded, including the provider time;</li>
+ * <li><code>write_us</code>: the final write of the response to the
+ * socket.</li>
+ * </ul>
+ * The connections only put the entries in a bounded queue; a daemon thread,
+ * started with the first entry, formats them and passes them to the sink.
+ * When the queue is full the entries are dropped and counted, so a slow sink
+ * never blocks a connection. The same instance can be shared by many
+ * connections, see
+ * {@link edu.purdue.jpgsql.SimpleConnection#setSlowQueryLog(edu.purdue.jpgsql.metrics.SlowQueryLog) }.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public class SlowQueryLog {
+
+    private static final Logger LOGGER = Logger.getLogger(SlowQueryLog.class.getName());
+
+    private final long _threshold;
+    private final double _sampleRate;
+    private final Consumer<String> _sink;
+    private final BlockingQueue<Entry> _queue;
+    private final LongAdder _dropped = new LongAdder();
+    private final Thread _thread;
+    private volatile boolean _started;
+
+    /**
+     * Creates a log writing to the logger of this class, at level INFO.
+     *
+     * @param threshold the minimum duration of the queries logged.
+     * @param unit the unit of threshold.
+     */
+    public SlowQueryLog(long threshold, TimeUnit unit) {
+        this(threshold, unit, 0, line -> LOGGER.info(line), 1024);
+    }
+
+    /**
+     * Creates a log.
+     *
+     * @param threshold the minimum duration of the queries logged.
+     * @param unit the unit of threshold.
+     * @param sampleRate the fraction, between 0 and 1, of the faster queries
+     * logged anyway; 0 to log only the slow ones.
+     * @param sink receives the lines, called by the thread of the log.
+     * @param capacity the maximum number of entries waiting to be written.
+     */
+    public SlowQueryLog(long threshold, TimeUnit unit, double sampleRate, Consumer<String> sink, int capacity) {
+        if (sink == null) {
+            throw new NullPointerException("sink");
+        }
+        if (threshold < 0 || sampleRate < 0 || sampleRate > 1 || capacity <= 0) {
+            throw new IllegalArgumentException("invalid slow query log configuration");
+        }
+        _threshold = unit.toNanos(threshold);
+        _sampleRate = sampleRate;
+        _sink = sink;
+        _queue = new ArrayBlockingQueue<>(capacity);
+        _thread = new Thread(this::run, "jpgsql-slow-query-log");
+        _thread.setDaemon(true);
+    }
+
+    /**
+     * Logs a query if it is slower than the threshold or it is sampled. This
+     * method never blocks.
+     *
+     * @param pid the process id of the connection.
+     * @param user the user.
+     * @param database the database.
+     * @param query the text of the query.
+     * @param durationNanos the total duration.
+     * @param providerNanos the time spent in the provider.
+     * @param firstRowNanos the time to the first row, 0 if none.
+     * @param writeNanos the time spent writing the response to the socket.
+     * @param rows the number of rows sent.
+     * @param bytes the number of bytes sent.
+     * @return true if the query has been logged, false if it is fast and not
+     * sampled or the queue is full.
+     */
+    public boolean log(int pid, String user, String database, String query, long durationNanos,
+            long providerNanos, long firstRowNanos, long writeNanos, long rows, long bytes) {
+        boolean sampled = false;
+        if (durationNanos < _threshold) {
+            if (_sampleRate == 0 || ThreadLocalRandom.current().nextDouble() >= _sampleRate) {
+                return false;
+            }
+            sampled = true;
+        }
+        start();
+        Entry entry = new Entry(System.currentTimeMillis(), pid, user, database, query, durationNanos,
+                providerNanos, firstRowNanos, writeNanos, rows, bytes, sampled);
+        if (!_queue.offer(entry)) {
+            _dropped.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of entries dropped because the queue was full.
+     *
+     * @return the count.
+     */
+    public long getDropped() {
+        return _dropped.sum();
+    }
+
+    private void start() {
+        if (!_started) {
+            synchronized (this) {
+                if (!_started) {
+                    _thread.start();
+                    _started = true;
+                }
+            }
+        }
+    }
+
+    private void run() {
+        StringBuilder line = new StringBuilder(256);
+        try {
+            while (true) {
+                Entry entry = _queue.take();
+                line.setLength(0);
+                entry.format(line);
+                try {
+                    _sink.accept(line.toString());
+                } catch (RuntimeException ex) {
+                    LOGGER.log(Level.WARNING, "Slow query log sink failed", ex);
+                }
+            }
+        } catch (InterruptedException ex) {
+            LOGGER.log(Level.WARNING, "Slow query log interrupted");
+        }
+    }
+
+    /**
+     * Is a query waiting to be written.
+     */
+    private static final class Entry {
+
+        private final long _time;
+        private final int _pid;
+        private final String _user;
+        private final String _database;
+        private final String _query;
+        private final long _duration;
+        private final long _provider;
+        private final long _firstRow;
+        private final long _write;
+        private final long _rows;
+        private final long _bytes;
+        private final boolean _sampled;
+
+        Entry(long time, int pid, String user, String database, String query, long duration,
+                long provider, long firstRow, long write, long rows, long bytes, boolean sampled) {
+            _time = time;
+            _pid = pid;
+            _user = user;
+            _database = database;
+            _query = query;
+            _duration = duration;
+            _provider = provider;
+            _firstRow = firstRow;
+            _write = write;
+            _rows = rows;
+            _bytes = bytes;
+            _sampled = sampled;
+        }
+
+        void format(StringBuilder out) {
+            out.append("{\"time\":").append(_time);
+            out.append(",\"pid\":").append(_pid);
+            out.append(",\"user\":");
+            appendString(out, _user);
+            out.append(",\"database\":");
+            appendString(out, _database);
+            out.append(",\"duration_us\":").append(_duration / 1000);
+            out.append(",\"provider_us\":").append(_provider / 1000);
+            if (_firstRow > 0) {
+                out.append(",\"first_row_us\":").append(_firstRow / 1000);
+            }
+            out.append(",\"stream_us\":").append((_duration - _write) / 1000);
+            out.append(",\"write_us\":").append(_write / 1000);
+            out.append(",\"rows\":").append(_rows);
+            out.append(",\"bytes\":").append(_bytes);
+            out.append(",\"sampled\":").append(_sampled);
+            out.append(",\"query\":");
+            appendString(out, _query);
+            out.append('}');
+        }
+
+        private static void appendString(StringBuilder out, String str) {
+            if (str == null) {
+                out.append("null");
+                return;
+            }
+            out.append('"');
+            for (int n = 0; n < str.length(); n++) {
+                char c = str.charAt(n);
+                switch (c) {
+                    case '"':
+                        out.append("\\\"");
+                        break;
+                    case '\\':
+                        out.append("\\\\");
+                        break;
+                    case '\n':
+                        out.append("\\n");
+                        break;
+                    case '\r':
+                        out.append("\\r");
+                        break;
+                    case '\t':
+                        out.append("\\t");
+                        break;
+                    default:
+                        if (c < 0x20) {
+                            out.append(String.format("\\u%04x", (int) c));
+                        } else {
+                            out.append(c);
+                        }
+                }
+            }
+            out.append('"');
+        }
+    }
+}
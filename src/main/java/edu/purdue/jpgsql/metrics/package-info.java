@@ -0,0 +1,8 @@
+/**
+ * Contains the instrumentation of the protocol. The connections report every
+ * message received and sent, the rows sent and the latency of the queries to
+ * a {@link edu.purdue.jpgsql.metrics.Metrics} implementation; this package
+ * contains an implementation which keeps counters and latency histograms in
+ * memory and exposes them through JMX, and a log of the slow queries.
+ */
+package edu.purdue.jpgsql.metrics;
@@ -0,0 +1,228 @@
+package edu.purdue.jpgsql.replay;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Is a session captured by a {@link CaptureWriter}, loaded in memory to be
+ * replayed by a {@link Replayer}: the chunks of data sent by the client and
+ * when they have been received.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public final class Capture {
+
+    private static final int PROTOCOL_3 = 196608;
+
+    private final long _startTime;
+    private final long[] _offsets;
+    private final byte[][] _chunks;
+    private final long _bytes;
+    private final int _messages;
+
+    private Capture(long startTime, long[] offsets, byte[][] chunks) {
+        _startTime = startTime;
+        _offsets = offsets;
+        _chunks = chunks;
+        long bytes = 0;
+        for (byte[] chunk : chunks) {
+            bytes += chunk.length;
+        }
+        _bytes = bytes;
+        _messages = countMessages(chunks);
+    }
+
+    /**
+     * Loads a capture file.
+     *
+     * @param file the file.
+     * @return the capture.
+     * @throws IOException if an I/O error occurs or the file is not a
+     * capture.
+     */
+    public static Capture read(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return read(in);
+        }
+    }
+
+    /**
+     * Loads a capture.
+     *
+     * @param stream the stream containing the capture, which is not closed.
+     * @return the capture.
+     * @throws IOException if an I/O error occurs or the stream does not
+     * contain a capture.
+     */
+    public static Capture read(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+        byte[] magic = new byte[CaptureWriter.MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, CaptureWriter.MAGIC)) {
+            throw new IOException("not a capture file");
+        }
+        int version = in.readUnsignedByte();
+        if (version != CaptureWriter.VERSION) {
+            throw new IOException("unsupported capture version " + version);
+        }
+        long startTime = in.readLong();
+        List<byte[]> chunks = new ArrayList<>();
+        long[] offsets = new long[16];
+        long micros = 0;
+        for (;;) {
+            int first = in.read();
+            if (first < 0) {
+                break;
+            }
+            micros += readVarLong(in, first);
+            long length = readVarLong(in, in.readUnsignedByte());
+            if (length < 0 || length > Integer.MAX_VALUE) {
+                throw new IOException("invalid chunk length " + length);
+            }
+            byte[] chunk = new byte[(int) length];
+            in.readFully(chunk);
+            if (chunks.size() == offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+            offsets[chunks.size()] = micros * 1000;
+            chunks.add(chunk);
+        }
+        return new Capture(startTime, Arrays.copyOf(offsets, chunks.size()), chunks.toArray(new byte[chunks.size()][]));
+    }
+
+    private static long readVarLong(DataInputStream in, int first) throws IOException {
+        long value = first & 0x7F;
+        int shift = 7;
+        int b = first;
+        while ((b & 0x80) != 0) {
+            if (shift > 63) {
+                throw new IOException("invalid variable length integer");
+            }
+            b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        }
+        return value;
+    }
+
+    /**
+     * Counts the messages of the stream: the packets without type until the
+     * StartupMessage, then the typed messages.
+     */
+    private static int countMessages(byte[][] chunks) {
+        int messages = 0;
+        boolean typed = false;
+        byte[] header = new byte[8];
+        int headerLength = 0;
+        long skip = 0;
+        for (byte[] chunk : chunks) {
+            int i = 0;
+            while (i < chunk.length) {
+                if (skip > 0) {
+                    int n = (int) Math.min(skip, chunk.length - i);
+                    i += n;
+                    skip -= n;
+                    continue;
+                }
+                header[headerLength++] = chunk[i++];
+                if (headerLength == (typed ? 5 : 8)) {
+                    if (typed) {
+                        skip = readInt(header, 1) - 4;
+                    } else {
+                        skip = readInt(header, 0) - 8;
+                        typed = readInt(header, 4) == PROTOCOL_3;
+                    }
+                    headerLength = 0;
+                    messages++;
+                }
+            }
+        }
+        return messages;
+    }
+
+    private static int readInt(byte[] b, int off) {
+        return (b[off] & 0xFF) << 24 | (b[off + 1] & 0xFF) << 16 | (b[off + 2] & 0xFF) << 8 | (b[off + 3] & 0xFF);
+    }
+
+    /**
+     * Returns when the session has been captured.
+     *
+     * @return the time in milliseconds since the epoch.
+     */
+    public long getStartTime() {
+        return _startTime;
+    }
+
+    /**
+     * Returns the number of chunks of data received.
+     *
+     * @return the count.
+     */
+    public int getChunkCount() {
+        return _chunks.length;
+    }
+
+    /**
+     * Returns the number of messages sent by the client, including the
+     * StartupMessage.
+     *
+     * @return the count.
+     */
+    public int getMessageCount() {
+        return _messages;
+    }
+
+    /**
+     * Returns the number of bytes sent by the client.
+     *
+     * @return the number of bytes.
+     */
+    public long getBytes() {
+        return _bytes;
+    }
+
+    /**
+     * Returns when the last chunk has been received.
+     *
+     * @return the time in nanoseconds since the beginning of the session.
+     */
+    public long getDuration() {
+        return _offsets.length == 0 ? 0 : _offsets[_offsets.length - 1];
+    }
+
+    /**
+     * Returns a chunk of data.
+     *
+     * @param n the index of the chunk.
+     * @return the data, which must not be modified.
+     */
+    byte[] getChunk(int n) {
+        return _chunks[n];
+    }
+
+    /**
+     * Returns when a chunk has been received.
+     *
+     * @param n the index of the chunk.
+     * @return the time in nanoseconds since the beginning of the session.
+     */
+    long getOffset(int n) {
+        return _offsets[n];
+    }
+
+    @Override
+    public String toString() {
+        return String.format("capture of %d: %d messages, %d bytes", _startTime, _messages, _bytes);
+    }
+}
@@ -0,0 +1,155 @@
+package edu.purdue.jpgsql.replay;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Copies the data read from the client to a {@link CaptureWriter}. The
+ * capture never breaks the connection: if writing the capture fails, the
+ * capture stops and the connection goes on.
+ * <p>
+ * The stream follows the framing of the messages so that the content of the
+ * password messages (i.e. passwords, SASL and GSSAPI responses) never
+ * reaches the capture: it is replaced by asterisks, keeping the length and
+ * the terminator, so the capture can still be parsed and replayed. A
+ * replayed session therefore sends a wrong password.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public class CaptureInputStream extends FilterInputStream {
+
+    private static final Logger LOGGER = Logger.getLogger(CaptureInputStream.class.getName());
+
+    private static final int PROTOCOL_3 = 196608;
+    private static final byte REDACTED = '*';
+
+    private CaptureWriter _capture;
+    private final byte[] _single = new byte[1];
+    private byte[] _redacted = new byte[64];
+    private final byte[] _header = new byte[8];
+    private int _headerLength;
+    private boolean _typed;
+    private long _remaining;
+    private boolean _redact;
+
+    /**
+     * Creates a CaptureInputStream.
+     *
+     * @param in the stream of the client.
+     * @param capture the capture receiving the data.
+     */
+    public CaptureInputStream(InputStream in, CaptureWriter capture) {
+        super(in);
+        if (capture == null) {
+            throw new NullPointerException("capture");
+        }
+        _capture = capture;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = in.read();
+        if (b >= 0) {
+            _single[0] = (byte) b;
+            captured(_single, 0, 1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = in.read(b, off, len);
+        if (read > 0) {
+            captured(b, off, read);
+        }
+        return read;
+    }
+
+    /**
+     * Skips data reading it, so that it is captured.
+     */
+    @Override
+    public long skip(long n) throws IOException {
+        byte[] skipped = new byte[(int) Math.min(n, 8192)];
+        int read = read(skipped, 0, skipped.length);
+        return Math.max(read, 0);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void captured(byte[] b, int off, int len) {
+        if (_capture == null) {
+            return;
+        }
+        try {
+            int end = off + len;
+            int start = off;
+            int i = off;
+            while (i < end) {
+                if (_remaining > 0) {
+                    int n = (int) Math.min(_remaining, end - i);
+                    if (_redact) {
+                        _capture.received(b, start, i - start);
+                        redact(b, i, n, n == _remaining);
+                        start = i + n;
+                    }
+                    i += n;
+                    _remaining -= n;
+                } else {
+                    _header[_headerLength++] = b[i++];
+                    if (_headerLength == (_typed ? 5 : 8)) {
+                        startMessage();
+                    }
+                }
+            }
+            _capture.received(b, start, end - start);
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Cannot write the capture, stopping it", ex);
+            _capture = null;
+        }
+    }
+
+    /**
+     * Reads the header of a message: the type and the length of the typed
+     * messages, the length and the code of the startup messages, which are
+     * followed by typed messages once the protocol starts.
+     */
+    private void startMessage() {
+        _headerLength = 0;
+        if (_typed) {
+            _remaining = int32(1) - 4;
+            _redact = _header[0] == 'p';
+        } else {
+            _remaining = int32(0) - 8;
+            _redact = false;
+            _typed = int32(4) == PROTOCOL_3;
+        }
+    }
+
+    private int int32(int off) {
+        return (_header[off] & 0xFF) << 24 | (_header[off + 1] & 0xFF) << 16
+                | (_header[off + 2] & 0xFF) << 8 | (_header[off + 3] & 0xFF);
+    }
+
+    /**
+     * Captures asterisks in place of the data, but the last byte of the
+     * message, which terminates the string.
+     */
+    private void redact(byte[] b, int off, int len, boolean last) throws IOException {
+        if (_redacted.length < len) {
+            _redacted = new byte[Math.max(len, _redacted.length * 2)];
+        }
+        Arrays.fill(_redacted, 0, len, REDACTED);
+        if (last) {
+            _redacted[len - 1] = b[off + len - 1];
+        }
+        _capture.received(_redacted, 0, len);
+    }
+}
@@ -0,0 +1,133 @@
+package edu.purdue.jpgsql.replay;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the bytes received from a client in a capture file. The file starts
+ * with the magic string "JPGCAP", a version byte and the time of the capture
+ * in milliseconds since the epoch; it contains then a record for every chunk
+ * of data received: the time since the previous chunk in microseconds and
+ * the length of the chunk, both as variable length integers, followed by the
+ * data. The reads closer than {@link #COALESCE_NANOS} are merged in the same
+ * chunk, since they are a single packet read in pieces.
+ * <p>
+ * The file is written through a buffer, so capturing costs a copy of the
+ * data received. A writer is used by a single connection, see
+ * {@link edu.purdue.jpgsql.BaseConnection#setCapture(edu.purdue.jpgsql.replay.CaptureWriter)
+ * }, and is closed when the connection ends.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public class CaptureWriter implements Closeable {
+
+    static final byte[] MAGIC = {'J', 'P', 'G', 'C', 'A', 'P'};
+    static final int VERSION = 1;
+
+    /**
+     * The maximum distance, in nanoseconds, between two reads merged in the
+     * same chunk.
+     */
+    public static final long COALESCE_NANOS = 100_000;
+
+    private static final int MAX_CHUNK = 65536;
+
+    private final DataOutputStream _out;
+    private final long _start;
+    private long _lastMicros;
+    private byte[] _pending = new byte[1024];
+    private int _pendingLength;
+    private long _pendingStart;
+    private long _pendingLast;
+    private boolean _closed;
+
+    /**
+     * Creates a CaptureWriter, writing the header of the file.
+     *
+     * @param out the stream to write, closed by {@link #close() }.
+     * @throws IOException if an I/O error occurs.
+     */
+    public CaptureWriter(OutputStream out) throws IOException {
+        _out = new DataOutputStream(new BufferedOutputStream(out, MAX_CHUNK));
+        _out.write(MAGIC);
+        _out.writeByte(VERSION);
+        _out.writeLong(System.currentTimeMillis());
+        _start = System.nanoTime();
+    }
+
+    /**
+     * Records data received from the client.
+     *
+     * @param b the data.
+     * @param off the offset of the data.
+     * @param len the length of the data.
+     * @throws IOException if an I/O error occurs.
+     */
+    public void received(byte[] b, int off, int len) throws IOException {
+        if (_closed) {
+            throw new IOException("capture closed");
+        }
+        if (len == 0) {
+            return;
+        }
+        long now = System.nanoTime() - _start;
+        if (_pendingLength > 0 && (now - _pendingLast > COALESCE_NANOS || _pendingLength + len > MAX_CHUNK)) {
+            writePending();
+        }
+        if (_pendingLength == 0) {
+            _pendingStart = now;
+        }
+        if (_pendingLength + len > _pending.length) {
+            byte[] pending = new byte[Math.max(_pending.length * 2, _pendingLength + len)];
+            System.arraycopy(_pending, 0, pending, 0, _pendingLength);
+            _pending = pending;
+        }
+        System.arraycopy(b, off, _pending, _pendingLength, len);
+        _pendingLength += len;
+        _pendingLast = now;
+    }
+
+    /**
+     * Writes the data received so far to the file.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    public void flush() throws IOException {
+        if (_pendingLength > 0) {
+            writePending();
+        }
+        _out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!_closed) {
+            try {
+                flush();
+            } finally {
+                _closed = true;
+                _out.close();
+            }
+        }
+    }
+
+    private void writePending() throws IOException {
+        long micros = _pendingStart / 1000;
+        writeVarLong(micros - _lastMicros);
+        writeVarLong(_pendingLength);
+        _out.write(_pending, 0, _pendingLength);
+        _lastMicros = micros;
+        _pendingLength = 0;
+    }
+
+    private void writeVarLong(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            _out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        _out.writeByte((int) value);
+    }
+}
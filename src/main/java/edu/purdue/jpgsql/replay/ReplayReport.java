@@ -0,0 +1,125 @@
+package edu.purdue.jpgsql.replay;
+
+import edu.purdue.jpgsql.metrics.LatencyHistogram;
+
+/**
+ * Is the result of a replay: how much traffic has been replayed, how long it
+ * took and the latency of the round trips, that is of the chunks of data
+ * sent by the clients.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public final class ReplayReport {
+
+    private final int _sessions;
+    private final int _failures;
+    private final long _messages;
+    private final long _bytesReceived;
+    private final long _bytesSent;
+    private final long _roundTrips;
+    private final long _elapsed;
+    private final LatencyHistogram _latency;
+
+    ReplayReport(int sessions, int failures, long messages, long bytesReceived, long bytesSent,
+            long roundTrips, long elapsed, LatencyHistogram latency) {
+        _sessions = sessions;
+        _failures = failures;
+        _messages = messages;
+        _bytesReceived = bytesReceived;
+        _bytesSent = bytesSent;
+        _roundTrips = roundTrips;
+        _elapsed = elapsed;
+        _latency = latency;
+    }
+
+    /**
+     * Returns the number of sessions replayed.
+     *
+     * @return the count.
+     */
+    public int getSessions() {
+        return _sessions;
+    }
+
+    /**
+     * Returns the number of sessions ended by an exception of the connection.
+     *
+     * @return the count.
+     */
+    public int getFailures() {
+        return _failures;
+    }
+
+    /**
+     * Returns the number of messages sent to the connections.
+     *
+     * @return the count.
+     */
+    public long getMessages() {
+        return _messages;
+    }
+
+    /**
+     * Returns the number of bytes sent to the connections.
+     *
+     * @return the number of bytes.
+     */
+    public long getBytesReceived() {
+        return _bytesReceived;
+    }
+
+    /**
+     * Returns the number of bytes of the responses of the connections.
+     *
+     * @return the number of bytes.
+     */
+    public long getBytesSent() {
+        return _bytesSent;
+    }
+
+    /**
+     * Returns the number of round trips measured.
+     *
+     * @return the count.
+     */
+    public long getRoundTrips() {
+        return _roundTrips;
+    }
+
+    /**
+     * Returns the duration of the replay.
+     *
+     * @return the time in nanoseconds.
+     */
+    public long getElapsedNanos() {
+        return _elapsed;
+    }
+
+    /**
+     * Returns the throughput of the replay.
+     *
+     * @return the messages per second.
+     */
+    public double getMessagesPerSecond() {
+        return _elapsed == 0 ? 0 : _messages * 1e9 / _elapsed;
+    }
+
+    /**
+     * Returns the latency of the round trips: from the delivery of a chunk of
+     * data to the connection until the connection has written the responses
+     * and waits for more data.
+     *
+     * @return the histogram.
+     */
+    public LatencyHistogram getLatency() {
+        return _latency;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d sessions (%d failed), %d messages in %.3fms: %.0f msg/s, %d bytes in, %d bytes out,"
+                + " latency p50=%.1fus p99=%.1fus max=%.1fus",
+                _sessions, _failures, _messages, _elapsed / 1e6, getMessagesPerSecond(), _bytesReceived, _bytesSent,
+                _latency.getValueAtPercentile(50) / 1e3, _latency.getValueAtPercentile(99) / 1e3, _latency.getMax() / 1e3);
+    }
+}
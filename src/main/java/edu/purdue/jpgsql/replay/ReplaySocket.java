@@ -0,0 +1,238 @@
+package edu.purdue.jpgsql.replay;
+
+import edu.purdue.jpgsql.metrics.LatencyHistogram;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Is a socket connected to a {@link Capture} instead of a client: the input
+ * returns the chunks of the capture, the output counts and discards the
+ * responses. A chunk is delivered only when the connection has consumed the
+ * previous one, and at original speed not before its time; the latency of a
+ * chunk goes from its delivery to the moment the connection asks for the
+ * next one, after having written the responses.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+class ReplaySocket extends Socket {
+
+    private static final long MAX_PARK = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final Capture _capture;
+    private final long _start;
+    private final LatencyHistogram _latency;
+    private final SocketAddress _address;
+    private final InputStream _in = new Input();
+    private final Output _out = new Output();
+    private volatile boolean _closed;
+    private volatile boolean _inputShutdown;
+    private volatile int _soTimeout;
+    private int _chunk = -1;
+    private int _pos;
+    private long _delivered;
+    private long _roundTrips;
+
+    /**
+     * Creates a ReplaySocket.
+     *
+     * @param capture the capture to replay.
+     * @param start the value of {@link System#nanoTime() } at the beginning
+     * of the session to replay the capture at its original speed, 0 to
+     * replay it as fast as possible.
+     * @param latency the histogram receiving the latency of the chunks.
+     */
+    ReplaySocket(Capture capture, long start, LatencyHistogram latency) {
+        _capture = capture;
+        _start = start;
+        _latency = latency;
+        _address = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return _in;
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return _out;
+    }
+
+    @Override
+    public SocketAddress getRemoteSocketAddress() {
+        return _address;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return true;
+    }
+
+    @Override
+    public synchronized void setSoTimeout(int timeout) throws SocketException {
+        _soTimeout = timeout;
+    }
+
+    @Override
+    public synchronized int getSoTimeout() throws SocketException {
+        return _soTimeout;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        _closed = true;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return _closed;
+    }
+
+    @Override
+    public void shutdownInput() throws IOException {
+        _inputShutdown = true;
+    }
+
+    @Override
+    public boolean isInputShutdown() {
+        return _inputShutdown;
+    }
+
+    /**
+     * Records the latency of the last chunk, once the connection has ended.
+     */
+    void finish() {
+        chunkCompleted();
+    }
+
+    /**
+     * Returns the number of chunks whose latency has been recorded.
+     *
+     * @return the count.
+     */
+    long getRoundTrips() {
+        return _roundTrips;
+    }
+
+    /**
+     * Returns the number of bytes written by the connection.
+     *
+     * @return the number of bytes.
+     */
+    long getBytesSent() {
+        return _out._bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "replay of " + _capture;
+    }
+
+    private void chunkCompleted() {
+        if (_delivered != 0) {
+            _latency.record(System.nanoTime() - _delivered);
+            _roundTrips++;
+            _delivered = 0;
+        }
+    }
+
+    /**
+     * Makes the next chunk available, waiting for its time at original speed.
+     *
+     * @return false at the end of the capture.
+     */
+    private boolean nextChunk() throws IOException {
+        chunkCompleted();
+        if (_chunk + 1 >= _capture.getChunkCount()) {
+            return false;
+        }
+        if (_start != 0) {
+            long due = _start + _capture.getOffset(_chunk + 1);
+            long timeout = TimeUnit.MILLISECONDS.toNanos(_soTimeout);
+            long deadline = timeout > 0 ? System.nanoTime() + timeout : Long.MAX_VALUE;
+            for (long now = System.nanoTime(); now < due; now = System.nanoTime()) {
+                checkOpen();
+                if (now >= deadline) {
+                    throw new SocketTimeoutException("Read timed out");
+                }
+                LockSupport.parkNanos(Math.min(Math.min(due, deadline) - now, MAX_PARK));
+            }
+        }
+        _chunk++;
+        _pos = 0;
+        _delivered = System.nanoTime();
+        return true;
+    }
+
+    private void checkOpen() throws SocketException {
+        if (_closed) {
+            throw new SocketException("Socket closed");
+        }
+    }
+
+    /**
+     * Returns the chunks of the capture.
+     */
+    private class Input extends InputStream {
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            checkOpen();
+            if (_inputShutdown) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+            if ((_chunk < 0 || _pos == _capture.getChunk(_chunk).length) && !nextChunk()) {
+                return -1;
+            }
+            byte[] chunk = _capture.getChunk(_chunk);
+            int n = Math.min(len, chunk.length - _pos);
+            System.arraycopy(chunk, _pos, b, off, n);
+            _pos += n;
+            return n;
+        }
+
+        @Override
+        public int available() throws IOException {
+            checkOpen();
+            return _chunk < 0 || _inputShutdown ? 0 : _capture.getChunk(_chunk).length - _pos;
+        }
+    }
+
+    /**
+     * Counts and discards the responses.
+     */
+    private class Output extends OutputStream {
+
+        private volatile long _bytes;
+
+        @Override
+        public void write(int b) throws IOException {
+            checkOpen();
+            _bytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            checkOpen();
+            _bytes += len;
+        }
+    }
+}
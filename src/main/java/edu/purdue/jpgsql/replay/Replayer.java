@@ -0,0 +1,150 @@
+package edu.purdue.jpgsql.replay;
+
+import edu.purdue.jpgsql.BaseConnection;
+import edu.purdue.jpgsql.PgProtocolException;
+import edu.purdue.jpgsql.metrics.LatencyHistogram;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Replays captured sessions against new connections in the same process.
+ * Every session runs in its own thread, like in a
+ * {@link edu.purdue.jpgsql.ConnectionPool}, on a socket which feeds the
+ * capture to the connection and discards the responses, so the replay
+ * measures the library and the provider without network and without client.
+ * <p>
+ * At original speed the sessions start with the same spacing they had when
+ * captured and every chunk of data is delivered not before its original
+ * time; otherwise the sessions start together and the chunks are delivered
+ * as soon as the connection has consumed the previous ones. In both cases
+ * the connection receives a chunk only after having answered the previous
+ * one, like a client waiting for the responses. Use as:
+ * <pre>
+ * Replayer replayer = new Replayer((socket, pid) -&gt; new SimpleConnection(socket, provider));
+ * ReplayReport report = replayer.replay(Arrays.asList(Capture.read(file)));
+ * </pre>
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public class Replayer {
+
+    /**
+     * Is the interface required to create the connections replaying the
+     * sessions.
+     */
+    @FunctionalInterface
+    public interface Instancer {
+
+        /**
+         * Creates a connection.
+         *
+         * @param socket the socket replaying the session.
+         * @param pid the number of the session, starting from 1.
+         * @return the connection.
+         * @throws IOException in case there is any problem with the socket.
+         */
+        public BaseConnection getInstance(Socket socket, int pid) throws IOException;
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(Replayer.class.getName());
+
+    private final Instancer _instancer;
+    private boolean _originalSpeed;
+
+    /**
+     * Creates a Replayer, which replays as fast as possible.
+     *
+     * @param instancer the function creating the connections.
+     */
+    public Replayer(Instancer instancer) {
+        if (instancer == null) {
+            throw new NullPointerException("instancer");
+        }
+        _instancer = instancer;
+    }
+
+    /**
+     * Sets whether the sessions are replayed at their original speed or as
+     * fast as possible (the default).
+     *
+     * @param originalSpeed true to respect the original timing.
+     */
+    public void setOriginalSpeed(boolean originalSpeed) {
+        _originalSpeed = originalSpeed;
+    }
+
+    /**
+     * Replays the sessions concurrently and waits for their end.
+     *
+     * @param captures the sessions.
+     * @return the report.
+     * @throws InterruptedException if the thread is interrupted while
+     * waiting.
+     */
+    public ReplayReport replay(List<Capture> captures) throws InterruptedException {
+        LatencyHistogram latency = new LatencyHistogram();
+        AtomicInteger failures = new AtomicInteger();
+        AtomicLong bytesSent = new AtomicLong();
+        AtomicLong roundTrips = new AtomicLong();
+        long firstStart = Long.MAX_VALUE;
+        long messages = 0;
+        long bytesReceived = 0;
+        for (Capture capture : captures) {
+            firstStart = Math.min(firstStart, capture.getStartTime());
+            messages += capture.getMessageCount();
+            bytesReceived += capture.getBytes();
+        }
+        List<Thread> threads = new ArrayList<>(captures.size());
+        long start = System.nanoTime();
+        for (int n = 0; n < captures.size(); n++) {
+            Capture capture = captures.get(n);
+            int pid = n + 1;
+            long sessionStart = _originalSpeed
+                    ? start + TimeUnit.MILLISECONDS.toNanos(capture.getStartTime() - firstStart) : 0;
+            Thread thread = new Thread(() -> {
+                ReplaySocket socket = new ReplaySocket(capture, sessionStart, latency);
+                if (!replay(socket, pid, sessionStart)) {
+                    failures.incrementAndGet();
+                }
+                bytesSent.addAndGet(socket.getBytesSent());
+                roundTrips.addAndGet(socket.getRoundTrips());
+            }, "jpgsql-replay-" + pid);
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - start;
+        return new ReplayReport(captures.size(), failures.get(), messages, bytesReceived, bytesSent.get(),
+                roundTrips.get(), elapsed, latency);
+    }
+
+    /**
+     * Replays a session in the current thread.
+     *
+     * @return false if the connection failed.
+     */
+    private boolean replay(ReplaySocket socket, int pid, long sessionStart) {
+        for (long now = System.nanoTime(); sessionStart != 0 && now < sessionStart; now = System.nanoTime()) {
+            LockSupport.parkNanos(sessionStart - now);
+        }
+        try {
+            _instancer.getInstance(socket, pid).run();
+            return true;
+        } catch (IOException | PgProtocolException | RuntimeException ex) {
+            LOGGER.log(Level.WARNING, "Replay of session " + pid + " failed", ex);
+            return false;
+        } finally {
+            socket.finish();
+        }
+    }
+}
@@ -0,0 +1,10 @@
+/**
+ * Contains the tools to capture the traffic of the clients and replay it. A
+ * connection with a {@link edu.purdue.jpgsql.replay.CaptureWriter} records
+ * the bytes sent by the client, with their timestamps, in a compact capture
+ * file; the {@link edu.purdue.jpgsql.replay.Replayer} feeds the captures back
+ * to new connections in the same process, without network and without
+ * database, and reports the throughput and the latency. This allows to
+ * benchmark the library against real traffic.
+ */
+package edu.purdue.jpgsql.replay;
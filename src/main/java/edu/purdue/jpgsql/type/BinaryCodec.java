@@ -0,0 +1,529 @@
+package edu.purdue.jpgsql.type;
+
+import edu.purdue.jpgsql.utils.Conversions;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.temporal.ChronoField;
+import java.util.UUID;
+
+/**
+ * Converts values between their text representation, used by the
+ * {@link edu.purdue.jpgsql.DataProvider}, and the binary representation of the
+ * Postgres protocol. The binary representation depends on the type, identified
+ * by its object ID. Types without a specific binary representation (i.e. text,
+ * varchar and the unknown ones) are sent as their UTF-8 text.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public abstract class BinaryCodec {
+
+    public static final int BOOL = 16;
+    public static final int BYTEA = 17;
+    public static final int INT8 = 20;
+    public static final int INT2 = 21;
+    public static final int INT4 = 23;
+    public static final int OID = 26;
+    public static final int FLOAT4 = 700;
+    public static final int FLOAT8 = 701;
+    public static final int DATE = 1082;
+    public static final int TIME = 1083;
+    public static final int TIMESTAMP = 1114;
+    public static final int TIMESTAMPTZ = 1184;
+    public static final int NUMERIC = 1700;
+    public static final int UUID_OID = 2950;
+
+    /**
+     * The days from 1970-01-01 to 2000-01-01, the epoch of Postgres dates.
+     */
+    private static final long PG_EPOCH_DAYS = 10957;
+    private static final long PG_EPOCH_SECONDS = PG_EPOCH_DAYS * 86400;
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = new DateTimeFormatterBuilder()
+            .appendPattern("yyyy-MM-dd HH:mm:ss")
+            .optionalStart().appendFraction(ChronoField.NANO_OF_SECOND, 0, 9, true).optionalEnd()
+            .toFormatter();
+    private static final DateTimeFormatter TIME_FORMAT = new DateTimeFormatterBuilder()
+            .appendPattern("HH:mm:ss")
+            .optionalStart().appendFraction(ChronoField.NANO_OF_SECOND, 0, 9, true).optionalEnd()
+            .toFormatter();
+
+    private final String _name;
+
+    private BinaryCodec(String name) {
+        _name = name;
+    }
+
+    /**
+     * Returns the codec of a type.
+     *
+     * @param typeOid the object ID of the type.
+     * @return the codec, never null.
+     */
+    public static BinaryCodec forType(int typeOid) {
+        switch (typeOid) {
+            case BOOL:
+                return BOOL_CODEC;
+            case BYTEA:
+                return BYTEA_CODEC;
+            case INT2:
+                return INT2_CODEC;
+            case INT4:
+                return INT4_CODEC;
+            case OID:
+                return OID_CODEC;
+            case INT8:
+                return INT8_CODEC;
+            case FLOAT4:
+                return FLOAT4_CODEC;
+            case FLOAT8:
+                return FLOAT8_CODEC;
+            case DATE:
+                return DATE_CODEC;
+            case TIME:
+                return TIME_CODEC;
+            case TIMESTAMP:
+                return TIMESTAMP_CODEC;
+            case TIMESTAMPTZ:
+                return TIMESTAMPTZ_CODEC;
+            case NUMERIC:
+                return NUMERIC_CODEC;
+            case UUID_OID:
+                return UUID_CODEC;
+            default:
+                return TEXT_CODEC;
+        }
+    }
+
+    /**
+     * Converts a value to its binary representation.
+     *
+     * @param text the text representation.
+     * @return the binary representation.
+     * @throws IllegalArgumentException if the text is not a valid value of the
+     * type.
+     */
+    public byte[] encode(String text) throws IllegalArgumentException {
+        try {
+            return toBinary(text);
+        } catch (RuntimeException ex) {
+            throw new IllegalArgumentException("invalid input syntax for type " + _name + ": \"" + text + "\"", ex);
+        }
+    }
+
+    /**
+     * Converts a binary representation to the text representation.
+     *
+     * @param data the buffer containing the binary representation.
+     * @param offset the position of the first byte.
+     * @param length the number of bytes.
+     * @return the text representation.
+     * @throws IllegalArgumentException if the data is not a valid binary
+     * representation of the type.
+     */
+    public String decode(byte[] data, int offset, int length) throws IllegalArgumentException {
+        try {
+            return toText(ByteBuffer.wrap(data, offset, length).slice());
+        } catch (RuntimeException ex) {
+            throw new IllegalArgumentException("invalid binary representation for type " + _name, ex);
+        }
+    }
+
+    protected abstract byte[] toBinary(String text);
+
+    protected abstract String toText(ByteBuffer data);
+
+    private static void checkSize(ByteBuffer data, int size) {
+        if (data.remaining() != size) {
+            throw new IllegalArgumentException("wrong size " + data.remaining());
+        }
+    }
+
+    private static final BinaryCodec TEXT_CODEC = new BinaryCodec("text") {
+        @Override
+        protected byte[] toBinary(String text) {
+            return Conversions.getBytes(text);
+        }
+
+        @Override
+        protected String toText(ByteBuffer data) {
+            return new String(data.array(), data.arrayOffset(), data.remaining(), Conversions.charset);
+        }
+    };
+
+    private static final BinaryCodec BOOL_CODEC = new BinaryCodec("boolean") {
+        @Override
+        protected byte[] toBinary(String text) {
+            switch (text.trim().toLowerCase()) {
+                case "t":
+                case "true":
+                case "y":
+                case "yes":
+                case "on":
+                case "1":
+                    return new byte[]{1};
+                case "f":
+                case "false":
+                case "n":
+                case "no":
+                case "off":
+                case "0":
+                    return new byte[]{0};
+                default:
+                    throw new IllegalArgumentException();
+            }
+        }
+
+        @Override
+        protected String toText(ByteBuffer data) {
+            checkSize(data, 1);
+            return data.get() != 0 ? "t" : "f";
+        }
+    };
+
+    private static final BinaryCodec BYTEA_CODEC = new BinaryCodec("bytea") {
+        @Override
+        protected byte[] toBinary(String text) {
+            if (!text.startsWith("\\x")) {
+                return Conversions.getBytes(text);
+            }
+            byte[] ret = new byte[(text.length() - 2) / 2];
+            for (int n = 0; n < ret.length; n++) {
+                ret[n] = (byte) Integer.parseInt(text.substring(2 + n * 2, 4 + n * 2), 16);
+            }
+            return ret;
+        }
+
+        @Override
+        protected String toText(ByteBuffer data) {
+            StringBuilder sb = new StringBuilder(2 + data.remaining() * 2).append("\\x");
+            while (data.hasRemaining()) {
+                byte b = data.get();
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        }
+    };
+
+    private static final BinaryCodec INT2_CODEC = new BinaryCodec("smallint") {
+        @Override
+        protected byte[] toBinary(String text) {
+            return ByteBuffer.allocate(2).putShort(Short.parseShort(text.trim())).array();
+        }
+
+        @Override
+        protected String toText(ByteBuffer data) {
+            checkSize(data, 2);
+            return Short.toString(data.getShort());
+        }
+    };
+
+    private static final BinaryCodec INT4_CODEC = new BinaryCodec("integer") {
+        @Override
+        protected byte[] toBinary(String text) {
+            return ByteBuffer.allocate(4).putInt(Integer.parseInt(text.trim())).array();
+        }
+
+        @Override
+        protected String toText(ByteBuffer data) {
+            checkSize(data, 4);
+            return Integer.toString(data.getInt());
+        }
+    };
+
+    private static final BinaryCodec OID_CODEC = new BinaryCodec("oid") {
+        @Override
+        protected byte[] toBinary(String text) {
+            long val = Long.parseLong(text.trim());
+            if (val < 0 || val > 0xFFFFFFFFL) {
+                throw new NumberFormatException();
+            }
+            return ByteBuffer.allocate(4).putInt((int) val).array();
+        }
+
+        @Override
+        protected String toText(ByteBuffer data) {
+            checkSize(data, 4);
+            return Long.toString(data.getInt() & 0xFFFFFFFFL);
+        }
+    };
+
+    private static final BinaryCodec INT8_CODEC = new BinaryCodec("bigint") {
+        @Override
+        protected byte[] toBinary(String text) {
+            return ByteBuffer.allocate(8).putLong(Long.parseLong(text.trim())).array();
+        }
+
+        @Override
+        protected String toText(ByteBuffer data) {
+            checkSize(data, 8);
+            return Long.toString(data.getLong());
+        }
+    };
+
+    private static final BinaryCodec FLOAT4_CODEC = new BinaryCodec("real") {
+        @Override
+        protected byte[] toBinary(String text) {
+            return ByteBuffer.allocate(4).putFloat(Float.parseFloat(text.trim())).array();
+        }
+
+        @Override
+        protected String toText(ByteBuffer data) {
+            checkSize(data, 4);
+            return Float.toString(data.getFloat());
+        }
+    };
+
+    private static final BinaryCodec FLOAT8_CODEC = new BinaryCodec("double precision") {
+        @Override
+        protected byte[] toBinary(String text) {
+            return ByteBuffer.allocate(8).putDouble(Double.parseDouble(text.trim())).array();
+        }
+
+        @Override
+        protected String toText(ByteBuffer data) {
+            checkSize(data, 8);
+            return Double.toString(data.getDouble());
+        }
+    };
+
+    private static final BinaryCodec DATE_CODEC = new BinaryCodec("date") {
+        @Override
+        protected byte[] toBinary(String text) {
+            text = text.trim();
+            int days;
+            if (text.equalsIgnoreCase("infinity")) {
+                days = Integer.MAX_VALUE;
+            } else if (text.equalsIgnoreCase("-infinity")) {
+                days = Integer.MIN_VALUE;
+            } else {
+                days = Math.toIntExact(LocalDate.parse(text).toEpochDay() - PG_EPOCH_DAYS);
+            }
+            return ByteBuffer.allocate(4).putInt(days).array();
+        }
+
+        @Override
+        protected String toText(ByteBuffer data) {
+            checkSize(data, 4);
+            int days = data.getInt();
+            if (days == Integer.MAX_VALUE) {
+                return "infinity";
+            } else if (days == Integer.MIN_VALUE) {
+                return "-infinity";
+            }
+            return LocalDate.ofEpochDay(days + PG_EPOCH_DAYS).toString();
+        }
+    };
+
+    private static final BinaryCodec TIME_CODEC = new BinaryCodec("time") {
+        @Override
+        protected byte[] toBinary(String text) {
+            LocalTime time = LocalTime.parse(text.trim());
+            return ByteBuffer.allocate(8).putLong(time.toNanoOfDay() / 1000).array();
+        }
+
+        @Override
+        protected String toText(ByteBuffer data) {
+            checkSize(data, 8);
+            return LocalTime.ofNanoOfDay(data.getLong() * 1000).format(TIME_FORMAT);
+        }
+    };
+
+    private static final BinaryCodec TIMESTAMP_CODEC = new BinaryCodec("timestamp") {
+        @Override
+        protected byte[] toBinary(String text) {
+            text = text.trim();
+            Long special = infinity(text);
+            if (special != null) {
+                return ByteBuffer.allocate(8).putLong(special).array();
+            }
+            LocalDateTime ts = LocalDateTime.parse(text.replace(' ', 'T'));
+            return ByteBuffer.allocate(8).putLong(toMicros(ts.toEpochSecond(ZoneOffset.UTC), ts.getNano())).array();
+        }
+
+        @Override
+        protected String toText(ByteBuffer data) {
+            checkSize(data, 8);
+            long micros = data.getLong();
+            String special = infinity(micros);
+            if (special != null) {
+                return special;
+            }
+            return toDateTime(micros).format(TIMESTAMP_FORMAT);
+        }
+    };
+
+    private static final BinaryCodec TIMESTAMPTZ_CODEC = new BinaryCodec("timestamp with time zone") {
+        @Override
+        protected byte[] toBinary(String text) {
+            text = text.trim();
+            Long special = infinity(text);
+            if (special != null) {
+                return ByteBuffer.allocate(8).putLong(special).array();
+            }
+            text = text.replace(' ', 'T');
+            int sign = Math.max(text.lastIndexOf('+'), text.lastIndexOf('-'));
+            OffsetDateTime ts;
+            if (text.endsWith("Z") || text.endsWith("z")) {
+                ts = OffsetDateTime.parse(text.substring(0, text.length() - 1) + "Z");
+            } else if (sign > text.indexOf('T')) {
+                String offset = text.substring(sign);
+                if (offset.length() == 3) {
+                    offset += ":00";
+                }
+                ts = LocalDateTime.parse(text.substring(0, sign)).atOffset(ZoneOffset.of(offset));
+            } else {
+                ts = LocalDateTime.parse(text).atOffset(ZoneOffset.UTC);
+            }
+            return ByteBuffer.allocate(8).putLong(toMicros(ts.toEpochSecond(), ts.getNano())).array();
+        }
+
+        @Override
+        protected String toText(ByteBuffer data) {
+            checkSize(data, 8);
+            long micros = data.getLong();
+            String special = infinity(micros);
+            if (special != null) {
+                return special;
+            }
+            return toDateTime(micros).format(TIMESTAMP_FORMAT) + "+00";
+        }
+    };
+
+    private static final BinaryCodec NUMERIC_CODEC = new BinaryCodec("numeric") {
+        private static final short POSITIVE = 0x0000;
+        private static final short NEGATIVE = 0x4000;
+        private static final short NAN = (short) 0xC000;
+
+        @Override
+        protected byte[] toBinary(String text) {
+            text = text.trim();
+            if (text.equalsIgnoreCase("NaN")) {
+                return ByteBuffer.allocate(8).putShort((short) 0).putShort((short) 0).putShort(NAN).putShort((short) 0).array();
+            }
+            BigDecimal val = new BigDecimal(text);
+            if (val.scale() < 0) {
+                val = val.setScale(0);
+            }
+            int scale = val.scale();
+            String digits = val.unscaledValue().abs().toString();
+            // align the digits to groups of 4 around the decimal point
+            int intDigits = digits.length() - scale;
+            StringBuilder sb = new StringBuilder();
+            int weight;
+            if (intDigits > 0) {
+                for (int n = intDigits; n % 4 != 0; n++) {
+                    sb.append('0');
+                }
+                weight = (intDigits + sb.length()) / 4 - 1;
+            } else {
+                for (int n = 0; n < -intDigits; n++) {
+                    sb.append('0');
+                }
+                weight = -1;
+            }
+            sb.append(digits);
+            while (sb.length() % 4 != 0) {
+                sb.append('0');
+            }
+            short[] groups = new short[sb.length() / 4];
+            for (int n = 0; n < groups.length; n++) {
+                groups[n] = Short.parseShort(sb.substring(n * 4, n * 4 + 4));
+            }
+            int first = 0;
+            int last = groups.length;
+            while (first < last && groups[first] == 0) {
+                first++;
+                weight--;
+            }
+            while (last > first && groups[last - 1] == 0) {
+                last--;
+            }
+            if (first == last) {
+                weight = 0;
+            }
+            ByteBuffer buf = ByteBuffer.allocate(8 + (last - first) * 2);
+            buf.putShort((short) (last - first)).putShort((short) weight);
+            buf.putShort(val.signum() < 0 ? NEGATIVE : POSITIVE).putShort((short) scale);
+            for (int n = first; n < last; n++) {
+                buf.putShort(groups[n]);
+            }
+            return buf.array();
+        }
+
+        @Override
+        protected String toText(ByteBuffer data) {
+            int ndigits = data.getShort();
+            int weight = data.getShort();
+            short sign = data.getShort();
+            int dscale = data.getShort();
+            checkSize(data, ndigits * 2);
+            if (sign == NAN) {
+                return "NaN";
+            }
+            StringBuilder sb = new StringBuilder(ndigits * 4 + 1);
+            for (int n = 0; n < ndigits; n++) {
+                String group = Integer.toString(data.getShort());
+                for (int z = group.length(); z < 4; z++) {
+                    sb.append('0');
+                }
+                sb.append(group);
+            }
+            if (ndigits == 0) {
+                sb.append('0');
+            }
+            BigDecimal val = new BigDecimal(new BigInteger(sb.toString()), (ndigits - 1 - weight) * 4);
+            val = val.setScale(dscale, RoundingMode.DOWN);
+            return (sign == NEGATIVE ? val.negate() : val).toPlainString();
+        }
+    };
+
+    private static final BinaryCodec UUID_CODEC = new BinaryCodec("uuid") {
+        @Override
+        protected byte[] toBinary(String text) {
+            UUID uuid = UUID.fromString(text.trim());
+            return ByteBuffer.allocate(16).putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits()).array();
+        }
+
+        @Override
+        protected String toText(ByteBuffer data) {
+            checkSize(data, 16);
+            return new UUID(data.getLong(), data.getLong()).toString();
+        }
+    };
+
+    private static Long infinity(String text) {
+        if (text.equalsIgnoreCase("infinity")) {
+            return Long.MAX_VALUE;
+        } else if (text.equalsIgnoreCase("-infinity")) {
+            return Long.MIN_VALUE;
+        }
+        return null;
+    }
+
+    private static String infinity(long micros) {
+        if (micros == Long.MAX_VALUE) {
+            return "infinity";
+        } else if (micros == Long.MIN_VALUE) {
+            return "-infinity";
+        }
+        return null;
+    }
+
+    private static long toMicros(long epochSecond, int nano) {
+        return (epochSecond - PG_EPOCH_SECONDS) * 1000000 + nano / 1000;
+    }
+
+    private static LocalDateTime toDateTime(long micros) {
+        long seconds = Math.floorDiv(micros, 1000000L) + PG_EPOCH_SECONDS;
+        int nano = (int) Math.floorMod(micros, 1000000L) * 1000;
+        return LocalDateTime.ofEpochSecond(seconds, nano, ZoneOffset.UTC);
+    }
+}
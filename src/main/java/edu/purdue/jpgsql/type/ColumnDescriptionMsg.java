@@ -49,4 +49,15 @@ public class ColumnDescriptionMsg {
     public ColumnDescriptionMsg(String name) {
         this(name, 0, (short) 0, 1043, (short) -1, 0, (short) -1);
     }
+
+    /**
+     * Creates a columnDescriptionMsg of the specified type. Not linked to any
+     * table and in text format.
+     *
+     * @param name the column header.
+     * @param typeID the type id.
+     */
+    public ColumnDescriptionMsg(String name, int typeID) {
+        this(name, 0, (short) 0, typeID, (short) -1, -1, (short) 0);
+    }
 }
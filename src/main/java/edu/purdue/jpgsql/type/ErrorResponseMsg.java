@@ -47,6 +47,22 @@ public class ErrorResponseMsg {
         return errors;
     }
 
+    /**
+     * Creates the list of error messages of a FATAL error, which is reported
+     * before closing the connection.
+     *
+     * @param sqlState the error code.
+     * @param message the error message.
+     * @return the list of error messages.
+     */
+    public static List<ErrorResponseMsg> makeFatal(String sqlState, String message) {
+        List<ErrorResponseMsg> errors = new ArrayList<>();
+        errors.add(new ErrorResponseMsg('S', "FATAL"));
+        errors.add(new ErrorResponseMsg('C', sqlState));
+        errors.add(new ErrorResponseMsg('M', message));
+        return errors;
+    }
+
     /**
      * Creates a list of error messages. One to specify the error condition, one
      * to specify a generic SQL error state (XX000) and one to specify the user
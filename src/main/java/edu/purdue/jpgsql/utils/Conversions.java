@@ -13,6 +13,12 @@ import java.util.List;
  */
 public class Conversions {
 
+    /**
+     * The maximum number of parameters of a statement, limited by the 16 bits
+     * count of the Bind and ParameterDescription messages.
+     */
+    public static final int MAX_PARAMETERS = 65535;
+
     /**
      * Contains the standard charset used to communicate with the client.
      */
@@ -97,6 +103,90 @@ public class Conversions {
         return preparedStatement;
     }
 
+    /**
+     * Returns the command of a SQL statement. The command is the first keyword
+     * of the statement, leading white spaces and comments are skipped.
+     *
+     * @param sql the statement.
+     * @return the upper case command or an empty string if none.
+     */
+    public static String getCommand(String sql) {
+        int i = 0;
+        int len = sql.length();
+        while (i < len) {
+            char c = sql.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (sql.startsWith("--", i)) {
+                int end = sql.indexOf('\n', i);
+                i = end < 0 ? len : end + 1;
+            } else if (sql.startsWith("/*", i)) {
+                int end = sql.indexOf("*/", i + 2);
+                i = end < 0 ? len : end + 2;
+            } else {
+                break;
+            }
+        }
+        int start = i;
+        while (i < len && Character.isLetter(sql.charAt(i))) {
+            i++;
+        }
+        return sql.substring(start, i).toUpperCase();
+    }
+
+    /**
+     * Counts the place-holders of a prepared statement. Since place-holders
+     * can be repeated and are not required to be consecutive, this returns the
+     * highest place-holder number found outside quoted strings and
+     * identifiers, dollar-quoted strings and comments.
+     *
+     * @param preparedStatement the SQL with place-holders in the form of $n,
+     * starting from 1.
+     * @return the number of parameters required by the statement.
+     * @throws PgProtocolException if a place-holder number is greater than
+     * {@link #MAX_PARAMETERS}.
+     */
+    public static int countPlaceholders(String preparedStatement) throws PgProtocolException {
+        int max = 0;
+        int len = preparedStatement.length();
+        int i = 0;
+        while (i < len) {
+            char c = preparedStatement.charAt(i);
+            if (preparedStatement.startsWith("--", i)) {
+                int end = preparedStatement.indexOf('\n', i);
+                i = end < 0 ? len : end + 1;
+            } else if (preparedStatement.startsWith("/*", i)) {
+                i = StatementSplitter.skipBlockComment(preparedStatement, i);
+            } else if (c == '\'') {
+                boolean escapes = i > 0 && (preparedStatement.charAt(i - 1) == 'E' || preparedStatement.charAt(i - 1) == 'e')
+                        && (i < 2 || !StatementSplitter.isIdentifierChar(preparedStatement.charAt(i - 2)));
+                i = StatementSplitter.skipQuoted(preparedStatement, i, '\'', escapes);
+            } else if (c == '"') {
+                i = StatementSplitter.skipQuoted(preparedStatement, i, '"', false);
+            } else if (c == '$' && (i == 0 || !StatementSplitter.isIdentifierChar(preparedStatement.charAt(i - 1)))) {
+                int end = i + 1;
+                int number = 0;
+                while (end < len && Character.isDigit(preparedStatement.charAt(end))) {
+                    // saturate, so that long numbers cannot overflow
+                    number = Math.min(number * 10 + Character.digit(preparedStatement.charAt(end), 10), MAX_PARAMETERS + 1);
+                    end++;
+                }
+                if (number > MAX_PARAMETERS) {
+                    throw new PgProtocolException("there is no parameter $" + preparedStatement.substring(i + 1, end), "42P02");
+                }
+                if (end > i + 1) {
+                    max = Math.max(max, number);
+                    i = end;
+                } else {
+                    i = StatementSplitter.skipDollarQuoted(preparedStatement, i);
+                }
+            } else {
+                i++;
+            }
+        }
+        return max;
+    }
+
     /**
      * Substitutes the provided value in the specified position. Returns null in
      * case the placeholder is missing and takes care of quoted text.
@@ -1,45 +1,168 @@
 package edu.purdue.jpgsql.utils;
 
+import edu.purdue.jpgsql.CancellationToken;
 import edu.purdue.jpgsql.DataProvider;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 
 /**
  * Represents a portal. Contains the SQL and the result as returned by the
- * DataProvider.
+ * DataProvider. The result works as a cursor: it is kept open between
+ * successive executions and released by {@link #close() }.
  *
  * @author Lorenzo Bossi [lbossi@purdue.edu]
  */
 public class Portal {
 
     private DataProvider.QueryResult _result;
+    private boolean _executed;
+    private boolean _completed;
 
     final String originalStatement;
 
     public final String sql;
 
+    public final List<Short> resultFormats;
+
     /**
      * Creates a portal.
      *
      * @param originalStatement the statement name that originated this portal.
      * @param realQuery the SQL query.
+     * @param resultFormats the format codes of the result columns.
      */
-    Portal(String originalStatement, String realQuery) {
+    Portal(String originalStatement, String realQuery, List<Short> resultFormats) {
         sql = realQuery;
         this.originalStatement = originalStatement;
+        this.resultFormats = resultFormats;
+    }
+
+    /**
+     * Marks this portal as executed. Used to know whether some rows have
+     * already been sent to the client.
+     */
+    public void markExecuted() {
+        _executed = true;
+    }
+
+    /**
+     * Returns true if this portal has already been executed.
+     *
+     * @return true if {@link #markExecuted() } has been called.
+     */
+    public boolean isExecuted() {
+        return _executed;
+    }
+
+    /**
+     * Marks this portal as run to completion: all its rows have been sent and
+     * the next executions return no rows.
+     */
+    public void markCompleted() {
+        _completed = true;
+    }
+
+    /**
+     * Replaces the result of a portal run to completion with a copy of its
+     * command tag, releasing the result with
+     * {@link DataProvider.QueryResult#close() }. The next executions of the
+     * portal return the same tag and no rows, like the original result whose
+     * iterator is exhausted, without calling the provider again: a query is
+     * never run twice. The result of a suspended portal is its cursor, it is
+     * kept.
+     *
+     * @return true if the result has been released.
+     */
+    public boolean releaseCompletedResult() {
+        if (!_completed || _result == null || _result instanceof CompletedResult) {
+            return false;
+        }
+        DataProvider.QueryResult completed = new CompletedResult(_result);
+        _result.close();
+        _result = completed;
+        return true;
+    }
+
+    /**
+     * Returns true if the result of the query is stored, so that
+     * {@link #getAndStoreResult(edu.purdue.jpgsql.DataProvider, edu.purdue.jpgsql.CancellationToken)
+     * } does not call the provider.
+     *
+     * @return true if the provider has already been called.
+     */
+    public boolean hasResult() {
+        return _result != null;
     }
 
     /**
      * Returns the query result. If no previous result is stored,
-     * {@link  DataProvider#getResult(java.lang.String)} is called providing the
-     * stored SQL.
+     * {@link  DataProvider#getResult(java.lang.String, edu.purdue.jpgsql.CancellationToken)}
+     * is called providing the stored SQL.
      *
      * @param provider the provider to query only the first time this method is
      * called.
+     * @param token the cancellation token passed to the provider.
      * @return the query result.
      */
-    public DataProvider.QueryResult getAndStoreResult(DataProvider provider) {
+    public DataProvider.QueryResult getAndStoreResult(DataProvider provider, CancellationToken token) {
         if (_result == null) {
-            _result = provider.getResult(sql);
+            _result = provider.getResult(sql, token);
         }
         return _result;
     }
+
+    /**
+     * Releases the query result, if any, calling
+     * {@link DataProvider.QueryResult#close() }.
+     */
+    public void close() {
+        if (_result != null) {
+            _result.close();
+            _result = null;
+        }
+    }
+
+    /**
+     * The command tag of a result run to completion.
+     */
+    private static final class CompletedResult implements DataProvider.QueryResult {
+
+        private final Type _type;
+        private final int _rowCount;
+        private final String _errorMessage;
+        private final List<String> _header;
+
+        CompletedResult(DataProvider.QueryResult result) {
+            _type = result.getType();
+            _rowCount = _type == Type.ERROR ? 0 : result.getRowCount();
+            _errorMessage = _type == Type.ERROR ? result.getErrorMessage() : null;
+            _header = _type == Type.SELECT ? result.getHeader() : null;
+        }
+
+        @Override
+        public Type getType() {
+            return _type;
+        }
+
+        @Override
+        public int getRowCount() {
+            return _rowCount;
+        }
+
+        @Override
+        public String getErrorMessage() {
+            return _errorMessage;
+        }
+
+        @Override
+        public Iterator<List<String>> getRows() {
+            return Collections.emptyIterator();
+        }
+
+        @Override
+        public List<String> getHeader() {
+            return _header;
+        }
+    }
 }
@@ -0,0 +1,181 @@
+package edu.purdue.jpgsql.utils;
+
+import static edu.purdue.jpgsql.utils.StatementSplitter.isIdentifierChar;
+import static edu.purdue.jpgsql.utils.StatementSplitter.skipBlockComment;
+import static edu.purdue.jpgsql.utils.StatementSplitter.skipDollarQuoted;
+import static edu.purdue.jpgsql.utils.StatementSplitter.skipQuoted;
+
+/**
+ * Computes the fingerprint of a query, like the queryid of
+ * pg_stat_statements: queries differing only in their constants have the
+ * same fingerprint. Since {@link Conversions#bind(java.lang.String, java.util.List)
+ * } inlines the parameters of the prepared statements as literals, the
+ * executions of a prepared statement share the fingerprint of the statement.
+ * <p>
+ * The query is normalized replacing the constants (numbers, quoted strings
+ * with their E, B, X and N prefixes, dollar-quoted strings and the $n
+ * place-holders) with $1, $2, ..., removing the comments and the trailing
+ * semicolons and collapsing the white spaces. The fingerprint is a 64-bit
+ * FNV-1a hash of the normalized query which ignores the case of the keywords
+ * and identifiers (but not of the quoted identifiers) and the white spaces
+ * between the tokens, so <code>SELECT a FROM t WHERE b=1</code> and
+ * <code>select a from t where b = 'x'</code> have the same fingerprint.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public class QueryFingerprint {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * Computes the fingerprint of a query. Unlike
+     * {@link #normalize(java.lang.String) }, this method does not build the
+     * normalized query.
+     *
+     * @param query the query.
+     * @return the fingerprint.
+     */
+    public static long of(String query) {
+        return scan(query, null);
+    }
+
+    /**
+     * Normalizes a query, replacing the constants with place-holders.
+     *
+     * @param query the query.
+     * @return the normalized query, i.e.
+     * <code>select a from t where b = $1</code>.
+     */
+    public static String normalize(String query) {
+        StringBuilder out = new StringBuilder(query.length());
+        scan(query, out);
+        return out.toString();
+    }
+
+    /**
+     * Scans the tokens of the query, hashing them and, if out is not null,
+     * writing the normalized query.
+     *
+     * @return the hash.
+     */
+    private static long scan(String query, StringBuilder out) {
+        int end = query.length();
+        while (end > 0 && (query.charAt(end - 1) == ';' || Character.isWhitespace(query.charAt(end - 1)))) {
+            end--;
+        }
+        long hash = FNV_OFFSET;
+        int constants = 0;
+        boolean space = false;
+        boolean lastWord = false;
+        int i = 0;
+        while (i < end) {
+            char c = query.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = true;
+                i++;
+                continue;
+            }
+            if (query.startsWith("--", i)) {
+                int eol = query.indexOf('\n', i);
+                i = eol < 0 ? end : eol + 1;
+                space = true;
+                continue;
+            }
+            if (query.startsWith("/*", i)) {
+                i = skipBlockComment(query, i);
+                space = true;
+                continue;
+            }
+            boolean tokenStart = i == 0 || !isIdentifierChar(query.charAt(i - 1));
+            int next;
+            boolean constant = false;
+            boolean word = true;
+            boolean foldCase = false;
+            if (c == '\'') {
+                next = skipQuoted(query, i, '\'', false);
+                constant = true;
+            } else if (tokenStart && i + 1 < end && query.charAt(i + 1) == '\'' && "EeBbXxNn".indexOf(c) >= 0) {
+                next = skipQuoted(query, i + 1, '\'', c == 'E' || c == 'e');
+                constant = true;
+            } else if (c == '"') {
+                next = skipQuoted(query, i, '"', false);
+            } else if (c == '$' && tokenStart) {
+                next = i + 1;
+                if (next < end && Character.isDigit(query.charAt(next))) {
+                    while (next < end && Character.isDigit(query.charAt(next))) {
+                        next++;
+                    }
+                    constant = true;
+                } else {
+                    next = skipDollarQuoted(query, i);
+                    constant = next > i + 1;
+                    word = constant;
+                }
+            } else if (tokenStart && (Character.isDigit(c) || (c == '.' && i + 1 < end && Character.isDigit(query.charAt(i + 1))))) {
+                next = skipNumber(query, i, end);
+                constant = true;
+            } else if (isIdentifierChar(c)) {
+                next = i + 1;
+                while (next < end && (isIdentifierChar(query.charAt(next)) || query.charAt(next) == '$')) {
+                    next++;
+                }
+                foldCase = true;
+            } else {
+                next = i + 1;
+                word = false;
+            }
+            next = Math.min(next, end);
+
+            if (space && lastWord && word) {
+                hash = (hash ^ ' ') * FNV_PRIME; // keeps "a b" different from "ab"
+            }
+            if (out != null && space && out.length() > 0) {
+                out.append(' ');
+            }
+            if (constant) {
+                hash = (hash ^ '?') * FNV_PRIME;
+                if (out != null) {
+                    out.append('$').append(++constants);
+                }
+            } else {
+                for (int n = i; n < next; n++) {
+                    char t = query.charAt(n);
+                    hash = (hash ^ (foldCase ? Character.toLowerCase(t) : t)) * FNV_PRIME;
+                }
+                if (out != null) {
+                    out.append(query, i, next);
+                }
+            }
+            space = false;
+            lastWord = word;
+            i = next;
+        }
+        return hash;
+    }
+
+    /**
+     * Skips a numeric constant: digits, an optional fraction and an optional
+     * exponent.
+     *
+     * @return the position after the number.
+     */
+    private static int skipNumber(String query, int i, int end) {
+        while (i < end && (Character.isDigit(query.charAt(i)) || query.charAt(i) == '.')) {
+            i++;
+        }
+        if (i + 1 < end && (query.charAt(i) == 'e' || query.charAt(i) == 'E')) {
+            int exp = i + 1;
+            if (query.charAt(exp) == '+' || query.charAt(exp) == '-') {
+                exp++;
+            }
+            if (exp < end && Character.isDigit(query.charAt(exp))) {
+                i = exp;
+                while (i < end && Character.isDigit(query.charAt(i))) {
+                    i++;
+                }
+            }
+        }
+        return i;
+    }
+}
@@ -0,0 +1,328 @@
+package edu.purdue.jpgsql.utils;
+
+import static edu.purdue.jpgsql.utils.StatementSplitter.isIdentifierChar;
+import static edu.purdue.jpgsql.utils.StatementSplitter.skipBlockComment;
+import static edu.purdue.jpgsql.utils.StatementSplitter.skipDollarQuoted;
+import static edu.purdue.jpgsql.utils.StatementSplitter.skipQuoted;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Caches the wire format of query responses. Every entry contains the exact
+ * bytes sent to the client (i.e. RowDescription, DataRow and CommandComplete
+ * messages), therefore a cache hit is served with a single write without
+ * encoding again the result. Small entries are kept in memory, entries bigger
+ * than the spill threshold are stored in a directory and sent through
+ * {@link java.nio.channels.FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)
+ * }. Both the memory and the disk usage are bounded, the least recently used
+ * entries are evicted first. This class is thread safe and can be shared by
+ * many connections.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public class ResponseCache {
+
+    private static final Logger LOGGER = Logger.getLogger(ResponseCache.class.getName());
+
+    /**
+     * Represents a cached response. The response is either stored in memory or
+     * spilled to a file.
+     */
+    public static final class Entry {
+
+        private final byte[] _data;
+        private final Path _file;
+        private final long _size;
+
+        private Entry(byte[] data) {
+            _data = data;
+            _file = null;
+            _size = data.length;
+        }
+
+        private Entry(Path file, long size) {
+            _data = null;
+            _file = file;
+            _size = size;
+        }
+
+        /**
+         * Returns true if this response is stored in a file.
+         *
+         * @return true if this response has been spilled to disk.
+         */
+        public boolean isSpilled() {
+            return _file != null;
+        }
+
+        /**
+         * Returns the encoded response. Valid only if the entry is not
+         * spilled.
+         *
+         * @return the encoded response or null if spilled.
+         */
+        public byte[] getData() {
+            return _data;
+        }
+
+        /**
+         * Returns the file containing the encoded response. Valid only if the
+         * entry is spilled. Note that the file may be deleted at any time if
+         * the entry is evicted.
+         *
+         * @return the file or null if not spilled.
+         */
+        public Path getFile() {
+            return _file;
+        }
+
+        /**
+         * Returns the size of the encoded response.
+         *
+         * @return the number of bytes.
+         */
+        public long size() {
+            return _size;
+        }
+    }
+
+    private final long _maxMemory;
+    private final int _spillThreshold;
+    private final Path _spillDirectory;
+    private final long _maxSpilled;
+    private final LinkedHashMap<String, Entry> _entries;
+    private long _memoryUsed;
+    private long _spilledUsed;
+
+    /**
+     * Creates a cache which stores the responses in memory only.
+     *
+     * @param maxMemory the maximum number of bytes to keep in memory.
+     */
+    public ResponseCache(long maxMemory) {
+        this(maxMemory, Integer.MAX_VALUE, null, 0);
+    }
+
+    /**
+     * Creates a cache which spills the biggest responses to disk.
+     *
+     * @param maxMemory the maximum number of bytes to keep in memory.
+     * @param spillThreshold responses bigger than this size are stored in the
+     * spill directory.
+     * @param spillDirectory the directory where to store the spilled responses.
+     * If null, the responses are never spilled.
+     * @param maxSpilled the maximum number of bytes to store in the spill
+     * directory.
+     */
+    public ResponseCache(long maxMemory, int spillThreshold, Path spillDirectory, long maxSpilled) {
+        if (maxMemory < 0 || spillThreshold < 0 || maxSpilled < 0) {
+            throw new IllegalArgumentException("negative size");
+        }
+        _maxMemory = maxMemory;
+        _spillThreshold = spillThreshold;
+        _spillDirectory = spillDirectory;
+        _maxSpilled = spillDirectory == null ? 0 : maxSpilled;
+        _entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Builds the cache key. The query is normalized with
+     * {@link #normalize(java.lang.String) } so that queries differing only in
+     * white spaces share the same entry.
+     *
+     * @param scope an arbitrary string to separate the responses (i.e. the
+     * database name and the kind of response).
+     * @param query the SQL query.
+     * @param resultFormats the format codes of the result columns.
+     * @return the key.
+     */
+    public static String key(String scope, String query, Collection<Short> resultFormats) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(scope).append('\0');
+        for (Short f : resultFormats) {
+            sb.append(f).append(',');
+        }
+        sb.append('\0').append(normalize(query));
+        return sb.toString();
+    }
+
+    /**
+     * Normalizes a query. Sequences of white spaces between tokens are
+     * replaced by a single space, leading and trailing white spaces and
+     * semicolons are removed. Quoted strings and identifiers, dollar-quoted
+     * strings and comments are copied verbatim, so queries which differ only
+     * inside them get different keys.
+     *
+     * @param query the query.
+     * @return the normalized query.
+     */
+    public static String normalize(String query) {
+        StringBuilder sb = new StringBuilder(query.length());
+        int len = query.length();
+        int verbatim = 0;
+        boolean space = false;
+        int i = 0;
+        while (i < len) {
+            char c = query.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = true;
+                i++;
+                continue;
+            }
+            if (space && sb.length() > 0) {
+                sb.append(' ');
+            }
+            space = false;
+            int next;
+            if (query.startsWith("--", i)) {
+                int eol = query.indexOf('\n', i);
+                next = eol < 0 ? len : eol + 1;
+            } else if (query.startsWith("/*", i)) {
+                next = skipBlockComment(query, i);
+            } else if (c == '\'') {
+                boolean escapes = i > 0 && (query.charAt(i - 1) == 'E' || query.charAt(i - 1) == 'e')
+                        && (i < 2 || !isIdentifierChar(query.charAt(i - 2)));
+                next = skipQuoted(query, i, '\'', escapes);
+            } else if (c == '"') {
+                next = skipQuoted(query, i, '"', false);
+            } else if (c == '$' && (i == 0 || !isIdentifierChar(query.charAt(i - 1)))) {
+                next = skipDollarQuoted(query, i);
+            } else {
+                sb.append(c);
+                i++;
+                continue;
+            }
+            sb.append(query, i, next);
+            verbatim = sb.length();
+            i = next;
+        }
+        int end = sb.length();
+        while (end > verbatim && (sb.charAt(end - 1) == ';' || sb.charAt(end - 1) == ' ')) {
+            end--;
+        }
+        sb.setLength(end);
+        return sb.toString();
+    }
+
+    /**
+     * Returns the largest response that can be stored in this cache.
+     *
+     * @return the maximum number of bytes of a response.
+     */
+    public int getMaxEntrySize() {
+        long max = Math.max(Math.min(_maxMemory, _spillThreshold), _maxSpilled);
+        return (int) Math.min(max, Integer.MAX_VALUE - 8);
+    }
+
+    /**
+     * Returns the cached response.
+     *
+     * @param key the key built by {@link #key(java.lang.String, java.lang.String, java.util.Collection)
+     * }.
+     * @return the entry or null if the response is not cached.
+     */
+    public synchronized Entry get(String key) {
+        return _entries.get(key);
+    }
+
+    /**
+     * Stores a response. If the response is too big, it is silently ignored.
+     *
+     * @param key the key built by {@link #key(java.lang.String, java.lang.String, java.util.Collection)
+     * }.
+     * @param response the encoded response.
+     */
+    public void put(String key, byte[] response) {
+        Entry entry;
+        if (response.length <= _spillThreshold || _spillDirectory == null) {
+            if (response.length > _maxMemory) {
+                return;
+            }
+            entry = new Entry(response);
+        } else {
+            if (response.length > _maxSpilled) {
+                return;
+            }
+            try {
+                Path file = Files.createTempFile(_spillDirectory, "jpgsql", ".response");
+                Files.write(file, response);
+                entry = new Entry(file, response.length);
+            } catch (IOException ex) {
+                LOGGER.log(Level.WARNING, "Cannot spill the response to disk", ex);
+                return;
+            }
+        }
+        synchronized (this) {
+            Entry old = _entries.put(key, entry);
+            if (old != null) {
+                release(old);
+            }
+            if (entry.isSpilled()) {
+                _spilledUsed += entry.size();
+            } else {
+                _memoryUsed += entry.size();
+            }
+            evict();
+        }
+    }
+
+    /**
+     * Removes all the cached responses. Useful when the data returned by the
+     * provider changes.
+     */
+    public synchronized void clear() {
+        for (Entry e : _entries.values()) {
+            release(e);
+        }
+        _entries.clear();
+    }
+
+    /**
+     * Returns the number of bytes of the responses kept in memory.
+     *
+     * @return the memory used.
+     */
+    public synchronized long getMemoryUsage() {
+        return _memoryUsed;
+    }
+
+    /**
+     * Returns the number of bytes of the responses spilled to disk.
+     *
+     * @return the disk space used.
+     */
+    public synchronized long getSpilledUsage() {
+        return _spilledUsed;
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> it = _entries.entrySet().iterator();
+        while ((_memoryUsed > _maxMemory || _spilledUsed > _maxSpilled) && it.hasNext()) {
+            Entry e = it.next().getValue();
+            if (e.isSpilled() ? _spilledUsed > _maxSpilled : _memoryUsed > _maxMemory) {
+                it.remove();
+                release(e);
+            }
+        }
+    }
+
+    private void release(Entry e) {
+        if (e.isSpilled()) {
+            _spilledUsed -= e.size();
+            try {
+                Files.deleteIfExists(e.getFile());
+            } catch (IOException ex) {
+                LOGGER.log(Level.WARNING, "Cannot delete spilled response", ex);
+            }
+        } else {
+            _memoryUsed -= e.size();
+        }
+    }
+}
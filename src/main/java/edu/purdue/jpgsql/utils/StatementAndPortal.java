@@ -1,7 +1,9 @@
 package edu.purdue.jpgsql.utils;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -14,8 +16,14 @@ import java.util.Set;
  */
 public class StatementAndPortal {
 
+    /**
+     * The number of entries a HashMap holds with its default table.
+     */
+    static final int DEFAULT_THRESHOLD = 12;
+
     Map<String, Statement> _statements = new HashMap<>();
     Map<String, Portal> _portals = new HashMap<>();
+    private int _peakStatements, _peakPortals;
 
     /**
      * Removes the specified statement and all the related portals.
@@ -28,7 +36,7 @@ public class StatementAndPortal {
         Statement stm = _statements.remove(statementName);
         if (stm != null) {
             for (String portal : stm.portals) {
-                _portals.remove(portal);
+                _portals.remove(portal).close();
             }
             return true;
         }
@@ -45,12 +53,93 @@ public class StatementAndPortal {
     public boolean removePortal(String portalName) {
         Portal portal = _portals.remove(portalName);
         if (portal != null) {
-            _statements.get(portal.originalStatement).portals.remove(portalName);
+            Statement stm = _statements.get(portal.originalStatement);
+            if (stm != null) {
+                stm.portals.remove(portalName);
+            }
+            portal.close();
             return true;
         }
         return false;
     }
 
+    /**
+     * Removes all the portals, releasing their results. Portals do not survive
+     * the end of a transaction.
+     */
+    public void removeAllPortals() {
+        for (Portal portal : _portals.values()) {
+            portal.close();
+        }
+        _portals.clear();
+        for (Statement stm : _statements.values()) {
+            stm.portals.clear();
+        }
+    }
+
+    /**
+     * Removes all the statements and portals, releasing their results.
+     */
+    public void clear() {
+        removeAllPortals();
+        _statements.clear();
+    }
+
+    /**
+     * Shrinks the internal tables which have grown much larger than the
+     * statements and portals currently stored. The tables of a HashMap never
+     * shrink, therefore a client which once opened many portals would
+     * otherwise keep that memory for the whole session. The tables which
+     * never grew past their default size, or which are still mostly used, are
+     * kept as they are. Called when the connection is idle.
+     *
+     * @return the number of tables rebuilt.
+     */
+    public int trimToSize() {
+        int trimmed = 0;
+        if (isOversized(_peakStatements, _statements.size())) {
+            _statements = new HashMap<>(_statements);
+            trimmed++;
+        }
+        if (isOversized(_peakPortals, _portals.size())) {
+            _portals = new HashMap<>(_portals);
+            trimmed++;
+        }
+        _peakStatements = _statements.size();
+        _peakPortals = _portals.size();
+        for (Statement stm : _statements.values()) {
+            if (stm.trimToSize()) {
+                trimmed++;
+            }
+        }
+        return trimmed;
+    }
+
+    /**
+     * Releases the results of the portals run to completion, see
+     * {@link Portal#releaseCompletedResult() }. The cursors of the suspended
+     * portals are kept. Called when the connection is idle.
+     *
+     * @return the number of results released.
+     */
+    public int releaseCompletedResults() {
+        int released = 0;
+        for (Portal portal : _portals.values()) {
+            if (portal.releaseCompletedResult()) {
+                released++;
+            }
+        }
+        return released;
+    }
+
+    /**
+     * Returns true if a table which held up to peak entries is worth
+     * rebuilding for size entries.
+     */
+    static boolean isOversized(int peak, int size) {
+        return peak > DEFAULT_THRESHOLD && peak > 2 * size;
+    }
+
     /**
      * Adds the statement if no other statements with the same name exists.
      *
@@ -60,10 +149,25 @@ public class StatementAndPortal {
      * same name already exist.
      */
     public boolean putStatement(String statementName, String query) {
+        return putStatement(statementName, query, Collections.<Integer>emptyList());
+    }
+
+    /**
+     * Adds the statement if no other statements with the same name exists.
+     *
+     * @param statementName the statement name.
+     * @param query the statement sql.
+     * @param parameterTypes the object ID of the parameter types as specified
+     * by the client. Zero means unspecified.
+     * @return true if the statement has been added, false if another with the
+     * same name already exist.
+     */
+    public boolean putStatement(String statementName, String query, List<Integer> parameterTypes) {
         if (_statements.containsKey(statementName)) {
             return false;
         }
-        _statements.put(statementName, new Statement(query));
+        _statements.put(statementName, new Statement(query, parameterTypes.isEmpty() ? Collections.<Integer>emptyList() : parameterTypes));
+        _peakStatements = Math.max(_peakStatements, _statements.size());
         return true;
     }
 
@@ -78,14 +182,31 @@ public class StatementAndPortal {
      * @throws IllegalStateException if the specified statement does not exist.
      */
     public boolean putPortal(String statementName, String portalName, String realQuery) throws IllegalStateException {
+        return putPortal(statementName, portalName, realQuery, Collections.<Short>emptyList());
+    }
+
+    /**
+     * Adds the portal if no other portals with the same name exist.
+     *
+     * @param statementName the statement name.
+     * @param portalName the portal name.
+     * @param realQuery the actual query.
+     * @param resultFormats the format codes of the result columns.
+     * @return true if the portal has been added, false if another portal with
+     * the same name exists.
+     * @throws IllegalStateException if the specified statement does not exist.
+     */
+    public boolean putPortal(String statementName, String portalName, String realQuery, List<Short> resultFormats) throws IllegalStateException {
         if (_portals.containsKey(portalName)) {
             return false;
         }
         if (!_statements.containsKey(statementName)) {
             throw new IllegalStateException();
         }
-        Portal p = new Portal(statementName, realQuery);
+        Portal p = new Portal(statementName, realQuery, resultFormats);
         _portals.put(portalName, p);
+        _peakPortals = Math.max(_peakPortals, _portals.size());
+        _statements.get(statementName).addPortal(portalName);
         return true;
     }
 
@@ -111,6 +232,18 @@ public class StatementAndPortal {
         return stm == null ? null : stm.query;
     }
 
+    /**
+     * Returns the parameter types specified by the client when the statement
+     * was parsed or null if the statement does not exist.
+     *
+     * @param statementName the name of the statement.
+     * @return the object ID of the parameter types or null.
+     */
+    public List<Integer> getStatementParameterTypes(String statementName) {
+        Statement stm = _statements.get(statementName);
+        return stm == null ? null : stm.parameterTypes;
+    }
+
 }
 
 /**
@@ -121,10 +254,39 @@ public class StatementAndPortal {
 class Statement {
 
     public final String query;
-    public final Set<String> portals;
+    public final List<Integer> parameterTypes;
+    public Set<String> portals;
+    private int _peakPortals;
 
-    public Statement(String query) {
+    public Statement(String query, List<Integer> parameterTypes) {
         this.query = query;
-        this.portals = new HashSet<>();
+        this.parameterTypes = parameterTypes;
+        this.portals = Collections.emptySet(); // most statements have no named portals
+    }
+
+    void addPortal(String portalName) {
+        if (portals.isEmpty()) {
+            portals = new HashSet<>();
+        }
+        portals.add(portalName);
+        _peakPortals = Math.max(_peakPortals, portals.size());
+    }
+
+    /**
+     * Drops the set of portals if empty, or rebuilds it if oversized.
+     *
+     * @return true if the set has been replaced.
+     */
+    boolean trimToSize() {
+        boolean trimmed = false;
+        if (portals.isEmpty()) {
+            trimmed = portals != Collections.<String>emptySet();
+            portals = Collections.emptySet();
+        } else if (StatementAndPortal.isOversized(_peakPortals, portals.size())) {
+            portals = new HashSet<>(portals);
+            trimmed = true;
+        }
+        _peakPortals = portals.size();
+        return trimmed;
     }
 }
@@ -0,0 +1,146 @@
+package edu.purdue.jpgsql.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a query string in the SQL statements it contains. The simple query
+ * protocol allows many statements separated by semicolons in a single message.
+ * Semicolons inside quoted strings ('...' and E'...'), quoted identifiers
+ * ("..."), dollar-quoted strings ($$...$$ or $tag$...$tag$) and comments (--
+ * and nested /* ... *&#47;) are not considered separators.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public class StatementSplitter {
+
+    /**
+     * Splits the query string. Statements containing only white spaces and
+     * comments are discarded, the other ones are returned without leading
+     * comments, trimmed and without the trailing semicolon.
+     *
+     * @param query the query string.
+     * @return the possibly empty list of statements.
+     */
+    public static List<String> split(String query) {
+        List<String> statements = new ArrayList<>();
+        int len = query.length();
+        int start = 0;
+        boolean empty = true;
+        int i = 0;
+        while (i < len) {
+            char c = query.charAt(i);
+            if (c == ';') {
+                addStatement(statements, query.substring(start, i), empty);
+                start = ++i;
+                empty = true;
+            } else if (Character.isWhitespace(c)) {
+                i++;
+            } else if (query.startsWith("--", i)) {
+                int end = query.indexOf('\n', i);
+                i = end < 0 ? len : end + 1;
+            } else if (query.startsWith("/*", i)) {
+                i = skipBlockComment(query, i);
+            } else {
+                if (empty) {
+                    start = i;
+                    empty = false;
+                }
+                if (c == '\'') {
+                    boolean escapes = i > 0 && (query.charAt(i - 1) == 'E' || query.charAt(i - 1) == 'e')
+                            && (i < 2 || !isIdentifierChar(query.charAt(i - 2)));
+                    i = skipQuoted(query, i, '\'', escapes);
+                } else if (c == '"') {
+                    i = skipQuoted(query, i, '"', false);
+                } else if (c == '$' && (i == 0 || !isIdentifierChar(query.charAt(i - 1)))) {
+                    i = skipDollarQuoted(query, i);
+                } else {
+                    i++;
+                }
+            }
+        }
+        addStatement(statements, query.substring(start), empty);
+        return statements;
+    }
+
+    private static void addStatement(List<String> statements, String statement, boolean empty) {
+        if (!empty) {
+            statements.add(statement.trim());
+        }
+    }
+
+    /**
+     * Skips a quoted string or identifier. Doubled quotes are part of the
+     * string.
+     *
+     * @return the position after the closing quote.
+     */
+    static int skipQuoted(String query, int i, char quote, boolean backslashEscapes) {
+        int len = query.length();
+        for (i++; i < len; i++) {
+            char c = query.charAt(i);
+            if (backslashEscapes && c == '\\') {
+                i++;
+            } else if (c == quote) {
+                if (i + 1 < len && query.charAt(i + 1) == quote) {
+                    i++;
+                } else {
+                    return i + 1;
+                }
+            }
+        }
+        return len;
+    }
+
+    /**
+     * Skips a dollar-quoted string. If the dollar sign does not start a valid
+     * tag (i.e. it is a place-holder like $1) only the dollar sign is skipped.
+     *
+     * @return the position after the closing tag.
+     */
+    static int skipDollarQuoted(String query, int i) {
+        int len = query.length();
+        int end = i + 1;
+        if (end < len && Character.isDigit(query.charAt(end))) {
+            return end;
+        }
+        while (end < len && isIdentifierChar(query.charAt(end))) {
+            end++;
+        }
+        if (end >= len || query.charAt(end) != '$') {
+            return i + 1;
+        }
+        String tag = query.substring(i, end + 1);
+        int close = query.indexOf(tag, end + 1);
+        return close < 0 ? len : close + tag.length();
+    }
+
+    /**
+     * Skips a block comment. Block comments can be nested.
+     *
+     * @return the position after the end of the comment.
+     */
+    static int skipBlockComment(String query, int i) {
+        int len = query.length();
+        int depth = 0;
+        while (i < len) {
+            if (query.startsWith("/*", i)) {
+                depth++;
+                i += 2;
+            } else if (query.startsWith("*/", i)) {
+                depth--;
+                i += 2;
+                if (depth == 0) {
+                    return i;
+                }
+            } else {
+                i++;
+            }
+        }
+        return len;
+    }
+
+    static boolean isIdentifierChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+}
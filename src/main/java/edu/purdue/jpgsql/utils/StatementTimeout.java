@@ -0,0 +1,162 @@
+package edu.purdue.jpgsql.utils;
+
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Parses the statement_timeout setting, which is handled by the connection
+ * instead of the provider. The setting is read from the startup parameters
+ * (either as a parameter or in the options, like <code>-c
+ * statement_timeout=5s</code>) and changed by the SET and RESET commands. The
+ * values follow the Postgres syntax: a number of milliseconds, optionally
+ * followed by a unit (us, ms, s, min, h, d); 0 disables the timeout.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public class StatementTimeout {
+
+    /**
+     * The name of the setting.
+     */
+    public static final String NAME = "statement_timeout";
+
+    private static final Pattern SET = Pattern.compile("(?is)\\s*SET\\s+(SESSION\\s+|LOCAL\\s+)?statement_timeout\\s*(?:TO\\b|=)\\s*(.*?)\\s*;?\\s*");
+    private static final Pattern RESET = Pattern.compile("(?is)\\s*RESET\\s+statement_timeout\\s*;?\\s*");
+    private static final Pattern VALUE = Pattern.compile("(?i)(\\d+(?:\\.\\d*)?|\\.\\d+)\\s*(us|ms|s|min|h|d)?");
+    private static final Pattern OPTION = Pattern.compile("(?:-c\\s*|--)statement_timeout=(\\S+)");
+
+    private final boolean _reset;
+    private final boolean _local;
+    private final long _millis;
+
+    private StatementTimeout(boolean reset, boolean local, long millis) {
+        _reset = reset;
+        _local = local;
+        _millis = millis;
+    }
+
+    /**
+     * Returns true if the statement sets or resets the statement timeout.
+     *
+     * @param sql the statement.
+     * @return true for SET and RESET of statement_timeout.
+     */
+    public static boolean isCommand(String sql) {
+        return SET.matcher(sql).matches() || RESET.matcher(sql).matches();
+    }
+
+    /**
+     * Parses a command which sets or resets the statement timeout.
+     *
+     * @param sql the statement.
+     * @return the parsed command or null if the statement is not a SET or
+     * RESET of statement_timeout.
+     * @throws IllegalArgumentException if the value is not valid.
+     */
+    public static StatementTimeout parseCommand(String sql) throws IllegalArgumentException {
+        if (RESET.matcher(sql).matches()) {
+            return new StatementTimeout(true, false, 0);
+        }
+        Matcher m = SET.matcher(sql);
+        if (!m.matches()) {
+            return null;
+        }
+        boolean local = m.group(1) != null && m.group(1).trim().equalsIgnoreCase("LOCAL");
+        String value = m.group(2);
+        if (value.equalsIgnoreCase("DEFAULT")) {
+            return new StatementTimeout(true, local, 0);
+        }
+        if (value.length() >= 2 && value.startsWith("'") && value.endsWith("'")) {
+            value = value.substring(1, value.length() - 1);
+        }
+        return new StatementTimeout(false, local, parseValue(value));
+    }
+
+    /**
+     * Returns the statement timeout set by the startup parameters.
+     *
+     * @param parameters the parameters of the StartupMessage.
+     * @return the timeout in milliseconds, 0 if not set.
+     * @throws IllegalArgumentException if the value is not valid.
+     */
+    public static long fromStartupParameters(Map<String, String> parameters) throws IllegalArgumentException {
+        String value = parameters.get(NAME);
+        String options = parameters.get("options");
+        if (options != null) {
+            Matcher m = OPTION.matcher(options);
+            while (m.find()) {
+                value = m.group(1); // the last one wins
+            }
+        }
+        return value == null ? 0 : parseValue(value);
+    }
+
+    /**
+     * Parses a value of the setting.
+     *
+     * @param value the value, like 1500 or 1.5s.
+     * @return the value in milliseconds.
+     * @throws IllegalArgumentException if the value is not valid.
+     */
+    public static long parseValue(String value) throws IllegalArgumentException {
+        Matcher m = VALUE.matcher(value.trim());
+        if (!m.matches()) {
+            throw new IllegalArgumentException("invalid value for parameter \"" + NAME + "\": \"" + value + "\"");
+        }
+        double amount = Double.parseDouble(m.group(1));
+        String unit = m.group(2) == null ? "ms" : m.group(2).toLowerCase();
+        switch (unit) {
+            case "us":
+                amount /= 1000;
+                break;
+            case "s":
+                amount *= 1000;
+                break;
+            case "min":
+                amount *= 60 * 1000;
+                break;
+            case "h":
+                amount *= 60 * 60 * 1000;
+                break;
+            case "d":
+                amount *= 24 * 60 * 60 * 1000;
+                break;
+            default:
+                break;
+        }
+        if (amount > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(value + " is outside the valid range for parameter \"" + NAME + "\"");
+        }
+        // like Postgres, round to the nearest millisecond
+        return Math.round(amount);
+    }
+
+    /**
+     * Returns true if the command restores the default value.
+     *
+     * @return true for RESET and SET ... DEFAULT.
+     */
+    public boolean isReset() {
+        return _reset;
+    }
+
+    /**
+     * Returns true if the command is a SET LOCAL, which lasts until the end of
+     * the transaction.
+     *
+     * @return true for SET LOCAL.
+     */
+    public boolean isLocal() {
+        return _local;
+    }
+
+    /**
+     * Returns the value set by the command.
+     *
+     * @return the timeout in milliseconds, 0 to disable it.
+     */
+    public long getMillis() {
+        return _millis;
+    }
+}
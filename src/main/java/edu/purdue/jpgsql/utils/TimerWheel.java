@@ -0,0 +1,245 @@
+package edu.purdue.jpgsql.utils;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Schedules timeouts using a hashed timer wheel: a single thread advances the
+ * wheel every tick and runs the expired tasks of the current slot. Scheduling
+ * and cancelling a timeout take constant time and do not wake up the thread,
+ * therefore the wheel is suitable for the many short timeouts which are
+ * almost always cancelled before they expire (i.e. statement timeouts). The
+ * precision is one tick. The tasks are run by the thread of the wheel, so
+ * they must be quick. This class is thread safe; the thread is started with
+ * the first timeout and is a daemon.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public class TimerWheel {
+
+    private static final Logger LOGGER = Logger.getLogger(TimerWheel.class.getName());
+    private static final TimerWheel DEFAULT = new TimerWheel(10, TimeUnit.MILLISECONDS, 512);
+
+    /**
+     * Represents a scheduled task.
+     */
+    public static final class Timeout {
+
+        private static final int WAITING = 0, CANCELLED = 1, EXPIRED = 2;
+
+        private final TimerWheel _wheel;
+        private final Runnable _task;
+        private final long _deadline;
+        private volatile int _state;
+        // owned by the thread of the wheel
+        private long _rounds;
+        private Timeout _prev, _next;
+        private Slot _slot;
+
+        private Timeout(TimerWheel wheel, Runnable task, long deadline) {
+            _wheel = wheel;
+            _task = task;
+            _deadline = deadline;
+        }
+
+        /**
+         * Cancels the task, if it has not been run yet.
+         *
+         * @return false if the task has already been run or cancelled.
+         */
+        public boolean cancel() {
+            synchronized (this) {
+                if (_state != WAITING) {
+                    return false;
+                }
+                _state = CANCELLED;
+            }
+            _wheel._cancelled.add(this);
+            return true;
+        }
+
+        /**
+         * Returns true if the task has been run.
+         *
+         * @return true if the timeout expired.
+         */
+        public boolean isExpired() {
+            return _state == EXPIRED;
+        }
+
+        private boolean expire() {
+            synchronized (this) {
+                if (_state != WAITING) {
+                    return false;
+                }
+                _state = EXPIRED;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A doubly linked list of timeouts.
+     */
+    private static final class Slot {
+
+        private Timeout _head, _tail;
+
+        void add(Timeout t) {
+            t._slot = this;
+            if (_tail == null) {
+                _head = _tail = t;
+            } else {
+                _tail._next = t;
+                t._prev = _tail;
+                _tail = t;
+            }
+        }
+
+        void remove(Timeout t) {
+            if (t._prev != null) {
+                t._prev._next = t._next;
+            } else {
+                _head = t._next;
+            }
+            if (t._next != null) {
+                t._next._prev = t._prev;
+            } else {
+                _tail = t._prev;
+            }
+            t._prev = t._next = null;
+            t._slot = null;
+        }
+    }
+
+    private final long _tick;
+    private final Slot[] _slots;
+    private final int _mask;
+    private final Queue<Timeout> _scheduled = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> _cancelled = new ConcurrentLinkedQueue<>();
+    private final Thread _thread;
+    private volatile long _start;
+    private long _currentTick;
+
+    /**
+     * Returns the wheel shared by all the connections. It has a tick of 10ms.
+     *
+     * @return the shared wheel.
+     */
+    public static TimerWheel getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Creates a timer wheel.
+     *
+     * @param tick the duration of a tick, i.e. the precision of the timeouts.
+     * @param unit the unit of tick.
+     * @param slots the number of slots of the wheel, rounded to a power of 2.
+     */
+    public TimerWheel(long tick, TimeUnit unit, int slots) {
+        if (tick <= 0 || slots <= 0) {
+            throw new IllegalArgumentException("tick and slots must be positive");
+        }
+        _tick = unit.toNanos(tick);
+        int size = Integer.highestOneBit(slots);
+        if (size < slots) {
+            size <<= 1;
+        }
+        _slots = new Slot[size];
+        for (int n = 0; n < size; n++) {
+            _slots[n] = new Slot();
+        }
+        _mask = size - 1;
+        _thread = new Thread(this::run, "jpgsql-timer");
+        _thread.setDaemon(true);
+    }
+
+    /**
+     * Schedules a task.
+     *
+     * @param task the task to run when the timeout expires.
+     * @param delay the delay from now.
+     * @param unit the unit of delay.
+     * @return the timeout, which can be cancelled.
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        start();
+        Timeout t = new Timeout(this, task, System.nanoTime() - _start + unit.toNanos(delay));
+        _scheduled.add(t);
+        return t;
+    }
+
+    private void start() {
+        if (_start == 0) {
+            synchronized (this) {
+                if (_start == 0) {
+                    _start = System.nanoTime() - 1; // never 0
+                    _thread.start();
+                }
+            }
+        }
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                long deadline = (_currentTick + 1) * _tick;
+                long sleep = deadline - (System.nanoTime() - _start);
+                if (sleep > 0) {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                }
+                removeCancelled();
+                transferScheduled();
+                expire(_slots[(int) (_currentTick & _mask)]);
+                _currentTick++;
+            }
+        } catch (InterruptedException ex) {
+            LOGGER.log(Level.WARNING, "Timer wheel interrupted");
+        }
+    }
+
+    private void removeCancelled() {
+        Timeout t;
+        while ((t = _cancelled.poll()) != null) {
+            if (t._slot != null) {
+                t._slot.remove(t);
+            }
+        }
+    }
+
+    private void transferScheduled() {
+        Timeout t;
+        while ((t = _scheduled.poll()) != null) {
+            if (t._state == Timeout.CANCELLED) {
+                continue;
+            }
+            long ticks = Math.max(t._deadline / _tick, _currentTick);
+            t._rounds = (ticks - _currentTick) / _slots.length;
+            _slots[(int) (ticks & _mask)].add(t);
+        }
+    }
+
+    private void expire(Slot slot) {
+        Timeout t = slot._head;
+        while (t != null) {
+            Timeout next = t._next;
+            if (t._rounds <= 0) {
+                slot.remove(t);
+                if (t.expire()) {
+                    try {
+                        t._task.run();
+                    } catch (RuntimeException ex) {
+                        LOGGER.log(Level.WARNING, "Timeout task failed", ex);
+                    }
+                }
+            } else {
+                t._rounds--;
+            }
+            t = next;
+        }
+    }
+}
@@ -0,0 +1,377 @@
+package edu.purdue.jpgsql;
+
+import edu.purdue.jpgsql.io.PgWriter;
+import edu.purdue.jpgsql.testUtil.DummyConnection;
+import edu.purdue.jpgsql.type.DataCellMsg;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeTrue;
+import org.junit.BeforeClass;
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Checks the memory allocated by the hot paths of the protocol, measured with
+ * the allocation counter of the thread. Every operation is repeated n and 2n
+ * times after a warm-up, so the fixed costs cancel out, and the smallest of
+ * several trials is compared with the budget. The budgets are loose enough to
+ * ignore the noise, but an allocation per byte (i.e. a boxed byte path) or
+ * per message on a path which does not allocate exceeds them.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public class AllocationBudgetTest {
+
+    private static final int OPERATIONS = 2000;
+    private static final int WARMUP = 10;
+    private static final int TRIALS = 5;
+
+    /**
+     * The encoding of a cell allocates only the iterator of its bytes.
+     */
+    private static final double DATA_ROW_CELL = 64;
+    private static final double DATA_ROW_BYTE = 1;
+    /**
+     * A value returned by the provider is encoded once, in a byte array:
+     * a list of Byte would cost at least a reference per byte more.
+     */
+    private static final double QUERY_RESULT_BYTE = 2;
+    /**
+     * An idle Sync and ReadyForQuery cycle allocates a few small objects.
+     */
+    private static final double READY_FOR_QUERY_CYCLE = 128;
+    /**
+     * The parameters of Bind are decoded in lists of Byte.
+     */
+    private static final double BIND_PARAMETER = 160;
+    private static final double BIND_BYTE = 2;
+
+    private static com.sun.management.ThreadMXBean _threads;
+
+    private static final int QUERY_ROWS = 4;
+    private static final int QUERY_COLUMNS = 8;
+
+    @FunctionalInterface
+    private interface Operation {
+
+        void run(int times) throws Exception;
+    }
+
+    @FunctionalInterface
+    private interface Instancer {
+
+        BaseConnection create(byte[] input) throws IOException;
+    }
+
+    @BeforeClass
+    public static void init() {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        _threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(_threads.isThreadAllocatedMemorySupported());
+        _threads.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    private static long allocated() {
+        return _threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Measures the bytes allocated by every execution of an operation.
+     */
+    private static double bytesPerOperation(Operation operation) throws Exception {
+        for (int n = 0; n < WARMUP; n++) {
+            operation.run(OPERATIONS);
+        }
+        long best = Long.MAX_VALUE;
+        for (int n = 0; n < TRIALS; n++) {
+            long start = allocated();
+            operation.run(OPERATIONS);
+            long middle = allocated();
+            operation.run(2 * OPERATIONS);
+            long end = allocated();
+            best = Math.min(best, (end - middle) - (middle - start));
+        }
+        return Math.max(best, 0) / (double) OPERATIONS;
+    }
+
+    /**
+     * Measures the bytes allocated by the dispatch loop for every repetition
+     * of a message, including the startup of the session.
+     */
+    private static double bytesPerMessage(byte[] message) throws Exception {
+        return bytesPerMessage(message, AllocationConnection::new);
+    }
+
+    private static double bytesPerMessage(byte[] message, Instancer instancer) throws Exception {
+        Map<Integer, byte[]> inputs = new HashMap<>();
+        inputs.put(OPERATIONS, session(message, OPERATIONS));
+        inputs.put(2 * OPERATIONS, session(message, 2 * OPERATIONS));
+        return bytesPerOperation(times -> instancer.create(inputs.get(times)).run());
+    }
+
+    /**
+     * Measures the bytes allocated by a simple query returning rows of the
+     * value, from the rows of the provider to the DataRow messages.
+     */
+    private static double bytesPerQuery(String value) throws Exception {
+        DataProvider provider = new RowsProvider(QUERY_ROWS, QUERY_COLUMNS, value);
+        ByteArrayOutputStream query = new ByteArrayOutputStream();
+        try (PgWriter w = new PgWriter(query, 'Q')) {
+            w.addString("select rows");
+        }
+        return bytesPerMessage(query.toByteArray(), input -> new SimpleConnection(new MemorySocket(input), provider));
+    }
+
+    private static byte[] session(byte[] message, int times) throws IOException {
+        ByteArrayOutputStream in = new ByteArrayOutputStream();
+        try (PgWriter w = new PgWriter(in, '\0')) {
+            w.addInt32(196608);
+            w.addString("user");
+            w.addString("fred");
+            w.addString("database");
+            w.addString("test");
+            w.addInt8((byte) 0);
+        }
+        for (int n = 0; n < times; n++) {
+            in.write(message);
+        }
+        new PgWriter(in, 'X').close();
+        return in.toByteArray();
+    }
+
+    private static byte[] bind(int parameters, int length) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (PgWriter w = new PgWriter(out, 'B')) {
+            w.addString("");
+            w.addString("s1");
+            w.addInt16((short) 1);
+            w.addInt16((short) 0);
+            w.addInt16((short) parameters);
+            for (int p = 0; p < parameters; p++) {
+                w.addInt32(length);
+                for (int n = 0; n < length; n++) {
+                    w.addInt8((byte) ('0' + n % 10));
+                }
+            }
+            w.addInt16((short) 0);
+        }
+        return out.toByteArray();
+    }
+
+    private static double bytesPerRow(int cells, String value) throws Exception {
+        List<DataCellMsg> row = new ArrayList<>();
+        for (int n = 0; n < cells; n++) {
+            row.add(new DataCellMsg(value));
+        }
+        AllocationConnection conn = new AllocationConnection(new byte[0]);
+        return bytesPerOperation(times -> {
+            for (int n = 0; n < times; n++) {
+                conn.DataRow(row);
+            }
+        });
+    }
+
+    private static String text(int length) {
+        StringBuilder text = new StringBuilder();
+        for (int n = 0; n < length; n++) {
+            text.append((char) ('a' + n % 26));
+        }
+        return text.toString();
+    }
+
+    @Test
+    public void dataRow_perCell() throws Exception {
+        double one = bytesPerRow(1, text(16));
+        double many = bytesPerRow(33, text(16));
+        assertThat((many - one) / 32, is(lessThanOrEqualTo(DATA_ROW_CELL)));
+    }
+
+    @Test
+    public void dataRow_perByte() throws Exception {
+        double shorter = bytesPerRow(8, text(16));
+        double longer = bytesPerRow(8, text(272));
+        assertThat((longer - shorter) / (8 * 256), is(lessThanOrEqualTo(DATA_ROW_BYTE)));
+    }
+
+    @Test
+    public void queryResult_perByte() throws Exception {
+        double shorter = bytesPerQuery(text(16));
+        double longer = bytesPerQuery(text(272));
+        assertThat((longer - shorter) / (QUERY_ROWS * QUERY_COLUMNS * 256), is(lessThanOrEqualTo(QUERY_RESULT_BYTE)));
+    }
+
+    @Test
+    public void readyForQuery_perCycle() throws Exception {
+        ByteArrayOutputStream sync = new ByteArrayOutputStream();
+        new PgWriter(sync, 'S').close();
+        assertThat(bytesPerMessage(sync.toByteArray()), is(lessThanOrEqualTo(READY_FOR_QUERY_CYCLE)));
+    }
+
+    @Test
+    public void bind_perParameter() throws Exception {
+        double one = bytesPerMessage(bind(1, 8));
+        double many = bytesPerMessage(bind(33, 8));
+        assertThat((many - one) / 32, is(lessThanOrEqualTo(BIND_PARAMETER)));
+    }
+
+    /**
+     * Bind receives the values as List&lt;List&lt;Byte&gt;&gt;, a reference per
+     * byte, so this budget cannot be met until the API changes.
+     */
+    @Ignore("Bind decodes the parameters in lists of Byte")
+    @Test
+    public void bind_perByte() throws Exception {
+        double shorter = bytesPerMessage(bind(8, 8));
+        double longer = bytesPerMessage(bind(8, 264));
+        assertThat((longer - shorter) / (8 * 256), is(lessThanOrEqualTo(BIND_BYTE)));
+    }
+
+    /**
+     * Accepts any user, answers Sync with ReadyForQuery and Bind with
+     * BindComplete.
+     */
+    private static final class AllocationConnection extends DummyConnection {
+
+        AllocationConnection(byte[] input) throws IOException {
+            super(new MemorySocket(input));
+        }
+
+        @Override
+        protected boolean StartupMessage(int protocolVersion, Map<String, String> parameters) throws PgProtocolException, IOException {
+            AuthenticationOk();
+            return true;
+        }
+
+        @Override
+        protected void Sync() throws PgProtocolException, IOException {
+            ReadyForQuery('I');
+        }
+
+        @Override
+        protected void Bind(String portalName, String source, List<Short> parameterFormatCodes, List<List<Byte>> parameterValues, List<Short> resultFormatCodes) throws PgProtocolException, IOException {
+            BindComplete();
+        }
+    }
+
+    /**
+     * Returns the same rows for every query, built once so that the provider
+     * does not allocate per value.
+     */
+    private static final class RowsProvider implements DataProvider {
+
+        private final List<List<String>> _rows = new ArrayList<>();
+        private final List<String> _header = new ArrayList<>();
+
+        RowsProvider(int rows, int columns, String value) {
+            for (int c = 0; c < columns; c++) {
+                _header.add("c" + c);
+            }
+            for (int r = 0; r < rows; r++) {
+                _rows.add(Collections.nCopies(columns, value));
+            }
+        }
+
+        @Override
+        public boolean setUser(String user) {
+            return true;
+        }
+
+        @Override
+        public boolean setDatabase(String database) {
+            return true;
+        }
+
+        @Override
+        public boolean setPassword(String password) {
+            return true;
+        }
+
+        @Override
+        public QueryResult getResult(String query) {
+            return new QueryResult() {
+                @Override
+                public Type getType() {
+                    return Type.SELECT;
+                }
+
+                @Override
+                public int getRowCount() {
+                    return _rows.size();
+                }
+
+                @Override
+                public String getErrorMessage() {
+                    return null;
+                }
+
+                @Override
+                public Iterator<List<String>> getRows() {
+                    return _rows.iterator();
+                }
+
+                @Override
+                public List<String> getHeader() {
+                    return _header;
+                }
+            };
+        }
+    }
+
+    /**
+     * Reads the messages of the client from memory and discards the
+     * responses.
+     */
+    private static final class MemorySocket extends Socket {
+
+        private final InputStream _in;
+        private final OutputStream _out = new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        };
+
+        MemorySocket(byte[] input) {
+            _in = new ByteArrayInputStream(input);
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return _in;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return _out;
+        }
+
+        @Override
+        public SocketAddress getRemoteSocketAddress() {
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        }
+
+        @Override
+        public synchronized void close() {
+        }
+    }
+}
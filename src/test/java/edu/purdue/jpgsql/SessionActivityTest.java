@@ -0,0 +1,61 @@
+package edu.purdue.jpgsql;
+
+import java.net.InetSocketAddress;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import org.junit.Test;
+
+/**
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public class SessionActivityTest {
+
+    @Test
+    public void states() {
+        SessionActivity activity = new SessionActivity(new InetSocketAddress("127.0.0.1", 5432));
+        assertThat(activity.snapshot().getState(), is(SessionActivity.State.STARTING));
+        activity.messageReceived();
+        assertThat(activity.snapshot().getState(), is(SessionActivity.State.STARTING));
+
+        activity.started("fred", null, "app");
+        activity.idle('I');
+        SessionActivity.Snapshot idle = activity.snapshot();
+        assertThat(idle.getState(), is(SessionActivity.State.IDLE));
+        assertThat(idle.getDatabase(), is("fred"));
+        assertThat(idle.getClientHost(), is("127.0.0.1"));
+        assertThat(idle.getClientPort(), is(5432));
+        assertThat(idle.getQuery(), is(nullValue()));
+
+        activity.queryStarted("copy t from stdin");
+        activity.copyStarted();
+        activity.messageReceived();
+        assertThat(activity.snapshot().getState(), is(SessionActivity.State.COPY));
+        activity.commandCompleted();
+        assertThat(activity.snapshot().getState(), is(SessionActivity.State.ACTIVE));
+        activity.idle('T');
+        assertThat(activity.snapshot().getState(), is(SessionActivity.State.IDLE_IN_TRANSACTION));
+        assertThat(activity.snapshot().getQuery(), is("copy t from stdin"));
+        activity.idle('E');
+        assertThat(activity.snapshot().getState().toString(), is("idle in transaction (aborted)"));
+    }
+
+    @Test
+    public void snapshot_consistentWhileUpdated() throws InterruptedException {
+        SessionActivity activity = new SessionActivity(null);
+        Thread writer = new Thread(() -> {
+            for (int n = 0; n < 200000; n++) {
+                activity.started("user" + (n & 1), "db" + (n & 1), null);
+            }
+        });
+        writer.start();
+        while (writer.isAlive()) {
+            SessionActivity.Snapshot snapshot = activity.snapshot();
+            if (snapshot.getUser() != null) {
+                assertThat(snapshot.getDatabase().substring(2), is(snapshot.getUser().substring(4)));
+            }
+        }
+        writer.join();
+    }
+}
@@ -1,25 +1,69 @@
 package edu.purdue.jpgsql;
 
 import edu.purdue.jpgsql.DataProvider;
+import edu.purdue.jpgsql.metrics.Metrics;
+import edu.purdue.jpgsql.metrics.ProtocolMetrics;
+import edu.purdue.jpgsql.metrics.QueryStatistics;
+import edu.purdue.jpgsql.metrics.SlowQueryLog;
+import edu.purdue.jpgsql.testUtil.BaseRunner;
 import edu.purdue.jpgsql.testUtil.ClientRunner;
+import edu.purdue.jpgsql.testUtil.RawClient;
+import edu.purdue.jpgsql.testUtil.RawClientRunner;
 import edu.purdue.jpgsql.testUtil.SimpleConnectionRunner;
 import static edu.purdue.jpgsql.testUtil.SimpleConversion.row;
 import static edu.purdue.jpgsql.testUtil.SimpleConversion.table;
 import edu.purdue.jpgsql.testUtil.StrictMock;
+import edu.purdue.jpgsql.utils.QueryFingerprint;
+import edu.purdue.jpgsql.utils.ResponseCache;
+import edu.purdue.jpgsql.utils.TimerWheel;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
+import java.net.StandardSocketOptions;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
 import java.sql.Connection;
+import java.sql.ParameterMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.postgresql.PGConnection;
+import org.postgresql.PGStatement;
+import org.postgresql.copy.CopyManager;
+import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.Matchers.emptyString;
 import org.junit.After;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 import org.junit.Before;
 import org.junit.Test;
 import static org.mockito.Mockito.*;
@@ -39,8 +83,16 @@ public class SimpleQuery_Queries_Test {
     DataProvider.QueryResult _table;
 
     private final StrictMock _strictMock = new StrictMock();
-    private ClientRunner client;
+    private BaseRunner client;
     private SimpleConnectionRunner server;
+    private static class Types {
+
+        static final int INT4 = 23;
+        static final int VARCHAR = 1043;
+    }
+
+    private Consumer<SimpleConnection> _setup = (SimpleConnection conn) -> {
+    };
 
     @Before
     public void init() throws IOException {
@@ -56,7 +108,7 @@ public class SimpleQuery_Queries_Test {
     @After
     public void check() throws IOException, Throwable {
         try {
-            server = new SimpleConnectionRunner(_listener, _provider);
+            server = new SimpleConnectionRunner(_listener, _provider, _setup);
 
             server.start();
             client.start();
@@ -72,6 +124,10 @@ public class SimpleQuery_Queries_Test {
         client = new ClientRunner(_username, _password, _dbName, _portNumber, c);
     }
 
+    private void setUpRawClient(final RawClientRunner.RawCommands c) {
+        client = new RawClientRunner(_username, _dbName, _portNumber, c);
+    }
+
     @Test
     public void statementSelect() throws Throwable {
         final String query = "select * from table";
@@ -242,4 +298,947 @@ public class SimpleQuery_Queries_Test {
         });
     }
 
+    @Test
+    public void statementSelect_responseCache() throws Throwable {
+        final String query = "select * from table";
+        List<String> header = Arrays.asList("col1");
+        Iterator<List<String>> rows = table(row("1"), row("2"));
+
+        when(_provider.isCacheable(query)).thenReturn(true);
+        when(_provider.getResult(query)).thenReturn(_table);
+        when(_table.getHeader()).thenReturn(header);
+        when(_table.getType()).thenReturn(DataProvider.QueryResult.Type.SELECT);
+
+        when(_table.getRows()).thenReturn(rows);
+        when(_table.getRowCount()).thenReturn(2);
+
+        _strictMock.turnOn();
+
+        ResponseCache cache = new ResponseCache(1024);
+        _setup = (SimpleConnection conn) -> conn.setResponseCache(cache);
+
+        setUpClient((Connection conn) -> {
+            Statement stm = conn.createStatement();
+            for (int n = 0; n < 2; n++) {
+                // the second time the iterator is exhausted, rows must come from the cache
+                try (ResultSet rs = stm.executeQuery(query)) {
+                    assertThat(rs.next(), is(true));
+                    assertThat(rs.getString(1), is("1"));
+                    assertThat(rs.next(), is(true));
+                    assertThat(rs.getString(1), is("2"));
+                    assertThat(rs.next(), is(false));
+                }
+            }
+        });
+    }
+
+    @Test
+    public void preparedStatement_describeStatement() throws Throwable {
+        final String query = "select id, name from tbl where id > $1 and name = $2";
+        DataProvider.QueryDescription desc = new DataProvider.QueryDescription() {
+            @Override
+            public List<String> getHeader() {
+                return Arrays.asList("id", "name");
+            }
+
+            @Override
+            public List<Integer> getColumnTypes() {
+                return Arrays.asList(Types.INT4, Types.VARCHAR);
+            }
+
+            @Override
+            public List<Integer> getParameterTypes() {
+                return Arrays.asList(Types.INT4);
+            }
+        };
+        when(_provider.describe(query)).thenReturn(desc);
+
+        _strictMock.turnOn();
+
+        setUpClient((Connection conn) -> {
+            PreparedStatement stm = conn.prepareStatement("select id, name from tbl where id > ? and name = ?");
+            ParameterMetaData params = stm.getParameterMetaData();
+            assertThat(params.getParameterCount(), is(2));
+            assertThat(params.getParameterType(1), is(java.sql.Types.INTEGER));
+            assertThat(params.getParameterType(2), is(java.sql.Types.VARCHAR));
+            ResultSetMetaData meta = stm.getMetaData();
+            assertThat(meta.getColumnCount(), is(2));
+            assertThat(meta.getColumnName(1), is("id"));
+            assertThat(meta.getColumnType(1), is(java.sql.Types.INTEGER));
+            assertThat(meta.getColumnName(2), is("name"));
+        });
+    }
+
+    @Test
+    public void preparedStatement_describePortal() throws Throwable {
+        final String query = "select * from tbl where id > '3'";
+        Iterator<List<String>> rows = table(row("4"), row("5"));
+        DataProvider.QueryDescription desc = new DataProvider.QueryDescription() {
+            @Override
+            public List<String> getHeader() {
+                return Arrays.asList("id");
+            }
+
+            @Override
+            public List<Integer> getColumnTypes() {
+                return Arrays.asList(Types.INT4);
+            }
+        };
+        when(_provider.describe(query)).thenReturn(desc);
+        when(_provider.getResult(query)).thenReturn(_table);
+        when(_table.getType()).thenReturn(DataProvider.QueryResult.Type.SELECT);
+        when(_table.getRows()).thenReturn(rows);
+        when(_table.getRowCount()).thenReturn(2);
+
+        _strictMock.turnOn();
+
+        setUpClient((Connection conn) -> {
+            PreparedStatement stm = conn.prepareStatement("select * from tbl where id > ?");
+            stm.setInt(1, 3);
+            try (ResultSet rs = stm.executeQuery()) {
+                assertThat(rs.getMetaData().getColumnName(1), is("id"));
+                assertThat(rs.getMetaData().getColumnType(1), is(java.sql.Types.INTEGER));
+                assertThat(rs.next(), is(true));
+                assertThat(rs.getInt(1), is(4));
+                assertThat(rs.next(), is(true));
+                assertThat(rs.getInt(1), is(5));
+                assertThat(rs.next(), is(false));
+            }
+        });
+    }
+
+    @Test
+    public void cancelQuery_keepsConnection() throws Throwable {
+        AtomicReference<SimpleConnection> server = new AtomicReference<>();
+        AtomicReference<CancellationToken> token = new AtomicReference<>();
+        AtomicBoolean closed = new AtomicBoolean();
+        _setup = server::set;
+        Iterator<List<String>> endless = new Iterator<List<String>>() {
+            private int _rows;
+
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public List<String> next() {
+                if (++_rows == 100) {
+                    server.get().cancel(); // as if a CancelRequest arrived now
+                }
+                return row(Integer.toString(_rows));
+            }
+        };
+        DataProvider.QueryResult big = mock(DataProvider.QueryResult.class, _strictMock);
+        when(big.getType()).thenReturn(DataProvider.QueryResult.Type.SELECT);
+        when(big.getHeader()).thenReturn(Arrays.asList("n"));
+        when(big.getRows()).thenReturn(endless);
+        doAnswer(invocation -> {
+            closed.set(true);
+            return null;
+        }).when(big).close();
+        when(_provider.getResult(eq("select * from big"), any(CancellationToken.class))).thenAnswer(invocation -> {
+            token.set((CancellationToken) invocation.getArguments()[1]);
+            return big;
+        });
+        when(_provider.getResult("select 1")).thenReturn(_table);
+        when(_table.getType()).thenReturn(DataProvider.QueryResult.Type.SELECT);
+        when(_table.getHeader()).thenReturn(Arrays.asList("n"));
+        when(_table.getRows()).thenReturn(table(row("1")));
+        when(_table.getRowCount()).thenReturn(1);
+
+        _strictMock.turnOn();
+
+        setUpClient((Connection conn) -> {
+            Statement stm = conn.createStatement();
+            try {
+                stm.executeQuery("select * from big");
+                fail("the query should be canceled");
+            } catch (SQLException ex) {
+                assertThat(ex.getSQLState(), is("57014"));
+            }
+            assertThat(token.get().isCancelled(), is(true));
+            assertThat(closed.get(), is(true));
+            // a cancel while idle is ignored
+            server.get().cancel();
+            try (ResultSet rs = stm.executeQuery("select 1")) {
+                assertThat(rs.next(), is(true));
+                assertThat(rs.getString(1), is("1"));
+            }
+        });
+    }
+
+    @Test
+    public void statementTimeout() throws Throwable {
+        Iterator<List<String>> slow = new Iterator<List<String>>() {
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public List<String> next() {
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException ex) {
+                    throw new IllegalStateException(ex);
+                }
+                return row("x");
+            }
+        };
+        DataProvider.QueryResult big = mock(DataProvider.QueryResult.class, _strictMock);
+        when(big.getType()).thenReturn(DataProvider.QueryResult.Type.SELECT);
+        when(big.getHeader()).thenReturn(Arrays.asList("n"));
+        when(big.getRows()).thenReturn(slow);
+        when(_provider.getResult("select * from slow")).thenReturn(big);
+        when(_provider.getResult("select 1")).thenReturn(_table);
+        when(_table.getType()).thenReturn(DataProvider.QueryResult.Type.SELECT);
+        when(_table.getHeader()).thenReturn(Arrays.asList("n"));
+        when(_table.getRows()).thenReturn(table(row("1")));
+        when(_table.getRowCount()).thenReturn(1);
+
+        _strictMock.turnOn();
+
+        setUpClient((Connection conn) -> {
+            Statement stm = conn.createStatement();
+            stm.execute("SET statement_timeout = '200ms'");
+            long start = System.nanoTime();
+            try {
+                stm.executeQuery("select * from slow");
+                fail("the query should time out");
+            } catch (SQLException ex) {
+                assertThat(ex.getSQLState(), is("57014"));
+                assertThat(ex.getMessage().contains("statement timeout"), is(true));
+            }
+            assertThat(System.nanoTime() - start >= 200_000_000L, is(true));
+            try {
+                stm.execute("SET statement_timeout = 'soon'");
+                fail("the value is not valid");
+            } catch (SQLException ex) {
+                assertThat(ex.getSQLState(), is("22023"));
+            }
+            stm.execute("RESET statement_timeout");
+            try (ResultSet rs = stm.executeQuery("select 1")) {
+                assertThat(rs.next(), is(true));
+            }
+        });
+    }
+
+    @Test
+    public void parse_rejectsTooLargePlaceholders() throws Throwable {
+        when(_provider.getResult("select 1")).thenReturn(_table);
+        when(_table.getType()).thenReturn(DataProvider.QueryResult.Type.SELECT);
+        when(_table.getHeader()).thenReturn(Arrays.asList("n"));
+        when(_table.getRows()).thenReturn(table(row("1")));
+        when(_table.getRowCount()).thenReturn(1);
+
+        _strictMock.turnOn();
+
+        setUpClient((Connection conn) -> {
+            for (String sql : new String[]{"select $2000000000", "select $99999999999"}) {
+                try (PreparedStatement stm = conn.prepareStatement(sql)) {
+                    stm.executeQuery();
+                    fail("the placeholder is not valid");
+                } catch (SQLException ex) {
+                    assertThat(ex.getSQLState(), is("42P02"));
+                }
+            }
+            try (Statement stm = conn.createStatement();
+                    ResultSet rs = stm.executeQuery("select 1")) {
+                assertThat(rs.next(), is(true));
+            }
+        });
+    }
+
+    /**
+     * The statement timeout expires right at the end of the first statement:
+     * the timer cancels the token after the statement has completed, and the
+     * second statement must not be affected.
+     */
+    @Test
+    public void statementTimeout_expiresAtTheEndOfTheStatement() throws Throwable {
+        CountDownLatch expired = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch cancelled = new CountDownLatch(1);
+        AtomicBoolean first = new AtomicBoolean(true);
+        TimerWheel timer = new TimerWheel(10, TimeUnit.MILLISECONDS, 64) {
+            @Override
+            public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+                if (!first.compareAndSet(true, false)) {
+                    return super.schedule(task, delay, unit);
+                }
+                // the timeout is expired, but the token is cancelled later
+                return super.schedule(() -> {
+                    expired.countDown();
+                    await(release);
+                    task.run();
+                    cancelled.countDown();
+                }, delay, unit);
+            }
+        };
+        _setup = (SimpleConnection conn) -> conn.setStatementTimer(timer);
+        when(_provider.getResult("update t set a = 1")).thenAnswer(invocation -> {
+            await(expired);
+            return _table;
+        });
+        when(_provider.getResult("update t set a = 2")).thenAnswer(invocation -> {
+            release.countDown();
+            await(cancelled);
+            return _table;
+        });
+        when(_table.getType()).thenReturn(DataProvider.QueryResult.Type.UPDATE);
+        when(_table.getRowCount()).thenReturn(1);
+
+        _strictMock.turnOn();
+
+        setUpRawClient((RawClient c) -> {
+            c.query("SET statement_timeout = '50ms'");
+            assertThat(RawClient.types(c.readUntilReady()), is("CZ"));
+            c.query("update t set a = 1; update t set a = 2");
+            assertThat(RawClient.types(c.readUntilReady()), is("CCZ"));
+        });
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            if (!latch.await(5, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("timed out");
+            }
+        } catch (InterruptedException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    @Test
+    public void idleInTransactionTimeout() throws Throwable {
+        when(_provider.getResult("begin")).thenReturn(_table);
+        when(_table.getType()).thenReturn(DataProvider.QueryResult.Type.UPDATE);
+        TimerWheel timer = new TimerWheel(10, TimeUnit.MILLISECONDS, 64);
+        _setup = (SimpleConnection conn) -> conn.setIdleTimeouts(timer, 0, 200);
+
+        _strictMock.turnOn();
+
+        setUpRawClient((RawClient c) -> {
+            Thread.sleep(300); // idle outside a transaction: no limit
+            c.query("begin");
+            List<RawClient.Message> res = c.readUntilReady();
+            assertThat(RawClient.types(res), is("CZ"));
+            assertThat(res.get(1).payloadString(), is("T"));
+            long start = System.nanoTime();
+            RawClient.Message error = c.read();
+            assertThat(System.nanoTime() - start >= 150_000_000L, is(true));
+            assertThat(error.type, is('E'));
+            assertThat(error.payloadString().contains("FATAL"), is(true));
+            assertThat(error.payloadString().contains("25P03"), is(true));
+            try {
+                c.read();
+                fail("the connection should be closed");
+            } catch (EOFException ex) {
+                // expected
+            }
+        });
+    }
+
+    @Test
+    public void idleRelease_keepsSessionState() throws Throwable {
+        final String query = "update tbl set f = 1";
+        AtomicInteger closed = new AtomicInteger();
+        DataProvider.QueryResult command = mock(DataProvider.QueryResult.class, _strictMock);
+        when(command.getType()).thenReturn(DataProvider.QueryResult.Type.CREATE);
+        when(command.getRowCount()).thenReturn(0);
+        when(_provider.getResult("BEGIN")).thenReturn(command);
+        when(_provider.getResult("COMMIT")).thenReturn(command);
+        when(_provider.getResult(query)).thenReturn(_table);
+        when(_table.getType()).thenReturn(DataProvider.QueryResult.Type.UPDATE);
+        when(_table.getRowCount()).thenReturn(1);
+        doAnswer(invocation -> {
+            closed.incrementAndGet();
+            return null;
+        }).when(_table).close();
+        _setup = (SimpleConnection conn) -> conn.setIdleReleaseDelay(20);
+
+        _strictMock.turnOn();
+
+        setUpClient((Connection conn) -> {
+            conn.setAutoCommit(false); // the portals are kept until the commit
+            PreparedStatement stm = conn.prepareStatement(query);
+            stm.unwrap(PGStatement.class).setPrepareThreshold(1); // use a named statement
+            for (int n = 0; n < 3; n++) {
+                assertThat(stm.executeUpdate(), is(1));
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100)); // the session releases its state
+                // the result of the completed portal has been released while idle
+                assertThat(closed.get(), is(n + 1));
+            }
+            conn.commit();
+            assertThat(closed.get(), is(3));
+        });
+    }
+
+    @Test
+    public void metrics_countMessagesAndLatency() throws Throwable {
+        final String query = "select * from table";
+        when(_provider.getResult(query)).thenReturn(_table);
+        when(_table.getHeader()).thenReturn(Arrays.asList("col1"));
+        when(_table.getType()).thenReturn(DataProvider.QueryResult.Type.SELECT);
+        when(_table.getRows()).thenReturn(table(row("1"), row("2"), row("3")));
+        when(_table.getRowCount()).thenReturn(3);
+        ProtocolMetrics metrics = new ProtocolMetrics();
+        _setup = (SimpleConnection conn) -> conn.setMetrics(metrics);
+
+        _strictMock.turnOn();
+
+        setUpRawClient((RawClient c) -> {
+            c.query(query);
+            assertThat(RawClient.types(c.readUntilReady()), is("TDDDCZ"));
+            assertThat(metrics.getMessagesReceived('Q'), is(1L));
+            assertThat(metrics.getMessagesSent('D'), is(3L));
+            assertThat(metrics.getMessagesSent('Z'), is(2L)); // with the one of the startup
+            assertThat(metrics.getRowsSent(), is(3L));
+            assertThat(metrics.getBytesReceived(), is(5L + query.length() + 1));
+            // the latency is recorded after the response has been flushed
+            for (int n = 0; n < 100 && metrics.getWriteLatency(Metrics.Operation.QUERY).getCount() == 0; n++) {
+                Thread.sleep(10);
+            }
+            assertThat(metrics.getProviderLatency(Metrics.Operation.QUERY).getCount(), is(1L));
+            assertThat(metrics.getWriteLatency(Metrics.Operation.QUERY).getCount(), is(1L));
+            assertThat(metrics.getProviderLatency(Metrics.Operation.EXECUTE).getCount(), is(0L));
+        });
+    }
+
+    @Test
+    public void statActivity_showsRunningQuery() throws Throwable {
+        final String query = "select * from table";
+        AtomicReference<SimpleConnection> server = new AtomicReference<>();
+        AtomicReference<SessionActivity.Snapshot> running = new AtomicReference<>();
+        when(_provider.getResult(query)).thenAnswer(invocation -> {
+            running.set(server.get().getActivity().snapshot());
+            return _table;
+        });
+        when(_table.getHeader()).thenReturn(Arrays.asList("col1"));
+        when(_table.getType()).thenReturn(DataProvider.QueryResult.Type.SELECT);
+        when(_table.getRows()).thenReturn(table(row("1")));
+        when(_table.getRowCount()).thenReturn(1);
+        _setup = (SimpleConnection conn) -> {
+            conn.getActivity().setPid(42);
+            server.set(conn);
+        };
+        _provider = new StatActivityProvider(_provider, () -> Collections.singletonList(server.get().getActivity().snapshot()));
+
+        _strictMock.turnOn();
+
+        setUpClient((Connection conn) -> {
+            Statement stm = conn.createStatement();
+            try (ResultSet rs = stm.executeQuery(query)) {
+                assertThat(rs.next(), is(true));
+            }
+            assertThat(running.get().getState(), is(SessionActivity.State.ACTIVE));
+            assertThat(running.get().getQuery(), is(query));
+            assertThat(running.get().getPid(), is(42));
+            assertThat(running.get().getUser(), is(_username));
+            assertThat(running.get().getDatabase(), is(_dbName));
+
+            try (ResultSet rs = stm.executeQuery("SELECT * FROM pg_catalog.pg_stat_activity;")) {
+                assertThat(rs.next(), is(true));
+                assertThat(rs.getInt("pid"), is(42));
+                assertThat(rs.getString("usename"), is(_username));
+                assertThat(rs.getString("datname"), is(_dbName));
+                assertThat(rs.getString("client_addr"), is("127.0.0.1"));
+                assertThat(rs.getString("state"), is("active"));
+                assertThat(rs.getString("query"), is("SELECT * FROM pg_catalog.pg_stat_activity"));
+                assertThat(rs.getTimestamp("query_start").getTime() >= rs.getTimestamp("backend_start").getTime(), is(true));
+                assertThat(rs.next(), is(false));
+            }
+            SessionActivity.Snapshot idle = server.get().getActivity().snapshot();
+            assertThat(idle.getState(), is(SessionActivity.State.IDLE));
+            assertThat(idle.getQuery(), is("SELECT * FROM pg_catalog.pg_stat_activity"));
+        });
+    }
+
+    @Test
+    public void slowQueryLog_logsQuery() throws Throwable {
+        final String query = "select * from table";
+        when(_provider.getResult(query)).thenReturn(_table);
+        when(_table.getHeader()).thenReturn(Arrays.asList("col1"));
+        when(_table.getType()).thenReturn(DataProvider.QueryResult.Type.SELECT);
+        when(_table.getRows()).thenReturn(table(row("1"), row("2"), row("3")));
+        when(_table.getRowCount()).thenReturn(3);
+        BlockingQueue<String> lines = new ArrayBlockingQueue<>(10);
+        SlowQueryLog log = new SlowQueryLog(0, TimeUnit.MILLISECONDS, 0, lines::add, 10);
+        _setup = (SimpleConnection conn) -> conn.setSlowQueryLog(log);
+
+        _strictMock.turnOn();
+
+        setUpRawClient((RawClient c) -> {
+            c.query(query);
+            assertThat(RawClient.types(c.readUntilReady()), is("TDDDCZ"));
+            String line = lines.poll(5, TimeUnit.SECONDS);
+            assertThat(line, containsString("\"user\":\"" + _username + "\",\"database\":\"" + _dbName + "\""));
+            assertThat(line, containsString("\"first_row_us\":"));
+            // RowDescription 30 bytes, DataRow 12 bytes each, CommandComplete 14, ReadyForQuery 6
+            assertThat(line, containsString("\"rows\":3,\"bytes\":86,\"sampled\":false,\"query\":\"" + query + "\"}"));
+        });
+    }
+
+    @Test
+    public void queryStatistics_aggregatesPreparedStatement() throws Throwable {
+        when(_provider.getResult("select * from tbl where f > '65024'")).thenReturn(_table);
+        when(_provider.getResult("select * from tbl where f > '25'")).thenReturn(_table);
+        when(_table.getHeader()).thenReturn(Arrays.asList("col1"));
+        when(_table.getType()).thenReturn(DataProvider.QueryResult.Type.SELECT);
+        when(_table.getRows()).thenAnswer(invocation -> table(row("1"), row("2")));
+        when(_table.getRowCount()).thenReturn(2);
+        QueryStatistics stats = new QueryStatistics(100);
+        _setup = (SimpleConnection conn) -> conn.setQueryStatistics(stats);
+
+        _strictMock.turnOn();
+
+        setUpClient((Connection conn) -> {
+            PreparedStatement stm = conn.prepareStatement("select * from tbl where f > ?");
+            for (int value : new int[]{65024, 25}) {
+                stm.setInt(1, value);
+                try (ResultSet rs = stm.executeQuery()) {
+                    assertThat(rs.next(), is(true));
+                }
+            }
+            // the executions are recorded after the response has been flushed
+            for (int n = 0; n < 100 && (stats.getEntries().isEmpty() || stats.getEntries().get(0).getCalls() < 2); n++) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+            }
+            List<QueryStatistics.Entry> entries = stats.getEntries();
+            assertThat(entries.size(), is(1));
+            assertThat(entries.get(0).getQuery(), is("select * from tbl where f > $1"));
+            assertThat(entries.get(0).getCalls(), is(2L));
+            assertThat(entries.get(0).getRows(), is(4L));
+        });
+    }
+
+    @Test
+    public void jfr_emitsProtocolEvents() throws Throwable {
+        final String query = "select * from table";
+        when(_provider.getResult(query)).thenReturn(_table);
+        when(_table.getHeader()).thenReturn(Arrays.asList("col1"));
+        when(_table.getType()).thenReturn(DataProvider.QueryResult.Type.SELECT);
+        when(_table.getRows()).thenReturn(table(row("1"), row("2")));
+        when(_table.getRowCount()).thenReturn(2);
+        Recording recording = new Recording();
+        for (String event : Arrays.asList("SessionStart", "Message", "ProviderCall", "ResultStream", "Flush")) {
+            recording.enable("edu.purdue.jpgsql." + event).withoutThreshold();
+        }
+        recording.start();
+
+        _strictMock.turnOn();
+
+        setUpRawClient((RawClient c) -> {
+            c.query(query);
+            assertThat(RawClient.types(c.readUntilReady()), is("TDDCZ"));
+            Thread.sleep(100); // the flush event is committed after the responses are sent
+            recording.stop();
+            Path file = Files.createTempFile("jpgsql", ".jfr");
+            try {
+                recording.dump(file);
+                Map<String, RecordedEvent> events = new HashMap<>();
+                for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+                    events.put(event.getEventType().getName().substring("edu.purdue.jpgsql.".length()), event);
+                }
+                assertThat(events.get("SessionStart").getString("user"), is(_username));
+                assertThat(events.get("Message").getChar("type"), is('Q'));
+                assertThat(events.get("Message").getInt("length"), is(5 + query.length() + 1));
+                assertThat(events.get("ProviderCall").getLong("fingerprint"), is(QueryFingerprint.of(query)));
+                assertThat(events.get("ResultStream").getLong("rows"), is(2L));
+                assertThat(events.get("ResultStream").getLong("bytes"), is(2 * 12L)); // the DataRow messages
+                assertThat(events.containsKey("Flush"), is(true));
+            } finally {
+                recording.close();
+                Files.delete(file);
+            }
+        });
+    }
+
+    @Test
+    public void preparedStatement_fetchSizeCursor() throws Throwable {
+        final String query = "select * from big";
+        List<Integer> fetchSizes = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger rowsRead = new AtomicInteger();
+        AtomicBoolean closed = new AtomicBoolean();
+        DataProvider.QueryResult cursor = new DataProvider.QueryResult() {
+            @Override
+            public DataProvider.QueryResult.Type getType() {
+                return DataProvider.QueryResult.Type.SELECT;
+            }
+
+            @Override
+            public int getRowCount() {
+                return rowsRead.get();
+            }
+
+            @Override
+            public String getErrorMessage() {
+                return null;
+            }
+
+            @Override
+            public Iterator<List<String>> getRows() {
+                return new Iterator<List<String>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return rowsRead.get() < 7;
+                    }
+
+                    @Override
+                    public List<String> next() {
+                        return row(Integer.toString(rowsRead.incrementAndGet()));
+                    }
+                };
+            }
+
+            @Override
+            public List<String> getHeader() {
+                return Arrays.asList("n");
+            }
+
+            @Override
+            public void setFetchSize(int rows) {
+                fetchSizes.add(rows);
+            }
+
+            @Override
+            public void close() {
+                closed.set(true);
+            }
+        };
+        DataProvider.QueryResult command = mock(DataProvider.QueryResult.class, _strictMock);
+        when(command.getType()).thenReturn(DataProvider.QueryResult.Type.CREATE);
+        when(command.getRowCount()).thenReturn(0);
+        when(_provider.getResult("BEGIN")).thenReturn(command);
+        when(_provider.getResult("COMMIT")).thenReturn(command);
+        when(_provider.getResult(query)).thenReturn(cursor);
+
+        _strictMock.turnOn();
+
+        setUpClient((Connection conn) -> {
+            conn.setAutoCommit(false);
+            PreparedStatement stm = conn.prepareStatement(query);
+            stm.setFetchSize(3);
+            try (ResultSet rs = stm.executeQuery()) {
+                assertThat(rs.next(), is(true));
+                assertThat(rowsRead.get(), is(3));
+                for (int n = 2; n <= 7; n++) {
+                    assertThat(rs.next(), is(true));
+                    assertThat(rs.getInt(1), is(n));
+                }
+                assertThat(rs.next(), is(false));
+            }
+            assertThat(fetchSizes, is(Arrays.asList(3, 3, 3)));
+            assertThat(closed.get(), is(false));
+            conn.commit();
+            assertThat(closed.get(), is(true));
+        });
+    }
+
+    @Test
+    public void simpleQuery_multipleStatements() throws Throwable {
+        DataProvider.QueryResult deleted = mock(DataProvider.QueryResult.class, _strictMock);
+        when(_provider.getResult("select 'a;b'")).thenReturn(_table);
+        when(_provider.getResult("select 2")).thenReturn(_table);
+        when(_provider.getResult("delete from t")).thenReturn(deleted);
+        when(_table.getHeader()).thenReturn(Arrays.asList("col"));
+        when(_table.getType()).thenReturn(DataProvider.QueryResult.Type.SELECT);
+        when(_table.getRows()).thenReturn(table(row("1")), table(row("2")));
+        when(_table.getRowCount()).thenReturn(1);
+        when(deleted.getType()).thenReturn(DataProvider.QueryResult.Type.DELETE);
+        when(deleted.getRowCount()).thenReturn(3);
+
+        _strictMock.turnOn();
+
+        setUpRawClient((RawClient c) -> {
+            c.query("select 'a;b'; delete from t;\n-- comment\nselect 2;");
+            List<RawClient.Message> res = c.readUntilReady();
+            assertThat(RawClient.types(res), is("TDCCTDCZ"));
+            assertThat(res.get(3).payloadString(), is("DELETE 3\0"));
+
+            c.query(" ; -- nothing");
+            assertThat(RawClient.types(c.readUntilReady()), is("IZ"));
+        });
+    }
+
+    @Test
+    public void simpleQuery_errorAbortsRemainingStatements() throws Throwable {
+        DataProvider.QueryResult error = mock(DataProvider.QueryResult.class, _strictMock);
+        when(_provider.getResult("select 1")).thenReturn(_table);
+        when(_provider.getResult("bad")).thenReturn(error);
+        when(_table.getHeader()).thenReturn(Arrays.asList("col"));
+        when(_table.getType()).thenReturn(DataProvider.QueryResult.Type.SELECT);
+        when(_table.getRows()).thenReturn(table(row("1")));
+        when(_table.getRowCount()).thenReturn(1);
+        when(error.getType()).thenReturn(DataProvider.QueryResult.Type.ERROR);
+        when(error.getErrorMessage()).thenReturn("syntax error");
+
+        _strictMock.turnOn();
+
+        setUpRawClient((RawClient c) -> {
+            c.query("select 1; bad; select 2");
+            assertThat(RawClient.types(c.readUntilReady()), is("TDCEZ"));
+        });
+    }
+
+    @Test
+    public void copyOut_csv() throws Throwable {
+        List<List<String>> rows = new ArrayList<>();
+        StringBuilder expected = new StringBuilder("id,name\n");
+        for (int n = 0; n < 10000; n++) {
+            rows.add(Arrays.asList(Integer.toString(n), "name, " + n));
+            expected.append(n).append(",\"name, ").append(n).append("\"\n");
+        }
+        rows.add(Arrays.asList("-1", null));
+        expected.append("-1,\n");
+        when(_provider.getResult("SELECT * FROM tbl")).thenReturn(_table);
+        when(_table.getHeader()).thenReturn(Arrays.asList("id", "name"));
+        when(_table.getType()).thenReturn(DataProvider.QueryResult.Type.SELECT);
+        when(_table.getRows()).thenReturn(rows.iterator());
+
+        _strictMock.turnOn();
+
+        setUpClient((Connection conn) -> {
+            CopyManager copy = conn.unwrap(PGConnection.class).getCopyAPI();
+            StringWriter out = new StringWriter();
+            long count = copy.copyOut("COPY tbl TO STDOUT WITH (FORMAT csv, HEADER)", out);
+            assertThat(count, is(10001L));
+            assertThat(out.toString(), is(expected.toString()));
+        });
+    }
+
+    @Test
+    public void copyOut_file() throws Throwable {
+        AtomicBoolean zeroCopy = new AtomicBoolean(true);
+        _setup = conn -> zeroCopy.set(conn.isZeroCopy());
+        copyOut_file(() -> assertThat(zeroCopy.get(), is(false)));
+    }
+
+    @Test
+    public void copyOut_file_zeroCopy() throws Throwable {
+        _listener.close();
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        _listener = channel.bind(new InetSocketAddress(_portNumber)).socket();
+        AtomicBoolean zeroCopy = new AtomicBoolean(false);
+        _setup = conn -> zeroCopy.set(conn.isZeroCopy());
+        copyOut_file(() -> assertThat(zeroCopy.get(), is(true)));
+    }
+
+    private void copyOut_file(Runnable checkTransfer) throws Throwable {
+        StringBuilder data = new StringBuilder();
+        for (int n = 0; n < 200000; n++) {
+            data.append(n).append(",row ").append(n).append('\n');
+        }
+        String prefix = "skipped\n";
+        Path file = Files.createTempFile("jpgsql", ".csv");
+        file.toFile().deleteOnExit();
+        Files.write(file, (prefix + data).getBytes(StandardCharsets.UTF_8));
+        when(_provider.copyFile(eq("tbl"), eq(Arrays.asList("id", "name")), any()))
+                .thenReturn(DataProvider.FileRegion.of(file, prefix.length(), data.length(), 200000));
+
+        _strictMock.turnOn();
+
+        setUpClient((Connection conn) -> {
+            CopyManager copy = conn.unwrap(PGConnection.class).getCopyAPI();
+            StringWriter out = new StringWriter();
+            long count = copy.copyOut("COPY tbl (id, name) TO STDOUT CSV", out);
+            assertThat(count, is(200000L));
+            assertThat(out.toString(), is(data.toString()));
+            checkTransfer.run();
+        });
+    }
+
+    @Test
+    public void copyOut_file_cancel() throws Throwable {
+        AtomicReference<SimpleConnection> server = new AtomicReference<>();
+        AtomicBoolean closed = new AtomicBoolean();
+        _setup = server::set;
+        Path file = Files.createTempFile("jpgsql", ".csv");
+        file.toFile().deleteOnExit();
+        Files.write(file, new byte[3 * 1024 * 1024]);
+        DataProvider.FileRegion region = DataProvider.FileRegion.of(file, 0, -1, 3);
+        when(_provider.copyFile(eq("tbl"), eq(Collections.emptyList()), any())).thenReturn(new DataProvider.FileRegion() {
+            @Override
+            public FileChannel getChannel() throws IOException {
+                server.get().cancel(); // as if a CancelRequest arrived now
+                return region.getChannel();
+            }
+
+            @Override
+            public long getRowCount() {
+                return region.getRowCount();
+            }
+
+            @Override
+            public void close() throws IOException {
+                closed.set(true);
+                region.close();
+            }
+        });
+        when(_provider.describe("tbl")).thenReturn(null);
+        when(_provider.getResult("select 1")).thenReturn(_table);
+        when(_table.getType()).thenReturn(DataProvider.QueryResult.Type.SELECT);
+        when(_table.getHeader()).thenReturn(Arrays.asList("n"));
+        when(_table.getRows()).thenReturn(table(row("1")));
+        when(_table.getRowCount()).thenReturn(1);
+
+        _strictMock.turnOn();
+
+        setUpRawClient((RawClient c) -> {
+            c.query("copy tbl to stdout");
+            List<RawClient.Message> res = c.readUntilReady();
+            assertThat(RawClient.types(res), is("HEZ"));
+            assertThat(res.get(1).payloadString(), containsString("57014"));
+            assertThat(closed.get(), is(true));
+
+            c.query("select 1");
+            assertThat(RawClient.types(c.readUntilReady()), is("TDCZ"));
+        });
+    }
+
+    @Test
+    public void copyOut_text() throws Throwable {
+        when(_provider.getResult("select a, b from tbl")).thenReturn(_table);
+        when(_table.getHeader()).thenReturn(Arrays.asList("a", "b"));
+        when(_table.getType()).thenReturn(DataProvider.QueryResult.Type.SELECT);
+        when(_table.getRows()).thenReturn(table(row("x\ty", null), row("back\\slash", "new\nline")));
+
+        _strictMock.turnOn();
+
+        setUpRawClient((RawClient c) -> {
+            c.query("copy (select a, b from tbl) to stdout");
+            List<RawClient.Message> res = c.readUntilReady();
+            assertThat(RawClient.types(res), is("HdcCZ"));
+            assertThat(res.get(1).payloadString(), is("x\\ty\t\\N\nback\\\\slash\tnew\\nline\n"));
+            assertThat(res.get(3).payloadString(), is("COPY 2\0"));
+
+            c.query("copy tbl to '/tmp/file'");
+            assertThat(RawClient.types(c.readUntilReady()), is("EZ"));
+        });
+    }
+
+    private static class CollectingSink implements DataProvider.BulkLoadSink {
+
+        final List<List<String>> rows = new ArrayList<>();
+        final List<Integer> batches = new ArrayList<>();
+        boolean finished, aborted, closed;
+
+        @Override
+        public int getBatchSize() {
+            return 2;
+        }
+
+        @Override
+        public String addRows(List<List<String>> batch) {
+            batches.add(batch.size());
+            rows.addAll(batch);
+            return null;
+        }
+
+        @Override
+        public String finish() {
+            finished = true;
+            return null;
+        }
+
+        @Override
+        public void abort() {
+            aborted = true;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    @Test
+    public void copyIn_csv() throws Throwable {
+        CollectingSink sink = new CollectingSink();
+        when(_provider.bulkLoad("tbl", Arrays.asList("id", "name"))).thenReturn(sink);
+
+        _strictMock.turnOn();
+
+        setUpClient((Connection conn) -> {
+            CopyManager copy = conn.unwrap(PGConnection.class).getCopyAPI();
+            String data = "id,name\n1,\"a,b\"\n2,\n3,\"multi\nline\"\n4,last";
+            long count = copy.copyIn("COPY tbl (id, name) FROM STDIN WITH CSV HEADER", new StringReader(data));
+            assertThat(count, is(4L));
+            assertThat(sink.rows, is(Arrays.asList(row("1", "a,b"), row("2", null), row("3", "multi\nline"),
+                    row("4", "last"))));
+            assertThat(sink.batches, is(Arrays.asList(2, 2)));
+            assertThat(sink.finished, is(true));
+            assertThat(sink.closed, is(true));
+        });
+    }
+
+    @Test
+    public void copyIn_failAndResume() throws Throwable {
+        CollectingSink sink = new CollectingSink();
+        CollectingSink failed = new CollectingSink();
+        when(_provider.bulkLoad("t", Collections.<String>emptyList())).thenReturn(sink, failed);
+        when(_provider.getResult("select 1")).thenReturn(_table);
+        when(_table.getHeader()).thenReturn(Arrays.asList("col"));
+        when(_table.getType()).thenReturn(DataProvider.QueryResult.Type.SELECT);
+        when(_table.getRows()).thenReturn(table(row("1")), table(row("1")));
+        when(_table.getRowCount()).thenReturn(1);
+
+        _strictMock.turnOn();
+
+        setUpRawClient((RawClient c) -> {
+            c.query("copy t from stdin; select 1");
+            assertThat(RawClient.types(Arrays.asList(c.read())), is("G"));
+            c.send('d', "a\tb\nc".getBytes(StandardCharsets.UTF_8));
+            c.send('d', "\td\n".getBytes(StandardCharsets.UTF_8));
+            c.send('c', new byte[0]);
+            List<RawClient.Message> res = c.readUntilReady();
+            assertThat(RawClient.types(res), is("CTDCZ"));
+            assertThat(res.get(0).payloadString(), is("COPY 2\0"));
+            assertThat(sink.rows, is(Arrays.asList(row("a", "b"), row("c", "d"))));
+
+            c.query("copy t from stdin");
+            assertThat(RawClient.types(Arrays.asList(c.read())), is("G"));
+            c.send('d', "x\n".getBytes(StandardCharsets.UTF_8));
+            c.send('f', "gave up\0".getBytes(StandardCharsets.UTF_8));
+            assertThat(RawClient.types(c.readUntilReady()), is("EZ"));
+            assertThat(failed.aborted, is(true));
+            assertThat(failed.closed, is(true));
+            c.send('d', "ignored\n".getBytes(StandardCharsets.UTF_8));
+            c.send('c', new byte[0]);
+            c.query("select 1");
+            assertThat(RawClient.types(c.readUntilReady()), is("TDCZ"));
+        });
+    }
+
+    @Test
+    public void copyOut_binary() throws Throwable {
+        DataProvider.QueryDescription desc = new DataProvider.QueryDescription() {
+            @Override
+            public List<String> getHeader() {
+                return Arrays.asList("id");
+            }
+
+            @Override
+            public List<Integer> getColumnTypes() {
+                return Arrays.asList(Types.INT4);
+            }
+        };
+        when(_provider.getResult("SELECT id FROM tbl")).thenReturn(_table);
+        when(_provider.describe("SELECT id FROM tbl")).thenReturn(desc);
+        when(_table.getHeader()).thenReturn(Arrays.asList("id"));
+        when(_table.getType()).thenReturn(DataProvider.QueryResult.Type.SELECT);
+        when(_table.getRows()).thenReturn(table(row("258"), row("abc")));
+
+        _strictMock.turnOn();
+
+        setUpRawClient((RawClient c) -> {
+            c.query("COPY tbl (id) TO STDOUT (FORMAT binary)");
+            List<RawClient.Message> res = c.readUntilReady();
+            assertThat(RawClient.types(res), is("HEZ"));
+            assertThat(res.get(0).payload, is(new byte[]{1, 0, 1, 0, 1}));
+            assertThat(res.get(1).payloadString().contains("22P02"), is(true));
+        });
+    }
+
 }
@@ -0,0 +1,82 @@
+package edu.purdue.jpgsql;
+
+import edu.purdue.jpgsql.testUtil.StrictMock;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import org.junit.Before;
+import org.junit.Test;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public class StatActivityProviderTest {
+
+    private DataProvider _provider;
+    private final List<SessionActivity.Snapshot> _sessions = new ArrayList<>();
+
+    @Before
+    public void init() {
+        StrictMock strictMock = new StrictMock();
+        _provider = mock(DataProvider.class, strictMock);
+        when(_provider.setUser(anyString())).thenReturn(true);
+        strictMock.turnOn();
+
+        _sessions.add(session(1, "fred", "select * from t where password = 'secret'"));
+        _sessions.add(session(2, "admin", "select 1"));
+    }
+
+    private static SessionActivity.Snapshot session(int pid, String user, String query) {
+        SessionActivity activity = new SessionActivity(new InetSocketAddress("127.0.0.1", 5000 + pid));
+        activity.setPid(pid);
+        activity.started(user, "test", "app");
+        activity.queryStarted(query);
+        return activity.snapshot();
+    }
+
+    private List<List<String>> activity(StatActivityProvider provider) {
+        List<List<String>> rows = new ArrayList<>();
+        Iterator<List<String>> it = provider.getResult("select * from pg_stat_activity").getRows();
+        it.forEachRemaining(rows::add);
+        return rows;
+    }
+
+    @Test
+    public void otherUsers_hidden() {
+        StatActivityProvider provider = new StatActivityProvider(_provider, () -> _sessions);
+        assertThat(provider.setUser("admin"), is(true));
+        List<List<String>> rows = activity(provider);
+
+        assertThat(rows.get(0).subList(0, 4), is(Arrays.asList("1", "fred", "test", "app")));
+        for (int column = 4; column < 10; column++) {
+            assertThat(rows.get(0).get(column), is(nullValue()));
+        }
+        assertThat(rows.get(0).get(10), is("<insufficient privilege>"));
+
+        assertThat(rows.get(1).get(4), is("127.0.0.1"));
+        assertThat(rows.get(1).get(5), is("5002"));
+        assertThat(rows.get(1).get(10), is("select 1"));
+    }
+
+    @Test
+    public void readAllStats_seesEverySession() {
+        StatActivityProvider provider = new StatActivityProvider(_provider, () -> _sessions, user -> user.equals("admin"));
+        assertThat(provider.setUser("admin"), is(true));
+        List<List<String>> rows = activity(provider);
+        assertThat(rows.get(0).get(10), is("select * from t where password = 'secret'"));
+        assertThat(rows.get(1).get(10), is("select 1"));
+
+        provider = new StatActivityProvider(_provider, () -> _sessions, user -> user.equals("admin"));
+        assertThat(provider.setUser("fred"), is(true));
+        rows = activity(provider);
+        assertThat(rows.get(0).get(10), is("select * from t where password = 'secret'"));
+        assertThat(rows.get(1).get(10), is("<insufficient privilege>"));
+    }
+}
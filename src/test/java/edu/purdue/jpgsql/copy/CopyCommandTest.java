@@ -0,0 +1,87 @@
+package edu.purdue.jpgsql.copy;
+
+import edu.purdue.jpgsql.PgProtocolException;
+import java.util.Arrays;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import org.junit.Test;
+
+/**
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public class CopyCommandTest {
+
+    @Test
+    public void parse_table() throws PgProtocolException {
+        CopyCommand copy = CopyCommand.parse("COPY public.tbl (a, \"B\") TO STDOUT");
+        assertThat(copy.getTable(), is("public.tbl"));
+        assertThat(copy.getColumns(), is(Arrays.asList("a", "\"B\"")));
+        assertThat(copy.getQuery(), is("SELECT a, \"B\" FROM public.tbl"));
+        assertThat(copy.isFrom(), is(false));
+        assertThat(copy.isStdio(), is(true));
+        assertThat(copy.getOptions().getFormat(), is(CopyOptions.Format.TEXT));
+        assertThat(copy.getOptions().getDelimiter(), is('\t'));
+        assertThat(copy.getOptions().getNull(), is("\\N"));
+    }
+
+    @Test
+    public void parse_query() throws PgProtocolException {
+        CopyCommand copy = CopyCommand.parse("copy (select ')' from t where f(x) > 1) to stdout;");
+        assertThat(copy.getTable(), is(nullValue()));
+        assertThat(copy.getQuery(), is("select ')' from t where f(x) > 1"));
+    }
+
+    @Test
+    public void parse_options() throws PgProtocolException {
+        CopyCommand copy = CopyCommand.parse("COPY tbl FROM STDIN WITH (FORMAT csv, HEADER, DELIMITER ';', "
+                + "NULL 'null', QUOTE '''', FORCE_NOT_NULL (a), ENCODING 'UTF-8')");
+        CopyOptions opt = copy.getOptions();
+        assertThat(copy.isFrom(), is(true));
+        assertThat(opt.getFormat(), is(CopyOptions.Format.CSV));
+        assertThat(opt.hasHeader(), is(true));
+        assertThat(opt.getDelimiter(), is(';'));
+        assertThat(opt.getNull(), is("null"));
+        assertThat(opt.getQuote(), is('\''));
+        assertThat(opt.getEscape(), is('\''));
+        assertThat(opt.getForceNotNull(), is(Arrays.asList("a")));
+
+        opt = CopyCommand.parse("COPY tbl TO STDOUT (HEADER false, FORMAT 'csv', FORCE_QUOTE *)").getOptions();
+        assertThat(opt.hasHeader(), is(false));
+        assertThat(opt.getDelimiter(), is(','));
+        assertThat(opt.getNull(), is(""));
+        assertThat(opt.isForceQuote("any"), is(true));
+    }
+
+    @Test
+    public void parse_legacyOptions() throws PgProtocolException {
+        CopyOptions opt = CopyCommand.parse("COPY tbl TO STDOUT WITH DELIMITER AS '|' NULL AS E'\\\\N' CSV HEADER "
+                + "QUOTE AS '\"' ESCAPE '\\' FORCE QUOTE a, b").getOptions();
+        assertThat(opt.getFormat(), is(CopyOptions.Format.CSV));
+        assertThat(opt.getDelimiter(), is('|'));
+        assertThat(opt.getNull(), is("\\N"));
+        assertThat(opt.hasHeader(), is(true));
+        assertThat(opt.getEscape(), is('\\'));
+        assertThat(opt.isForceQuote("b"), is(true));
+        assertThat(opt.isForceQuote("c"), is(false));
+
+        assertThat(CopyCommand.parse("COPY BINARY tbl TO STDOUT").getOptions().getFormat(), is(CopyOptions.Format.BINARY));
+        assertThat(CopyCommand.parse("COPY tbl TO '/tmp/file'").isStdio(), is(false));
+    }
+
+    @Test(expected = PgProtocolException.class)
+    public void parse_unknownOption() throws PgProtocolException {
+        CopyCommand.parse("COPY tbl TO STDOUT (FORMAT text, COLOR 'red')");
+    }
+
+    @Test(expected = PgProtocolException.class)
+    public void parse_headerInTextMode() throws PgProtocolException {
+        CopyCommand.parse("COPY tbl TO STDOUT (HEADER)");
+    }
+
+    @Test(expected = PgProtocolException.class)
+    public void parse_queryFrom() throws PgProtocolException {
+        CopyCommand.parse("COPY (select 1) FROM STDIN");
+    }
+}
@@ -0,0 +1,117 @@
+package edu.purdue.jpgsql.copy;
+
+import edu.purdue.jpgsql.PgProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import org.junit.Test;
+
+/**
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public class CopyDecoderTest {
+
+    @Test
+    public void text() throws PgProtocolException {
+        String data = "a\\tb\\\\c\t\\N\nline\\r\\nfeed\tè€😀\r\noct\\101\\x42\\|\t\n";
+        List<List<String>> expected = Arrays.asList(row("a\tb\\c", null), row("line\r\nfeed", "è€😀"), row("octAB|", ""));
+        assertThat(decode("COPY t FROM STDIN", null, data, 1), is(expected));
+        assertThat(decode("COPY t FROM STDIN", null, data, 3), is(expected));
+        assertThat(decode("COPY t FROM STDIN", null, data, 1000), is(expected));
+    }
+
+    @Test
+    public void text_endOfData() throws PgProtocolException {
+        assertThat(decode("COPY t FROM STDIN (DELIMITER ',')", null, "1,2\n\\.\nignored\n", 2), is(Arrays.asList(row("1", "2"))));
+        assertThat(decode("COPY t FROM STDIN", null, "1\n2", 1), is(Arrays.asList(row("1"), row("2"))));
+    }
+
+    @Test
+    public void csv() throws PgProtocolException {
+        String data = "id,value\n1,plain\n2,\"a,b\"\n3,\"say \"\"hi\"\"\"\n4,\"\"\n5,\n6,\"two\nlines\"\n";
+        List<List<String>> expected = Arrays.asList(row("1", "plain"), row("2", "a,b"), row("3", "say \"hi\""),
+                row("4", ""), row("5", null), row("6", "two\nlines"));
+        assertThat(decode("COPY t FROM STDIN CSV HEADER", null, data, 1), is(expected));
+        assertThat(decode("COPY t FROM STDIN CSV HEADER", null, data, 7), is(expected));
+    }
+
+    @Test
+    public void csv_forceNullAndEscape() throws PgProtocolException {
+        String data = "\"\\\"q\\\\\",,\"\"\n";
+        assertThat(decode("COPY t FROM STDIN (FORMAT csv, ESCAPE '\\', FORCE_NOT_NULL (b), FORCE_NULL (c))",
+                Arrays.asList("a", "b", "c"), data, 1), is(Arrays.asList(row("\"q\\", "", null))));
+    }
+
+    @Test(expected = PgProtocolException.class)
+    public void csv_unterminatedQuote() throws PgProtocolException {
+        decode("COPY t FROM STDIN CSV", null, "1,\"abc\n", 4);
+    }
+
+    @Test(expected = PgProtocolException.class)
+    public void missingColumn() throws PgProtocolException {
+        decode("COPY t FROM STDIN", Arrays.asList("a", "b"), "1\t2\n3\n", 4);
+    }
+
+    @Test
+    public void binary_roundTrip() throws PgProtocolException {
+        CopyOptions opt = CopyCommand.parse("COPY t TO STDOUT (FORMAT binary)").getOptions();
+        List<String> columns = Arrays.asList("id", "name", "amount");
+        List<Integer> types = Arrays.asList(23, 1043, 1700);
+        CopyEncoder enc = CopyEncoder.create(opt, columns, types);
+        enc.start();
+        List<List<String>> expected = Arrays.asList(row("1", "one", "1.50"), row("-2", null, "-0.001"), row("3", "", null));
+        for (List<String> r : expected) {
+            enc.writeRow(r);
+        }
+        enc.finish();
+        byte[] data = Arrays.copyOf(enc.getBuffer(), enc.size());
+        // header, 3 rows of 3 fields, values (int4 + varchar + numeric), trailer
+        assertThat(data.length, is(19 + 3 * (2 + 3 * 4) + (4 + 3 + 12) + (4 + 10) + 4 + 2));
+
+        for (int chunk : new int[]{1, 5, data.length}) {
+            CopyDecoder dec = CopyDecoder.create(opt, columns, types);
+            List<List<String>> rows = new ArrayList<>();
+            List<String> row;
+            for (int n = 0; n < data.length; n += chunk) {
+                dec.feed(data, n, Math.min(chunk, data.length - n));
+                while ((row = dec.next()) != null) {
+                    rows.add(row);
+                }
+            }
+            dec.end();
+            assertThat(dec.next() == null, is(true));
+            assertThat(rows, is(expected));
+        }
+    }
+
+    @Test(expected = PgProtocolException.class)
+    public void binary_badSignature() throws PgProtocolException {
+        decode("COPY t FROM STDIN BINARY", null, "PGCOPY\nXXXXXXXXXXXXXXXXXXXXX", 100);
+    }
+
+    private List<List<String>> decode(String copy, List<String> columns, String data, int chunk) throws PgProtocolException {
+        CopyDecoder dec = CopyDecoder.create(CopyCommand.parse(copy).getOptions(), columns);
+        byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        List<List<String>> rows = new ArrayList<>();
+        List<String> row;
+        for (int n = 0; n < bytes.length; n += chunk) {
+            dec.feed(bytes, n, Math.min(chunk, bytes.length - n));
+            while ((row = dec.next()) != null) {
+                rows.add(row);
+            }
+        }
+        dec.end();
+        while ((row = dec.next()) != null) {
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    private List<String> row(String... vals) {
+        return Arrays.asList(vals);
+    }
+}
@@ -0,0 +1,76 @@
+package edu.purdue.jpgsql.copy;
+
+import edu.purdue.jpgsql.PgProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import org.junit.Test;
+
+/**
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public class CopyEncoderTest {
+
+    @Test
+    public void text() throws PgProtocolException {
+        CopyEncoder enc = encoder("COPY t TO STDOUT", "a", "b");
+        enc.start();
+        enc.writeRow(Arrays.asList("a\tb\\c", null));
+        enc.writeRow(Arrays.asList("line\r\nfeed", "è€😀"));
+        assertThat(content(enc), is("a\\tb\\\\c\t\\N\nline\\r\\nfeed\tè€😀\n"));
+    }
+
+    @Test
+    public void text_delimiter() throws PgProtocolException {
+        CopyEncoder enc = encoder("COPY t TO STDOUT (DELIMITER '|', NULL '')", "a", "b");
+        enc.writeRow(Arrays.asList("a|b", null));
+        assertThat(content(enc), is("a\\|b|\n"));
+    }
+
+    @Test
+    public void csv() throws PgProtocolException {
+        CopyEncoder enc = encoder("COPY t TO STDOUT CSV HEADER", "id", "value");
+        enc.start();
+        enc.writeRow(Arrays.asList("1", "plain"));
+        enc.writeRow(Arrays.asList("2", "a,b"));
+        enc.writeRow(Arrays.asList("3", "say \"hi\""));
+        enc.writeRow(Arrays.asList("4", ""));
+        enc.writeRow(Arrays.asList("5", null));
+        enc.writeRow(Arrays.asList("6", "two\nlines"));
+        assertThat(content(enc), is("id,value\n1,plain\n2,\"a,b\"\n3,\"say \"\"hi\"\"\"\n4,\"\"\n5,\n6,\"two\nlines\"\n"));
+    }
+
+    @Test
+    public void csv_forceQuoteAndEscape() throws PgProtocolException {
+        CopyEncoder enc = encoder("COPY t TO STDOUT (FORMAT csv, ESCAPE '\\', FORCE_QUOTE (b))", "a", "b");
+        enc.writeRow(Arrays.asList("x", "y"));
+        enc.writeRow(Arrays.asList("\"q\\", null));
+        assertThat(content(enc), is("x,\"y\"\n\"\\\"q\\\\\",\n"));
+    }
+
+    @Test
+    public void chunks() throws PgProtocolException {
+        CopyEncoder enc = encoder("COPY t TO STDOUT", "a");
+        List<String> row = Arrays.asList("0123456789");
+        int rows = 0;
+        while (!enc.isFull()) {
+            enc.writeRow(row);
+            rows++;
+        }
+        assertThat(rows, is(CopyEncoder.CHUNK_SIZE / 11 + 1));
+        enc.reset();
+        assertThat(enc.size(), is(0));
+        assertThat(enc.isFull(), is(false));
+    }
+
+    private CopyEncoder encoder(String copy, String... columns) throws PgProtocolException {
+        return CopyEncoder.create(CopyCommand.parse(copy).getOptions(), Arrays.asList(columns));
+    }
+
+    private String content(CopyEncoder enc) {
+        return new String(enc.getBuffer(), 0, enc.size(), StandardCharsets.UTF_8);
+    }
+}
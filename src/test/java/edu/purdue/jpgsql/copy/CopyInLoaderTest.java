@@ -0,0 +1,130 @@
+package edu.purdue.jpgsql.copy;
+
+import edu.purdue.jpgsql.DataProvider;
+import edu.purdue.jpgsql.PgProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import org.junit.Test;
+
+/**
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public class CopyInLoaderTest {
+
+    @Test
+    public void parallelCsv_ordered() throws PgProtocolException {
+        StringBuilder data = new StringBuilder("id,value\n");
+        List<List<String>> expected = new ArrayList<>();
+        for (int n = 0; n < 500; n++) {
+            String value = n % 3 == 0 ? "multi\nline " + n : "v" + n;
+            data.append(n).append(",\"").append(value).append("\"\r\n");
+            expected.add(Arrays.asList(String.valueOf(n), value));
+        }
+        data.append("\\.\nignored,row\n");
+        for (int piece : new int[]{1, 7, 1000}) {
+            Sink sink = new Sink(true);
+            assertThat(load(sink, data.toString(), piece), is(500L));
+            assertThat(sink._rows, is(expected));
+        }
+    }
+
+    @Test
+    public void parallelCsv_unordered() throws PgProtocolException {
+        StringBuilder data = new StringBuilder();
+        List<List<String>> expected = new ArrayList<>();
+        for (int n = 0; n < 1000; n++) {
+            data.append(n).append(",\"a\nb\"\n");
+            expected.add(Arrays.asList(String.valueOf(n), "a\nb"));
+        }
+        Sink sink = new Sink(false);
+        load(sink, data.toString(), 100);
+        sink._rows.sort(Comparator.comparing((List<String> r) -> Integer.valueOf(r.get(0))));
+        assertThat(sink._rows, is(expected));
+    }
+
+    @Test
+    public void parallelCsv_sinkExecutor() throws PgProtocolException {
+        StringBuilder data = new StringBuilder();
+        for (int n = 0; n < 100; n++) {
+            data.append(n).append(",v").append(n).append('\n');
+        }
+        AtomicInteger tasks = new AtomicInteger();
+        Sink sink = new Sink(true);
+        sink._executor = task -> {
+            tasks.incrementAndGet();
+            new Thread(task).start();
+        };
+        assertThat(load(sink, data.toString(), 50), is(100L));
+        assertThat(sink._rows.size(), is(100));
+        assertThat(tasks.get() > 1, is(true));
+
+        // a rejected chunk is parsed by the caller
+        sink = new Sink(true);
+        sink._executor = task -> {
+            throw new RejectedExecutionException();
+        };
+        assertThat(load(sink, data.toString(), 50), is(100L));
+        assertThat(sink._rows.size(), is(100));
+    }
+
+    @Test(expected = PgProtocolException.class)
+    public void parallelCsv_malformed() throws PgProtocolException {
+        load(new Sink(true), "1,a\n2,b\n3\n4,d\n5,\"e\n", 2);
+    }
+
+    private long load(Sink sink, String data, int piece) throws PgProtocolException {
+        CopyCommand copy = CopyCommand.parse(data.startsWith("id") ? "COPY t FROM STDIN CSV HEADER" : "COPY t FROM STDIN CSV");
+        CopyInLoader loader = new ParallelCsvCopyInLoader(copy.getOptions(), Arrays.asList("id", "value"), sink, 64);
+        byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        for (int n = 0; n < bytes.length; n += piece) {
+            loader.data(Arrays.copyOfRange(bytes, n, Math.min(n + piece, bytes.length)));
+        }
+        return loader.done();
+    }
+
+    private static class Sink implements DataProvider.BulkLoadSink {
+
+        private final boolean _ordered;
+        private final List<List<String>> _rows = new ArrayList<>();
+        private Executor _executor;
+
+        Sink(boolean ordered) {
+            _ordered = ordered;
+        }
+
+        @Override
+        public int getBatchSize() {
+            return 7;
+        }
+
+        @Override
+        public int getParallelism() {
+            return 4;
+        }
+
+        @Override
+        public Executor getExecutor() {
+            return _executor;
+        }
+
+        @Override
+        public boolean isOrdered() {
+            return _ordered;
+        }
+
+        @Override
+        public String addRows(List<List<String>> rows) {
+            _rows.addAll(rows);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package edu.purdue.jpgsql.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public class BufferPoolTest {
+
+    @Test
+    public void acquire_sizeClasses() {
+        BufferPool pool = new BufferPool(4, false);
+        assertThat(pool.acquire(1).length, is(BufferPool.MIN_SIZE));
+        assertThat(pool.acquire(BufferPool.MIN_SIZE).length, is(BufferPool.MIN_SIZE));
+        assertThat(pool.acquire(BufferPool.MIN_SIZE + 1).length, is(2 * BufferPool.MIN_SIZE));
+        assertThat(pool.acquire(BufferPool.MAX_SIZE).length, is(BufferPool.MAX_SIZE));
+        assertThat(pool.acquire(BufferPool.MAX_SIZE + 1).length, is(BufferPool.MAX_SIZE + 1));
+    }
+
+    @Test
+    public void release_reusesArrays() {
+        BufferPool pool = new BufferPool(1, false);
+        byte[] first = pool.acquire(1000);
+        byte[] second = pool.acquire(1000);
+        pool.release(first);
+        pool.release(second); // the class is full, dropped
+        assertThat(pool.acquire(700), is(sameInstance(first)));
+        assertThat(pool.acquire(700), is(not(sameInstance(second))));
+
+        byte[] large = pool.acquire(BufferPool.MAX_SIZE + 1);
+        pool.release(large);
+        assertThat(pool.acquire(BufferPool.MAX_SIZE + 1), is(not(sameInstance(large))));
+    }
+
+    @Test
+    public void release_concurrentThreadsNeverShareArrays() throws InterruptedException {
+        BufferPool pool = new BufferPool(4, true);
+        AtomicInteger errors = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            byte mark = (byte) t;
+            threads.add(new Thread(() -> {
+                try {
+                    for (int n = 0; n < 2000; n++) {
+                        byte[] buffer = pool.acquire(100 + n % 2000);
+                        Arrays.fill(buffer, mark);
+                        Thread.yield();
+                        for (byte b : buffer) {
+                            if (b != mark) {
+                                errors.incrementAndGet();
+                                break;
+                            }
+                        }
+                        pool.release(buffer);
+                    }
+                } catch (RuntimeException ex) {
+                    errors.incrementAndGet();
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertThat(errors.get(), is(0));
+        assertThat(pool.getLeaks().size(), is(0));
+    }
+
+    @Test
+    public void debug_reportsLeaksAndDoubleRelease() {
+        BufferPool pool = new BufferPool(4, true);
+        byte[] released = pool.acquire(10);
+        pool.acquire(10);
+        pool.release(released);
+        assertThat(pool.getLeaks().size(), is(1));
+        try {
+            pool.release(released);
+            fail("released twice");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+        try {
+            pool.release(new byte[BufferPool.MIN_SIZE]);
+            fail("not acquired from the pool");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void pooledStreams_returnBuffers() throws Exception {
+        BufferPool pool = new BufferPool(4, true);
+        ByteArrayOutputStream sent = new ByteArrayOutputStream();
+        PooledOutputStream out = new PooledOutputStream(sent, pool);
+        try (PgWriter w = new PgWriter(out, 'Q', pool)) {
+            w.addString("select 1");
+        }
+        try (PgWriter w = new PgWriter(out, 'S', pool)) {
+        }
+        assertThat(sent.size(), is(0)); // packed until flushed
+        assertThat(pool.getLeaks().size(), is(1));
+        out.flush();
+        assertThat(pool.getLeaks().size(), is(0));
+
+        byte[] data = sent.toByteArray();
+        PooledInputStream in = new PooledInputStream(new ByteArrayInputStream(data), pool);
+        PgReader reader = new PgReader(new RawReader(in));
+        assertThat(reader.readCommand(), is('Q'));
+        assertThat(reader.readString(), is("select 1"));
+        reader.check();
+        assertThat(pool.getLeaks().size(), is(1)); // the Sync is still buffered
+        assertThat(in.available(), is(5));
+        assertThat(reader.readCommand(), is('S'));
+        reader.check();
+        assertThat(pool.getLeaks().size(), is(0));
+        assertThat(in.read(), is(-1));
+    }
+}
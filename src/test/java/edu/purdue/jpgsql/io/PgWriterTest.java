@@ -2,6 +2,8 @@ package edu.purdue.jpgsql.io;
 
 import edu.purdue.jpgsql.io.PgWriter;
 import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import org.junit.Test;
 import static edu.purdue.jpgsql.testUtil.SimpleConversion.*;
 import static org.hamcrest.CoreMatchers.is;
@@ -47,6 +49,25 @@ public class PgWriterTest {
         assertThat(os.toByteArray(), is(getByteArray(0, 0, 0, 4)));
     }
 
+    @Test
+    public void addText_encodesLikeGetBytes() throws Exception {
+        StringBuilder longer = new StringBuilder();
+        for (int n = 0; n < 1000; n++) {
+            longer.append("aé€\uD83D\uDE00");
+        }
+        String[] values = {"", "ascii", "caffè", "\u20AC 10", "\uD83D\uDE00", "a\uD800b", "\uDC00", longer.toString()};
+        for (String value : values) {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            try (PgWriter w = new PgWriter(os, '\0')) {
+                w.addText(value);
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer expected = ByteBuffer.allocate(8 + bytes.length);
+            expected.putInt(8 + bytes.length).putInt(bytes.length).put(bytes);
+            assertThat(value, os.toByteArray(), is(expected.array()));
+        }
+    }
+
     @Test
     public void addInt8() throws Exception {
         ByteArrayOutputStream os = new ByteArrayOutputStream();
@@ -0,0 +1,460 @@
+package edu.purdue.jpgsql.load;
+
+import edu.purdue.jpgsql.ConnectionPool;
+import edu.purdue.jpgsql.DataProvider;
+import edu.purdue.jpgsql.SimpleConnection;
+import edu.purdue.jpgsql.metrics.LatencyHistogram;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Drives a {@link ConnectionPool} with many concurrent JDBC clients over the
+ * loopback interface, like pgbench. The server answers with a
+ * {@link SyntheticProvider}, so the measure is the cost of the library. Every
+ * client repeats transactions chosen randomly from a weighted mix of
+ * {@link Workload}s for the configured duration, after a warm-up which is
+ * not measured; the {@link LoadReport} gives the throughput, the latency
+ * percentiles of every workload and the CPU and heap used.
+ * <p>
+ * The clients run in the same JVM as the server. Run from the command line
+ * with
+ * <pre>
+ * mvn -P load test-compile exec:exec -Dload.args="--clients=16 --duration=30 --mix=simple:60,prepared:30,large:5,churn:5"
+ * </pre>
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public class LoadGenerator {
+
+    /**
+     * A kind of transaction executed by the clients.
+     */
+    public enum Workload {
+
+        /**
+         * A query returning one row, sent with the simple query protocol.
+         */
+        SIMPLE,
+        /**
+         * A PreparedStatement returning one row, executed with Bind and
+         * Execute once the driver has prepared it on the server.
+         */
+        PREPARED,
+        /**
+         * A query returning {@link LoadGenerator#setLargeRows(int) } rows.
+         */
+        LARGE,
+        /**
+         * A new connection running a simple query, which measures the
+         * start-up of the sessions.
+         */
+        CHURN
+    }
+
+    private static final String SIMPLE_QUERY = "select id, name from synthetic where id = ";
+    private static final String PREPARED_QUERY = "select id, name from synthetic where id = ?";
+    private static final String LARGE_QUERY = "select * from synthetic_large";
+
+    private int _clients = 8;
+    private long _duration = TimeUnit.SECONDS.toNanos(10);
+    private long _warmup = TimeUnit.SECONDS.toNanos(2);
+    private int _largeRows = 10_000;
+    private final Map<Workload, Integer> _mix = new EnumMap<>(Workload.class);
+
+    /**
+     * Creates a LoadGenerator running only {@link Workload#SIMPLE}.
+     */
+    public LoadGenerator() {
+        _mix.put(Workload.SIMPLE, 1);
+    }
+
+    /**
+     * Sets the number of concurrent clients, 8 by default.
+     *
+     * @param clients the number of clients.
+     */
+    public void setClients(int clients) {
+        if (clients <= 0) {
+            throw new IllegalArgumentException("clients must be positive");
+        }
+        _clients = clients;
+    }
+
+    /**
+     * Sets the duration of the measurement, 10 seconds by default.
+     *
+     * @param duration the duration.
+     * @param unit the unit of duration.
+     */
+    public void setDuration(long duration, TimeUnit unit) {
+        _duration = unit.toNanos(duration);
+    }
+
+    /**
+     * Sets how long the clients run before the measurement starts, 2 seconds
+     * by default.
+     *
+     * @param warmup the duration of the warm-up.
+     * @param unit the unit of warmup.
+     */
+    public void setWarmup(long warmup, TimeUnit unit) {
+        _warmup = unit.toNanos(warmup);
+    }
+
+    /**
+     * Sets the number of rows of {@link Workload#LARGE}, 10000 by default.
+     *
+     * @param rows the number of rows.
+     */
+    public void setLargeRows(int rows) {
+        _largeRows = rows;
+    }
+
+    /**
+     * Sets the mix of the transactions.
+     *
+     * @param mix the weight of every workload; the workloads not in the map
+     * are not executed.
+     */
+    public void setMix(Map<Workload, Integer> mix) {
+        int total = 0;
+        for (int weight : mix.values()) {
+            if (weight < 0) {
+                throw new IllegalArgumentException("negative weight");
+            }
+            total += weight;
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("empty mix");
+        }
+        _mix.clear();
+        _mix.putAll(mix);
+    }
+
+    /**
+     * Parses a mix in the form <code>simple:60,prepared:30,large:5,churn:5</code>.
+     *
+     * @param mix the mix.
+     * @return the weight of every workload.
+     */
+    public static Map<Workload, Integer> parseMix(String mix) {
+        Map<Workload, Integer> ret = new EnumMap<>(Workload.class);
+        for (String item : mix.split(",")) {
+            String[] parts = item.trim().split(":");
+            ret.put(Workload.valueOf(parts[0].trim().toUpperCase()), parts.length > 1 ? Integer.parseInt(parts[1].trim()) : 1);
+        }
+        return ret;
+    }
+
+    /**
+     * Starts a server, runs the clients and stops the server.
+     *
+     * @return the report.
+     * @throws IOException if the server cannot be started.
+     * @throws InterruptedException if the thread is interrupted while
+     * waiting for the clients.
+     */
+    public LoadReport run() throws IOException, InterruptedException {
+        Logger logger = Logger.getLogger("edu.purdue.jpgsql");
+        Level level = logger.getLevel();
+        logger.setLevel(Level.WARNING); // the pool logs every connection
+        DataProvider provider = new SyntheticProvider(_largeRows);
+        try (ServerSocket serverSocket = new ServerSocket(0, 1024, InetAddress.getByName("127.0.0.1"))) {
+            ConnectionPool pool = new ConnectionPool(serverSocket,
+                    (socket, pid, cancelCallback) -> new SimpleConnection(socket, provider, pid, cancelCallback));
+            Thread acceptor = new Thread(() -> {
+                try {
+                    for (;;) {
+                        pool.accept();
+                    }
+                } catch (IOException ex) {
+                    // the server socket has been closed
+                }
+            }, "load-acceptor");
+            acceptor.setDaemon(true);
+            acceptor.start();
+            return runClients("jdbc:postgresql://127.0.0.1:" + serverSocket.getLocalPort() + "/load");
+        } finally {
+            logger.setLevel(level);
+        }
+    }
+
+    private LoadReport runClients(String url) throws InterruptedException {
+        Map<Workload, LatencyHistogram> latency = new EnumMap<>(Workload.class);
+        Map<Workload, LongAdder> errors = new EnumMap<>(Workload.class);
+        List<Workload> workloads = new ArrayList<>();
+        List<Integer> weights = new ArrayList<>();
+        for (Map.Entry<Workload, Integer> entry : _mix.entrySet()) {
+            latency.put(entry.getKey(), new LatencyHistogram());
+            errors.put(entry.getKey(), new LongAdder());
+            if (entry.getValue() > 0) {
+                workloads.add(entry.getKey());
+                weights.add(entry.getValue());
+            }
+        }
+        LongAdder clientCpu = new LongAdder();
+        long start = System.nanoTime();
+        long measureStart = start + _warmup;
+        long end = measureStart + _duration;
+        List<Thread> threads = new ArrayList<>(_clients);
+        for (int n = 0; n < _clients; n++) {
+            Client client = new Client(url, workloads, weights, measureStart, end, latency, errors, clientCpu);
+            Thread thread = new Thread(client::run, "load-client-" + n);
+            threads.add(thread);
+            thread.start();
+        }
+
+        parkUntil(measureStart);
+        long cpuStart = processCpuTime();
+        long gcCountStart = gcCount();
+        long gcTimeStart = gcTime();
+        long maxHeap = 0;
+        for (long now = System.nanoTime(); now < end; now = System.nanoTime()) {
+            maxHeap = Math.max(maxHeap, ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+            parkUntil(Math.min(end, now + TimeUnit.MILLISECONDS.toNanos(100)));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - measureStart;
+        long cpuEnd = processCpuTime();
+        long serverCpu = cpuStart < 0 || cpuEnd < 0 ? -1 : Math.max(0, cpuEnd - cpuStart - clientCpu.sum());
+
+        Map<Workload, Long> errorCounts = new EnumMap<>(Workload.class);
+        for (Map.Entry<Workload, LongAdder> entry : errors.entrySet()) {
+            errorCounts.put(entry.getKey(), entry.getValue().sum());
+        }
+        return new LoadReport(_clients, elapsed, latency, errorCounts, serverCpu, maxHeap,
+                gcCount() - gcCountStart, gcTime() - gcTimeStart);
+    }
+
+    private static void parkUntil(long deadline) {
+        for (long now = System.nanoTime(); now < deadline; now = System.nanoTime()) {
+            LockSupport.parkNanos(deadline - now);
+        }
+    }
+
+    private static long processCpuTime() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        }
+        return -1;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcTime() {
+        long time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, gc.getCollectionTime());
+        }
+        return time;
+    }
+
+    /**
+     * Is a client repeating transactions until the end of the measurement.
+     */
+    private static final class Client {
+
+        private final String _url;
+        private final Properties _properties = new Properties();
+        private final List<Workload> _workloads;
+        private final int[] _cumulativeWeights;
+        private final long _measureStart;
+        private final long _end;
+        private final Map<Workload, LatencyHistogram> _latency;
+        private final Map<Workload, LongAdder> _errors;
+        private final LongAdder _cpu;
+        private Connection _conn;
+        private PreparedStatement _prepared;
+
+        Client(String url, List<Workload> workloads, List<Integer> weights, long measureStart, long end,
+                Map<Workload, LatencyHistogram> latency, Map<Workload, LongAdder> errors, LongAdder cpu) {
+            _url = url;
+            _properties.setProperty("user", "load");
+            _properties.setProperty("password", "load");
+            _properties.setProperty("binaryTransfer", "false");
+            _workloads = workloads;
+            _cumulativeWeights = new int[weights.size()];
+            int total = 0;
+            for (int n = 0; n < weights.size(); n++) {
+                total += weights.get(n);
+                _cumulativeWeights[n] = total;
+            }
+            _measureStart = measureStart;
+            _end = end;
+            _latency = latency;
+            _errors = errors;
+            _cpu = cpu;
+        }
+
+        void run() {
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long cpuStart = -1;
+            try {
+                for (long now = System.nanoTime(); now < _end; now = System.nanoTime()) {
+                    if (cpuStart < 0 && now >= _measureStart) {
+                        cpuStart = threads.getCurrentThreadCpuTime();
+                    }
+                    Workload workload = pick(random);
+                    try {
+                        execute(workload, random.nextInt(1_000_000));
+                        if (now >= _measureStart) {
+                            _latency.get(workload).record(System.nanoTime() - now);
+                        }
+                    } catch (SQLException ex) {
+                        if (now >= _measureStart) {
+                            _errors.get(workload).increment();
+                        }
+                        close();
+                    }
+                }
+            } finally {
+                close();
+                if (cpuStart >= 0) {
+                    _cpu.add(threads.getCurrentThreadCpuTime() - cpuStart);
+                }
+            }
+        }
+
+        private Workload pick(ThreadLocalRandom random) {
+            int value = random.nextInt(_cumulativeWeights[_cumulativeWeights.length - 1]);
+            for (int n = 0;; n++) {
+                if (value < _cumulativeWeights[n]) {
+                    return _workloads.get(n);
+                }
+            }
+        }
+
+        private void execute(Workload workload, int id) throws SQLException {
+            switch (workload) {
+                case SIMPLE:
+                    simple(connection(), id);
+                    break;
+                case PREPARED:
+                    connection();
+                    _prepared.setInt(1, id);
+                    try (ResultSet rs = _prepared.executeQuery()) {
+                        consume(rs);
+                    }
+                    break;
+                case LARGE:
+                    try (Statement stm = connection().createStatement();
+                            ResultSet rs = stm.executeQuery(LARGE_QUERY)) {
+                        consume(rs);
+                    }
+                    break;
+                case CHURN:
+                    try (Connection conn = DriverManager.getConnection(_url, _properties)) {
+                        simple(conn, id);
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException(workload.toString());
+            }
+        }
+
+        private static void simple(Connection conn, int id) throws SQLException {
+            try (Statement stm = conn.createStatement();
+                    ResultSet rs = stm.executeQuery(SIMPLE_QUERY + id)) {
+                consume(rs);
+            }
+        }
+
+        private static void consume(ResultSet rs) throws SQLException {
+            while (rs.next()) {
+                rs.getString(1);
+                rs.getString(2);
+            }
+        }
+
+        private Connection connection() throws SQLException {
+            if (_conn == null) {
+                _conn = DriverManager.getConnection(_url, _properties);
+                _prepared = _conn.prepareStatement(PREPARED_QUERY);
+            }
+            return _conn;
+        }
+
+        private void close() {
+            if (_conn != null) {
+                try {
+                    _conn.close();
+                } catch (SQLException ex) {
+                    // the connection is broken anyway
+                }
+                _conn = null;
+                _prepared = null;
+            }
+        }
+    }
+
+    /**
+     * Runs the load from the command line. The options are
+     * <code>--clients=n</code>, <code>--duration=seconds</code>,
+     * <code>--warmup=seconds</code>, <code>--rows=n</code> (of the large
+     * results) and <code>--mix=simple:60,prepared:30,large:5,churn:5</code>.
+     *
+     * @param args the options.
+     * @throws Exception if the load cannot be run.
+     */
+    public static void main(String[] args) throws Exception {
+        LoadGenerator generator = new LoadGenerator();
+        for (String arg : args) {
+            String[] option = arg.split("=", 2);
+            if (option.length != 2) {
+                throw new IllegalArgumentException("expected --option=value: " + arg);
+            }
+            switch (option[0]) {
+                case "--clients":
+                    generator.setClients(Integer.parseInt(option[1]));
+                    break;
+                case "--duration":
+                    generator.setDuration(Long.parseLong(option[1]), TimeUnit.SECONDS);
+                    break;
+                case "--warmup":
+                    generator.setWarmup(Long.parseLong(option[1]), TimeUnit.SECONDS);
+                    break;
+                case "--rows":
+                    generator.setLargeRows(Integer.parseInt(option[1]));
+                    break;
+                case "--mix":
+                    generator.setMix(parseMix(option[1]));
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option " + option[0]);
+            }
+        }
+        System.out.print(generator.run());
+    }
+}
@@ -0,0 +1,52 @@
+package edu.purdue.jpgsql.load;
+
+import edu.purdue.jpgsql.load.LoadGenerator.Workload;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public class LoadGeneratorTest {
+
+    @Test
+    public void parseMix() {
+        Map<Workload, Integer> mix = LoadGenerator.parseMix("simple:60, prepared:30,large,CHURN:5");
+
+        assertThat(mix.get(Workload.SIMPLE), is(60));
+        assertThat(mix.get(Workload.PREPARED), is(30));
+        assertThat(mix.get(Workload.LARGE), is(1));
+        assertThat(mix.get(Workload.CHURN), is(5));
+    }
+
+    /**
+     * Runs a short load over loopback, only with the load profile (i.e. when
+     * the system property jpgsql.load is true) since it takes more than a
+     * second.
+     */
+    @Test
+    public void run_allWorkloads() throws Exception {
+        assumeTrue(Boolean.getBoolean("jpgsql.load"));
+        LoadGenerator generator = new LoadGenerator();
+        generator.setClients(2);
+        generator.setWarmup(200, TimeUnit.MILLISECONDS);
+        generator.setDuration(1, TimeUnit.SECONDS);
+        generator.setLargeRows(100);
+        generator.setMix(LoadGenerator.parseMix("simple:1,prepared:1,large:1,churn:1"));
+
+        LoadReport report = generator.run();
+
+        assertThat(report.getErrors(), is(0L));
+        for (Workload workload : Workload.values()) {
+            assertThat(report.getLatency(workload).getCount(), greaterThan(0L));
+        }
+        assertThat(report.getTransactionsPerSecond(), greaterThan(0.0));
+        assertThat(report.getMaxHeapUsed(), greaterThan(0L));
+    }
+}
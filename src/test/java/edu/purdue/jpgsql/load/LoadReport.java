@@ -0,0 +1,164 @@
+package edu.purdue.jpgsql.load;
+
+import edu.purdue.jpgsql.load.LoadGenerator.Workload;
+import edu.purdue.jpgsql.metrics.LatencyHistogram;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Is the result of a run of the {@link LoadGenerator}: the transactions, the
+ * errors and the latency of every workload, and the resources used by the
+ * server during the measurement.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public final class LoadReport {
+
+    private final int _clients;
+    private final long _elapsed;
+    private final Map<Workload, LatencyHistogram> _latency;
+    private final Map<Workload, Long> _errors;
+    private final long _serverCpu;
+    private final long _maxHeapUsed;
+    private final long _gcCount;
+    private final long _gcTime;
+
+    LoadReport(int clients, long elapsed, Map<Workload, LatencyHistogram> latency, Map<Workload, Long> errors,
+            long serverCpu, long maxHeapUsed, long gcCount, long gcTime) {
+        _clients = clients;
+        _elapsed = elapsed;
+        _latency = new EnumMap<>(latency);
+        _errors = new EnumMap<>(errors);
+        _serverCpu = serverCpu;
+        _maxHeapUsed = maxHeapUsed;
+        _gcCount = gcCount;
+        _gcTime = gcTime;
+    }
+
+    /**
+     * Returns the duration of the measurement.
+     *
+     * @return the time in nanoseconds.
+     */
+    public long getElapsedNanos() {
+        return _elapsed;
+    }
+
+    /**
+     * Returns the number of transactions completed.
+     *
+     * @return the count.
+     */
+    public long getTransactions() {
+        long count = 0;
+        for (LatencyHistogram histogram : _latency.values()) {
+            count += histogram.getCount();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of transactions failed.
+     *
+     * @return the count.
+     */
+    public long getErrors() {
+        long count = 0;
+        for (long errors : _errors.values()) {
+            count += errors;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the throughput.
+     *
+     * @return the transactions completed per second.
+     */
+    public double getTransactionsPerSecond() {
+        return _elapsed == 0 ? 0 : getTransactions() * 1e9 / _elapsed;
+    }
+
+    /**
+     * Returns the latency of a workload.
+     *
+     * @param workload the workload.
+     * @return the histogram, empty if the workload is not in the mix.
+     */
+    public LatencyHistogram getLatency(Workload workload) {
+        return _latency.get(workload);
+    }
+
+    /**
+     * Returns the number of transactions of a workload failed.
+     *
+     * @param workload the workload.
+     * @return the count.
+     */
+    public long getErrors(Workload workload) {
+        return _errors.get(workload);
+    }
+
+    /**
+     * Returns the CPU time used by the server: the time of the process minus
+     * the time of the client threads, so it includes the JIT and the GC.
+     *
+     * @return the time in nanoseconds, -1 if the JVM does not measure the
+     * CPU time.
+     */
+    public long getServerCpuNanos() {
+        return _serverCpu;
+    }
+
+    /**
+     * Returns the largest heap used during the measurement. The clients run
+     * in the same JVM, so their memory is included.
+     *
+     * @return the number of bytes.
+     */
+    public long getMaxHeapUsed() {
+        return _maxHeapUsed;
+    }
+
+    /**
+     * Returns the number of garbage collections during the measurement.
+     *
+     * @return the count.
+     */
+    public long getGcCount() {
+        return _gcCount;
+    }
+
+    /**
+     * Returns the time spent in garbage collection during the measurement.
+     *
+     * @return the time in milliseconds.
+     */
+    public long getGcTime() {
+        return _gcTime;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder();
+        out.append(String.format("clients: %d, duration: %.1fs%n", _clients, _elapsed / 1e9));
+        out.append(String.format("transactions: %d, errors: %d, tps: %.1f%n",
+                getTransactions(), getErrors(), getTransactionsPerSecond()));
+        out.append(String.format("%-10s %10s %8s %10s %10s %10s %10s%n",
+                "workload", "count", "errors", "p50(ms)", "p99(ms)", "p999(ms)", "max(ms)"));
+        for (Map.Entry<Workload, LatencyHistogram> entry : _latency.entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            out.append(String.format("%-10s %10d %8d %10.3f %10.3f %10.3f %10.3f%n",
+                    entry.getKey().toString().toLowerCase(), histogram.getCount(), _errors.get(entry.getKey()),
+                    histogram.getValueAtPercentile(50) / 1e6, histogram.getValueAtPercentile(99) / 1e6,
+                    histogram.getValueAtPercentile(99.9) / 1e6, histogram.getMax() / 1e6));
+        }
+        if (_serverCpu >= 0) {
+            out.append(String.format("server cpu: %.2fs (%.2f cores)%n", _serverCpu / 1e9,
+                    _elapsed == 0 ? 0 : (double) _serverCpu / _elapsed));
+        }
+        out.append(String.format("max heap used: %.1fMB, gc: %d collections, %dms%n",
+                _maxHeapUsed / 1048576.0, _gcCount, _gcTime));
+        return out.toString();
+    }
+}
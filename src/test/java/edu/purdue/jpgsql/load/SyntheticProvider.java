@@ -0,0 +1,95 @@
+package edu.purdue.jpgsql.load;
+
+import edu.purdue.jpgsql.DataProvider;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Answers the queries of the {@link LoadGenerator} without any storage: a
+ * query on the table synthetic_large returns the configured number of rows,
+ * any other query returns a single row. The rows are generated while they
+ * are streamed, so large results do not use memory.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public class SyntheticProvider implements DataProvider {
+
+    private static final List<String> HEADER = Collections.unmodifiableList(Arrays.asList("id", "name", "amount", "created"));
+
+    private final int _largeRows;
+
+    /**
+     * Creates a SyntheticProvider.
+     *
+     * @param largeRows the number of rows of the large results.
+     */
+    public SyntheticProvider(int largeRows) {
+        _largeRows = largeRows;
+    }
+
+    @Override
+    public boolean setUser(String user) {
+        return true;
+    }
+
+    @Override
+    public boolean setDatabase(String database) {
+        return true;
+    }
+
+    @Override
+    public boolean setPassword(String password) {
+        return true;
+    }
+
+    @Override
+    public QueryResult getResult(String query) {
+        int rows = query.contains("synthetic_large") ? _largeRows : 1;
+        return new QueryResult() {
+            @Override
+            public Type getType() {
+                return Type.SELECT;
+            }
+
+            @Override
+            public int getRowCount() {
+                return rows;
+            }
+
+            @Override
+            public String getErrorMessage() {
+                return null;
+            }
+
+            @Override
+            public Iterator<List<String>> getRows() {
+                return new Iterator<List<String>>() {
+                    private int _next;
+
+                    @Override
+                    public boolean hasNext() {
+                        return _next < rows;
+                    }
+
+                    @Override
+                    public List<String> next() {
+                        if (_next >= rows) {
+                            throw new NoSuchElementException();
+                        }
+                        int id = _next++;
+                        return Arrays.asList(Integer.toString(id), "name " + id, Integer.toString(id * 100) + ".25",
+                                "2016-01-01 00:00:00");
+                    }
+                };
+            }
+
+            @Override
+            public List<String> getHeader() {
+                return HEADER;
+            }
+        };
+    }
+}
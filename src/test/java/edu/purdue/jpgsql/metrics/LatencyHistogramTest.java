@@ -0,0 +1,49 @@
+package edu.purdue.jpgsql.metrics;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+import org.junit.Test;
+
+/**
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void buckets_boundedRelativeError() {
+        for (long value : new long[]{0, 1, 31, 32, 33, 63, 64, 1000, 123456789, LatencyHistogram.MAX_VALUE}) {
+            int index = LatencyHistogram.indexOf(value);
+            long low = LatencyHistogram.lowestValueOf(index);
+            long high = LatencyHistogram.lowestValueOf(index + 1) - 1;
+            assertThat(value, is(greaterThanOrEqualTo(low)));
+            assertThat(value, is(lessThanOrEqualTo(high)));
+            assertThat((double) (high - low), is(lessThanOrEqualTo(value / (double) LatencyHistogram.SUB_BUCKETS)));
+        }
+    }
+
+    @Test
+    public void percentiles() {
+        LatencyHistogram h = new LatencyHistogram();
+        assertThat(h.getValueAtPercentile(50), is(0L));
+        for (long n = 1; n <= 10000; n++) {
+            h.record(n * 1000);
+        }
+        h.record(-5); // a clock going backwards counts as zero
+        assertThat(h.getCount(), is(10001L));
+        assertThat(h.getMax(), is(10_000_000L));
+        assertThat(h.getValueAtPercentile(100), is(10_000_000L));
+        long median = h.getValueAtPercentile(50);
+        assertThat(median, is(greaterThanOrEqualTo(5_000_000L)));
+        assertThat(median, is(lessThanOrEqualTo(5_000_000L + 5_000_000L / LatencyHistogram.SUB_BUCKETS)));
+        long p99 = h.getValueAtPercentile(99);
+        assertThat(p99, is(greaterThanOrEqualTo(9_900_000L)));
+        assertThat(p99, is(lessThanOrEqualTo(9_900_000L + 9_900_000L / LatencyHistogram.SUB_BUCKETS)));
+
+        h.reset();
+        assertThat(h.getCount(), is(0L));
+        assertThat(h.getMax(), is(0L));
+    }
+}
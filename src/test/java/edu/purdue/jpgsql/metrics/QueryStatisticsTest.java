@@ -0,0 +1,69 @@
+package edu.purdue.jpgsql.metrics;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import org.junit.Test;
+
+/**
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public class QueryStatisticsTest {
+
+    @Test
+    public void record_aggregatesByFingerprint() {
+        QueryStatistics stats = new QueryStatistics(10);
+        stats.record("select * from t where id = '1'", 1000, 1, 100);
+        stats.record("select * from t where id = '2'", 3000, 2, 200);
+        stats.record("insert into t values (1)", 10000, 0, 15);
+
+        List<QueryStatistics.Entry> top = stats.getTop(10);
+        assertThat(top.size(), is(2));
+        assertThat(top.get(0).getQuery(), is("insert into t values ($1)"));
+        QueryStatistics.Entry select = top.get(1);
+        assertThat(select.getQuery(), is("select * from t where id = $1"));
+        assertThat(select.getCalls(), is(2L));
+        assertThat(select.getTotalTime(), is(4000L));
+        assertThat(select.getMinTime(), is(1000L));
+        assertThat(select.getMaxTime(), is(3000L));
+        assertThat(select.getMeanTime(), is(2000.0));
+        assertThat(select.getRows(), is(3L));
+        assertThat(select.getBytes(), is(300L));
+        assertThat(stats.getTop(1).size(), is(1));
+
+        stats.reset();
+        assertThat(stats.getEntries().isEmpty(), is(true));
+    }
+
+    @Test
+    public void record_deallocatesLeastCalled() {
+        QueryStatistics stats = new QueryStatistics(3);
+        for (int n = 0; n < 5; n++) {
+            stats.record("select a from t", 1, 0, 0);
+            stats.record("select b from t", 1, 0, 0);
+            stats.record("select c from t", 1, 0, 0);
+        }
+        stats.record("select b from t", 1, 0, 0);
+        stats.record("select c from t", 1, 0, 0);
+        stats.record("select d from t", 1, 0, 0);
+
+        assertThat(stats.getDeallocations(), is(1L));
+        Map<String, Long> calls = new HashMap<>();
+        for (QueryStatistics.Entry entry : stats.getEntries()) {
+            calls.put(entry.getQuery(), entry.getCalls());
+        }
+        // the least called old query is discarded, the new one keeps its first call
+        Map<String, Long> expected = new HashMap<>();
+        expected.put("select b from t", 6L);
+        expected.put("select c from t", 6L);
+        expected.put("select d from t", 1L);
+        assertThat(calls, is(expected));
+
+        stats.record("select e from t", 1, 0, 0);
+        assertThat(stats.getDeallocations(), is(2L));
+        assertThat(stats.getEntries().stream().anyMatch(e -> e.getQuery().equals("select e from t")), is(true));
+    }
+}
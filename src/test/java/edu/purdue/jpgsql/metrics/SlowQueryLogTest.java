@@ -0,0 +1,66 @@
+package edu.purdue.jpgsql.metrics;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.assertThat;
+import org.junit.Test;
+
+/**
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public class SlowQueryLogTest {
+
+    @Test
+    public void log_onlySlowQueries() throws InterruptedException {
+        BlockingQueue<String> lines = new ArrayBlockingQueue<>(10);
+        SlowQueryLog log = new SlowQueryLog(10, TimeUnit.MILLISECONDS, 0, lines::add, 10);
+
+        assertThat(log.log(1, "fred", "test", "select 1", 9_999_999, 0, 0, 0, 1, 10), is(false));
+        assertThat(log.log(1, "fred", "test", "select \"a\"\n", 12_000_000, 8_000_000, 2_000_000, 1_000_000, 3, 120), is(true));
+
+        String line = lines.poll(5, TimeUnit.SECONDS);
+        assertThat(line, containsString("\"pid\":1,\"user\":\"fred\",\"database\":\"test\""));
+        assertThat(line, containsString("\"duration_us\":12000,\"provider_us\":8000,\"first_row_us\":2000,\"stream_us\":11000,\"write_us\":1000"));
+        assertThat(line, containsString("\"rows\":3,\"bytes\":120,\"sampled\":false"));
+        assertThat(line, containsString("\"query\":\"select \\\"a\\\"\\n\"}"));
+    }
+
+    @Test
+    public void log_sampledQueries() throws InterruptedException {
+        BlockingQueue<String> lines = new ArrayBlockingQueue<>(10);
+        SlowQueryLog log = new SlowQueryLog(1, TimeUnit.SECONDS, 1, lines::add, 10);
+
+        assertThat(log.log(1, "fred", null, "select 1", 1000, 0, 0, 0, 1, 10), is(true));
+        String line = lines.poll(5, TimeUnit.SECONDS);
+        assertThat(line, containsString("\"database\":null"));
+        assertThat(line, containsString("\"sampled\":true"));
+        assertThat(line, not(containsString("first_row_us")));
+    }
+
+    @Test
+    public void log_dropsWhenFull() throws InterruptedException {
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        SlowQueryLog log = new SlowQueryLog(0, TimeUnit.MILLISECONDS, 0, line -> {
+            blocked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+            }
+        }, 2);
+
+        assertThat(log.log(1, "fred", "test", "q", 1, 0, 0, 0, 0, 0), is(true));
+        blocked.await(); // the first entry is in the sink
+        assertThat(log.log(1, "fred", "test", "q", 1, 0, 0, 0, 0, 0), is(true));
+        assertThat(log.log(1, "fred", "test", "q", 1, 0, 0, 0, 0, 0), is(true));
+        assertThat(log.log(1, "fred", "test", "q", 1, 0, 0, 0, 0, 0), is(false));
+        assertThat(log.getDropped(), is(1L));
+        release.countDown();
+    }
+}
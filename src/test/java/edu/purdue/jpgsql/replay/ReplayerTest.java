@@ -0,0 +1,178 @@
+package edu.purdue.jpgsql.replay;
+
+import edu.purdue.jpgsql.DataProvider;
+import edu.purdue.jpgsql.SimpleConnection;
+import edu.purdue.jpgsql.io.PgWriter;
+import edu.purdue.jpgsql.testUtil.StrictMock;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+import org.junit.Before;
+import org.junit.Test;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public class ReplayerTest {
+
+    private static final String QUERY = "update t set a = 1";
+
+    private DataProvider _provider;
+
+    @Before
+    public void init() {
+        _provider = mock(DataProvider.class, new StrictMock());
+        DataProvider.QueryResult result = mock(DataProvider.QueryResult.class, new StrictMock());
+        when(_provider.setUser("fred")).thenReturn(true);
+        when(_provider.setDatabase("test")).thenReturn(true);
+        when(_provider.getResult(QUERY)).thenReturn(result);
+        when(result.getType()).thenReturn(DataProvider.QueryResult.Type.UPDATE);
+        when(result.getRowCount()).thenReturn(3);
+    }
+
+    private static byte[] startup() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (PgWriter w = new PgWriter(out, '\0')) {
+            w.addInt32(196608);
+            w.addString("user");
+            w.addString("fred");
+            w.addString("database");
+            w.addString("test");
+            w.addInt8((byte) 0);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] query(String sql) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (PgWriter w = new PgWriter(out, 'Q')) {
+            w.addString(sql);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] terminate() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new PgWriter(out, 'X').close();
+        return out.toByteArray();
+    }
+
+    /**
+     * Captures the chunks, waiting between them.
+     */
+    private static Capture capture(long pauseMillis, byte[]... chunks) throws IOException {
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        try (CaptureWriter writer = new CaptureWriter(file)) {
+            for (byte[] chunk : chunks) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(pauseMillis));
+                writer.received(chunk, 0, chunk.length);
+            }
+        }
+        return Capture.read(new ByteArrayInputStream(file.toByteArray()));
+    }
+
+    @Test
+    public void capture_roundTrip() throws IOException {
+        ByteArrayOutputStream session = new ByteArrayOutputStream();
+        session.write(startup());
+        session.write(query(QUERY));
+        session.write(terminate());
+        byte[] data = session.toByteArray();
+
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        try (CaptureWriter writer = new CaptureWriter(file);
+                InputStream in = new CaptureInputStream(new ByteArrayInputStream(data), writer)) {
+            byte[] buffer = new byte[7];
+            assertThat(in.read(), is(0));
+            while (in.read(buffer) > 0) {
+            }
+        }
+        Capture capture = Capture.read(new ByteArrayInputStream(file.toByteArray()));
+
+        assertThat(capture.getBytes(), is((long) data.length));
+        assertThat(capture.getMessageCount(), is(3));
+        ByteArrayOutputStream replayed = new ByteArrayOutputStream();
+        for (int n = 0; n < capture.getChunkCount(); n++) {
+            replayed.write(capture.getChunk(n));
+        }
+        assertThat(Arrays.equals(replayed.toByteArray(), data), is(true));
+    }
+
+    @Test
+    public void capture_redactsPassword() throws IOException {
+        ByteArrayOutputStream session = new ByteArrayOutputStream();
+        session.write(startup());
+        try (PgWriter w = new PgWriter(session, 'p')) {
+            w.addString("s3cret-password");
+        }
+        session.write(query(QUERY));
+        session.write(terminate());
+        byte[] data = session.toByteArray();
+
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        try (CaptureWriter writer = new CaptureWriter(file);
+                InputStream in = new CaptureInputStream(new ByteArrayInputStream(data), writer)) {
+            byte[] buffer = new byte[5];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                assertThat(new String(buffer, 0, read, StandardCharsets.US_ASCII).contains("*"), is(false));
+            }
+        }
+        String captured = new String(file.toByteArray(), StandardCharsets.US_ASCII);
+        assertThat(captured.contains("s3cret"), is(false));
+        assertThat(captured.contains("***************\0"), is(true));
+        assertThat(captured.contains(QUERY), is(true));
+
+        Capture capture = Capture.read(new ByteArrayInputStream(file.toByteArray()));
+        assertThat(capture.getBytes(), is((long) data.length));
+        assertThat(capture.getMessageCount(), is(4));
+    }
+
+    @Test(expected = IOException.class)
+    public void capture_rejectsOtherFiles() throws IOException {
+        Capture.read(new ByteArrayInputStream("not a capture".getBytes()));
+    }
+
+    @Test
+    public void replay_maxSpeed() throws IOException, InterruptedException {
+        Capture capture = capture(1, startup(), query(QUERY), query(QUERY), terminate());
+        assertThat(capture.getChunkCount(), is(4));
+
+        Replayer replayer = new Replayer((socket, pid) -> new SimpleConnection(socket, _provider));
+        ReplayReport report = replayer.replay(Arrays.asList(capture, capture));
+
+        assertThat(report.getSessions(), is(2));
+        assertThat(report.getFailures(), is(0));
+        assertThat(report.getMessages(), is(8L));
+        assertThat(report.getBytesReceived(), is(2 * capture.getBytes()));
+        assertThat(report.getBytesSent(), greaterThan(0L));
+        assertThat(report.getRoundTrips(), is(8L));
+        assertThat(report.getLatency().getCount(), is(8L));
+        verify(_provider, times(4)).getResult(QUERY);
+    }
+
+    @Test
+    public void replay_originalSpeed() throws IOException, InterruptedException {
+        Capture capture = capture(50, startup(), query(QUERY), terminate());
+
+        Replayer replayer = new Replayer((socket, pid) -> new SimpleConnection(socket, _provider));
+        replayer.setOriginalSpeed(true);
+        ReplayReport report = replayer.replay(Arrays.asList(capture));
+
+        assertThat(report.getFailures(), is(0));
+        assertThat(report.getElapsedNanos(), greaterThanOrEqualTo(capture.getDuration()));
+        assertThat(capture.getDuration(), greaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(100)));
+        verify(_provider).getResult(QUERY);
+    }
+}
@@ -1,5 +1,6 @@
 package edu.purdue.jpgsql.testUtil;
 
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
@@ -19,7 +20,7 @@ public class ClientRunner extends BaseRunner {
     @FunctionalInterface
     public interface SqlCommands {
 
-        void accept(Connection t) throws SQLException;
+        void accept(Connection t) throws SQLException, IOException;
     }
 
     @Override
@@ -66,7 +66,7 @@ public class DummyConnection extends BaseConnection {
     }
 
     @Override
-    protected void CopyDataClientMsg(List<Byte> data) throws PgProtocolException, IOException {
+    protected void CopyDataClientMsg(byte[] data) throws PgProtocolException, IOException {
         fail("CopyDataClientMsg should not be called");
     }
 
@@ -0,0 +1,110 @@
+package edu.purdue.jpgsql.testUtil;
+
+import edu.purdue.jpgsql.io.PgWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A minimal client which speaks the protocol at message level. Useful to test
+ * messages not used by the JDBC driver.
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public class RawClient implements Closeable {
+
+    public static class Message {
+
+        public final char type;
+        public final byte[] payload;
+
+        public Message(char type, byte[] payload) {
+            this.type = type;
+            this.payload = payload;
+        }
+
+        public String payloadString() {
+            return new String(payload, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String toString() {
+            return type + ":" + payloadString();
+        }
+    }
+
+    private final Socket _socket;
+    private final DataInputStream _in;
+    private final OutputStream _out;
+
+    public RawClient(int port) throws IOException {
+        _socket = new Socket("localhost", port);
+        _in = new DataInputStream(_socket.getInputStream());
+        _out = _socket.getOutputStream();
+    }
+
+    public List<Message> startup(String user, String database) throws IOException {
+        try (PgWriter w = new PgWriter(_out, '\0')) {
+            w.addInt32(196608);
+            w.addString("user");
+            w.addString(user);
+            w.addString("database");
+            w.addString(database);
+            w.addInt8((byte) 0);
+        }
+        return readUntilReady();
+    }
+
+    public void query(String sql) throws IOException {
+        try (PgWriter w = new PgWriter(_out, 'Q')) {
+            w.addString(sql);
+        }
+    }
+
+    public void send(char type, byte[] payload) throws IOException {
+        try (PgWriter w = new PgWriter(_out, type)) {
+            for (byte b : payload) {
+                w.addInt8(b);
+            }
+        }
+    }
+
+    public Message read() throws IOException {
+        char type = (char) _in.readUnsignedByte();
+        byte[] payload = new byte[_in.readInt() - 4];
+        _in.readFully(payload);
+        return new Message(type, payload);
+    }
+
+    public List<Message> readUntilReady() throws IOException {
+        List<Message> ret = new ArrayList<>();
+        Message m;
+        do {
+            m = read();
+            ret.add(m);
+        } while (m.type != 'Z');
+        return ret;
+    }
+
+    public static String types(List<Message> messages) {
+        StringBuilder sb = new StringBuilder();
+        for (Message m : messages) {
+            sb.append(m.type);
+        }
+        return sb.toString();
+    }
+
+    public void terminate() throws IOException {
+        send('X', new byte[0]);
+    }
+
+    @Override
+    public void close() throws IOException {
+        _socket.close();
+    }
+}
@@ -0,0 +1,35 @@
+package edu.purdue.jpgsql.testUtil;
+
+/**
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public class RawClientRunner extends BaseRunner {
+
+    @FunctionalInterface
+    public interface RawCommands {
+
+        void accept(RawClient client) throws Exception;
+    }
+
+    private final String _user;
+    private final String _db;
+    private final int _port;
+    private final RawCommands _func;
+
+    public RawClientRunner(String user, String db, int port, RawCommands func) {
+        _user = user;
+        _db = db;
+        _port = port;
+        _func = func;
+    }
+
+    @Override
+    protected void testCode() throws Throwable {
+        try (RawClient client = new RawClient(_port)) {
+            client.startup(_user, _db);
+            _func.accept(client);
+            client.terminate();
+        }
+    }
+}
@@ -4,6 +4,7 @@ import edu.purdue.jpgsql.DataProvider;
 import edu.purdue.jpgsql.SimpleConnection;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.function.Consumer;
 
 /**
  *
@@ -13,16 +14,24 @@ public class SimpleConnectionRunner extends BaseRunner {
 
     private final DataProvider _provider;
     private final ServerSocket _listener;
+    private final Consumer<SimpleConnection> _setup;
 
     public SimpleConnectionRunner(ServerSocket listener, DataProvider provider) {
+        this(listener, provider, (SimpleConnection conn) -> {
+        });
+    }
+
+    public SimpleConnectionRunner(ServerSocket listener, DataProvider provider, Consumer<SimpleConnection> setup) {
         _provider = provider;
         _listener = listener;
+        _setup = setup;
     }
 
     @Override
     protected void testCode() throws Throwable {
         try (Socket socket = _listener.accept()) {
             SimpleConnection conn = new SimpleConnection(socket, _provider);
+            _setup.accept(conn);
             conn.run();
         }
     }
@@ -1,5 +1,8 @@
 package edu.purdue.jpgsql.testUtil;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
 import java.util.Arrays;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
@@ -16,14 +19,42 @@ public class StrictMock implements Answer {
         verify = false;
     }
 
+    /**
+     * Not mocked default methods behave as implemented in the interface, so
+     * that adding optional hooks does not break the existing tests.
+     */
     @Override
     public Object answer(InvocationOnMock invocation) throws Throwable {
+        Method method = invocation.getMethod();
+        if (method.isDefault()) {
+            Class<?> iface = method.getDeclaringClass();
+            return lookupIn(iface)
+                    .unreflectSpecial(method, iface)
+                    .bindTo(invocation.getMock())
+                    .invokeWithArguments(invocation.getArguments());
+        }
         if (verify) {
             throw new IllegalArgumentException(String.format("%s(%s) not mocked", invocation.getMethod().getName(), Arrays.toString(invocation.getArguments())));
         }
         return null;
     }
 
+    /**
+     * Returns a lookup with private access to the interface, which is needed
+     * to invoke its default methods: MethodHandles.privateLookupIn from Java
+     * 9 on, the private constructor of Lookup on Java 8.
+     */
+    private static MethodHandles.Lookup lookupIn(Class<?> iface) throws ReflectiveOperationException {
+        try {
+            Method privateLookupIn = MethodHandles.class.getMethod("privateLookupIn", Class.class, MethodHandles.Lookup.class);
+            return (MethodHandles.Lookup) privateLookupIn.invoke(null, iface, MethodHandles.lookup());
+        } catch (NoSuchMethodException ex) {
+            Constructor<MethodHandles.Lookup> lookup = MethodHandles.Lookup.class.getDeclaredConstructor(Class.class, int.class);
+            lookup.setAccessible(true);
+            return lookup.newInstance(iface, MethodHandles.Lookup.PRIVATE);
+        }
+    }
+
     public void turnOn() {
         verify = true;
     }
@@ -0,0 +1,70 @@
+package edu.purdue.jpgsql.type;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import org.junit.Test;
+
+/**
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public class BinaryCodecTest {
+
+    @Test
+    public void integers() {
+        assertThat(BinaryCodec.forType(BinaryCodec.INT4).encode("258"), is(new byte[]{0, 0, 1, 2}));
+        assertThat(BinaryCodec.forType(BinaryCodec.INT2).encode("-1"), is(new byte[]{-1, -1}));
+        assertThat(roundTrip(BinaryCodec.INT8, "-9223372036854775808"), is("-9223372036854775808"));
+        assertThat(roundTrip(BinaryCodec.OID, "4294967295"), is("4294967295"));
+        assertThat(roundTrip(BinaryCodec.BOOL, "true"), is("t"));
+    }
+
+    @Test
+    public void numeric() {
+        assertThat(BinaryCodec.forType(BinaryCodec.NUMERIC).encode("12345.678"),
+                is(new byte[]{0, 3, 0, 1, 0, 0, 0, 3, 0, 1, 0x09, 0x29, 0x1A, (byte) 0x7C}));
+        for (String val : new String[]{"0", "0.00", "1", "-1", "10000", "0.5", "0.0001", "0.00001", "123456789.0001000",
+            "-98765432109876543210.123456789", "1E+5", "NaN"}) {
+            String expected = val.equals("1E+5") ? "100000" : val;
+            assertThat(roundTrip(BinaryCodec.NUMERIC, val), is(expected));
+        }
+    }
+
+    @Test
+    public void dateTime() {
+        assertThat(BinaryCodec.forType(BinaryCodec.DATE).encode("2000-01-02"), is(new byte[]{0, 0, 0, 1}));
+        assertThat(roundTrip(BinaryCodec.DATE, "1999-12-31"), is("1999-12-31"));
+        assertThat(roundTrip(BinaryCodec.DATE, "infinity"), is("infinity"));
+        assertThat(roundTrip(BinaryCodec.TIMESTAMP, "2016-02-29 13:45:01.25"), is("2016-02-29 13:45:01.25"));
+        assertThat(roundTrip(BinaryCodec.TIMESTAMP, "1969-07-20T20:17:40"), is("1969-07-20 20:17:40"));
+        assertThat(roundTrip(BinaryCodec.TIMESTAMPTZ, "2016-02-29 13:45:01+02"), is("2016-02-29 11:45:01+00"));
+        assertThat(roundTrip(BinaryCodec.TIMESTAMPTZ, "2016-02-29 13:45:01"), is("2016-02-29 13:45:01+00"));
+        assertThat(roundTrip(BinaryCodec.TIME, "23:59:59.999999"), is("23:59:59.999999"));
+    }
+
+    @Test
+    public void others() {
+        assertThat(roundTrip(BinaryCodec.FLOAT8, "1.5"), is("1.5"));
+        assertThat(roundTrip(BinaryCodec.FLOAT4, "NaN"), is("NaN"));
+        assertThat(roundTrip(BinaryCodec.UUID_OID, "123e4567-e89b-12d3-a456-426655440000"), is("123e4567-e89b-12d3-a456-426655440000"));
+        assertThat(roundTrip(BinaryCodec.BYTEA, "\\x00ff10"), is("\\x00ff10"));
+        assertThat(roundTrip(1043, "è text"), is("è text"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void encode_invalid() {
+        BinaryCodec.forType(BinaryCodec.INT4).encode("abc");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decode_wrongSize() {
+        BinaryCodec.forType(BinaryCodec.INT8).decode(new byte[4], 0, 4);
+    }
+
+    private String roundTrip(int type, String val) {
+        byte[] data = BinaryCodec.forType(type).encode(val);
+        byte[] padded = new byte[data.length + 3];
+        System.arraycopy(data, 0, padded, 2, data.length);
+        return BinaryCodec.forType(type).decode(padded, 2, data.length);
+    }
+}
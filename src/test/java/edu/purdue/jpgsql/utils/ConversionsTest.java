@@ -113,6 +113,39 @@ public class ConversionsTest {
         }
     }
 
+    @Test
+    public void countPlaceholders() throws PgProtocolException {
+        assertThat(Conversions.countPlaceholders("select 1"), is(0));
+        assertThat(Conversions.countPlaceholders("select ($1, $2=$1)"), is(2));
+        assertThat(Conversions.countPlaceholders("select $12, $3"), is(12));
+        assertThat(Conversions.countPlaceholders("select 'a $tring'' $4' $1, $"), is(1));
+        assertThat(Conversions.countPlaceholders("select $1 -- $9\n, $2 /* $8 /* $7 */ */"), is(2));
+        assertThat(Conversions.countPlaceholders("select $$ $9 $$, $tag$ $8 $tag$, \"$7\", $1"), is(1));
+        assertThat(Conversions.countPlaceholders("select E'\\' $9', a$8, $2"), is(2));
+        assertThat(Conversions.countPlaceholders("select $65535"), is(65535));
+    }
+
+    @Test
+    public void countPlaceholders_rejectsTooLargeNumbers() {
+        for (String sql : new String[]{"select $65536", "select $2000000000", "select $99999999999999999999"}) {
+            try {
+                Conversions.countPlaceholders(sql);
+                fail("missing exception for " + sql);
+            } catch (PgProtocolException ex) {
+                assertThat(ex.getSQLState(), is("42P02"));
+            }
+        }
+    }
+
+    @Test
+    public void getCommand() {
+        assertThat(Conversions.getCommand("select 1"), is("SELECT"));
+        assertThat(Conversions.getCommand("  \n begin;"), is("BEGIN"));
+        assertThat(Conversions.getCommand("-- comment\n/* block */ Commit"), is("COMMIT"));
+        assertThat(Conversions.getCommand(" ; "), is(""));
+        assertThat(Conversions.getCommand("/* not closed"), is(""));
+    }
+
     public List<String> stringList(String... vals) {
         return Arrays.asList(vals);
     }
@@ -0,0 +1,40 @@
+package edu.purdue.jpgsql.utils;
+
+import edu.purdue.jpgsql.PgProtocolException;
+import java.util.Arrays;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.assertThat;
+import org.junit.Test;
+
+/**
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public class QueryFingerprintTest {
+
+    @Test
+    public void normalize_constants() {
+        assertThat(QueryFingerprint.normalize("select a from t where b = 1 and c = 'x''y'"), is("select a from t where b = $1 and c = $2"));
+        assertThat(QueryFingerprint.normalize("select 1.5e-3, .5, E'a\\'b', X'ff', $tag$ ; $tag$, $1"), is("select $1, $2, $3, $4, $5, $6"));
+        assertThat(QueryFingerprint.normalize("select t1.a2, \"Col 1\" from t1"), is("select t1.a2, \"Col 1\" from t1"));
+        assertThat(QueryFingerprint.normalize("select '2020-01-01'::date"), is("select $1::date"));
+    }
+
+    @Test
+    public void normalize_spacesAndComments() {
+        assertThat(QueryFingerprint.normalize("  select\n\ta -- comment\nfrom /* a /* nested */ one */ t ;; "), is("select a from t"));
+    }
+
+    @Test
+    public void fingerprint_ignoresConstantsCaseAndSpaces() throws PgProtocolException {
+        long id = QueryFingerprint.of("select a from t where b = $1");
+        assertThat(QueryFingerprint.of(Conversions.bind("select a from t where b = $1", Arrays.asList("'42'"))), is(id));
+        assertThat(QueryFingerprint.of("SELECT a FROM t WHERE b=7;"), is(id));
+        assertThat(QueryFingerprint.of("select a from t where b = 'x' -- comment"), is(id));
+
+        assertThat(QueryFingerprint.of("select a from t where c = 1"), is(not(id)));
+        assertThat(QueryFingerprint.of("select a from t where \"B\" = 1"), is(not(QueryFingerprint.of("select a from t where \"b\" = 1"))));
+        assertThat(QueryFingerprint.of("select ab"), is(not(QueryFingerprint.of("select a b"))));
+    }
+}
@@ -0,0 +1,89 @@
+package edu.purdue.jpgsql.utils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import org.junit.Test;
+
+/**
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public class ResponseCacheTest {
+
+    @Test
+    public void normalize() {
+        assertThat(ResponseCache.normalize("  select *\n\tfrom  tbl ;; "), is("select * from tbl"));
+        assertThat(ResponseCache.normalize("select 'a  b' ,  \"c  d\""), is("select 'a  b' , \"c  d\""));
+        assertThat(ResponseCache.normalize("select 'it''s  ;'"), is("select 'it''s  ;'"));
+        assertThat(ResponseCache.normalize("select  $$a  b$$ ;"), is("select $$a  b$$"));
+        assertThat(ResponseCache.normalize("select  1 /* a  b */  ;"), is("select 1 /* a  b */"));
+        assertThat(ResponseCache.normalize("select 1 -- a  b\n  from t"), is("select 1 -- a  b\n from t"));
+        assertThat(ResponseCache.normalize("select 'a;"), is("select 'a;"));
+    }
+
+    @Test
+    public void normalize_keepsDistinctQueriesApart() {
+        assertThat(ResponseCache.normalize("select 1 -- x\nfrom t"), is(not(ResponseCache.normalize("select 1 -- x from t"))));
+        assertThat(ResponseCache.normalize("select $$a  b$$"), is(not(ResponseCache.normalize("select $$a b$$"))));
+        assertThat(ResponseCache.normalize("select $tag$a  b$tag$"), is(not(ResponseCache.normalize("select $tag$a b$tag$"))));
+        assertThat(ResponseCache.normalize("select E'it\\'s  x'"), is(not(ResponseCache.normalize("select E'it\\'s x'"))));
+        assertThat(ResponseCache.normalize("select 1 /* a  b */"), is(not(ResponseCache.normalize("select 1 /* a b */"))));
+    }
+
+    @Test
+    public void key() {
+        String k1 = ResponseCache.key("db", "select  1", Collections.<Short>emptyList());
+        String k2 = ResponseCache.key("db", "select 1;", Collections.<Short>emptyList());
+        String k3 = ResponseCache.key("db", "select 1", Arrays.asList((short) 1));
+        String k4 = ResponseCache.key("other", "select 1", Collections.<Short>emptyList());
+        assertThat(k1, is(k2));
+        assertThat(k1, is(not(k3)));
+        assertThat(k1, is(not(k4)));
+    }
+
+    @Test
+    public void putGet_evictsLeastRecentlyUsed() {
+        ResponseCache cache = new ResponseCache(10);
+        cache.put("a", new byte[4]);
+        cache.put("b", new byte[4]);
+        cache.get("a");
+        cache.put("c", new byte[4]);
+        assertThat(cache.get("a").getData().length, is(4));
+        assertThat(cache.get("b"), is(nullValue()));
+        assertThat(cache.get("c").isSpilled(), is(false));
+        assertThat(cache.getMemoryUsage(), is(8L));
+
+        cache.put("d", new byte[11]);
+        assertThat(cache.get("d"), is(nullValue()));
+    }
+
+    @Test
+    public void put_spillsBigResponses() throws IOException {
+        Path dir = Files.createTempDirectory("jpgsql");
+        try {
+            ResponseCache cache = new ResponseCache(10, 4, dir, 100);
+            cache.put("small", new byte[]{1, 2});
+            cache.put("big", new byte[]{1, 2, 3, 4, 5, 6});
+            assertThat(cache.get("small").isSpilled(), is(false));
+            ResponseCache.Entry big = cache.get("big");
+            assertThat(big.isSpilled(), is(true));
+            assertThat(big.size(), is(6L));
+            assertThat(Files.readAllBytes(big.getFile()), is(new byte[]{1, 2, 3, 4, 5, 6}));
+            assertThat(cache.getSpilledUsage(), is(6L));
+            assertThat(cache.getMaxEntrySize(), is(100));
+
+            cache.clear();
+            assertThat(Files.exists(big.getFile()), is(false));
+            assertThat(cache.getSpilledUsage(), is(0L));
+        } finally {
+            Files.delete(dir);
+        }
+    }
+}
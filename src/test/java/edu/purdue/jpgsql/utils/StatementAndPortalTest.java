@@ -0,0 +1,82 @@
+package edu.purdue.jpgsql.utils;
+
+import edu.purdue.jpgsql.CancellationToken;
+import edu.purdue.jpgsql.DataProvider;
+import edu.purdue.jpgsql.testUtil.StrictMock;
+import java.util.Arrays;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import org.junit.Test;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public class StatementAndPortalTest {
+
+    @Test
+    public void trimToSize_onlyOversizedTables() {
+        StatementAndPortal stm = new StatementAndPortal();
+        stm.putStatement("s1", "select 1");
+        for (int n = 0; n < 4; n++) {
+            stm.putPortal("s1", "p" + n, "select 1");
+        }
+        // never grown past the default tables
+        assertThat(stm.trimToSize(), is(0));
+
+        for (int n = 4; n < 100; n++) {
+            stm.putPortal("s1", "p" + n, "select 1");
+        }
+        for (int n = 1; n < 100; n++) {
+            stm.removePortal("p" + n);
+        }
+        // the portals and the set of the portals of s1
+        assertThat(stm.trimToSize(), is(2));
+        assertThat(stm.trimToSize(), is(0));
+        assertThat(stm.getPortal("p0").sql, is("select 1"));
+
+        stm.removePortal("p0");
+        assertThat(stm.trimToSize(), is(1)); // the empty set is dropped
+        assertThat(stm.trimToSize(), is(0));
+    }
+
+    @Test
+    public void releaseCompletedResults_keepsTheTag() {
+        StrictMock strictMock = new StrictMock();
+        DataProvider provider = mock(DataProvider.class, strictMock);
+        DataProvider.QueryResult done = mock(DataProvider.QueryResult.class, strictMock);
+        DataProvider.QueryResult cursor = mock(DataProvider.QueryResult.class, strictMock);
+        CancellationToken token = new CancellationToken();
+        when(provider.getResult("select a")).thenReturn(done);
+        when(provider.getResult("select b")).thenReturn(cursor);
+        when(done.getType()).thenReturn(DataProvider.QueryResult.Type.SELECT);
+        when(done.getRowCount()).thenReturn(2);
+        when(done.getHeader()).thenReturn(Arrays.asList("a"));
+        doNothing().when(done).close();
+        strictMock.turnOn();
+
+        StatementAndPortal stm = new StatementAndPortal();
+        stm.putStatement("", "select ?");
+        stm.putPortal("", "a", "select a");
+        stm.putPortal("", "b", "select b");
+        Portal a = stm.getPortal("a");
+        Portal b = stm.getPortal("b");
+        a.getAndStoreResult(provider, token);
+        a.markCompleted();
+        b.getAndStoreResult(provider, token);
+
+        assertThat(stm.releaseCompletedResults(), is(1));
+        verify(done).close();
+        assertThat(stm.releaseCompletedResults(), is(0));
+
+        DataProvider.QueryResult released = a.getAndStoreResult(provider, token);
+        assertThat(released.getType(), is(DataProvider.QueryResult.Type.SELECT));
+        assertThat(released.getRowCount(), is(2));
+        assertThat(released.getHeader(), is(Arrays.asList("a")));
+        assertThat(released.getRows().hasNext(), is(false));
+        assertThat(b.getAndStoreResult(provider, token), is(sameInstance(cursor)));
+        verify(provider, times(1)).getResult("select a");
+    }
+}
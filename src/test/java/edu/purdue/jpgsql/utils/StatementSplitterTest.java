@@ -0,0 +1,57 @@
+package edu.purdue.jpgsql.utils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import org.junit.Test;
+
+/**
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public class StatementSplitterTest {
+
+    @Test
+    public void split_simple() {
+        assertThat(StatementSplitter.split("select 1"), is(list("select 1")));
+        assertThat(StatementSplitter.split("select 1; select 2;"), is(list("select 1", "select 2")));
+        assertThat(StatementSplitter.split(" select 1 ;\n\tselect 2 "), is(list("select 1", "select 2")));
+    }
+
+    @Test
+    public void split_empty() {
+        assertThat(StatementSplitter.split(""), is(Collections.<String>emptyList()));
+        assertThat(StatementSplitter.split(" ; ;"), is(Collections.<String>emptyList()));
+        assertThat(StatementSplitter.split("-- only a comment"), is(Collections.<String>emptyList()));
+        assertThat(StatementSplitter.split("select 1;; /* nothing */ ;"), is(list("select 1")));
+    }
+
+    @Test
+    public void split_quotes() {
+        assertThat(StatementSplitter.split("select 'a;b'; select \"c;d\""), is(list("select 'a;b'", "select \"c;d\"")));
+        assertThat(StatementSplitter.split("select 'it''s;'; select 2"), is(list("select 'it''s;'", "select 2")));
+        assertThat(StatementSplitter.split("select E'\\';'; select 2"), is(list("select E'\\';'", "select 2")));
+        assertThat(StatementSplitter.split("select '\\'; select 2"), is(list("select '\\'", "select 2")));
+    }
+
+    @Test
+    public void split_comments() {
+        assertThat(StatementSplitter.split("select 1 -- a; comment\n; select 2"), is(list("select 1 -- a; comment", "select 2")));
+        assertThat(StatementSplitter.split("-- first\n/* second */ select 1; select 2"), is(list("select 1", "select 2")));
+        assertThat(StatementSplitter.split("select /* a; /* nested; */ b; */ 1; select 2"), is(list("select /* a; /* nested; */ b; */ 1", "select 2")));
+    }
+
+    @Test
+    public void split_dollarQuotes() {
+        assertThat(StatementSplitter.split("select $$a;b$$; select 2"), is(list("select $$a;b$$", "select 2")));
+        assertThat(StatementSplitter.split("create function f() as $body$ begin; end; $body$; select 2"),
+                is(list("create function f() as $body$ begin; end; $body$", "select 2")));
+        assertThat(StatementSplitter.split("select $1; select a$b; select 3"), is(list("select $1", "select a$b", "select 3")));
+    }
+
+    private List<String> list(String... vals) {
+        return Arrays.asList(vals);
+    }
+}
@@ -0,0 +1,54 @@
+package edu.purdue.jpgsql.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import org.junit.Test;
+
+/**
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public class StatementTimeoutTest {
+
+    @Test
+    public void parseValue() {
+        assertThat(StatementTimeout.parseValue("1500"), is(1500L));
+        assertThat(StatementTimeout.parseValue("1.5s"), is(1500L));
+        assertThat(StatementTimeout.parseValue("2 min"), is(120000L));
+        assertThat(StatementTimeout.parseValue("1h"), is(3600000L));
+        assertThat(StatementTimeout.parseValue("1500us"), is(2L));
+        assertThat(StatementTimeout.parseValue("0"), is(0L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parseValue_invalid() {
+        StatementTimeout.parseValue("5 years");
+    }
+
+    @Test
+    public void parseCommand() {
+        StatementTimeout set = StatementTimeout.parseCommand("SET statement_timeout = 100");
+        assertThat(set.isReset(), is(false));
+        assertThat(set.isLocal(), is(false));
+        assertThat(set.getMillis(), is(100L));
+        assertThat(StatementTimeout.parseCommand("set session STATEMENT_TIMEOUT to '5s';").getMillis(), is(5000L));
+        assertThat(StatementTimeout.parseCommand("SET LOCAL statement_timeout TO 10").isLocal(), is(true));
+        assertThat(StatementTimeout.parseCommand("SET statement_timeout TO DEFAULT").isReset(), is(true));
+        assertThat(StatementTimeout.parseCommand(" reset statement_timeout").isReset(), is(true));
+        assertThat(StatementTimeout.parseCommand("SET search_path = public"), is(nullValue()));
+        assertThat(StatementTimeout.isCommand("RESET ALL"), is(false));
+    }
+
+    @Test
+    public void fromStartupParameters() {
+        Map<String, String> params = new HashMap<>();
+        assertThat(StatementTimeout.fromStartupParameters(params), is(0L));
+        params.put("statement_timeout", "30s");
+        assertThat(StatementTimeout.fromStartupParameters(params), is(30000L));
+        params.put("options", "-c search_path=x -c statement_timeout=250 --statement_timeout=1min");
+        assertThat(StatementTimeout.fromStartupParameters(params), is(60000L));
+    }
+}
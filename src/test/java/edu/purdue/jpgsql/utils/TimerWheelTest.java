@@ -0,0 +1,45 @@
+package edu.purdue.jpgsql.utils;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+import org.junit.Test;
+
+/**
+ *
+ * @author Lorenzo Bossi [lbossi@purdue.edu]
+ */
+public class TimerWheelTest {
+
+    @Test
+    public void expire() throws InterruptedException {
+        TimerWheel wheel = new TimerWheel(5, TimeUnit.MILLISECONDS, 4);
+        CountDownLatch latch = new CountDownLatch(1);
+        long start = System.nanoTime();
+        // longer than a whole revolution of the wheel
+        TimerWheel.Timeout timeout = wheel.schedule(latch::countDown, 50, TimeUnit.MILLISECONDS);
+        assertThat(latch.await(5, TimeUnit.SECONDS), is(true));
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), greaterThanOrEqualTo(50L));
+        assertThat(timeout.isExpired(), is(true));
+        assertThat(timeout.cancel(), is(false));
+    }
+
+    @Test
+    public void cancel() throws InterruptedException {
+        TimerWheel wheel = new TimerWheel(5, TimeUnit.MILLISECONDS, 8);
+        AtomicInteger fired = new AtomicInteger();
+        CountDownLatch last = new CountDownLatch(1);
+        for (int n = 0; n < 1000; n++) {
+            TimerWheel.Timeout t = wheel.schedule(fired::incrementAndGet, n % 30, TimeUnit.MILLISECONDS);
+            if (n % 2 == 0) {
+                assertThat(t.cancel(), is(true));
+            }
+        }
+        wheel.schedule(last::countDown, 60, TimeUnit.MILLISECONDS);
+        assertThat(last.await(5, TimeUnit.SECONDS), is(true));
+        assertThat(fired.get(), is(500));
+    }
+}